@@ -38,6 +38,7 @@
 //        .\gradlew forbiddenApis
 //        .\gradlew buildHealth
 //        .\gradlew reason --id com.fasterxml.jackson.core:jackson-annotations:2.13.3
+//        .\gradlew jmh [-DjmhInclude=FindByIdBenchmark]
 //
 //  4) Sicherheitsueberpruefung durch OWASP Dependency Check und Snyk
 //        .\gradlew dependencyCheckAnalyze --info
@@ -150,6 +151,9 @@ plugins {
     // https://github.com/jk1/Gradle-License-Report
     alias(libs.plugins.licenseReport)
 
+    // https://github.com/melix/jmh-gradle-plugin
+    alias(libs.plugins.jmh)
+
     // https://github.com/gradle-dependency-analyze/gradle-dependency-analyze
     // https://github.com/jaredsburrows/gradle-license-plugin
     // https://github.com/hierynomus/license-gradle-plugin
@@ -216,6 +220,8 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-mail")
     implementation("org.springframework.boot:spring-boot-starter-actuator")
     implementation("io.micrometer:micrometer-registry-prometheus")
+    // JdbcFilialenRepository mit dem Profile "jdbc"
+    implementation("org.springframework.boot:spring-boot-starter-jdbc")
 
     //compileOnly(libs.lombok)
     //annotationProcessor(libs.lombok)
@@ -250,6 +256,8 @@ dependencies {
         exclude(group = "org.xmlunit", module = "xmlunit-core")
     }
     testImplementation(libs.junitPlatformSuiteApi)
+    // H2 im Modus fuer PostgreSQL fuer JdbcFilialenRepositoryTest
+    testRuntimeOnly("com.h2database:h2")
     testRuntimeOnly(libs.junitPlatformSuiteEngine)
     //testImplementation("org.springframework.security:spring-security-test")
 
@@ -312,6 +320,10 @@ tasks.compileTestJava {
     options.compilerArgs.add("--enable-preview")
 }
 
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.compilerArgs.add("--enable-preview")
+}
+
 java {
     // https://docs.gradle.org/current/userguide/java_plugin.html#sec:java-extension
     // https://docs.gradle.org/current/dsl/org.gradle.api.plugins.JavaPluginExtension.html
@@ -506,6 +518,18 @@ allure {
     // }
 }
 
+// Microbenchmarks in src/jmh/java
+// https://github.com/melix/jmh-gradle-plugin#configuration-options
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    includes.set(listOf(System.getProperty("jmhInclude") ?: ".*"))
+    jvmArgs.set(listOf("--enable-preview"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+}
+
 jacoco {
     toolVersion = libs.versions.jacoco.get()
 }
@@ -76,3 +76,14 @@ app: {{ include "filiale.name" . }}
 app.kubernetes.io/name: {{ include "filiale.name" . }}
 app.kubernetes.io/instance: {{ .Release.Name }}
 {{- end }}
+
+{{/*
+"true", falls mehrere Instanzen gleichzeitig laufen koennen, d.h. mehr als 1 Replica oder Autoscaling mit mehr als
+1 Replica, sonst ein leerer String
+*/}}
+{{- define "filiale.mehrereInstanzen" -}}
+{{- $autoscaling := and .Values.autoscaling.enabled (gt (int .Values.autoscaling.maxReplicas) 1) }}
+{{- if or (gt (int .Values.replicaCount) 1) $autoscaling }}
+{{- print "true" }}
+{{- end }}
+{{- end }}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Microbenchmark für die Suche anhand der ID: die Latenz muss von 10 bis 1.000.000 Filialen konstant bleiben.
+ * Aufruf: `.\gradlew jmh -DjmhInclude=FindByIdBenchmark`
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings({"DesignForExtension", "PublicField", "MagicNumber"})
+public class FindByIdBenchmark {
+    /**
+     * Anzahl der zusätzlich angelegten Filialen.
+     */
+    @Param({"10", "1000", "100000", "1000000"})
+    public int anzahl;
+
+    private final FilialenRepository repo = new EmbeddedFilialenRepository();
+
+    private final List<UUID> ids = new ArrayList<>();
+
+    /**
+     * Filialen anlegen, deren IDs anschließend gesucht werden.
+     */
+    @Setup
+    public void setup() {
+        for (int i = 0; i < anzahl; i++) {
+            final var filiale = Filiale.builder()
+                .name("Benchmark" + i)
+                .email("benchmark" + i + "@acme.com")
+                .adresse(Adresse.builder().plz("12345").ort("Karlsruhe").build())
+                .build();
+            ids.add(repo.create(filiale).orElseThrow().getId());
+        }
+    }
+
+    /**
+     * Die angelegten Filialen wieder löschen.
+     */
+    @TearDown
+    public void tearDown() {
+        ids.forEach(repo::deleteById);
+        ids.clear();
+    }
+
+    /**
+     * Suche mit einer zufällig gewählten, vorhandenen ID.
+     *
+     * @return Die gefundene Filiale
+     */
+    @Benchmark
+    public Optional<Filiale> findById() {
+        final var id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        return repo.findById(id);
+    }
+}
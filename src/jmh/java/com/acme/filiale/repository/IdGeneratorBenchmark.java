@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Microbenchmark für die Generatoren der IDs neuer Filialen: {@link UuidV7Generator} im Vergleich zu
+ * {@link UUID#randomUUID()} mit dem gemeinsamen `SecureRandom`. Gemessen wird der Durchsatz mit 64 Threads, die
+ * gleichzeitig IDs erzeugen.
+ * Aufruf: `.\gradlew jmh -DjmhInclude=IdGeneratorBenchmark`
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(64)
+@SuppressWarnings({"DesignForExtension", "PublicField", "MagicNumber"})
+public class IdGeneratorBenchmark {
+    /**
+     * Der untersuchte Generator.
+     */
+    @Param({"RANDOM", "UUIDV7"})
+    public RepositoryProps.IdGenerator idGenerator;
+
+    private Supplier<UUID> generator;
+
+    /**
+     * Den von allen Threads gemeinsam genutzten Generator erzeugen.
+     */
+    @Setup
+    public void setup() {
+        generator = idGenerator.generator();
+    }
+
+    /**
+     * Eine neue ID erzeugen.
+     *
+     * @return Die neue ID
+     */
+    @Benchmark
+    public UUID next() {
+        return generator.get();
+    }
+}
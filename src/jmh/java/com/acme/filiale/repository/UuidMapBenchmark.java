@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Microbenchmark für den Index der IDs: {@link UuidIntMap} im Vergleich zu {@link HashMap} und
+ * {@link ConcurrentHashMap} mit UUID als Schlüssel und einer Zeilennummer als Wert. Gemessen wird die Latenz der Suche
+ * mit einer vorhandenen ID. Der Speicher pro Eintrag wird bei mindestens 100.000 Einträgen beim Setup als Differenz
+ * des belegten Heap nach einer Garbage Collection ausgegeben; die Maps mit Objekten erhalten dafür eigene UUID- und
+ * Integer-Objekte.
+ * Aufruf: `.\gradlew jmh -DjmhInclude=UuidMapBenchmark`
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings({"DesignForExtension", "PublicField", "MagicNumber", "CallToSystemGC", "UseOfSystemOutOrSystemErr"})
+public class UuidMapBenchmark {
+    private static final int MIN_ANZAHL_SPEICHER = 100_000;
+
+    /**
+     * Die untersuchte Implementierung.
+     */
+    @Param({"UuidIntMap", "HashMap", "ConcurrentHashMap"})
+    public String map;
+
+    /**
+     * Anzahl der Einträge.
+     */
+    @Param({"1000", "1000000"})
+    public int anzahl;
+
+    private UUID[] ids;
+
+    private UuidIntMap uuidIntMap;
+
+    private Map<UUID, Integer> objektMap;
+
+    /**
+     * Die Map mit zufälligen IDs füllen und den Speicher pro Eintrag ausgeben.
+     */
+    @Setup
+    public void setup() {
+        ids = new UUID[anzahl];
+        for (int i = 0; i < anzahl; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+
+        final var vorher = heapNachGc();
+        switch (map) {
+            case "UuidIntMap" -> {
+                uuidIntMap = new UuidIntMap(0);
+                for (int i = 0; i < anzahl; i++) {
+                    uuidIntMap.put(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits(), i);
+                }
+            }
+            case "HashMap" -> objektMap = fill(new HashMap<>());
+            case "ConcurrentHashMap" -> objektMap = fill(new ConcurrentHashMap<>());
+            default -> throw new IllegalArgumentException(map);
+        }
+        final var nachher = heapNachGc();
+        // bei wenigen Eintraegen ist die Differenz kleiner als die Messungenauigkeit
+        if (anzahl >= MIN_ANZAHL_SPEICHER) {
+            System.out.printf("%n%s: %.1f Bytes pro Eintrag%n", map, (double) (nachher - vorher) / anzahl);
+        }
+    }
+
+    /**
+     * Suche mit einer zufällig gewählten, vorhandenen ID.
+     *
+     * @return Die gefundene Zeilennummer
+     */
+    @Benchmark
+    public int get() {
+        final var id = ids[ThreadLocalRandom.current().nextInt(anzahl)];
+        if (uuidIntMap != null) {
+            return uuidIntMap.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+        return objektMap.get(id);
+    }
+
+    private Map<UUID, Integer> fill(final Map<UUID, Integer> ziel) {
+        for (int i = 0; i < anzahl; i++) {
+            // eigene Objekte fuer Schluessel und Wert, wie bei einem Index ueber gespeicherte Datensaetze
+            final var id = new UUID(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits());
+            ziel.put(id, i);
+        }
+        return ziel;
+    }
+
+    private static long heapNachGc() {
+        final var memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.hateoas.RepresentationModel;
+import static com.acme.filiale.rest.UriHelper.getBaseUri;
+
+/**
+ * Microbenchmark für die HATEOAS-Links bei GET mit der ID: Mit den {@link LinkTemplates} müssen die allokierten Bytes
+ * pro Aufruf in allen Forwarding-Kontexten konstant und klein sein. Vergleich mit der Basis-URI aus dem
+ * {@link UriHelper} und den Relationen, die bei jedem Aufruf erzeugt werden.
+ * Aufruf: `.\gradlew jmh -DjmhInclude=LinkBenchmark` und die Allokationen mit `-prof gc` (`gc.alloc.rate.norm`)
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings({"DesignForExtension", "PublicField", "MagicNumber"})
+public class LinkBenchmark {
+    /**
+     * Forwarding-Kontext des Requests.
+     */
+    @Param({"direkt", "forwarded", "envoy"})
+    public String kontext;
+
+    private final UUID id = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private final LinkTemplates linkTemplates = new LinkTemplates();
+
+    // das Model wird wiederverwendet, damit nur die Allokationen fuer die Links gemessen werden
+    private final RepresentationModel<?> model = new RepresentationModel<>();
+
+    private HttpServletRequest request;
+
+    /**
+     * Den Request für den Forwarding-Kontext erstellen.
+     */
+    @Setup
+    public void setup() {
+        final var path = "/" + id;
+        request = switch (kontext) {
+            case "direkt" -> new Request(path, Map.of());
+            case "forwarded" -> new Request(path, Map.of(
+                "x-forwarded-proto", "https",
+                "x-forwarded-host", "kubernetes.docker.internal",
+                "x-forwarded-prefix", "/filialen"
+            ));
+            case "envoy" -> new Request(path, Map.of(
+                "Host", "localhost",
+                "x-forwarded-proto", "http",
+                "x-envoy-original-path", "/filialen/api" + path
+            ));
+            default -> throw new IllegalArgumentException(kontext);
+        };
+    }
+
+    /**
+     * Links wie bisher mit der Basis-URI aus dem Request und neuen Relationen bei jedem Aufruf.
+     *
+     * @return Das Model mit den Links
+     */
+    @Benchmark
+    public RepresentationModel<?> uriHelper() {
+        model.removeLinks();
+        final var baseUri = getBaseUri(request, id);
+        final var idUri = baseUri + "/" + id;
+        final var selfLink = Link.of(idUri);
+        final var listLink = Link.of(baseUri, LinkRelation.of("list"));
+        final var addLink = Link.of(baseUri, LinkRelation.of("add"));
+        final var updateLink = Link.of(idUri, LinkRelation.of("update"));
+        final var removeLink = Link.of(idUri, LinkRelation.of("remove"));
+        return model.add(selfLink, listLink, addLink, updateLink, removeLink);
+    }
+
+    /**
+     * Links mit der Vorlage zum Forwarding-Kontext.
+     *
+     * @return Das Model mit den Links
+     */
+    @Benchmark
+    public RepresentationModel<?> linkTemplates() {
+        model.removeLinks();
+        linkTemplates.vorlage(request).addLinks(model, id);
+        return model;
+    }
+
+    /**
+     * Minimaler Request für GET mit der ID auf http://localhost:8080, die übrigen Methoden werden nicht aufgerufen.
+     */
+    private static final class Request extends HttpServletRequestWrapper {
+        private final String requestUri;
+
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        Request(final String requestUri, final Map<String, String> headers) {
+            super((HttpServletRequest) Proxy.newProxyInstance(
+                LinkBenchmark.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            ));
+            this.requestUri = requestUri;
+            this.headers.putAll(headers);
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public String getScheme() {
+            return "http";
+        }
+
+        @Override
+        public String getServerName() {
+            return "localhost";
+        }
+
+        @Override
+        public int getServerPort() {
+            return 8080;
+        }
+
+        @Override
+        public String getContextPath() {
+            return "";
+        }
+
+        @Override
+        public String getRequestURI() {
+            return requestUri;
+        }
+
+        @Override
+        public StringBuffer getRequestURL() {
+            // wie beim Servlet-Container bei jedem Aufruf ein neuer StringBuffer
+            return new StringBuffer(getScheme()).append("://").append(getServerName()).append(':')
+                .append(getServerPort()).append(requestUri);
+        }
+    }
+}
@@ -18,8 +18,11 @@ package com.acme.filiale;
 
 import com.acme.filiale.config.AppConfig;
 import com.acme.filiale.config.dev.DevConfig;
+import com.acme.filiale.repository.RepositoryProps;
+import com.acme.filiale.rest.RestProps;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Import;
 
 import static com.acme.filiale.config.Banner.TEXT;
@@ -31,6 +34,7 @@ import static com.acme.filiale.config.Banner.TEXT;
  */
 @SpringBootApplication(proxyBeanMethods = false)
 @Import({AppConfig.class, DevConfig.class})
+@EnableConfigurationProperties({RepositoryProps.class, RestProps.class})
 //@EnableHypermediaSupport(type = HAL, stacks = WEBMVC)
 //@EnableWebSecurity
 //@EnableMethodSecurity
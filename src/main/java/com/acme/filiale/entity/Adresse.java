@@ -26,7 +26,7 @@ import lombok.ToString;
  *
  *  @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
  */
-@Builder
+@Builder(toBuilder = true)
 @Getter
 @Setter
 @ToString
@@ -36,7 +36,7 @@ import java.util.UUID;
  * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
  */
 // https://thorben-janssen.com/java-records-hibernate-jpa
-@Builder
+@Builder(toBuilder = true)
 @EqualsAndHashCode(onlyExplicitlyIncluded = true, callSuper = false)
 @Getter
 @Setter
@@ -52,6 +52,15 @@ public class Filiale {
     @EqualsAndHashCode.Include
     private UUID id;
 
+    /**
+     * Die Version der Filiale, die bei jeder Änderung erhöht wird: der Zeitpunkt der Änderung in Millisekunden seit
+     * 1970 bzw. bei mehreren Änderungen in derselben Millisekunde entsprechend mehr. 0 bei den initialen Filialen.
+     *
+     * @param version Die Version.
+     * @return Die Version.
+     */
+    private long version;
+
     /**
      * Der Name der Filiale.
      *
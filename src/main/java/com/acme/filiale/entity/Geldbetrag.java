@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.entity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * Kompakte Darstellung eines Geldbetrags als Festkommazahl: der Betrag wird als long in der kleinsten Einheit der
+ * Währung gespeichert, z.B. in Cent, und die Währung als kompakter Code, siehe {@link Waehrungen}. Vergleiche und
+ * Summen kommen dadurch ohne {@link BigDecimal} und ohne Allokation aus. In JSON hat ein Geldbetrag dieselbe Form wie
+ * ein {@link Umsatz}.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param minorUnits Der Betrag in der kleinsten Einheit der Währung
+ * @param waehrungCode Der kompakte Code der Währung
+ */
+public record Geldbetrag(long minorUnits, short waehrungCode) implements Comparable<Geldbetrag> {
+    /**
+     * Konstruktor mit Validierung.
+     *
+     * @param minorUnits Der Betrag in der kleinsten Einheit der Währung
+     * @param waehrungCode Der kompakte Code der Währung
+     */
+    public Geldbetrag {
+        if (waehrungCode == Waehrungen.KEINE) {
+            throw new IllegalArgumentException("Ein Geldbetrag erfordert eine Waehrung");
+        }
+    }
+
+    /**
+     * Einen Geldbetrag aus einem Betrag und einer Währung erzeugen.
+     *
+     * @param betrag Der Betrag
+     * @param waehrung Die Währung
+     * @return Der Geldbetrag
+     * @throws ArithmeticException Falls der Betrag mehr Nachkommastellen als die Währung hat oder zu groß ist
+     */
+    @JsonCreator
+    public static Geldbetrag of(
+        @JsonProperty("betrag") final BigDecimal betrag,
+        @JsonProperty("waehrung") final Currency waehrung
+    ) {
+        final var minorUnits = betrag.movePointRight(nachkommastellen(waehrung)).longValueExact();
+        return new Geldbetrag(minorUnits, Waehrungen.code(waehrung));
+    }
+
+    /**
+     * Einen Geldbetrag aus einem Umsatz erzeugen.
+     *
+     * @param umsatz Der Umsatz mit Betrag und Währung
+     * @return Der Geldbetrag
+     * @throws ArithmeticException Falls der Betrag mehr Nachkommastellen als die Währung hat oder zu groß ist
+     */
+    public static Geldbetrag of(final Umsatz umsatz) {
+        return of(umsatz.getBetrag(), umsatz.getWaehrung());
+    }
+
+    /**
+     * Der Betrag mit den Nachkommastellen der Währung.
+     *
+     * @return Der Betrag
+     */
+    @JsonProperty("betrag")
+    public BigDecimal betrag() {
+        return BigDecimal.valueOf(minorUnits, nachkommastellen(waehrung()));
+    }
+
+    /**
+     * Die Währung als Flyweight.
+     *
+     * @return Die Währung
+     */
+    @JsonProperty("waehrung")
+    public Currency waehrung() {
+        return Waehrungen.of(waehrungCode);
+    }
+
+    @Override
+    @JsonIgnore
+    public long minorUnits() {
+        return minorUnits;
+    }
+
+    @Override
+    @JsonIgnore
+    public short waehrungCode() {
+        return waehrungCode;
+    }
+
+    /**
+     * Konvertierung in einen Umsatz.
+     *
+     * @return Der Umsatz mit Betrag und Währung
+     */
+    public Umsatz toUmsatz() {
+        return Umsatz.builder().betrag(betrag()).waehrung(waehrung()).build();
+    }
+
+    /**
+     * Summe zweier Geldbeträge in derselben Währung.
+     *
+     * @param other Der zweite Geldbetrag
+     * @return Die Summe
+     * @throws IllegalArgumentException Falls die Währungen verschieden sind
+     * @throws ArithmeticException Bei einem Überlauf
+     */
+    public Geldbetrag plus(final Geldbetrag other) {
+        pruefeWaehrung(other);
+        return new Geldbetrag(Math.addExact(minorUnits, other.minorUnits), waehrungCode);
+    }
+
+    /**
+     * Vergleich zweier Geldbeträge: zuerst nach der Währung, bei derselben Währung nach dem Betrag.
+     *
+     * @param other Der zweite Geldbetrag
+     * @return Ergebnis des Vergleichs
+     */
+    @Override
+    public int compareTo(final Geldbetrag other) {
+        final var vergleich = Short.compare(waehrungCode, other.waehrungCode);
+        return vergleich == 0 ? Long.compare(minorUnits, other.minorUnits) : vergleich;
+    }
+
+    private void pruefeWaehrung(final Geldbetrag other) {
+        if (waehrungCode != other.waehrungCode) {
+            throw new IllegalArgumentException(
+                "Verschiedene Waehrungen: " + waehrung() + " und " + other.waehrung()
+            );
+        }
+    }
+
+    private static int nachkommastellen(final Currency waehrung) {
+        // z.B. XAU (Gold) hat keine Nachkommastellen im eigentlichen Sinn
+        return Math.max(waehrung.getDefaultFractionDigits(), 0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.entity;
+
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flyweights für die Währungen nach ISO 4217: jede Währung hat einen kompakten Code als short, der z.B. in einem
+ * {@link Geldbetrag} gespeichert wird. Die Zuordnung erfolgt über ein Array bzw. eine unveränderliche Map, d.h. ohne
+ * {@code Currency.getInstance()} bei jedem Zugriff.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@SuppressWarnings("UtilityClassCanBeEnum")
+public final class Waehrungen {
+    /**
+     * Code für "keine Währung".
+     */
+    public static final short KEINE = -1;
+
+    // nach dem ISO-Code sortiert, damit die Codes unabhaengig von der Reihenfolge der JDK-Implementierung sind
+    private static final Currency[] WAEHRUNGEN = Currency.getAvailableCurrencies()
+        .stream()
+        .sorted(Comparator.comparing(Currency::getCurrencyCode))
+        .toArray(Currency[]::new);
+
+    private static final Map<String, Short> CODES;
+
+    static {
+        final var codes = new HashMap<String, Short>(WAEHRUNGEN.length * 2);
+        for (short i = 0; i < WAEHRUNGEN.length; i++) {
+            codes.put(WAEHRUNGEN[i].getCurrencyCode(), i);
+        }
+        CODES = Map.copyOf(codes);
+    }
+
+    private Waehrungen() {
+    }
+
+    /**
+     * Den kompakten Code zu einer Währung ermitteln.
+     *
+     * @param waehrung Die Währung oder null
+     * @return Der Code oder {@link #KEINE}
+     */
+    public static short code(final Currency waehrung) {
+        if (waehrung == null) {
+            return KEINE;
+        }
+        final var code = CODES.get(waehrung.getCurrencyCode());
+        if (code == null) {
+            throw new IllegalArgumentException("Unbekannte Waehrung: " + waehrung);
+        }
+        return code;
+    }
+
+    /**
+     * Die Währung zu einem kompakten Code ermitteln.
+     *
+     * @param code Der Code oder {@link #KEINE}
+     * @return Die Währung oder null
+     */
+    public static Currency of(final short code) {
+        return code == KEINE ? null : WAEHRUNGEN[code];
+    }
+
+    /**
+     * Die Währung zu einem ISO-Code ermitteln.
+     *
+     * @param isoCode Der ISO-Code, z.B. "EUR"
+     * @return Die Währung
+     * @throws IllegalArgumentException Falls es keine Währung mit dem ISO-Code gibt
+     */
+    public static Currency of(final String isoCode) {
+        final var code = CODES.get(isoCode);
+        if (code == null) {
+            throw new IllegalArgumentException("Unbekannte Waehrung: " + isoCode);
+        }
+        return WAEHRUNGEN[code];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.graphql;
+
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.repository.Page;
+import java.util.List;
+
+/**
+ * Value-Klasse für eine Seite mit Filialen als Connection gemäß der Relay-Spezifikation, siehe
+ * https://relay.dev/graphql/connections.htm. Der Cursor ist die ID der jeweiligen Filiale.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param edges Die Filialen der Seite mit ihrem Cursor
+ * @param pageInfo Informationen für das Lesen der nächsten Seite
+ */
+record FilialeConnection(List<Edge> edges, PageInfo pageInfo) {
+    /**
+     * Konvertierung einer Seite aus dem Anwendungskern.
+     *
+     * @param page Die Seite mit den Filialen
+     * @return Die Connection zur Seite
+     */
+    static FilialeConnection of(final Page page) {
+        final var edges = page.filialen().stream()
+            .map(filiale -> new Edge(filiale.getId().toString(), filiale))
+            .toList();
+        final var endCursor = edges.isEmpty() ? null : edges.get(edges.size() - 1).cursor();
+        return new FilialeConnection(edges, new PageInfo(page.next() != null, endCursor));
+    }
+
+    /**
+     * Eine Filiale mit ihrem Cursor.
+     *
+     * @param cursor Der Cursor für das Argument `after`
+     * @param node Die Filiale
+     */
+    record Edge(String cursor, Filiale node) {
+    }
+
+    /**
+     * Informationen für das Lesen der nächsten Seite.
+     *
+     * @param hasNextPage true, falls es weitere Filialen gibt
+     * @param endCursor Der Cursor der letzten Filiale der Seite oder null bei einer leeren Seite
+     */
+    record PageInfo(boolean hasNextPage, String endCursor) {
+    }
+}
@@ -24,7 +24,7 @@ import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
 import org.springframework.stereotype.Controller;
 
-import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -36,6 +36,10 @@ import java.util.UUID;
 @RequiredArgsConstructor
 @Slf4j
 final class FilialeQueryController {
+    private static final int FIRST_DEFAULT = 100;
+
+    private static final int FIRST_MAX = 1000;
+
     private final FilialeReadService service;
 
     /**
@@ -53,16 +57,25 @@ final class FilialeQueryController {
     }
 
     /**
-     * Suche mit diversen Suchkriterien.
+     * Suche mit diversen Suchkriterien und Keyset Pagination: Die Filialen werden aufsteigend nach der ID als
+     * Connection gemäß der Relay-Spezifikation geliefert.
      *
-     * @param input Suchkriterien und ihre Werte, z.B. `nachname` und `Alpha`
-     * @return Die gefundenen Kunden als Collection
+     * @param input Suchkriterien und ihre Werte, z.B. `name` und `Alpha`
+     * @param first Maximale Anzahl der Filialen, höchstens 1000
+     * @param after Der Cursor der letzten Filiale der vorherigen Seite oder null
+     * @return Die gefundenen Filialen als Connection
      */
     @QueryMapping
-    Collection<Filiale> filialen(@Argument final Suchkriterien input) {
-        log.debug("filiale: suchkriterien={}", input);
-        final var filialen = service.find(input.toMap());
-        log.debug("filialen: {}", filialen);
-        return filialen;
+    FilialeConnection filialen(
+        @Argument final Suchkriterien input,
+        @Argument final Integer first,
+        @Argument final UUID after
+    ) {
+        final var limit = first == null ? FIRST_DEFAULT : Math.max(1, Math.min(first, FIRST_MAX));
+        log.debug("filialen: suchkriterien={}, first={}, after={}", input, limit, after);
+        final var suchkriterien = input == null ? Map.<String, String>of() : input.toMap();
+        final var connection = FilialeConnection.of(service.find(suchkriterien, after, limit));
+        log.debug("filialen: {}", connection.pageInfo());
+        return connection;
     }
 }
@@ -40,7 +40,7 @@ record Suchkriterien(
         @SuppressWarnings("TypeMayBeWeakened")
         final var map = new HashMap<String, String>(2, 1);
         if (name != null) {
-            map.put("nachname", name);
+            map.put("name", name);
         }
         if (email != null) {
             map.put("email", email);
@@ -0,0 +1,548 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Binärer Snapshot aller Filialen mit den vorberechneten Posting-Listen des {@link TrigramIndex} für einen schnellen
+ * Start. Die Datei wird beim Start mit `FileChannel.map()` in den Speicher eingeblendet und die Blöcke mit jeweils
+ * {@link #ZEILEN_PRO_BLOCK} Filialen werden parallel dekodiert, so dass die Startzeit im Wesentlichen durch das Lesen
+ * von der Platte bestimmt ist. Geschrieben wird periodisch und beim Herunterfahren.
+ *
+ * <p>Aufbau der Datei: Header mit Magic Number und Version, die Blöcke mit den Filialen im {@link FilialeCodec},
+ * die Posting-Listen mit den Zeilennummern der Filialen bzw. -1 ohne Posting-Listen, der Footer mit der Anzahl der
+ * Filialen, den Offsets der Blöcke und der Position im {@link WriteAheadLog}, die Länge des Footers, eine
+ * CRC32C-Prüfsumme über alle vorherigen Bytes und nochmals die Magic Number. Eine neue Datei wird zuerst unter einem
+ * temporären Namen geschrieben und dann atomar umbenannt. Erst danach werden die enthaltenen Datensätze aus dem
+ * Write-Ahead-Log entfernt.</p>
+ *
+ * <p>Für den {@link LsmStore} werden die Filialen beim Schreiben und Laden blockweise durchlaufen, so dass nur die
+ * Blöcke einer Runde im Heap sind. Die Posting-Listen entfallen dann, weil sie alle Zeilennummern im Heap
+ * erfordern.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Slf4j
+final class BinarySnapshot implements AutoCloseable {
+    /**
+     * Anzahl der Filialen in einem Block, der jeweils als Ganzes dekodiert wird.
+     */
+    static final int ZEILEN_PRO_BLOCK = 4096;
+
+    // "FILSNAP1"
+    private static final long MAGIC = 0x46494C534E415031L;
+    private static final int VERSION = 1;
+    private static final int HEADER = Long.BYTES + Integer.BYTES;
+    private static final int TRAILER = 2 * Integer.BYTES + Long.BYTES;
+    // Anzahl der Bloecke, die beim Schreiben bzw. blockweisen Laden gemeinsam parallel kodiert werden
+    private static final int BLOECKE_PRO_RUNDE = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int OHNE_TRIGRAMME = -1;
+    private static final int PUFFER = 1 << 16;
+    private static final int BYTES_PRO_ZEILE = 64;
+
+    private final Path path;
+
+    private final Duration interval;
+
+    private final Timer schreiben;
+
+    private ScheduledExecutorService scheduler;
+
+    private Supplier<Stand> quelle;
+
+    private LongConsumer geschrieben;
+
+    BinarySnapshot(final RepositoryProps.SnapshotFile config, final MeterRegistry registry) {
+        path = Path.of(config.path()).toAbsolutePath();
+        interval = config.interval();
+        schreiben = Timer.builder("filiale.repository.snapshot.write")
+            .description("Dauer zum Schreiben des binaeren Snapshot")
+            .register(registry);
+    }
+
+    /**
+     * Inhalt eines Snapshot.
+     *
+     * @param filialen Die Filialen in der Reihenfolge der Datei
+     * @param trigramme Die IDs der Filialen zu den Trigrammen der Namen oder null, falls der Snapshot keine
+     *      Posting-Listen enthält
+     * @param walPosition Die Position im Write-Ahead-Log, ab der die Änderungen nicht im Snapshot enthalten sind
+     */
+    record Inhalt(List<Filiale> filialen, Map<Long, UUID[]> trigramme, long walPosition) {
+    }
+
+    /**
+     * Stand der Filialen für einen neuen Snapshot.
+     *
+     * @param filialen Die Filialen, die beim Schreiben einmal durchlaufen werden
+     * @param walPosition Die Position im Write-Ahead-Log, bis zu der alle Änderungen in den Filialen enthalten sind,
+     *      bzw. 0 ohne Write-Ahead-Log
+     * @param trigramme true, um die Posting-Listen für den {@link TrigramIndex} vorzuberechnen
+     */
+    record Stand(Stream<Filiale> filialen, long walPosition, boolean trigramme) {
+        /**
+         * Stand mit den Filialen im Heap und mit Posting-Listen.
+         *
+         * @param filialen Die Filialen
+         * @param walPosition Die Position im Write-Ahead-Log bzw. 0 ohne Write-Ahead-Log
+         */
+        Stand(final Collection<Filiale> filialen, final long walPosition) {
+            this(filialen.stream(), walPosition, true);
+        }
+    }
+
+    /**
+     * Den Snapshot laden, falls die Datei existiert.
+     *
+     * @return Der Inhalt oder ein leeres Optional, falls es noch keinen Snapshot gibt
+     * @throws UncheckedIOException Falls die Datei nicht gelesen werden kann oder beschädigt ist. Dann wird der Start
+     *      abgebrochen, statt ohne die Filialen aus dem Snapshot fortzufahren.
+     */
+    Optional<Inhalt> load() {
+        if (!Files.exists(path)) {
+            log.info("load: kein Snapshot {}", path);
+            return Optional.empty();
+        }
+        final var start = System.nanoTime();
+        try (var channel = FileChannel.open(path, READ)) {
+            final var inhalt = load(channel);
+            log.info(
+                "load: {} Filialen aus {} in {} ms",
+                inhalt.filialen().size(),
+                path,
+                NANOSECONDS.toMillis(System.nanoTime() - start)
+            );
+            return Optional.of(inhalt);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Der Snapshot " + path + " kann nicht geladen werden", ex);
+        }
+    }
+
+    /**
+     * Den Snapshot blockweise laden, ohne alle Filialen gleichzeitig im Heap zu halten, z.B. für den
+     * {@link LsmStore}. Die Posting-Listen werden dabei übersprungen.
+     *
+     * @param ziel Erhält die Filialen in der Reihenfolge der Datei
+     * @return Die Position im Write-Ahead-Log oder ein leeres Optional, falls es noch keinen Snapshot gibt
+     * @throws UncheckedIOException Falls die Datei nicht gelesen werden kann oder beschädigt ist
+     */
+    OptionalLong load(final Consumer<Filiale> ziel) {
+        if (!Files.exists(path)) {
+            log.info("load: kein Snapshot {}", path);
+            return OptionalLong.empty();
+        }
+        final var start = System.nanoTime();
+        try (var channel = FileChannel.open(path, READ)) {
+            final var aufbau = aufbau(channel);
+            final var anzahlBloecke = aufbau.offsets().length - 1;
+            final var runde = new Filiale[BLOECKE_PRO_RUNDE * ZEILEN_PRO_BLOCK];
+            for (int von = 0; von < anzahlBloecke; von += BLOECKE_PRO_RUNDE) {
+                final var erste = von * ZEILEN_PRO_BLOCK;
+                final var bis = Math.min(anzahlBloecke, von + BLOECKE_PRO_RUNDE);
+                dekodieren(aufbau, von, bis, runde, erste);
+                final var zeilen = Math.min(aufbau.anzahl(), bis * ZEILEN_PRO_BLOCK) - erste;
+                for (int i = 0; i < zeilen; i++) {
+                    ziel.accept(runde[i]);
+                }
+            }
+            log.info(
+                "load: {} Filialen aus {} blockweise in {} ms",
+                aufbau.anzahl(),
+                path,
+                NANOSECONDS.toMillis(System.nanoTime() - start)
+            );
+            return OptionalLong.of(aufbau.walPosition());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Der Snapshot " + path + " kann nicht geladen werden", ex);
+        }
+    }
+
+    /**
+     * Den Snapshot periodisch schreiben, sofern ein Intervall konfiguriert ist.
+     *
+     * @param stand Liefert einen konsistenten Stand der Filialen
+     * @param geschrieben Erhält nach dem Umbenennen der neuen Datei die Position im Write-Ahead-Log, z.B. für
+     *      {@link WriteAheadLog#checkpoint(long)}
+     */
+    synchronized void start(final Supplier<Stand> stand, final LongConsumer geschrieben) {
+        quelle = stand;
+        this.geschrieben = geschrieben;
+        if (interval.isZero()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "filiale-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::schreibenProtokolliert, millis, millis, MILLISECONDS);
+    }
+
+    /**
+     * Das periodische Schreiben beenden und den Snapshot ein letztes Mal schreiben.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            // ein laufendes Schreiben abwarten, weil es dieselbe temporaere Datei verwendet
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(1, MINUTES)) {
+                    log.warn("close: periodisches Schreiben nicht beendet");
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+        if (quelle != null) {
+            schreiben(quelle, geschrieben);
+            quelle = null;
+            geschrieben = null;
+        }
+    }
+
+    /**
+     * Den Snapshot mit den Filialen ohne Write-Ahead-Log schreiben.
+     *
+     * @param filialen Die Filialen
+     * @throws UncheckedIOException Falls die Datei nicht geschrieben werden kann
+     */
+    void write(final Collection<Filiale> filialen) {
+        write(new Stand(filialen, 0));
+    }
+
+    /**
+     * Den Snapshot mit einem Stand der Filialen schreiben.
+     *
+     * @param stand Die Filialen und die Position im Write-Ahead-Log
+     * @throws UncheckedIOException Falls die Datei nicht geschrieben werden kann
+     */
+    void write(final Stand stand) {
+        final var start = System.nanoTime();
+        final var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        final int anzahl;
+        try (var filialen = stand.filialen()) {
+            anzahl = write(tmp, filialen.iterator(), stand.trigramme(), stand.walPosition());
+            Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Der Snapshot " + path + " kann nicht geschrieben werden", ex);
+        }
+        final var dauer = System.nanoTime() - start;
+        schreiben.record(dauer, NANOSECONDS);
+        log.debug("write: {} Filialen in {} ms", anzahl, NANOSECONDS.toMillis(dauer));
+    }
+
+    // Fehler im Scheduler-Thread nur protokollieren, damit der naechste Versuch stattfindet
+    private void schreibenProtokolliert() {
+        try {
+            final Supplier<Stand> stand;
+            final LongConsumer checkpoint;
+            synchronized (this) {
+                stand = quelle;
+                checkpoint = geschrieben;
+            }
+            if (stand != null) {
+                schreiben(stand, checkpoint);
+            }
+        } catch (final UncheckedIOException ex) {
+            log.error("write: {}", path, ex);
+        }
+    }
+
+    // erst nach dem Umbenennen enthaelt die Datei alle Aenderungen bis zur Position im Write-Ahead-Log
+    private void schreiben(final Supplier<Stand> quelle, final LongConsumer checkpoint) {
+        final var stand = quelle.get();
+        write(stand);
+        checkpoint.accept(stand.walPosition());
+    }
+
+    // die Filialen werden in Runden gelesen und kodiert, die Posting-Listen nur bei Bedarf nebenbei aufgebaut
+    @SuppressWarnings("CyclomaticComplexity")
+    private static int write(
+        final Path datei,
+        final Iterator<Filiale> filialen,
+        final boolean mitTrigrammen,
+        final long walPosition
+    ) throws IOException {
+        final var parent = datei.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final var postings = mitTrigrammen ? new HashMap<Long, Zeilennummern>() : null;
+        final var runde = new Filiale[BLOECKE_PRO_RUNDE * ZEILEN_PRO_BLOCK];
+        var offsets = new long[BLOECKE_PRO_RUNDE + 1];
+        var anzahlBloecke = 0;
+        var anzahl = 0;
+        final var crc = new CRC32C();
+        try (var channel = FileChannel.open(datei, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            // der Stream wird nur geleert, denn der Channel muss nach flush() noch mit force() geschrieben werden
+            final var out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), PUFFER), crc)
+            );
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            long position = HEADER;
+            while (filialen.hasNext()) {
+                var zeilen = 0;
+                while (zeilen < runde.length && filialen.hasNext()) {
+                    final var filiale = filialen.next();
+                    if (postings != null) {
+                        for (final var trigramm : TrigramIndex.trigramme(filiale.getName())) {
+                            postings.computeIfAbsent(trigramm, key -> new Zeilennummern()).add(anzahl + zeilen);
+                        }
+                    }
+                    runde[zeilen++] = filiale;
+                }
+                final var anzahlZeilen = zeilen;
+                final var bloecke = IntStream.range(0, (zeilen + ZEILEN_PRO_BLOCK - 1) / ZEILEN_PRO_BLOCK)
+                    .parallel()
+                    .mapToObj(block -> kodieren(runde, anzahlZeilen, block))
+                    .toList();
+                if (anzahlBloecke + bloecke.size() >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * (anzahlBloecke + bloecke.size()));
+                }
+                for (final var bytes : bloecke) {
+                    offsets[anzahlBloecke++] = position;
+                    out.write(bytes);
+                    position += bytes.length;
+                }
+                anzahl += zeilen;
+            }
+            offsets[anzahlBloecke] = position;
+            schreibeTrigramme(out, postings);
+
+            final var footer = new ByteArrayOutputStream();
+            final var footerOut = new DataOutputStream(footer);
+            footerOut.writeInt(anzahl);
+            footerOut.writeInt(anzahlBloecke);
+            for (int i = 0; i <= anzahlBloecke; i++) {
+                footerOut.writeLong(offsets[i]);
+            }
+            footerOut.writeLong(walPosition);
+            out.write(footer.toByteArray());
+            out.writeInt(footer.size());
+            out.writeInt((int) crc.getValue());
+            out.writeLong(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        return anzahl;
+    }
+
+    private static byte[] kodieren(final Filiale[] zeilen, final int anzahl, final int block) {
+        final var bytes = new ByteArrayOutputStream(ZEILEN_PRO_BLOCK * BYTES_PRO_ZEILE);
+        final var out = new DataOutputStream(bytes);
+        final var bis = Math.min(anzahl, (block + 1) * ZEILEN_PRO_BLOCK);
+        try {
+            for (int i = block * ZEILEN_PRO_BLOCK; i < bis; i++) {
+                FilialeCodec.write(out, zeilen[i]);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Posting-Listen mit den Zeilennummern statt der IDs
+    private static void schreibeTrigramme(
+        final DataOutputStream out,
+        final Map<Long, Zeilennummern> postings
+    ) throws IOException {
+        if (postings == null) {
+            out.writeInt(OHNE_TRIGRAMME);
+            return;
+        }
+        out.writeInt(postings.size());
+        for (final var entry : postings.entrySet()) {
+            final var zeilennummern = entry.getValue();
+            out.writeLong(entry.getKey());
+            out.writeInt(zeilennummern.anzahl);
+            for (int i = 0; i < zeilennummern.anzahl; i++) {
+                out.writeInt(zeilennummern.werte[i]);
+            }
+        }
+    }
+
+    private static Inhalt load(final FileChannel channel) throws IOException {
+        final var aufbau = aufbau(channel);
+        try {
+            final var zeilen = new Filiale[aufbau.anzahl()];
+            final var anzahlBloecke = aufbau.offsets().length - 1;
+            dekodieren(aufbau, 0, anzahlBloecke, zeilen, 0);
+
+            final var trigrammPosition = (int) aufbau.offsets()[anzahlBloecke];
+            final var postings = aufbau.buffer().slice(trigrammPosition, aufbau.footerPosition() - trigrammPosition);
+            final var trigramme = leseTrigramme(postings, zeilen);
+            return new Inhalt(Arrays.asList(zeilen), trigramme, aufbau.walPosition());
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Ungueltiger Aufbau des Snapshot", ex);
+        }
+    }
+
+    // Magic Number, Version und Pruefsumme pruefen und den Footer lesen
+    private static Aufbau aufbau(final FileChannel channel) throws IOException {
+        final var groesse = channel.size();
+        if (groesse > Integer.MAX_VALUE) {
+            throw new IOException("Ein Snapshot mit mehr als 2 GB wird nicht unterstuetzt: " + groesse);
+        }
+        if (groesse < HEADER + TRAILER) {
+            throw new IOException("Unvollstaendiger Snapshot mit " + groesse + " Bytes");
+        }
+        final var buffer = channel.map(READ_ONLY, 0, groesse);
+        final var ende = (int) groesse;
+        if (buffer.getLong(0) != MAGIC || buffer.getLong(ende - Long.BYTES) != MAGIC) {
+            throw new IOException("Die Datei ist kein Snapshot");
+        }
+        final var version = buffer.getInt(Long.BYTES);
+        if (version != VERSION) {
+            throw new IOException("Nicht unterstuetzte Version: " + version);
+        }
+        final var crcPosition = ende - Long.BYTES - Integer.BYTES;
+        final var crc = new CRC32C();
+        crc.update(buffer.slice(0, crcPosition));
+        if ((int) crc.getValue() != buffer.getInt(crcPosition)) {
+            throw new IOException("Falsche Pruefsumme");
+        }
+
+        try {
+            final var footerLaenge = buffer.getInt(crcPosition - Integer.BYTES);
+            final var footerPosition = crcPosition - Integer.BYTES - footerLaenge;
+            final var footer = buffer.slice(footerPosition, footerLaenge);
+            final var anzahl = footer.getInt();
+            final var anzahlBloecke = footer.getInt();
+            final var offsets = new long[anzahlBloecke + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = footer.getLong();
+            }
+            final var walPosition = footer.getLong();
+            return new Aufbau(buffer, anzahl, offsets, walPosition, footerPosition);
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException ex) {
+            throw new IOException("Ungueltiger Aufbau des Snapshot", ex);
+        }
+    }
+
+    // die Bloecke parallel dekodieren, die Zeile erste steht dabei am Anfang des Arrays
+    private static void dekodieren(
+        final Aufbau aufbau,
+        final int von,
+        final int bis,
+        final Filiale[] zeilen,
+        final int erste
+    ) throws IOException {
+        try {
+            IntStream.range(von, bis).parallel().forEach(block -> dekodieren(aufbau, block, zeilen, erste));
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Ungueltiger Aufbau des Snapshot", ex);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static void dekodieren(final Aufbau aufbau, final int block, final Filiale[] zeilen, final int erste) {
+        final var offsets = aufbau.offsets();
+        final var in = aufbau.buffer().slice((int) offsets[block], (int) (offsets[block + 1] - offsets[block]));
+        final var bis = Math.min(aufbau.anzahl(), (block + 1) * ZEILEN_PRO_BLOCK);
+        try {
+            for (int i = block * ZEILEN_PRO_BLOCK; i < bis; i++) {
+                zeilen[i - erste] = FilialeCodec.read(in);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Map<Long, UUID[]> leseTrigramme(final ByteBuffer in, final Filiale[] zeilen) {
+        final var anzahl = in.getInt();
+        if (anzahl == OHNE_TRIGRAMME) {
+            return null;
+        }
+        final var trigramme = new HashMap<Long, UUID[]>(anzahl * 2);
+        for (int i = 0; i < anzahl; i++) {
+            final var trigramm = in.getLong();
+            final var ids = new UUID[in.getInt()];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = zeilen[in.getInt()].getId();
+            }
+            trigramme.put(trigramm, ids);
+        }
+        return trigramme;
+    }
+
+    private record Aufbau(ByteBuffer buffer, int anzahl, long[] offsets, long walPosition, int footerPosition) {
+    }
+
+    private static final class Zeilennummern {
+        private int[] werte = new int[4];
+
+        private int anzahl;
+
+        void add(final int zeile) {
+            if (anzahl == werte.length) {
+                werte = Arrays.copyOf(werte, anzahl * 2);
+            }
+            werte[anzahl++] = zeile;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom-Filter für die Schlüssel einer {@link SsTable}: ein negatives Ergebnis ist sicher, so dass für die meisten
+ * nicht vorhandenen Schlüssel kein Block von der Platte gelesen wird. Mit 10 Bits pro Schlüssel und 7 Hash-Funktionen
+ * liegt die Rate der falsch positiven Ergebnisse bei ca. 1 %. Die Hash-Funktionen werden per Double Hashing aus einem
+ * 64-Bit-Hashwert abgeleitet.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class BloomFilter {
+    private static final int BITS_PRO_SCHLUESSEL = 10;
+    private static final int ANZAHL_HASHES = 7;
+    private static final int BITS_PRO_LONG = 64;
+
+    // FNV-1a und der Finalizer von MurmurHash3
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX1 = 0xff51afd7ed558ccdL;
+    private static final long MIX2 = 0xc4ceb9fe1a85ec53L;
+    private static final int SHIFT = 33;
+
+    private final long[] bits;
+
+    BloomFilter(final long anzahlSchluessel) {
+        this(new long[(int) Math.max(1, (anzahlSchluessel * BITS_PRO_SCHLUESSEL + BITS_PRO_LONG - 1) / BITS_PRO_LONG)]);
+    }
+
+    private BloomFilter(final long[] bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Einen Schlüssel hinzufügen.
+     *
+     * @param schluessel Der Schlüssel
+     */
+    void add(final byte[] schluessel) {
+        final var hash = hash(schluessel);
+        final long anzahlBits = (long) bits.length * BITS_PRO_LONG;
+        for (int i = 0; i < ANZAHL_HASHES; i++) {
+            final var bit = Math.floorMod((int) hash + i * (hash >>> Integer.SIZE), anzahlBits);
+            bits[(int) (bit / BITS_PRO_LONG)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Prüfen, ob ein Schlüssel enthalten sein kann.
+     *
+     * @param schluessel Der Schlüssel
+     * @return false, falls der Schlüssel sicher nicht enthalten ist
+     */
+    boolean mightContain(final byte[] schluessel) {
+        final var hash = hash(schluessel);
+        final long anzahlBits = (long) bits.length * BITS_PRO_LONG;
+        for (int i = 0; i < ANZAHL_HASHES; i++) {
+            final var bit = Math.floorMod((int) hash + i * (hash >>> Integer.SIZE), anzahlBits);
+            if ((bits[(int) (bit / BITS_PRO_LONG)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Den Filter schreiben.
+     *
+     * @param out Die Ausgabe
+     * @throws IOException Falls nicht geschrieben werden kann
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(bits.length);
+        for (final var wert : bits) {
+            out.writeLong(wert);
+        }
+    }
+
+    /**
+     * Einen geschriebenen Filter lesen.
+     *
+     * @param in Der Puffer
+     * @return Der Filter
+     */
+    static BloomFilter read(final ByteBuffer in) {
+        final var bits = new long[in.getInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.getLong();
+        }
+        return new BloomFilter(bits);
+    }
+
+    /**
+     * Der belegte Speicher im Heap für die Metriken.
+     *
+     * @return Die Anzahl der Bytes
+     */
+    long bytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    private static long hash(final byte[] schluessel) {
+        var hash = FNV_OFFSET;
+        for (final var b : schluessel) {
+            hash = (hash ^ b) * FNV_PRIME;
+        }
+        hash = (hash ^ hash >>> SHIFT) * MIX1;
+        hash = (hash ^ hash >>> SHIFT) * MIX2;
+        return hash ^ hash >>> SHIFT;
+    }
+}
@@ -0,0 +1,656 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Sekundärindexe für den {@link ColumnarStore}, die wie die Filialen außerhalb des Heap liegen:
+ * <ul>
+ *     <li>die normalisierten Emailadressen in einem {@link StringDictionary} und die ID zu jedem Code,</li>
+ *     <li>die Namen in einem eigenen {@link StringDictionary}, dessen Referenzen die Anzahl der Filialen pro Name
+ *     sind, und ihre Codes sortiert nach UTF-8 für die Autovervollständigung,</li>
+ *     <li>die Posting-Liste pro Trigramm mit den aufsteigend sortierten Zeilen der Filialen im Speicher und</li>
+ *     <li>die IDs für die Keyset Pagination in sortierten Blöcken mit jeweils höchstens 2048 IDs.</li>
+ * </ul>
+ * Im Heap liegen nur die Objekte pro Trigramm und pro Block, deren Anzahl durch die verschiedenen Trigramme bzw.
+ * durch die Anzahl der Filialen geteilt durch die Blockgröße begrenzt ist.
+ *
+ * <p>Da die Posting-Listen Zeilen enthalten, muss eine Filiale beim Hinzufügen schon und beim Entfernen noch im
+ * Speicher sein. Eine freigegebene Zeile kann erst danach für eine neue Filiale wiederverwendet werden. Alle Zugriffe
+ * sind durch eine Lese-Schreib-Sperre geschützt.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@SuppressWarnings("ClassFanOutComplexity")
+final class ColumnarFilialeIndex implements FilialeIndex {
+    private static final int BLOCK = 2048;
+
+    private static final int INITIAL = 1 << 4;
+
+    // IDs pro Seite beim Streamen, damit die Sperre nur kurz gehalten wird
+    private static final int SEITE = 256;
+
+    private final ColumnarStore store;
+
+    private final StringDictionary emails = new StringDictionary();
+
+    // zu jedem Code einer Emailadresse die ID mit 2 long-Werten
+    private LongBuffer emailIds = allocateLongs(2 * INITIAL);
+
+    private final StringDictionary namen = new StringDictionary();
+
+    // die Codes der Namen sortiert nach den Bytes in UTF-8
+    private IntBuffer namenSortiert = allocateInts(INITIAL);
+
+    private int anzahlNamen;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    private long anzahlPostings;
+
+    private final List<Block> bloecke = new ArrayList<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final DistributionSummary kandidaten;
+
+    /**
+     * Die Indexe zu den Filialen aufbauen, die bereits im Speicher sind.
+     *
+     * @param store Der Speicher mit den Filialen
+     * @param filialen Die Filialen im Speicher
+     * @param registry Die Registry für die Metriken
+     */
+    ColumnarFilialeIndex(
+        final ColumnarStore store,
+        final Collection<Filiale> filialen,
+        final MeterRegistry registry
+    ) {
+        this.store = store;
+        bloecke.add(new Block());
+        filialen.forEach(filiale -> {
+            reserveEmail(filiale.getEmail(), filiale.getId());
+            add(filiale);
+        });
+
+        Gauge.builder("filiale.repository.trigram.size", this, index -> index.lesen(index.postings::size))
+            .description("Anzahl der Trigramme im Index fuer die Namen")
+            .register(registry);
+        Gauge.builder("filiale.repository.trigram.postings", this, index -> index.lesen(() -> index.anzahlPostings))
+            .description("Anzahl der Eintraege in allen Posting-Listen")
+            .register(registry);
+        Gauge.builder("filiale.repository.columnar.index.offheap", this, ColumnarFilialeIndex::offHeapBytes)
+            .description("Belegter Speicher ausserhalb des Heap fuer Emailadressen, Namen, Trigramme und IDs")
+            .baseUnit("bytes")
+            .register(registry);
+        kandidaten = DistributionSummary.builder("filiale.repository.trigram.candidates")
+            .description("Anzahl der Kandidaten nach dem Schnitt der Posting-Listen")
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    @Override
+    public Optional<UUID> getByEmail(final String email) {
+        if (email == null) {
+            return Optional.empty();
+        }
+        return lesen(() -> {
+            final var code = emails.find(EmailIndex.normalize(email));
+            return code == StringDictionary.NULL ? Optional.empty() : Optional.of(emailId(code));
+        });
+    }
+
+    @Override
+    public boolean reserveEmail(final String email, final UUID id) {
+        if (email == null) {
+            return true;
+        }
+        final var normalisiert = EmailIndex.normalize(email);
+        return schreiben(() -> {
+            final var vorhanden = emails.find(normalisiert);
+            if (vorhanden != StringDictionary.NULL) {
+                return emailId(vorhanden).equals(id);
+            }
+            final var code = emails.encode(normalisiert);
+            if (2 * code + 1 >= emailIds.capacity()) {
+                emailIds = grow(emailIds, 2 * code + 2);
+            }
+            emailIds.put(2 * code, id.getMostSignificantBits());
+            emailIds.put(2 * code + 1, id.getLeastSignificantBits());
+            return true;
+        });
+    }
+
+    @Override
+    public void releaseEmail(final String email, final UUID id) {
+        if (email == null) {
+            return;
+        }
+        final var normalisiert = EmailIndex.normalize(email);
+        schreiben(() -> {
+            final var code = emails.find(normalisiert);
+            if (code != StringDictionary.NULL && emailId(code).equals(id)) {
+                emails.release(code);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void add(final Filiale filiale) {
+        final var zeile = store.zeile(filiale.getId());
+        schreiben(() -> {
+            addId(filiale.getId());
+            addName(filiale.getName());
+            if (zeile >= 0) {
+                addTrigramme(zeile, filiale.getName());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void rename(final UUID id, final String alt, final String neu) {
+        final var zeile = store.zeile(id);
+        schreiben(() -> {
+            removeName(alt);
+            addName(neu);
+            if (zeile >= 0) {
+                removeTrigramme(zeile, alt);
+                addTrigramme(zeile, neu);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void remove(final Filiale filiale) {
+        final var zeile = store.zeile(filiale.getId());
+        schreiben(() -> {
+            removeId(filiale.getId());
+            removeName(filiale.getName());
+            if (zeile >= 0) {
+                removeTrigramme(zeile, filiale.getName());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> complete(final String prefix, final int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        final var bytes = prefix.getBytes(UTF_8);
+        // die haeufigsten Namen in einem Min-Heap, bei gleicher Anzahl alphabetisch wie in der DB; dekodiert wird nur
+        // ein Name, der in den Min-Heap kommen kann
+        final var haeufigste = new PriorityQueue<Name>(
+            Comparator.comparingInt(Name::anzahl).thenComparing(Name::name, Comparator.reverseOrder())
+        );
+        lesen(() -> {
+            for (int i = ersterName(bytes); i < anzahlNamen; i++) {
+                final var code = namenSortiert.get(i);
+                if (!namen.startsWith(code, bytes)) {
+                    break;
+                }
+                final var anzahl = namen.count(code);
+                if (haeufigste.size() < limit || anzahl >= haeufigste.element().anzahl()) {
+                    haeufigste.add(new Name(namen.decode(code), anzahl));
+                    if (haeufigste.size() > limit) {
+                        haeufigste.poll();
+                    }
+                }
+            }
+            return null;
+        });
+        final var result = new ArrayList<String>(haeufigste.size());
+        while (!haeufigste.isEmpty()) {
+            result.add(haeufigste.poll().name());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public Optional<Set<UUID>> candidates(final String teilstring) {
+        final var gesucht = TrigramIndex.trigramme(teilstring);
+        if (gesucht.isEmpty()) {
+            return Optional.empty();
+        }
+
+        // die kuerzeste Posting-Liste durchlaufen und jede Zeile binaer in den weiteren Listen suchen
+        final var zeilen = lesen(() -> {
+            final var listen = new ArrayList<Postings>(gesucht.size());
+            for (final var trigramm : gesucht) {
+                final var liste = postings.get(trigramm);
+                if (liste == null) {
+                    return new int[0];
+                }
+                listen.add(liste);
+            }
+            listen.sort(Comparator.comparingInt(liste -> liste.anzahl));
+            final var erste = listen.get(0);
+            final var result = new int[erste.anzahl];
+            var anzahl = 0;
+            for (int i = 0; i < erste.anzahl; i++) {
+                final var zeile = erste.zeilen.get(i);
+                var ueberall = true;
+                for (int j = 1; j < listen.size() && ueberall; j++) {
+                    ueberall = listen.get(j).suchen(zeile) >= 0;
+                }
+                if (ueberall) {
+                    result[anzahl++] = zeile;
+                }
+            }
+            return Arrays.copyOf(result, anzahl);
+        });
+        final var result = new HashSet<UUID>(zeilen.length * 2);
+        for (final var zeile : zeilen) {
+            final var id = store.id(zeile);
+            if (id != null) {
+                result.add(id);
+            }
+        }
+        kandidaten.record(result.size());
+        return Optional.of(result);
+    }
+
+    @Override
+    public OptionalInt estimate(final String teilstring) {
+        final var gesucht = TrigramIndex.trigramme(teilstring);
+        return lesen(() -> gesucht.stream()
+            .mapToInt(trigramm -> {
+                final var liste = postings.get(trigramm);
+                return liste == null ? 0 : liste.anzahl;
+            })
+            .min());
+    }
+
+    @Override
+    public Comparator<UUID> reihenfolge() {
+        return Comparator.naturalOrder();
+    }
+
+    // seitenweise nach dem Cursor lesen: Aenderungen zwischen den Seiten sind sichtbar wie bei einer Skip-Liste
+    @Override
+    public Stream<Filiale> stream(final FilialeStore.View view, final UUID after) {
+        return Stream.iterate(
+                seite(after),
+                seite -> !seite.isEmpty(),
+                seite -> seite.size() < SEITE ? List.of() : seite(seite.get(seite.size() - 1))
+            )
+            .flatMap(List::stream)
+            .map(view::get)
+            .filter(Objects::nonNull);
+    }
+
+    private long offHeapBytes() {
+        return lesen(() -> {
+            var bytes = emails.bytes() + (long) emailIds.capacity() * Long.BYTES +
+                namen.bytes() + (long) namenSortiert.capacity() * Integer.BYTES +
+                (long) bloecke.size() * 2 * BLOCK * Long.BYTES;
+            for (final var liste : postings.values()) {
+                bytes += (long) liste.zeilen.capacity() * Integer.BYTES;
+            }
+            return bytes;
+        });
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Emailadressen und Namen
+    // ------------------------------------------------------------------------------------------------------------
+
+    private UUID emailId(final int code) {
+        return new UUID(emailIds.get(2 * code), emailIds.get(2 * code + 1));
+    }
+
+    // ein neuer Name wird in die sortierten Codes eingefuegt, ein vorhandener zaehlt nur eine weitere Referenz
+    private void addName(final String name) {
+        if (name == null) {
+            return;
+        }
+        final var code = namen.encode(name);
+        if (namen.count(code) > 1) {
+            return;
+        }
+        final var position = -suchenName(name.getBytes(UTF_8)) - 1;
+        if (anzahlNamen == namenSortiert.capacity()) {
+            namenSortiert = grow(namenSortiert, anzahlNamen + 1);
+        }
+        for (int i = anzahlNamen; i > position; i--) {
+            namenSortiert.put(i, namenSortiert.get(i - 1));
+        }
+        namenSortiert.put(position, code);
+        anzahlNamen++;
+    }
+
+    // die letzte Referenz entfernt den Namen aus den sortierten Codes, solange seine Bytes noch im Dictionary sind
+    private void removeName(final String name) {
+        final var code = namen.find(name);
+        if (code == StringDictionary.NULL) {
+            return;
+        }
+        if (namen.count(code) == 1) {
+            final var position = suchenName(name.getBytes(UTF_8));
+            for (int i = position; i < anzahlNamen - 1; i++) {
+                namenSortiert.put(i, namenSortiert.get(i + 1));
+            }
+            anzahlNamen--;
+        }
+        namen.release(code);
+    }
+
+    // binaere Suche wie bei Arrays.binarySearch(): Position oder -(Einfuegeposition) - 1
+    private int suchenName(final byte[] bytes) {
+        var links = 0;
+        var rechts = anzahlNamen - 1;
+        while (links <= rechts) {
+            final var mitte = (links + rechts) >>> 1;
+            final var vergleich = namen.compare(namenSortiert.get(mitte), bytes);
+            if (vergleich < 0) {
+                links = mitte + 1;
+            } else if (vergleich > 0) {
+                rechts = mitte - 1;
+            } else {
+                return mitte;
+            }
+        }
+        return -links - 1;
+    }
+
+    private int ersterName(final byte[] prefix) {
+        final var position = suchenName(prefix);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Trigramme
+    // ------------------------------------------------------------------------------------------------------------
+
+    private void addTrigramme(final int zeile, final String name) {
+        TrigramIndex.trigramme(name).forEach(trigramm -> {
+            if (postings.computeIfAbsent(trigramm, key -> new Postings()).add(zeile)) {
+                anzahlPostings++;
+            }
+        });
+    }
+
+    private void removeTrigramme(final int zeile, final String name) {
+        TrigramIndex.trigramme(name).forEach(trigramm -> {
+            final var liste = postings.get(trigramm);
+            if (liste != null && liste.remove(zeile)) {
+                anzahlPostings--;
+                if (liste.anzahl == 0) {
+                    postings.remove(trigramm);
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // IDs in sortierten Bloecken
+    // ------------------------------------------------------------------------------------------------------------
+
+    private void addId(final UUID id) {
+        final var nr = block(id);
+        final var block = bloecke.get(nr);
+        final var position = block.suchen(id);
+        if (position >= 0) {
+            return;
+        }
+        block.einfuegen(-position - 1, id);
+        if (block.anzahl == BLOCK) {
+            bloecke.add(nr + 1, block.teilen());
+        }
+    }
+
+    private void removeId(final UUID id) {
+        final var nr = block(id);
+        final var block = bloecke.get(nr);
+        final var position = block.suchen(id);
+        if (position < 0) {
+            return;
+        }
+        block.entfernen(position);
+        if (block.anzahl == 0 && bloecke.size() > 1) {
+            bloecke.remove(nr);
+        }
+    }
+
+    // der letzte Block, dessen erste ID nicht groesser ist, bzw. der erste Block
+    private int block(final UUID id) {
+        var links = 1;
+        var rechts = bloecke.size() - 1;
+        var result = 0;
+        while (links <= rechts) {
+            final var mitte = (links + rechts) >>> 1;
+            if (bloecke.get(mitte).vergleichen(0, id) <= 0) {
+                result = mitte;
+                links = mitte + 1;
+            } else {
+                rechts = mitte - 1;
+            }
+        }
+        return result;
+    }
+
+    private List<UUID> seite(final UUID after) {
+        return lesen(() -> {
+            final var result = new ArrayList<UUID>(SEITE);
+            var nr = 0;
+            var position = 0;
+            if (after != null) {
+                nr = block(after);
+                position = bloecke.get(nr).suchen(after);
+                position = position >= 0 ? position + 1 : -position - 1;
+            }
+            for (; nr < bloecke.size() && result.size() < SEITE; nr++, position = 0) {
+                final var block = bloecke.get(nr);
+                for (int i = position; i < block.anzahl && result.size() < SEITE; i++) {
+                    result.add(block.id(i));
+                }
+            }
+            return result;
+        });
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Sperren und Puffer
+    // ------------------------------------------------------------------------------------------------------------
+
+    private <T> T lesen(final Supplier<T> zugriff) {
+        lock.readLock().lock();
+        try {
+            return zugriff.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T schreiben(final Supplier<T> zugriff) {
+        lock.writeLock().lock();
+        try {
+            return zugriff.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static IntBuffer allocateInts(final int anzahl) {
+        return ByteBuffer.allocateDirect(anzahl * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static LongBuffer allocateLongs(final int anzahl) {
+        return ByteBuffer.allocateDirect(anzahl * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    private static IntBuffer grow(final IntBuffer alt, final int mindestens) {
+        final var neu = allocateInts(Math.max(alt.capacity() * 2, mindestens));
+        neu.put(0, alt, 0, alt.capacity());
+        return neu;
+    }
+
+    private static LongBuffer grow(final LongBuffer alt, final int mindestens) {
+        final var neu = allocateLongs(Math.max(alt.capacity() * 2, mindestens));
+        neu.put(0, alt, 0, alt.capacity());
+        return neu;
+    }
+
+    // aufsteigend sortierte Zeilen der Filialen mit einem Trigramm
+    private static final class Postings {
+        private IntBuffer zeilen = allocateInts(INITIAL);
+
+        private int anzahl;
+
+        boolean add(final int zeile) {
+            final var position = suchen(zeile);
+            if (position >= 0) {
+                return false;
+            }
+            final var neu = -position - 1;
+            if (anzahl == zeilen.capacity()) {
+                zeilen = grow(zeilen, anzahl + 1);
+            }
+            for (int i = anzahl; i > neu; i--) {
+                zeilen.put(i, zeilen.get(i - 1));
+            }
+            zeilen.put(neu, zeile);
+            anzahl++;
+            return true;
+        }
+
+        boolean remove(final int zeile) {
+            final var position = suchen(zeile);
+            if (position < 0) {
+                return false;
+            }
+            for (int i = position; i < anzahl - 1; i++) {
+                zeilen.put(i, zeilen.get(i + 1));
+            }
+            anzahl--;
+            return true;
+        }
+
+        int suchen(final int zeile) {
+            var links = 0;
+            var rechts = anzahl - 1;
+            while (links <= rechts) {
+                final var mitte = (links + rechts) >>> 1;
+                final var wert = zeilen.get(mitte);
+                if (wert < zeile) {
+                    links = mitte + 1;
+                } else if (wert > zeile) {
+                    rechts = mitte - 1;
+                } else {
+                    return mitte;
+                }
+            }
+            return -links - 1;
+        }
+    }
+
+    // IDs sortiert wie UUID.compareTo() mit jeweils 2 long-Werten
+    private static final class Block {
+        private final LongBuffer ids = allocateLongs(2 * BLOCK);
+
+        private int anzahl;
+
+        UUID id(final int i) {
+            return new UUID(ids.get(2 * i), ids.get(2 * i + 1));
+        }
+
+        int vergleichen(final int i, final UUID id) {
+            final var msb = Long.compare(ids.get(2 * i), id.getMostSignificantBits());
+            return msb != 0 ? msb : Long.compare(ids.get(2 * i + 1), id.getLeastSignificantBits());
+        }
+
+        int suchen(final UUID id) {
+            var links = 0;
+            var rechts = anzahl - 1;
+            while (links <= rechts) {
+                final var mitte = (links + rechts) >>> 1;
+                final var vergleich = vergleichen(mitte, id);
+                if (vergleich < 0) {
+                    links = mitte + 1;
+                } else if (vergleich > 0) {
+                    rechts = mitte - 1;
+                } else {
+                    return mitte;
+                }
+            }
+            return -links - 1;
+        }
+
+        void einfuegen(final int position, final UUID id) {
+            for (int i = 2 * anzahl + 1; i >= 2 * position + 2; i--) {
+                ids.put(i, ids.get(i - 2));
+            }
+            ids.put(2 * position, id.getMostSignificantBits());
+            ids.put(2 * position + 1, id.getLeastSignificantBits());
+            anzahl++;
+        }
+
+        void entfernen(final int position) {
+            for (int i = 2 * position; i < 2 * anzahl - 2; i++) {
+                ids.put(i, ids.get(i + 2));
+            }
+            anzahl--;
+        }
+
+        // die obere Haelfte in einen neuen Block verschieben
+        Block teilen() {
+            final var neu = new Block();
+            final var haelfte = anzahl / 2;
+            neu.ids.put(0, ids, 2 * haelfte, 2 * (anzahl - haelfte));
+            neu.anzahl = anzahl - haelfte;
+            anzahl = haelfte;
+            return neu;
+        }
+    }
+
+    private record Name(String name, int anzahl) {
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Geldbetrag;
+import com.acme.filiale.entity.Umsatz;
+import com.acme.filiale.entity.Waehrungen;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.SneakyThrows;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Spaltenorientierter Speicher für die Filialen außerhalb des Heap. Die Datensätze liegen in Segmenten mit jeweils
+ * 4096 Zeilen, und jede Spalte eines Segments ist ein eigener Direct-{@link ByteBuffer}. ID, Betrag und PLZ sind
+ * Spalten mit fester Breite, wobei der Umsatz als {@link Geldbetrag} gespeichert wird. Die Strings sind über ein
+ * {@link StringDictionary} kodiert, das die Strings alter Werte beim Ändern und Löschen wieder freigibt. Auch der
+ * Index für die IDs liegt außerhalb des Heap. Objekte der Klasse {@link Filiale} werden erst beim Lesen erzeugt, so
+ * dass die Datensätze selbst weder Heap belegen noch die GC-Pausen verlängern. Auch die Sekundärindexe liegen mit
+ * {@link ColumnarFilialeIndex} außerhalb des Heap und referenzieren die Filialen über ihre Zeile.
+ *
+ * <p>Die Sicht zum Lesen ist kein Schnappschuss: alle Zugriffe sind durch eine Lese-Schreib-Sperre geschützt.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@SuppressWarnings({"ClassWithTooManyFields", "ClassFanOutComplexity"})
+final class ColumnarStore implements FilialeStore, FilialeStore.View {
+    private static final int SEGMENT_BITS = 12;
+
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Spalten mit ihrer Breite in Bytes
+    private static final int ID = 0;
+    private static final int FLAGS = 1;
+    private static final int NAME = 2;
+    private static final int EMAIL = 3;
+    private static final int HOMEPAGE = 4;
+    private static final int BETRAG = 5;
+    private static final int SCALE = 6;
+    private static final int WAEHRUNG = 7;
+    private static final int PLZ = 8;
+    private static final int ORT = 9;
+    private static final int VERSION = 10;
+    private static final int[] BREITE = {16, 1, 4, 4, 4, 8, 1, 2, 8, 4, 8};
+
+    // Bits in der Spalte FLAGS
+    private static final int BELEGT = 1;
+    private static final int UMSATZ = 1 << 1;
+    private static final int BETRAG_VORHANDEN = 1 << 2;
+    private static final int BETRAG_DICTIONARY = 1 << 3;
+    private static final int ADRESSE = 1 << 4;
+    private static final int PLZ_VORHANDEN = 1 << 5;
+    private static final int PLZ_DICTIONARY = 1 << 6;
+
+    // eine PLZ mit bis zu 7 ASCII-Zeichen passt zusammen mit ihrer Laenge in ein long
+    private static final int PLZ_MAX_LAENGE = 7;
+
+    private static final int INITIAL_ID_TABELLE = 1 << 10;
+
+    private final List<ByteBuffer[]> segmente = new ArrayList<>();
+
+    private final StringDictionary dictionary = new StringDictionary();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // offene Adressierung mit linearem Sondieren: Eintrag ist Zeilennummer + 1, 0 bedeutet frei
+    private IntBuffer idTabelle = allocateInts(INITIAL_ID_TABELLE);
+
+    private int anzahl;
+
+    private int naechsteZeile;
+
+    // Liste der freien Zeilen, verkettet ueber die Spalte NAME der freien Zeilen
+    private int freieZeile = -1;
+
+    ColumnarStore(final Collection<Filiale> filialen, final MeterRegistry registry) {
+        filialen.forEach(this::put);
+
+        Gauge.builder("filiale.repository.columnar.offheap", this, ColumnarStore::offHeapBytes)
+            .description("Belegter Speicher ausserhalb des Heap fuer Spalten, ID-Index und Dictionary")
+            .baseUnit("bytes")
+            .register(registry);
+        Gauge.builder("filiale.repository.columnar.dictionary.size", this, store -> store.lesen(dictionary::size))
+            .description("Anzahl der verschiedenen Strings im Dictionary")
+            .register(registry);
+    }
+
+    @Override
+    public View view() {
+        return this;
+    }
+
+    @Override
+    public Filiale get(final UUID id) {
+        return lesen(() -> {
+            final var zeile = find(id);
+            return zeile < 0 ? null : materialize(zeile);
+        });
+    }
+
+    @Override
+    public int size() {
+        return lesen(() -> anzahl);
+    }
+
+    @Override
+    public List<Filiale> filter(final Predicate<? super Filiale> praedikat) {
+        return lesen(() -> {
+            final var result = new ArrayList<Filiale>();
+            for (int zeile = 0; zeile < naechsteZeile; zeile++) {
+                if ((flags(zeile) & BELEGT) != 0) {
+                    final var filiale = materialize(zeile);
+                    if (praedikat.test(filiale)) {
+                        result.add(filiale);
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void put(final Filiale filiale) {
+        schreiben(() -> {
+            final var zeile = find(filiale.getId());
+            if (zeile < 0) {
+                final var neu = neueZeile();
+                einfuegen(neu, filiale.getId());
+                write(neu, filiale);
+            } else {
+                ersetzen(zeile, filiale);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Filiale replace(final Filiale filiale) {
+        return schreiben(() -> {
+            final var zeile = find(filiale.getId());
+            if (zeile < 0) {
+                return null;
+            }
+            final var alt = materialize(zeile);
+            ersetzen(zeile, filiale);
+            return alt;
+        });
+    }
+
+    @Override
+    public Filiale remove(final UUID id) {
+        return schreiben(() -> {
+            final var zeile = find(id);
+            if (zeile < 0) {
+                return null;
+            }
+            final var alt = materialize(zeile);
+            entfernen(zeile);
+            freigeben(codes(zeile));
+            final var segment = segment(zeile);
+            final var index = zeile & SEGMENT_MASK;
+            segment[FLAGS].put(index, (byte) 0);
+            segment[NAME].putInt(index * BREITE[NAME], freieZeile);
+            freieZeile = zeile;
+            anzahl--;
+            return alt;
+        });
+    }
+
+    /**
+     * Die Zeile einer Filiale für {@link ColumnarFilialeIndex}.
+     *
+     * @param id Die ID der Filiale
+     * @return Die Zeile oder -1
+     */
+    int zeile(final UUID id) {
+        return lesen(() -> find(id));
+    }
+
+    /**
+     * Die ID der Filiale in einer Zeile für {@link ColumnarFilialeIndex}.
+     *
+     * @param zeile Die Zeile
+     * @return Die ID oder null, falls die Zeile frei ist
+     */
+    UUID id(final int zeile) {
+        return lesen(() -> {
+            if (zeile < 0 || zeile >= naechsteZeile || (flags(zeile) & BELEGT) == 0) {
+                return null;
+            }
+            final var segment = segment(zeile);
+            final var offset = (zeile & SEGMENT_MASK) * BREITE[ID];
+            return new UUID(segment[ID].getLong(offset), segment[ID].getLong(offset + Long.BYTES));
+        });
+    }
+
+    private long offHeapBytes() {
+        return lesen(() -> {
+            var bytes = dictionary.bytes() + (long) idTabelle.capacity() * Integer.BYTES;
+            for (final var breite : BREITE) {
+                bytes += (long) segmente.size() * breite * SEGMENT_SIZE;
+            }
+            return bytes;
+        });
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Zeilen lesen und schreiben
+    // ------------------------------------------------------------------------------------------------------------
+
+    @SneakyThrows(MalformedURLException.class)
+    private Filiale materialize(final int zeile) {
+        final var segment = segment(zeile);
+        final var index = zeile & SEGMENT_MASK;
+        final var flags = segment[FLAGS].get(index);
+
+        Umsatz umsatz = null;
+        if ((flags & UMSATZ) != 0) {
+            final var waehrungCode = segment[WAEHRUNG].getShort(index * BREITE[WAEHRUNG]);
+            umsatz = Umsatz.builder()
+                .betrag(betrag(segment, index, flags, waehrungCode))
+                .waehrung(Waehrungen.of(waehrungCode))
+                .build();
+        }
+        Adresse adresse = null;
+        if ((flags & ADRESSE) != 0) {
+            adresse = Adresse.builder()
+                .plz(plz(segment, index, flags))
+                .ort(dictionary.decode(segment[ORT].getInt(index * BREITE[ORT])))
+                .build();
+        }
+        final var homepage = dictionary.decode(segment[HOMEPAGE].getInt(index * BREITE[HOMEPAGE]));
+        final var idOffset = index * BREITE[ID];
+        return Filiale.builder()
+            .id(new UUID(segment[ID].getLong(idOffset), segment[ID].getLong(idOffset + Long.BYTES)))
+            .version(segment[VERSION].getLong(index * BREITE[VERSION]))
+            .name(dictionary.decode(segment[NAME].getInt(index * BREITE[NAME])))
+            .email(dictionary.decode(segment[EMAIL].getInt(index * BREITE[EMAIL])))
+            .homepage(homepage == null ? null : new URL(homepage))
+            .umsatz(umsatz)
+            .adresse(adresse)
+            .build();
+    }
+
+    private BigDecimal betrag(final ByteBuffer[] segment, final int index, final int flags, final short waehrungCode) {
+        if ((flags & BETRAG_VORHANDEN) == 0) {
+            return null;
+        }
+        final var wert = segment[BETRAG].getLong(index * BREITE[BETRAG]);
+        if ((flags & BETRAG_DICTIONARY) != 0) {
+            return new BigDecimal(dictionary.decode((int) wert));
+        }
+        // die urspruengliche Skalierung wiederherstellen, z.B. "10" statt "10.00"
+        return new Geldbetrag(wert, waehrungCode).betrag().setScale(segment[SCALE].get(index * BREITE[SCALE]));
+    }
+
+    private String plz(final ByteBuffer[] segment, final int index, final int flags) {
+        if ((flags & PLZ_VORHANDEN) == 0) {
+            return null;
+        }
+        final var wert = segment[PLZ].getLong(index * BREITE[PLZ]);
+        if ((flags & PLZ_DICTIONARY) != 0) {
+            return dictionary.decode((int) wert);
+        }
+        final var laenge = (int) (wert >>> (PLZ_MAX_LAENGE * Byte.SIZE));
+        final var zeichen = new byte[laenge];
+        for (int i = 0; i < laenge; i++) {
+            zeichen[i] = (byte) (wert >>> (i * Byte.SIZE));
+        }
+        return new String(zeichen, US_ASCII);
+    }
+
+    private void write(final int zeile, final Filiale filiale) {
+        final var segment = segment(zeile);
+        final var index = zeile & SEGMENT_MASK;
+        var flags = BELEGT;
+
+        final var id = filiale.getId();
+        final var idOffset = index * BREITE[ID];
+        segment[ID].putLong(idOffset, id.getMostSignificantBits());
+        segment[ID].putLong(idOffset + Long.BYTES, id.getLeastSignificantBits());
+        segment[VERSION].putLong(index * BREITE[VERSION], filiale.getVersion());
+        segment[NAME].putInt(index * BREITE[NAME], dictionary.encode(filiale.getName()));
+        segment[EMAIL].putInt(index * BREITE[EMAIL], dictionary.encode(filiale.getEmail()));
+        final var homepage = filiale.getHomepage();
+        segment[HOMEPAGE].putInt(
+            index * BREITE[HOMEPAGE],
+            dictionary.encode(homepage == null ? null : homepage.toString())
+        );
+
+        final var umsatz = filiale.getUmsatz();
+        if (umsatz != null) {
+            segment[WAEHRUNG].putShort(index * BREITE[WAEHRUNG], Waehrungen.code(umsatz.getWaehrung()));
+            flags |= UMSATZ | writeBetrag(segment, index, umsatz);
+        }
+
+        final var adresse = filiale.getAdresse();
+        if (adresse != null) {
+            flags |= ADRESSE | writePlz(segment, index, adresse.getPlz());
+            segment[ORT].putInt(index * BREITE[ORT], dictionary.encode(adresse.getOrt()));
+        }
+        segment[FLAGS].put(index, (byte) flags);
+    }
+
+    // die neuen Strings vor dem Freigeben der alten kodieren, damit unveraenderte Strings im Dictionary bleiben
+    private void ersetzen(final int zeile, final Filiale filiale) {
+        final var alt = codes(zeile);
+        write(zeile, filiale);
+        freigeben(alt);
+    }
+
+    // die Codes im Dictionary, die eine belegte Zeile referenziert
+    private int[] codes(final int zeile) {
+        final var segment = segment(zeile);
+        final var index = zeile & SEGMENT_MASK;
+        final var flags = segment[FLAGS].get(index);
+        return new int[] {
+            segment[NAME].getInt(index * BREITE[NAME]),
+            segment[EMAIL].getInt(index * BREITE[EMAIL]),
+            segment[HOMEPAGE].getInt(index * BREITE[HOMEPAGE]),
+            (flags & ADRESSE) == 0 ? StringDictionary.NULL : segment[ORT].getInt(index * BREITE[ORT]),
+            (flags & BETRAG_DICTIONARY) == 0
+                ? StringDictionary.NULL
+                : (int) segment[BETRAG].getLong(index * BREITE[BETRAG]),
+            (flags & PLZ_DICTIONARY) == 0 ? StringDictionary.NULL : (int) segment[PLZ].getLong(index * BREITE[PLZ])
+        };
+    }
+
+    private void freigeben(final int[] codes) {
+        for (final var code : codes) {
+            dictionary.release(code);
+        }
+    }
+
+    private int writeBetrag(final ByteBuffer[] segment, final int index, final Umsatz umsatz) {
+        final var betrag = umsatz.getBetrag();
+        if (betrag == null) {
+            return 0;
+        }
+        // Festkommazahl in der kleinsten Einheit der Waehrung; nur Betraege ohne Waehrung, mit zu vielen
+        // Nachkommastellen oder mit Ueberlauf kommen ins Dictionary
+        final var scale = betrag.scale();
+        if (umsatz.getWaehrung() != null && scale >= Byte.MIN_VALUE && scale <= Byte.MAX_VALUE) {
+            try {
+                final var geldbetrag = Geldbetrag.of(umsatz);
+                segment[BETRAG].putLong(index * BREITE[BETRAG], geldbetrag.minorUnits());
+                segment[SCALE].put(index * BREITE[SCALE], (byte) scale);
+                return BETRAG_VORHANDEN;
+            } catch (final ArithmeticException e) {
+                // Dictionary
+            }
+        }
+        segment[BETRAG].putLong(index * BREITE[BETRAG], dictionary.encode(betrag.toString()));
+        return BETRAG_VORHANDEN | BETRAG_DICTIONARY;
+    }
+
+    private int writePlz(final ByteBuffer[] segment, final int index, final String plz) {
+        if (plz == null) {
+            return 0;
+        }
+        final var offset = index * BREITE[PLZ];
+        if (plz.length() <= PLZ_MAX_LAENGE && US_ASCII.newEncoder().canEncode(plz)) {
+            var wert = (long) plz.length() << (PLZ_MAX_LAENGE * Byte.SIZE);
+            for (int i = 0; i < plz.length(); i++) {
+                wert |= (long) plz.charAt(i) << (i * Byte.SIZE);
+            }
+            segment[PLZ].putLong(offset, wert);
+            return PLZ_VORHANDEN;
+        }
+        segment[PLZ].putLong(offset, dictionary.encode(plz));
+        return PLZ_VORHANDEN | PLZ_DICTIONARY;
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Segmente und Index fuer die IDs
+    // ------------------------------------------------------------------------------------------------------------
+
+    private ByteBuffer[] segment(final int zeile) {
+        return segmente.get(zeile >>> SEGMENT_BITS);
+    }
+
+    private int flags(final int zeile) {
+        return segment(zeile)[FLAGS].get(zeile & SEGMENT_MASK);
+    }
+
+    private int neueZeile() {
+        anzahl++;
+        if (freieZeile >= 0) {
+            final var zeile = freieZeile;
+            freieZeile = segment(zeile)[NAME].getInt((zeile & SEGMENT_MASK) * BREITE[NAME]);
+            return zeile;
+        }
+        if (naechsteZeile == segmente.size() * SEGMENT_SIZE) {
+            final var segment = new ByteBuffer[BREITE.length];
+            for (int spalte = 0; spalte < BREITE.length; spalte++) {
+                segment[spalte] = ByteBuffer.allocateDirect(BREITE[spalte] * SEGMENT_SIZE)
+                    .order(ByteOrder.nativeOrder());
+            }
+            segmente.add(segment);
+        }
+        return naechsteZeile++;
+    }
+
+    private int find(final UUID id) {
+        if (id == null) {
+            return -1;
+        }
+        final var msb = id.getMostSignificantBits();
+        final var lsb = id.getLeastSignificantBits();
+        final var maske = idTabelle.capacity() - 1;
+        var i = hash(msb, lsb) & maske;
+        while (true) {
+            final var eintrag = idTabelle.get(i);
+            if (eintrag == 0) {
+                return -1;
+            }
+            final var zeile = eintrag - 1;
+            final var segment = segment(zeile);
+            final var offset = (zeile & SEGMENT_MASK) * BREITE[ID];
+            if (segment[ID].getLong(offset) == msb && segment[ID].getLong(offset + Long.BYTES) == lsb) {
+                return zeile;
+            }
+            i = (i + 1) & maske;
+        }
+    }
+
+    private void einfuegen(final int zeile, final UUID id) {
+        if (anzahl * 2 > idTabelle.capacity()) {
+            rehash(idTabelle.capacity() * 2);
+        }
+        einfuegen(idTabelle, zeile, hash(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+    }
+
+    private static void einfuegen(final IntBuffer tabelle, final int zeile, final int hash) {
+        final var maske = tabelle.capacity() - 1;
+        var i = hash & maske;
+        while (tabelle.get(i) != 0) {
+            i = (i + 1) & maske;
+        }
+        tabelle.put(i, zeile + 1);
+    }
+
+    // Loeschen ohne Grabsteine: nachfolgende Eintraege werden zurueckgeschoben, falls sie sonst nicht mehr gefunden
+    // werden
+    private void entfernen(final int zeile) {
+        final var maske = idTabelle.capacity() - 1;
+        var frei = hashVonZeile(zeile) & maske;
+        while (idTabelle.get(frei) != zeile + 1) {
+            frei = (frei + 1) & maske;
+        }
+        var i = frei;
+        while (true) {
+            i = (i + 1) & maske;
+            final var eintrag = idTabelle.get(i);
+            if (eintrag == 0) {
+                break;
+            }
+            final var heimat = hashVonZeile(eintrag - 1) & maske;
+            final var verschieben = frei <= i
+                ? heimat <= frei || heimat > i
+                : heimat <= frei && heimat > i;
+            if (verschieben) {
+                idTabelle.put(frei, eintrag);
+                frei = i;
+            }
+        }
+        idTabelle.put(frei, 0);
+    }
+
+    private void rehash(final int kapazitaet) {
+        final var neu = allocateInts(kapazitaet);
+        for (int i = 0; i < idTabelle.capacity(); i++) {
+            final var eintrag = idTabelle.get(i);
+            if (eintrag != 0) {
+                einfuegen(neu, eintrag - 1, hashVonZeile(eintrag - 1));
+            }
+        }
+        idTabelle = neu;
+    }
+
+    private int hashVonZeile(final int zeile) {
+        final var segment = segment(zeile);
+        final var offset = (zeile & SEGMENT_MASK) * BREITE[ID];
+        return hash(segment[ID].getLong(offset), segment[ID].getLong(offset + Long.BYTES));
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        final var h = msb ^ lsb;
+        final var mix = (int) (h ^ (h >>> 32)) * 0x9E3779B9;
+        return mix ^ (mix >>> 16);
+    }
+
+    private static IntBuffer allocateInts(final int anzahl) {
+        return ByteBuffer.allocateDirect(anzahl * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // Sperren
+    // ------------------------------------------------------------------------------------------------------------
+
+    private <T> T lesen(final Supplier<T> zugriff) {
+        lock.readLock().lock();
+        try {
+            return zugriff.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T schreiben(final Supplier<T> zugriff) {
+        lock.writeLock().lock();
+        try {
+            return zugriff.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom-Filter, bei dem Schlüssel auch wieder entfernt werden können: statt eines Bits gibt es pro Position
+ * einen Zähler mit 4 Bit. Ein negatives Ergebnis ist sicher, so dass z.B. eine Suche nach einer nicht vorhandenen ID
+ * ohne Zugriff auf die DB beantwortet werden kann. Ein Zähler, der den Maximalwert 15 erreicht hat, wird nicht mehr
+ * verändert, damit nach dem Entfernen keine falsch negativen Ergebnisse entstehen.
+ *
+ * <p>Mit 10 Zählern pro Schlüssel und 7 Hash-Funktionen liegt die Rate der falsch positiven Ergebnisse bis zur
+ * geplanten Kapazität bei ca. 1 %. Danach steigt sie an, die Ergebnisse bleiben aber korrekt. Die Zähler werden per
+ * Compare-and-Set ohne Sperren geändert.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class CountingBloomFilter {
+    private static final int ZAEHLER_PRO_SCHLUESSEL = 10;
+    private static final int ANZAHL_HASHES = 7;
+    private static final int BITS_PRO_ZAEHLER = 4;
+    private static final int ZAEHLER_PRO_LONG = Long.SIZE / BITS_PRO_ZAEHLER;
+    private static final long MAX = (1L << BITS_PRO_ZAEHLER) - 1;
+
+    // FNV-1a und der Finalizer von MurmurHash3 wie bei BloomFilter
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX1 = 0xff51afd7ed558ccdL;
+    private static final long MIX2 = 0xc4ceb9fe1a85ec53L;
+    private static final int SHIFT = 33;
+
+    private final AtomicLongArray zaehler;
+
+    private final long anzahlZaehler;
+
+    // Anzahl der Zaehler ungleich 0 fuer die geschaetzte Rate der falsch positiven Ergebnisse
+    private final AtomicLong belegt = new AtomicLong();
+
+    /**
+     * Konstruktor mit der geplanten Anzahl der Schlüssel.
+     *
+     * @param kapazitaet Die geplante Anzahl der Schlüssel
+     * @param name Der Name für das Tag `filter` der Metriken
+     * @param registry Die Registry für die Metriken
+     */
+    CountingBloomFilter(final int kapazitaet, final String name, final MeterRegistry registry) {
+        final var laenge = ((long) kapazitaet * ZAEHLER_PRO_SCHLUESSEL + ZAEHLER_PRO_LONG - 1) / ZAEHLER_PRO_LONG;
+        zaehler = new AtomicLongArray((int) Math.max(1, laenge));
+        anzahlZaehler = (long) zaehler.length() * ZAEHLER_PRO_LONG;
+
+        Gauge.builder("filiale.repository.bloom.fpp", this, CountingBloomFilter::fpp)
+            .description("Geschaetzte Rate der falsch positiven Ergebnisse")
+            .tag("filter", name)
+            .register(registry);
+        Gauge.builder("filiale.repository.bloom.memory", this, CountingBloomFilter::bytes)
+            .description("Belegter Speicher fuer die Zaehler")
+            .baseUnit("bytes")
+            .tag("filter", name)
+            .register(registry);
+    }
+
+    /**
+     * Einen Schlüssel hinzufügen.
+     *
+     * @param hash Der Hashwert des Schlüssels, z.B. von {@link #hash(UUID)}
+     */
+    void add(final long hash) {
+        for (int i = 0; i < ANZAHL_HASHES; i++) {
+            aendern(position(hash, i), 1);
+        }
+    }
+
+    /**
+     * Einen zuvor hinzugefügten Schlüssel entfernen.
+     *
+     * @param hash Der Hashwert des Schlüssels
+     */
+    void remove(final long hash) {
+        for (int i = 0; i < ANZAHL_HASHES; i++) {
+            aendern(position(hash, i), -1);
+        }
+    }
+
+    /**
+     * Prüfen, ob ein Schlüssel enthalten sein kann.
+     *
+     * @param hash Der Hashwert des Schlüssels
+     * @return false, falls der Schlüssel sicher nicht enthalten ist
+     */
+    boolean mightContain(final long hash) {
+        for (int i = 0; i < ANZAHL_HASHES; i++) {
+            final var position = position(hash, i);
+            if (wert(zaehler.get((int) (position / ZAEHLER_PRO_LONG)), position) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Die geschätzte Rate der falsch positiven Ergebnisse aus dem Anteil der belegten Zähler.
+     *
+     * @return Die Rate zwischen 0 und 1
+     */
+    double fpp() {
+        return Math.pow((double) belegt.get() / anzahlZaehler, ANZAHL_HASHES);
+    }
+
+    /**
+     * Der belegte Speicher im Heap für die Metriken.
+     *
+     * @return Die Anzahl der Bytes
+     */
+    long bytes() {
+        return (long) zaehler.length() * Long.BYTES;
+    }
+
+    /**
+     * Der Hashwert einer ID.
+     *
+     * @param id Die ID
+     * @return Der Hashwert
+     */
+    static long hash(final UUID id) {
+        return mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+    }
+
+    /**
+     * Der Hashwert eines Strings, z.B. einer normalisierten Emailadresse.
+     *
+     * @param text Der String
+     * @return Der Hashwert
+     */
+    static long hash(final String text) {
+        var hash = FNV_OFFSET;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    // Double Hashing wie bei BloomFilter
+    private long position(final long hash, final int i) {
+        return Math.floorMod((int) hash + i * (hash >>> Integer.SIZE), anzahlZaehler);
+    }
+
+    private void aendern(final long position, final int delta) {
+        final var index = (int) (position / ZAEHLER_PRO_LONG);
+        final var shift = (int) (position % ZAEHLER_PRO_LONG) * BITS_PRO_ZAEHLER;
+        while (true) {
+            final var alt = zaehler.get(index);
+            final var wert = alt >>> shift & MAX;
+            if (wert == MAX || wert == 0 && delta < 0) {
+                // gesaettigter Zaehler bzw. Schluessel, der nie hinzugefuegt wurde
+                return;
+            }
+            final var neu = alt + ((long) delta << shift);
+            if (zaehler.compareAndSet(index, alt, neu)) {
+                if (wert == 0) {
+                    belegt.incrementAndGet();
+                } else if (wert == 1 && delta < 0) {
+                    belegt.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    private static long wert(final long zaehlerLong, final long position) {
+        return zaehlerLong >>> (int) (position % ZAEHLER_PRO_LONG) * BITS_PRO_ZAEHLER & MAX;
+    }
+
+    private static long mix(final long wert) {
+        var hash = (wert ^ wert >>> SHIFT) * MIX1;
+        hash = (hash ^ hash >>> SHIFT) * MIX2;
+        return hash ^ hash >>> SHIFT;
+    }
+}
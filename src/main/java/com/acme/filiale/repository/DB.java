@@ -19,45 +19,42 @@ package com.acme.filiale.repository;
 import com.acme.filiale.entity.Adresse;
 import com.acme.filiale.entity.Filiale;
 import com.acme.filiale.entity.Umsatz;
+import com.acme.filiale.entity.Waehrungen;
 import lombok.SneakyThrows;
 
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Currency;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.math.BigDecimal.ZERO;
-import static java.util.Locale.GERMANY;
 
 /**
  * Emulation der Datenbasis für persistente Filialen.
  */
 @SuppressWarnings({"UtilityClassCanBeEnum", "UtilityClass", "MagicNumber", "RedundantSuppression"})
 final class DB {
-    /**
-     * Liste der Filialen zur Emulation der DB.
-     */
-    @SuppressWarnings("StaticCollection")
-    static final List<Filiale> FILIALEN = getFilialen();
-
     private DB() {
     }
 
+    /**
+     * Die Filialen, mit denen der Speicher des Repository initialisiert wird.
+     *
+     * @return Die Filialen
+     */
     @SneakyThrows(MalformedURLException.class)
     @SuppressWarnings({"FeatureEnvy", "TrailingComment"})
-    private static List<Filiale> getFilialen() {
-        final var currencyGermany = Currency.getInstance(GERMANY);
+    static List<Filiale> getFilialen() {
+        final var euro = Waehrungen.of("EUR");
         return Stream.of(
                 Filiale.builder()
                     .id(UUID.fromString("00000000-0000-0000-0000-000000000000"))
                     .name("Admin")
                     .email("admin@acme.com")
                     .homepage(new URL("https://www.acme.com"))
-                    .umsatz(Umsatz.builder().betrag(ZERO).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(ZERO).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("00000").ort("Aachen").build())
                     .build(),
                 Filiale.builder()
@@ -65,7 +62,7 @@ final class DB {
                     .name("Alpha")
                     .email("alpha@acme.de")
                     .homepage(new URL("https://www.acme.de"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("10")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("10")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("11111").ort("Augsburg").build())
                     .build(),
                 Filiale.builder()
@@ -73,7 +70,7 @@ final class DB {
                     .name("Alpha")
                     .email("alpha@acme.edu")
                     .homepage(new URL("https://www.acme.edu"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("20")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("20")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("22222").ort("Aalen").build())
                     .build(),
                 Filiale.builder()
@@ -81,7 +78,7 @@ final class DB {
                     .name("Alpha")
                     .email("alpha@acme.ch")
                     .homepage(new URL("https://www.acme.ch"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("30")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("30")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("33333").ort("Ahlen").build())
                     .build(),
                 Filiale.builder()
@@ -89,7 +86,7 @@ final class DB {
                     .name("Delta")
                     .email("delta@acme.uk")
                     .homepage(new URL("https://www.acme.uk"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("40")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("40")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("44444").ort("Dortmund").build())
                     .build(),
                 Filiale.builder()
@@ -97,7 +94,7 @@ final class DB {
                     .name("Epsilon")
                     .email("epsilon@acme.jp")
                     .homepage(new URL("https://www.acme.jp"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("50")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("50")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("55555").ort("Essen").build())
                     .build(),
                 Filiale.builder()
@@ -105,10 +102,10 @@ final class DB {
                     .name("Phi")
                     .email("phi@acme.cn")
                     .homepage(new URL("https://www.acme.cn"))
-                    .umsatz(Umsatz.builder().betrag(new BigDecimal("60")).waehrung(currencyGermany).build())
+                    .umsatz(Umsatz.builder().betrag(new BigDecimal("60")).waehrung(euro).build())
                     .adresse(Adresse.builder().plz("66666").ort("Freiburg").build())
                     .build()
             )
-            .collect(Collectors.toList());
+            .toList();
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Eindeutiger Index für Emailadressen, die unabhängig von Groß- und Kleinschreibung verglichen werden. Eine
+ * Emailadresse wird für genau eine Filiale reserviert, d.h. die Prüfung und das Eintragen sind eine atomare Operation.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class EmailIndex {
+    private final ConcurrentMap<String, UUID> ids;
+
+    EmailIndex(final Collection<Filiale> filialen) {
+        ids = new ConcurrentHashMap<>(filialen.size() * 2);
+        filialen.forEach(filiale -> reserve(filiale.getEmail(), filiale.getId()));
+    }
+
+    /**
+     * Emailadresse normalisieren, d.h. in Kleinbuchstaben unabhängig vom Default-Locale umwandeln.
+     *
+     * @param email Die Emailadresse oder null
+     * @return Die normalisierte Emailadresse oder null
+     */
+    static String normalize(final String email) {
+        return email == null ? null : email.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Die ID der Filiale zu einer Emailadresse ermitteln.
+     *
+     * @param email Die Emailadresse
+     * @return Optional mit der ID oder leeres Optional
+     */
+    Optional<UUID> get(final String email) {
+        if (email == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(ids.get(normalize(email)));
+    }
+
+    /**
+     * Eine Emailadresse atomar für eine Filiale reservieren, falls sie nicht schon einer anderen Filiale gehört.
+     *
+     * @param email Die Emailadresse
+     * @param id Die ID der Filiale
+     * @return true, falls die Emailadresse (jetzt) zur Filiale gehört, false, falls sie einer anderen Filiale gehört
+     */
+    boolean reserve(final String email, final UUID id) {
+        final var vorhandeneId = ids.putIfAbsent(normalize(email), id);
+        return vorhandeneId == null || Objects.equals(vorhandeneId, id);
+    }
+
+    /**
+     * Eine Emailadresse freigeben, sofern sie (noch) zur angegebenen Filiale gehört.
+     *
+     * @param email Die Emailadresse
+     * @param id Die ID der Filiale
+     */
+    void release(final String email, final UUID id) {
+        if (email != null) {
+            ids.remove(normalize(email), id);
+        }
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Repository für Filialen, die im Speicher des Prozesses verwaltet werden, falls das Spring-Profile `jdbc` nicht
+ * aktiviert ist. Der Speicher wird mit `app.repository.storage` konfiguriert, siehe {@link RepositoryProps}.
+ *
+ * <p>Alle Änderungen laufen über {@link #compute}: Änderungen an derselben Filiale werden mit einer Sperre pro ID
+ * serialisiert, damit die Prüfung der Emailadresse und das Ersetzen atomar sind. Mit `app.repository.wal.enabled`
+ * wird jede Änderung zusätzlich vor dem Speichern im {@link WriteAheadLog} protokolliert, so dass die Reihenfolge im
+ * Protokoll und im Speicher übereinstimmt.</p>
+ *
+ * <p>Mit `app.repository.snapshot-file.enabled` werden die Filialen beim Start aus einem {@link BinarySnapshot}
+ * geladen, der periodisch und beim Herunterfahren geschrieben wird. Mit beiden Optionen enthält der Snapshot die
+ * Position im Write-Ahead-Log, bis zu der er alle Änderungen enthält. Die Datensätze davor werden nach dem Schreiben
+ * des Snapshot aus dem Protokoll entfernt, so dass beim Start nur die Änderungen seit dem letzten Snapshot
+ * eingespielt werden.</p>
+ *
+ * <p>Mit dem Speicher `lsm` kann der Katalog größer als der Heap sein: Die Filialen werden beim Start aus dem
+ * Snapshot bzw. der DB und dem Write-Ahead-Log direkt in die Bäume eingespielt und die Sekundärindexe liegen
+ * ebenfalls in LSM-Trees, siehe {@link LsmFilialeIndex}. Der Snapshot enthält dann keine Posting-Listen.</p>
+ *
+ * <p>Mit dem Speicher `columnar` liegen die Filialen und die Sekundärindexe außerhalb des Heap, siehe
+ * {@link ColumnarFilialeIndex}. Auch dann enthält der Snapshot keine Posting-Listen.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Repository
+@Profile("!" + JdbcFilialenRepository.JDBC)
+@Slf4j
+@SuppressWarnings("PublicConstructor")
+public final class EmbeddedFilialenRepository implements FilialenRepository {
+    private static final int ANZAHL_SPERREN = 256;
+
+    // compute() ohne Vergleich der Version
+    private static final long BELIEBIGE_VERSION = -1;
+
+    private final FilialeStore store;
+
+    private final WriteAheadLog wal;
+
+    private final BinarySnapshot snapshot;
+
+    private final ReentrantLock[] sperren;
+
+    private final Supplier<UUID> idGenerator;
+
+    private final FilialeIndex index;
+
+    private final QueryPlanner planner;
+
+    private final VersionClock versionen;
+
+    // Posting-Listen im Snapshot nur, wenn der Trigramm-Index im Heap liegt, d.h. nicht bei lsm und columnar
+    private final boolean trigrammeImSnapshot;
+
+    /**
+     * Konstruktor mit der Default-Konfiguration, z.B. für Tests.
+     */
+    public EmbeddedFilialenRepository() {
+        this(RepositoryProps.DEFAULT, new StringPool());
+    }
+
+    /**
+     * Konstruktor mit der Konfiguration aus `application.yml`. Die Metriken werden in der globalen Registry von
+     * Micrometer registriert, zu der Spring Boot die Registry für Prometheus hinzufügt.
+     *
+     * @param props Die Konfiguration für das Repository
+     * @param stringPool Der Pool, mit dem die Strings der initialen Filialen kanonisiert werden
+     */
+    @Autowired
+    public EmbeddedFilialenRepository(final RepositoryProps props, final StringPool stringPool) {
+        log.info("EmbeddedFilialenRepository: {}", props);
+        final MeterRegistry registry = Metrics.globalRegistry;
+        snapshot = props.snapshotFile().enabled() ? new BinarySnapshot(props.snapshotFile(), registry) : null;
+        idGenerator = props.idGenerator().generator();
+        sperren = new ReentrantLock[ANZAHL_SPERREN];
+        for (int i = 0; i < ANZAHL_SPERREN; i++) {
+            sperren[i] = new ReentrantLock();
+        }
+        final var zustand = switch (props.storage()) {
+            case SNAPSHOT -> laden(props, stringPool, filialen -> new SnapshotStore(filialen, registry), registry);
+            case SHARDED -> laden(
+                props,
+                stringPool,
+                filialen -> new ShardedStore(filialen, props.shards(), props.parallelThreshold(), registry),
+                registry
+            );
+            case COLUMNAR -> laden(props, stringPool, filialen -> new ColumnarStore(filialen, registry), registry);
+            case LSM -> ladenLsm(props, registry);
+        };
+        store = zustand.store();
+        index = zustand.index();
+        wal = zustand.wal();
+        versionen = zustand.versionen();
+        trigrammeImSnapshot = props.storage() != RepositoryProps.Storage.LSM &&
+            props.storage() != RepositoryProps.Storage.COLUMNAR;
+        planner = new QueryPlanner(store, index);
+
+        Gauge.builder("filiale.repository.size", store, FilialeStore::size)
+            .description("Anzahl der Filialen")
+            .register(registry);
+
+        if (snapshot != null) {
+            snapshot.start(this::stand, wal == null ? position -> { } : wal::checkpoint);
+        }
+    }
+
+    @Override
+    public Optional<Filiale> findById(final UUID id) {
+        log.debug("findById: id={}", id);
+        // Zugriff ueber den Hash-Index in O(1) statt sequentieller Suche
+        final var result = id == null
+            ? Optional.<Filiale>empty()
+            : Optional.ofNullable(store.view().get(id)).map(SnapshotStore::kopie);
+        log.debug("findById: {}", result);
+        return result;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> find(final Map<String, String> suchkriterien) {
+        log.debug("find: suchkriterien={}", suchkriterien);
+
+        if (suchkriterien.isEmpty()) {
+            return findAll();
+        }
+
+        final var filialen = kopien(planner.execute(suchkriterien));
+        log.debug("find: filialen={}", filialen);
+        return filialen;
+    }
+
+    @Override
+    public @NonNull Page find(final Map<String, String> suchkriterien, final UUID after, final int limit) {
+        log.debug("find: suchkriterien={}, after={}, limit={}", suchkriterien, after, limit);
+        final var page = planner.page(suchkriterien, after, limit);
+        final var result = new Page(kopien(page.filialen()), page.next());
+        log.debug("find: #filialen={}, next={}", result.filialen().size(), result.next());
+        return result;
+    }
+
+    @Override
+    public @NonNull Stream<Filiale> stream(final Map<String, String> suchkriterien) {
+        log.debug("stream: suchkriterien={}", suchkriterien);
+        return planner.stream(suchkriterien).map(SnapshotStore::kopie);
+    }
+
+    @Override
+    public @NonNull QueryPlan explain(final Map<String, String> suchkriterien) {
+        log.debug("explain: suchkriterien={}", suchkriterien);
+        final var plan = planner.explain(suchkriterien);
+        log.debug("explain: {}", plan);
+        return plan;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> findAll() {
+        return kopien(store.view().filter(filiale -> true));
+    }
+
+    @Override
+    public Optional<Filiale> findByEmail(final String email) {
+        log.debug("findByEmail: {}", email);
+        // der Index liefert nur einen Hinweis, der mit dem Speicher verifiziert wird
+        final var view = store.view();
+        final var normalisiert = EmailIndex.normalize(email);
+        final var result = index.getByEmail(email)
+            .map(view::get)
+            .filter(filiale -> Objects.equals(EmailIndex.normalize(filiale.getEmail()), normalisiert))
+            .map(SnapshotStore::kopie);
+        log.debug("findByEmail: {}", result);
+        return result;
+    }
+
+    @Override
+    public boolean isEmailExisting(final String email) {
+        log.debug("isEmailExisting: email={}", email);
+        final var existing = index.getByEmail(email).isPresent();
+        log.debug("isEmailExisting: existing={}", existing);
+        return existing;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> findByName(final CharSequence name) {
+        log.debug("findByName: name={}", name);
+        final var teilstring = name.toString();
+        // Kandidaten aus dem Trigramm-Index; bei kurzen Suchstrings sind alle Filialen Kandidaten
+        final var view = store.view();
+        final Predicate<Filiale> praedikat = filiale -> filiale.getName().contains(teilstring);
+        final var treffer = index.candidates(teilstring)
+            .map(ids -> ids.stream().map(view::get).filter(Objects::nonNull).filter(praedikat).toList())
+            .orElseGet(() -> view.filter(praedikat));
+        final var filialen = kopien(treffer);
+        log.debug("findByNamen: filialen={}", filialen);
+        return filialen;
+    }
+
+    @Override
+    public @NonNull List<String> findNamenByPrefix(final @NonNull String prefix, final int limit) {
+        log.debug("findNamenByPrefix: prefix={}, limit={}", prefix, limit);
+        final var namen = index.complete(prefix, limit);
+        log.debug("findNamenByPrefix: namen={}", namen);
+        return namen;
+    }
+
+    @Override
+    public Optional<Filiale> create(final @NonNull Filiale filiale) {
+        log.debug("create: {}", filiale);
+        final var result = compute(null, alt -> filiale);
+        return Optional.ofNullable(result.filiale());
+    }
+
+    @Override
+    public boolean update(final @NonNull Filiale filiale) {
+        log.debug("update: {}", filiale);
+        // eine zwischenzeitlich geloeschte Filiale wird nicht neu angelegt
+        final var result = compute(filiale.getId(), alt -> alt == null ? null : filiale);
+        return result.status() == WriteResult.Status.OK;
+    }
+
+    @Override
+    public void deleteById(final UUID id) {
+        log.debug("deleteById: id={}", id);
+        if (id != null) {
+            compute(id, alt -> null);
+        }
+        log.debug("deleteById: #Filiale={}", store.size());
+    }
+
+    @Override
+    public @NonNull WriteResult compute(final UUID id, final @NonNull UnaryOperator<Filiale> aenderung) {
+        log.debug("compute: id={}", id);
+        // eine neue ID ist noch niemandem bekannt, die Sperre ist dann nie belegt
+        return ausfuehren(id == null ? idGenerator.get() : id, BELIEBIGE_VERSION, aenderung);
+    }
+
+    @Override
+    public @NonNull WriteResult compute(
+        final @NonNull UUID id,
+        final long version,
+        final @NonNull UnaryOperator<Filiale> aenderung
+    ) {
+        log.debug("compute: id={}, version={}", id, version);
+        return ausfuehren(id, version, aenderung);
+    }
+
+    @Override
+    public long version() {
+        return versionen.current();
+    }
+
+    /**
+     * Beim Herunterfahren den binären Snapshot schreiben, das Write-Ahead-Log schließen, nachdem die wartenden
+     * Änderungen geschrieben wurden, und die Ressourcen des Speichers freigeben.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+        index.close();
+        store.close();
+    }
+
+    private WriteResult ausfuehren(final UUID schluessel, final long version, final UnaryOperator<Filiale> aenderung) {
+        final var sperre = sperre(schluessel);
+        sperre.lock();
+        try {
+            final var alt = store.view().get(schluessel);
+            if (version != BELIEBIGE_VERSION && alt != null && alt.getVersion() != version) {
+                log.debug("compute: version={} statt {}", alt.getVersion(), version);
+                return WriteResult.VERSION_MISMATCH;
+            }
+            final var neu = aenderung.apply(alt == null ? null : SnapshotStore.kopie(alt));
+            final WriteResult result;
+            if (neu == null) {
+                result = alt == null ? WriteResult.NOT_FOUND : loeschen(alt);
+            } else {
+                result = speichern(schluessel, alt, neu);
+            }
+            log.debug("compute: {}", result);
+            return result;
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    // Stand fuer den Snapshot: solange alle Sperren gehalten werden, ist jede Aenderung vor der Position im
+    // Write-Ahead-Log auch im Speicher. Spaetere Aenderungen koennen bereits enthalten sein und werden beim Start
+    // in derselben Reihenfolge nochmals eingespielt.
+    private BinarySnapshot.Stand stand() {
+        var position = 0L;
+        if (wal != null) {
+            for (final var sperre : sperren) {
+                sperre.lock();
+            }
+            try {
+                position = wal.position();
+            } finally {
+                for (final var sperre : sperren) {
+                    sperre.unlock();
+                }
+            }
+        }
+        return new BinarySnapshot.Stand(store.stream(), position, trigrammeImSnapshot);
+    }
+
+    // alle Filialen im Heap: Snapshot bzw. DB laden, die Aenderungen aus dem Write-Ahead-Log einspielen und danach
+    // den Speicher und die Indexe aufbauen
+    private Zustand laden(
+        final RepositoryProps props,
+        final StringPool stringPool,
+        final Function<List<Filiale>, FilialeStore> speicher,
+        final MeterRegistry registry
+    ) {
+        final var inhalt = snapshot == null ? Optional.<BinarySnapshot.Inhalt>empty() : snapshot.load();
+        final var basis = inhalt.map(BinarySnapshot.Inhalt::filialen).orElseGet(DB::getFilialen);
+        final List<Filiale> filialen;
+        final WriteAheadLog wal;
+        Set<UUID> eingespielt = Set.of();
+        if (props.wal().enabled()) {
+            final var map = new LinkedHashMap<UUID, Filiale>(basis.size() * 2);
+            basis.forEach(filiale -> map.put(filiale.getId(), filiale));
+            final long ab = inhalt.map(BinarySnapshot.Inhalt::walPosition).orElse(0L);
+            wal = WriteAheadLog.open(props.wal(), map, ab, registry);
+            filialen = new ArrayList<>(map.values());
+            eingespielt = wal.eingespielt();
+        } else {
+            wal = null;
+            filialen = basis;
+        }
+        final var versionen = new VersionClock(filialen.stream().mapToLong(Filiale::getVersion).max().orElse(0));
+        // Filialen ohne Version, z.B. aus DB, erhalten den Zeitpunkt des Ladens als Version fuer Last-Modified.
+        // Mit WAL wird die Version protokolliert, damit sich ETag und Last-Modified bei einem Neustart nicht aendern.
+        final var ohneVersion = filialen.stream()
+            .filter(filiale -> filiale.getVersion() == 0)
+            .toList();
+        ohneVersion.forEach(filiale -> {
+            filiale.setVersion(versionen.next(0));
+            versionen.commit(filiale.getVersion());
+        });
+        if (wal != null) {
+            ohneVersion.parallelStream().forEach(wal::put);
+        }
+        filialen.parallelStream().forEach(stringPool::canonicalize);
+        final var store = speicher.apply(filialen);
+        // die Indexe zum Speicher ausserhalb des Heap liegen ebenfalls ausserhalb des Heap
+        if (store instanceof ColumnarStore columnar) {
+            return new Zustand(store, new ColumnarFilialeIndex(columnar, filialen, registry), wal, versionen);
+        }
+        final var trigramIndex = inhalt.isPresent() && inhalt.get().trigramme() != null
+            ? trigramIndex(inhalt.get(), filialen, eingespielt, registry)
+            : new TrigramIndex(filialen, registry);
+        return new Zustand(store, new HeapFilialeIndex(filialen, trigramIndex), wal, versionen);
+    }
+
+    // der Katalog kann groesser als der Heap sein: Snapshot bzw. DB und die Aenderungen aus dem Write-Ahead-Log
+    // direkt in die Baeume einspielen und die Indexe danach seitenweise aufbauen
+    private Zustand ladenLsm(final RepositoryProps props, final MeterRegistry registry) {
+        final var store = new LsmStore(props.lsm(), registry);
+        final var geladen = new LongSummaryStatistics();
+        final Consumer<Filiale> laden = filiale -> {
+            geladen.accept(filiale.getVersion());
+            store.put(filiale);
+        };
+        final var position = snapshot == null ? OptionalLong.empty() : snapshot.load(laden);
+        if (position.isEmpty()) {
+            DB.getFilialen().forEach(laden);
+        }
+        final var wal = props.wal().enabled()
+            ? WriteAheadLog.open(props.wal(), laden, store::remove, position.orElse(0), registry)
+            : null;
+        final var versionen = new VersionClock(Math.max(0, geladen.getMax()));
+        if (geladen.getMin() == 0) {
+            // wie im Heap erhalten Filialen ohne Version eine Version, die mit WAL protokolliert wird
+            store.stream()
+                .filter(filiale -> filiale.getVersion() == 0)
+                .forEach(filiale -> {
+                    filiale.setVersion(versionen.next(0));
+                    if (wal != null) {
+                        wal.put(filiale);
+                    }
+                    store.put(filiale);
+                    versionen.commit(filiale.getVersion());
+                });
+        }
+        return new Zustand(store, new LsmFilialeIndex(store, props.lsm(), registry), wal, versionen);
+    }
+
+    // die vorberechneten Posting-Listen aus dem Snapshot um die Aenderungen aus dem Write-Ahead-Log korrigieren
+    private static TrigramIndex trigramIndex(
+        final BinarySnapshot.Inhalt inhalt,
+        final Collection<Filiale> filialen,
+        final Set<UUID> eingespielt,
+        final MeterRegistry registry
+    ) {
+        final var index = new TrigramIndex(inhalt.trigramme(), registry);
+        if (!eingespielt.isEmpty()) {
+            inhalt.filialen().stream()
+                .filter(filiale -> eingespielt.contains(filiale.getId()))
+                .forEach(filiale -> index.remove(filiale.getId(), filiale.getName()));
+            filialen.stream()
+                .filter(filiale -> eingespielt.contains(filiale.getId()))
+                .forEach(filiale -> index.add(filiale.getId(), filiale.getName()));
+        }
+        return index;
+    }
+
+    // unter der Sperre fuer die ID: im dauerhaften Modus wird die Aenderung zuerst protokolliert und dann gespeichert
+    private WriteResult speichern(final UUID id, final Filiale alt, final Filiale neu) {
+        if (!index.reserveEmail(neu.getEmail(), id)) {
+            log.debug("compute: email={} existiert bereits", neu.getEmail());
+            return WriteResult.EMAIL_EXISTS;
+        }
+        final var filialeDb = SnapshotStore.kopie(neu);
+        filialeDb.setId(id);
+        filialeDb.setVersion(versionen.next(alt == null ? 0 : alt.getVersion()));
+        final var emailGeaendert = alt == null ||
+            !Objects.equals(EmailIndex.normalize(alt.getEmail()), EmailIndex.normalize(filialeDb.getEmail()));
+        if (wal != null) {
+            try {
+                wal.put(filialeDb);
+            } catch (final UncheckedIOException ex) {
+                if (emailGeaendert) {
+                    index.releaseEmail(filialeDb.getEmail(), id);
+                }
+                throw ex;
+            }
+        }
+
+        if (alt == null) {
+            store.put(filialeDb);
+            index.add(filialeDb);
+            versionen.commit(filialeDb.getVersion());
+            return WriteResult.ok(SnapshotStore.kopie(filialeDb));
+        }
+        store.replace(filialeDb);
+        if (emailGeaendert) {
+            index.releaseEmail(alt.getEmail(), id);
+        }
+        if (!Objects.equals(alt.getName(), filialeDb.getName())) {
+            index.rename(id, alt.getName(), filialeDb.getName());
+        }
+        versionen.commit(filialeDb.getVersion());
+        return WriteResult.ok(SnapshotStore.kopie(filialeDb));
+    }
+
+    private WriteResult loeschen(final Filiale alt) {
+        final var id = alt.getId();
+        if (wal != null) {
+            wal.delete(id);
+        }
+        // die Indexe vor dem Speicher, damit ColumnarFilialeIndex die Zeile der Filiale noch ermitteln kann
+        index.remove(alt);
+        store.remove(id);
+        index.releaseEmail(alt.getEmail(), id);
+        versionen.commit(versionen.next(alt.getVersion()));
+        return WriteResult.ok(null);
+    }
+
+    private ReentrantLock sperre(final UUID id) {
+        return sperren[(id.hashCode() & Integer.MAX_VALUE) % ANZAHL_SPERREN];
+    }
+
+    private static List<Filiale> kopien(final Collection<Filiale> filialen) {
+        return filialen.stream().map(SnapshotStore::kopie).collect(Collectors.toList());
+    }
+
+    private record Zustand(FilialeStore store, FilialeIndex index, WriteAheadLog wal, VersionClock versionen) {
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Umsatz;
+import com.acme.filiale.entity.Waehrungen;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Binäres Format einer Filiale für das {@link WriteAheadLog} und den {@link BinarySnapshot}: die ID mit 16 Bytes,
+ * die Version mit 8 Bytes, danach die Attribute in fester Reihenfolge. Ein String wird mit seiner Länge in Bytes und
+ * UTF-8 kodiert, null mit der Länge -1.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class FilialeCodec {
+    private static final int NULL = -1;
+
+    private FilialeCodec() {
+    }
+
+    /**
+     * Eine Filiale mit ID schreiben.
+     *
+     * @param out Die Ausgabe
+     * @param filiale Die Filiale
+     * @throws IOException Falls nicht geschrieben werden kann
+     */
+    static void write(final DataOutput out, final Filiale filiale) throws IOException {
+        writeId(out, filiale.getId());
+        out.writeLong(filiale.getVersion());
+        writeString(out, filiale.getName());
+        writeString(out, filiale.getEmail());
+        writeString(out, filiale.getHomepage() == null ? null : filiale.getHomepage().toString());
+        final var umsatz = filiale.getUmsatz();
+        out.writeBoolean(umsatz != null);
+        if (umsatz != null) {
+            writeString(out, umsatz.getBetrag() == null ? null : umsatz.getBetrag().toString());
+            writeString(out, umsatz.getWaehrung() == null ? null : umsatz.getWaehrung().getCurrencyCode());
+        }
+        final var adresse = filiale.getAdresse();
+        out.writeBoolean(adresse != null);
+        if (adresse != null) {
+            writeString(out, adresse.getPlz());
+            writeString(out, adresse.getOrt());
+        }
+    }
+
+    /**
+     * Eine Filiale ab der aktuellen Position eines Puffers lesen. Die Position steht danach hinter der Filiale.
+     *
+     * @param in Der Puffer, z.B. ein Ausschnitt einer Datei im Speicher
+     * @return Die gelesene Filiale
+     * @throws IOException Falls der Puffer keine gültige Filiale enthält
+     */
+    static Filiale read(final ByteBuffer in) throws IOException {
+        try {
+            final var builder = Filiale.builder()
+                .id(readId(in))
+                .version(in.getLong())
+                .name(readString(in))
+                .email(readString(in));
+            final var homepage = readString(in);
+            if (homepage != null) {
+                builder.homepage(new URL(homepage));
+            }
+            if (in.get() != 0) {
+                final var betrag = readString(in);
+                final var waehrung = readString(in);
+                builder.umsatz(Umsatz.builder()
+                    .betrag(betrag == null ? null : new BigDecimal(betrag))
+                    .waehrung(waehrung == null ? null : Waehrungen.of(waehrung))
+                    .build());
+            }
+            if (in.get() != 0) {
+                builder.adresse(Adresse.builder().plz(readString(in)).ort(readString(in)).build());
+            }
+            return builder.build();
+        } catch (final BufferUnderflowException | MalformedURLException | IllegalArgumentException ex) {
+            throw new IOException("Ungueltige Filiale an Position " + in.position(), ex);
+        }
+    }
+
+    /**
+     * Eine ID schreiben.
+     *
+     * @param out Die Ausgabe
+     * @param id Die ID
+     * @throws IOException Falls nicht geschrieben werden kann
+     */
+    static void writeId(final DataOutput out, final UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    /**
+     * Eine ID lesen.
+     *
+     * @param in Der Puffer
+     * @return Die ID
+     */
+    static UUID readId(final ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+
+    private static void writeString(final DataOutput out, final String wert) throws IOException {
+        if (wert == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        final var bytes = wert.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer in) throws IOException {
+        final var laenge = in.getInt();
+        if (laenge == NULL) {
+            return null;
+        }
+        if (laenge < 0 || laenge > in.remaining()) {
+            throw new IOException("Ungueltige Laenge eines Strings: " + laenge);
+        }
+        final var bytes = new byte[laenge];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
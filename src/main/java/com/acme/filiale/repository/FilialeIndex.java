@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Sekundärindexe über die Filialen in einem {@link FilialeStore}: die eindeutigen Emailadressen, die Namen für die
+ * Autovervollständigung, die Trigramme der Namen für die Suche nach Teilstrings und die sortierten IDs für die Keyset
+ * Pagination. Die Indexe liefern nur Hinweise, die mit den Filialen aus dem Speicher verifiziert werden.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+interface FilialeIndex {
+    /**
+     * Die ID der Filiale zu einer Emailadresse ermitteln.
+     *
+     * @param email Die Emailadresse
+     * @return Optional mit der ID oder leeres Optional
+     */
+    Optional<UUID> getByEmail(String email);
+
+    /**
+     * Eine Emailadresse atomar für eine Filiale reservieren, falls sie nicht schon einer anderen Filiale gehört.
+     *
+     * @param email Die Emailadresse
+     * @param id Die ID der Filiale
+     * @return true, falls die Emailadresse (jetzt) zur Filiale gehört, false, falls sie einer anderen Filiale gehört
+     */
+    boolean reserveEmail(String email, UUID id);
+
+    /**
+     * Eine Emailadresse freigeben, sofern sie (noch) zur angegebenen Filiale gehört.
+     *
+     * @param email Die Emailadresse
+     * @param id Die ID der Filiale
+     */
+    void releaseEmail(String email, UUID id);
+
+    /**
+     * Eine neue Filiale indizieren, deren Emailadresse bereits reserviert ist.
+     *
+     * @param filiale Die neue Filiale
+     */
+    void add(Filiale filiale);
+
+    /**
+     * Den geänderten Namen einer Filiale indizieren.
+     *
+     * @param id Die ID der Filiale
+     * @param alt Der bisherige Name
+     * @param neu Der neue Name
+     */
+    void rename(UUID id, String alt, String neu);
+
+    /**
+     * Eine gelöschte Filiale aus den Indexen entfernen. Die Emailadresse wird separat freigegeben.
+     *
+     * @param filiale Die gelöschte Filiale
+     */
+    void remove(Filiale filiale);
+
+    /**
+     * Die häufigsten Namen zu einem Präfix ermitteln, absteigend sortiert nach der Anzahl der Filialen.
+     *
+     * @param prefix Der Präfix
+     * @param limit Maximale Anzahl der Namen
+     * @return Die gefundenen Namen oder eine leere Liste
+     */
+    List<String> complete(String prefix, int limit);
+
+    /**
+     * Kandidaten für die Suche nach einem Teilstring im Namen ermitteln. Das Ergebnis ist eine Obermenge der Treffer.
+     *
+     * @param teilstring Der gesuchte Teilstring
+     * @return Die IDs der Kandidaten oder ein leeres Optional, falls der Teilstring kürzer als ein Trigramm ist und
+     *      deshalb alle Filialen Kandidaten sind
+     */
+    Optional<Set<UUID>> candidates(String teilstring);
+
+    /**
+     * Die Anzahl der Kandidaten abschätzen, ohne die Posting-Listen zu schneiden.
+     *
+     * @param teilstring Der gesuchte Teilstring
+     * @return Die geschätzte Anzahl oder ein leeres Optional, falls der Index nicht verwendet werden kann
+     */
+    OptionalInt estimate(String teilstring);
+
+    /**
+     * Die Reihenfolge der IDs bei der Keyset Pagination.
+     *
+     * @return Der Comparator für die IDs
+     */
+    Comparator<UUID> reihenfolge();
+
+    /**
+     * Die Filialen nach einem Cursor in der Reihenfolge der IDs als lazy Stream.
+     *
+     * @param view Die Sicht auf den Speicher
+     * @param after Die ID der letzten bereits gelieferten Filiale oder null
+     * @return Die Filialen als Stream
+     */
+    Stream<Filiale> stream(FilialeStore.View view, UUID after);
+
+    /**
+     * Belegte Ressourcen außerhalb des Heap freigeben, z.B. Threads oder Dateien.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Speicher für die Filialen mit der ID als Primärschlüssel. Die gespeicherten Filialen werden nicht verändert, d.h.
+ * eine Implementierung legt beim Speichern Kopien ab und Änderungen erfolgen nur durch Ersetzen.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+interface FilialeStore {
+    /**
+     * Eine Sicht zum Lesen ermitteln. Alle Zugriffe über dieselbe Sicht sehen einen konsistenten Stand, sofern die
+     * Implementierung Schnappschüsse unterstützt.
+     *
+     * @return Die Sicht zum Lesen
+     */
+    View view();
+
+    /**
+     * Eine neue Filiale speichern.
+     *
+     * @param filiale Die neue Filiale mit ID
+     */
+    void put(Filiale filiale);
+
+    /**
+     * Eine vorhandene Filiale ersetzen. Falls es keine Filiale mit der ID gibt, wird nichts gespeichert.
+     *
+     * @param filiale Die Filiale mit den neuen Daten
+     * @return Die bisherige Filiale oder null
+     */
+    Filiale replace(Filiale filiale);
+
+    /**
+     * Eine Filiale entfernen.
+     *
+     * @param id Die ID der Filiale
+     * @return Die entfernte Filiale oder null
+     */
+    Filiale remove(UUID id);
+
+    /**
+     * Die aktuelle Anzahl der Filialen, z.B. für die Metriken.
+     *
+     * @return Die Anzahl der Filialen
+     */
+    int size();
+
+    /**
+     * Alle Filialen als Stream, z.B. für einen {@link BinarySnapshot}. Ein Speicher im Heap liefert die Filialen einer
+     * Sicht, ein Speicher außerhalb des Heap kann sie stattdessen nach und nach lesen.
+     *
+     * @return Die Filialen als Stream
+     */
+    default Stream<Filiale> stream() {
+        return view().filter(filiale -> true).stream();
+    }
+
+    /**
+     * Belegte Ressourcen außerhalb des Heap freigeben, z.B. Threads oder Dateien.
+     */
+    default void close() {
+    }
+
+    /**
+     * Lesender Zugriff auf die gespeicherten Filialen. Die gelieferten Filialen dürfen nicht verändert werden.
+     */
+    interface View {
+        /**
+         * Eine Filiale anhand der ID ermitteln.
+         *
+         * @param id Die ID
+         * @return Die Filiale oder null
+         */
+        Filiale get(UUID id);
+
+        /**
+         * Die Anzahl der Filialen.
+         *
+         * @return Die Anzahl der Filialen
+         */
+        int size();
+
+        /**
+         * Alle Filialen durchlaufen und diejenigen ermitteln, die ein Prädikat erfüllen (Full Scan).
+         *
+         * @param praedikat Das Prädikat
+         * @return Die Filialen, die das Prädikat erfüllen
+         */
+        List<Filiale> filter(Predicate<? super Filiale> praedikat);
+    }
+}
@@ -18,102 +18,88 @@ package com.acme.filiale.repository;
 
 import com.acme.filiale.entity.Filiale;
 import lombok.NonNull;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Repository;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.OptionalInt;
 import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import static com.acme.filiale.repository.DB.FILIALEN;
-import static java.util.UUID.randomUUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 /**
- * Repository für den DB-Zugriff bei Filialen.
+ * Repository für den DB-Zugriff bei Filialen. Ohne das Spring-Profile `jdbc` werden die Filialen im Speicher des
+ * Prozesses verwaltet, siehe {@link EmbeddedFilialenRepository}, und mit dem Profile in einer relationalen DB, siehe
+ * {@link JdbcFilialenRepository}. Die lesenden Zugriffe liefern Kopien, damit Aufrufer die gespeicherten Filialen
+ * nicht verändern können. Jede Änderung erhöht die Version der Filiale, siehe {@link VersionClock}.
  *
  * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
  */
-@Repository
-@Slf4j
-@SuppressWarnings("PublicConstructor")
-public final class FilialenRepository {
+public interface FilialenRepository {
     /**
      * Eine Filiale anhand seiner ID suchen.
      *
      * @param id Die Id der gesuchten Filiale
      * @return Optional mit der gefundenen Filiale oder leeres Optional
      */
-    public Optional<Filiale> findById(final UUID id) {
-        log.debug("findById: id={}", id);
-        final var result = FILIALEN.stream()
-            .filter(filiale -> Objects.equals(filiale.getId(), id))
-            .findFirst();
-        log.debug("findById: {}", result);
-        return result;
-    }
+    Optional<Filiale> findById(UUID id);
 
     /**
-     * Filiale anhand von Suchkriterien ermitteln.
+     * Filiale anhand von Suchkriterien ermitteln. Alle Suchkriterien müssen erfüllt sein, unbekannte Suchkriterien
+     * werden ignoriert.
      * Z.B. mit GET https://localhost:8080/api?name=A&amp;plz=7
      *
      * @param suchkriterien Suchkriterien.
      * @return Gefundene Filialen oder leere Collection.
      */
-    @SuppressWarnings({"ReturnCount", "JavadocLinkAsPlainText"})
-    public @NonNull Collection<Filiale> find(final Map<String, String> suchkriterien) {
-        log.debug("find: suchkriterien={}", suchkriterien);
-
-        if (suchkriterien.isEmpty()) {
-            return findAll();
-        }
-
-        for (final var entry : suchkriterien.entrySet()) {
-            switch (entry.getKey()) {
-                case "email" -> {
-                    final var result = findByEmail(entry.getValue());
-                    //noinspection OptionalIsPresent
-                    return result.isPresent() ? List.of(result.get()) : Collections.emptyList();
-                }
-                case "name" -> {
-                    return findByName(entry.getValue());
-                }
-                default -> log.debug("find: ungueltiges Suchkriterium={}", entry.getKey());
-            }
-        }
-
-        return Collections.emptyList();
-    }
+    @SuppressWarnings("JavadocLinkAsPlainText")
+    @NonNull Collection<Filiale> find(Map<String, String> suchkriterien);
+
+    /**
+     * Eine Seite der Filialen zu Suchkriterien mit Keyset Pagination suchen: Die Filialen sind aufsteigend nach der ID
+     * sortiert und die Suche endet, sobald die Seite voll ist. Der Cursor ist die ID der letzten Filiale der
+     * vorherigen Seite, so dass neue oder gelöschte Filialen die folgenden Seiten nicht verschieben.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @param after Die ID der letzten Filiale der vorherigen Seite oder null für die erste Seite
+     * @param limit Die maximale Anzahl an Filialen der Seite, mindestens 1
+     * @return Die Seite mit Kopien der gefundenen Filialen
+     */
+    @NonNull Page find(Map<String, String> suchkriterien, UUID after, int limit);
+
+    /**
+     * Die Filialen zu Suchkriterien aufsteigend nach der ID als lazy Stream suchen, z.B. um eine große Ergebnismenge
+     * direkt in einen Response zu schreiben. Die Filialen werden erst beim Konsumieren des Streams gelesen, so dass
+     * der benötigte Speicher nicht von der Anzahl der Treffer abhängt. Der Stream ist schwach konsistent, d.h.
+     * Änderungen während des Lesens können sichtbar sein.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @return Kopien der gefundenen Filialen als Stream, der nach dem Lesen geschlossen werden muss
+     */
+    @NonNull Stream<Filiale> stream(Map<String, String> suchkriterien);
+
+    /**
+     * Den Ausführungsplan für eine Suche mit Suchkriterien ermitteln, ohne die Suche auszuführen.
+     *
+     * @param suchkriterien Suchkriterien.
+     * @return Der Ausführungsplan mit dem gewählten Zugriffspfad und den geschätzten Kosten.
+     */
+    @NonNull QueryPlan explain(Map<String, String> suchkriterien);
 
     /**
      * Alle Filialen als Collection ermitteln, wie sie später auch von der DB kommen.
      *
      * @return Alle Filialen
      */
-    public @NonNull Collection<Filiale> findAll() {
-        return FILIALEN;
-    }
+    @NonNull Collection<Filiale> findAll();
 
     /**
-     * Kunde zu gegebener Emailadresse aus der DB ermitteln.
+     * Kunde zu gegebener Emailadresse aus der DB ermitteln. Groß- und Kleinschreibung werden nicht unterschieden.
      *
      * @param email Emailadresse für die Suche
      * @return Gefundener Kunde oder leeres Optional
      */
-    public Optional<Filiale> findByEmail(final String email) {
-        log.debug("findByEmail: {}", email);
-        final var result = FILIALEN.stream()
-            .filter(filiale -> Objects.equals(filiale.getEmail(), email))
-            .findFirst();
-        log.debug("findByEmail: {}", result);
-        return result;
-    }
+    Optional<Filiale> findByEmail(String email);
 
     /**
      * Abfrage, ob es eine Filiale mit gegebener Emailadresse gibt.
@@ -121,14 +107,7 @@ public final class FilialenRepository {
      * @param email Emailadresse für die Suche
      * @return true, falls es einen solchen Filialen gibt, sonst false
      */
-    public boolean isEmailExisting(final String email) {
-        log.debug("isEmailExisting: email={}", email);
-        final var count = FILIALEN.stream()
-            .filter(kunde -> Objects.equals(kunde.getEmail(), email))
-            .count();
-        log.debug("isEmailExisting: count={}", count);
-        return count > 0L;
-    }
+    boolean isEmailExisting(String email);
 
     /**
      * Filiale anhand des Namens suchen.
@@ -136,78 +115,89 @@ public final class FilialenRepository {
      * @param name Der (Teil-) Name der gesuchten Filiale
      * @return Die gefundenen Filialen oder eine leere Collection
      */
-    public @NonNull Collection<Filiale> findByName(final CharSequence name) {
-        log.debug("findByName: name={}", name);
-        final var filialen = FILIALEN.stream()
-            .filter(kunde -> kunde.getName().contains(name))
-            .collect(Collectors.toList());
-        log.debug("findByNamen: filialen={}", filialen);
-        return filialen;
-    }
+    @NonNull Collection<Filiale> findByName(CharSequence name);
 
     /**
-     * Abfrage, welchen Namen es zu einem Präfix gibt.
+     * Abfrage, welchen Namen es zu einem Präfix gibt. Die Namen sind absteigend nach der Anzahl der Filialen mit
+     * diesem Namen sortiert.
      *
      * @param prefix Namen-Präfix.
+     * @param limit Maximale Anzahl der Namen.
      * @return Die passenden Namen oder eine leere Collection.
      */
-    public @NonNull Collection<String> findNamenByPrefix(final @NonNull String prefix) {
-        log.debug("findByName: prefix={}", prefix);
-        final var namen = FILIALEN.stream()
-            .map(Filiale::getName)
-            .filter(name -> name.startsWith(prefix))
-            .distinct()
-            .collect(Collectors.toList());
-        log.debug("findByName: namen={}", namen);
-        return namen;
-    }
+    @NonNull List<String> findNamenByPrefix(String prefix, int limit);
 
     /**
-     * Einen neuen Filialen anlegen.
+     * Einen neuen Filialen anlegen, falls die Emailadresse noch nicht existiert. Die Prüfung und das Reservieren der
+     * Emailadresse sind eine atomare Operation, d.h. auch bei parallelen Requests wird eine Emailadresse nur einmal
+     * vergeben.
      *
      * @param filiale Das Objekt des neu anzulegenden Filialen.
-     * @return Der neu angelegte Kunde mit generierter ID
-     */
-    public @NonNull Filiale create(final @NonNull Filiale filiale) {
-        log.debug("create: {}", filiale);
-        filiale.setId(randomUUID());
-        FILIALEN.add(filiale);
-        log.debug("create: {}", filiale);
-        return filiale;
-    }
+     * @return Eine Kopie des neu angelegten Filialen mit generierter ID oder leeres Optional, falls die Emailadresse
+     *      existiert
+     */
+    Optional<Filiale> create(Filiale filiale);
 
     /**
-     * Einen vorhandenen Filiale aktualisieren.
+     * Einen vorhandenen Filiale aktualisieren, falls die neue Emailadresse nicht zu einer anderen Filiale gehört.
+     * Eine zwischenzeitlich gelöschte Filiale wird nicht neu angelegt.
      *
      * @param filiale Das Objekt mit den neuen Daten
+     * @return false, falls es die Filiale nicht (mehr) gibt oder die Emailadresse zu einer anderen Filiale gehört,
+     *      sonst true
      */
-    public void update(final @NonNull Filiale filiale) {
-        log.debug("update: {}", filiale);
-        final OptionalInt index = IntStream
-            .range(0, FILIALEN.size())
-            .filter(i -> Objects.equals(FILIALEN.get(i).getId(), filiale.getId()))
-            .findFirst();
-        log.trace("update: index={}", index);
-        if (index.isEmpty()) {
-            return;
-        }
-        FILIALEN.set(index.getAsInt(), filiale);
-        log.debug("update: {}", filiale);
-    }
+    boolean update(Filiale filiale);
 
     /**
      * Einen vorhandenen Filiale löschen.
      *
      * @param id Die ID des zu löschenden Filiale.
      */
-    public void deleteById(final UUID id) {
-        log.debug("deleteById: id={}", id);
-        final OptionalInt index = IntStream
-            .range(0, FILIALEN.size())
-            .filter(i -> Objects.equals(FILIALEN.get(i).getId(), id))
-            .findFirst();
-        log.trace("deleteById: index={}", index);
-        index.ifPresent(FILIALEN::remove);
-        log.debug("deleteById: #Filiale={}", FILIALEN.size());
+    void deleteById(UUID id);
+
+    /**
+     * Unit of Work für eine Filiale analog zu `Map.compute()`: Die aktuelle Filiale zur ID wird gelesen, mit der
+     * Funktion geändert und ersetzt. Liefert die Funktion null, wird die Filiale gelöscht. Lesen, die Prüfung der
+     * Emailadresse und das Ersetzen erfolgen in einem kritischen Abschnitt, d.h. parallele Änderungen derselben
+     * Filiale werden serialisiert und eine Emailadresse wird auch bei parallelen Requests nur einmal vergeben.
+     *
+     * <p>Die Funktion wird innerhalb des kritischen Abschnitts aufgerufen und muss deshalb schnell und ohne
+     * Seiteneffekte sein.</p>
+     *
+     * @param id Die ID der Filiale oder null, um eine neue Filiale mit generierter ID anzulegen
+     * @param aenderung Die Funktion, die eine Kopie der aktuellen Filiale oder null erhält und die neue Filiale oder
+     *      null zum Löschen liefert
+     * @return Das Ergebnis mit einer Kopie der gespeicherten Filiale
+     */
+    @NonNull WriteResult compute(UUID id, UnaryOperator<Filiale> aenderung);
+
+    /**
+     * Unit of Work wie {@link #compute(UUID, UnaryOperator)} mit optimistischer Synchronisation: Die Funktion wird nur
+     * aufgerufen, falls die vorhandene Filiale die erwartete Version hat. Der Vergleich erfolgt im selben kritischen
+     * Abschnitt wie das Ersetzen, d.h. ohne vorheriges Lesen und ohne eine Sperre, die über mehrere Requests gehalten
+     * wird.
+     *
+     * @param id Die ID der Filiale
+     * @param version Die erwartete Version, z.B. aus dem Header `If-Match`
+     * @param aenderung Die Funktion, die eine Kopie der aktuellen Filiale oder null erhält und die neue Filiale oder
+     *      null zum Löschen liefert
+     * @return Das Ergebnis mit einer Kopie der gespeicherten Filiale oder `VERSION_MISMATCH`
+     */
+    @NonNull WriteResult compute(UUID id, long version, UnaryOperator<Filiale> aenderung);
+
+    /**
+     * Die globale Version des Repository, die sich bei jeder gespeicherten Änderung erhöht, z.B. als ETag für die
+     * Ergebnisse einer Suche. Wird zuerst die Version und danach eine Suche gelesen, dann enthält das Ergebnis
+     * mindestens alle Änderungen bis zu dieser Version. Es kann auch schon Änderungen enthalten, deren Version noch
+     * nicht veröffentlicht ist, d.h. der ETag ist höchstens älter als das Ergebnis und nie neuer, siehe VersionClock.
+     *
+     * @return Die globale Version
+     */
+    long version();
+
+    /**
+     * Beim Herunterfahren die belegten Ressourcen freigeben.
+     */
+    default void close() {
     }
 }
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Unveränderliche Map als _Hash Array Mapped Trie_ (HAMT) im Layout von CHAMP. Jede Änderung liefert eine neue Map,
+ * die alle nicht betroffenen Knoten mit der bisherigen Map teilt. Dadurch kostet eine Änderung O(log32 n) statt einer
+ * vollständigen Kopie und jede Map ist ein konsistenter Schnappschuss, der ohne Sperren gelesen werden kann.
+ *
+ * @param <K> Typ der Schlüssel
+ * @param <V> Typ der Werte
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@SuppressWarnings("unchecked")
+final class HamtMap<K, V> implements Iterable<V> {
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final int HASH_BITS = 32;
+
+    private static final HamtMap<?, ?> EMPTY = new HamtMap<>(new BitmapNode<>(0, 0, new Object[0]), 0);
+
+    private final Node<K, V> root;
+
+    private final int size;
+
+    private HamtMap(final Node<K, V> root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Die leere Map.
+     *
+     * @param <K> Typ der Schlüssel
+     * @param <V> Typ der Werte
+     * @return Die leere Map
+     */
+    static <K, V> HamtMap<K, V> empty() {
+        return (HamtMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Den Wert zu einem Schlüssel ermitteln.
+     *
+     * @param key Der Schlüssel
+     * @return Der Wert oder null
+     */
+    V get(final K key) {
+        return root.get(key, hash(key), 0);
+    }
+
+    /**
+     * Eine neue Map mit einem zusätzlichen oder geänderten Eintrag erzeugen.
+     *
+     * @param key Der Schlüssel
+     * @param value Der Wert
+     * @return Die neue Map
+     */
+    HamtMap<K, V> put(final K key, final V value) {
+        final var neu = new boolean[1];
+        final var newRoot = root.put(key, value, hash(key), 0, neu);
+        if (newRoot == root) {
+            return this;
+        }
+        return new HamtMap<>(newRoot, neu[0] ? size + 1 : size);
+    }
+
+    /**
+     * Eine neue Map ohne den Eintrag zu einem Schlüssel erzeugen.
+     *
+     * @param key Der Schlüssel
+     * @return Die neue Map oder diese Map, falls es den Schlüssel nicht gibt
+     */
+    HamtMap<K, V> remove(final K key) {
+        final var newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new HamtMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Anzahl der Einträge.
+     *
+     * @return Anzahl der Einträge
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Iterator über die Werte in der Reihenfolge der Hashwerte.
+     *
+     * @return Iterator über die Werte
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new ValueIterator<>(root);
+    }
+
+    private static int hash(final Object key) {
+        final var h = key.hashCode();
+        return h ^ (h >>> (HASH_BITS / 2));
+    }
+
+    private static int fragment(final int hash, final int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private static <K, V> Node<K, V> merge(
+        final K key0,
+        final V value0,
+        final int hash0,
+        final K key1,
+        final V value1,
+        final int hash1,
+        final int shift
+    ) {
+        if (shift >= HASH_BITS) {
+            return new CollisionNode<>(new Object[]{key0, key1}, new Object[]{value0, value1});
+        }
+        final var fragment0 = fragment(hash0, shift);
+        final var fragment1 = fragment(hash1, shift);
+        if (fragment0 == fragment1) {
+            final var sub = merge(key0, value0, hash0, key1, value1, hash1, shift + BITS);
+            return new BitmapNode<>(0, 1 << fragment0, new Object[]{sub});
+        }
+        final var dataMap = (1 << fragment0) | (1 << fragment1);
+        final var content = fragment0 < fragment1
+            ? new Object[]{key0, value0, key1, value1}
+            : new Object[]{key1, value1, key0, value0};
+        return new BitmapNode<>(dataMap, 0, content);
+    }
+
+    private interface Node<K, V> {
+        V get(K key, int hash, int shift);
+
+        Node<K, V> put(K key, V value, int hash, int shift, boolean[] neu);
+
+        Node<K, V> remove(K key, int hash, int shift);
+
+        int dataArity();
+
+        int nodeArity();
+
+        K keyAt(int index);
+
+        V valueAt(int index);
+
+        Node<K, V> nodeAt(int index);
+    }
+
+    // Layout nach CHAMP: zuerst die Schluessel-Wert-Paare, am Ende die Unterknoten in umgekehrter Reihenfolge
+    private record BitmapNode<K, V>(int dataMap, int nodeMap, Object[] content) implements Node<K, V> {
+        @Override
+        public V get(final K key, final int hash, final int shift) {
+            final var bit = 1 << fragment(hash, shift);
+            if ((dataMap & bit) != 0) {
+                final var index = dataIndex(bit);
+                return Objects.equals(content[2 * index], key) ? (V) content[2 * index + 1] : null;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(nodeIndex(bit)).get(key, hash, shift + BITS);
+            }
+            return null;
+        }
+
+        @Override
+        public Node<K, V> put(final K key, final V value, final int hash, final int shift, final boolean[] neu) {
+            final var bit = 1 << fragment(hash, shift);
+            if ((dataMap & bit) != 0) {
+                final var index = dataIndex(bit);
+                final var vorhandenerKey = (K) content[2 * index];
+                if (Objects.equals(vorhandenerKey, key)) {
+                    if (content[2 * index + 1] == value) {
+                        return this;
+                    }
+                    final var neuerContent = content.clone();
+                    neuerContent[2 * index + 1] = value;
+                    return new BitmapNode<>(dataMap, nodeMap, neuerContent);
+                }
+                neu[0] = true;
+                final var sub = merge(
+                    vorhandenerKey, (V) content[2 * index + 1], hash(vorhandenerKey),
+                    key, value, hash,
+                    shift + BITS
+                );
+                return migrateToNode(bit, index, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                final var index = nodeIndex(bit);
+                final var sub = nodeAt(index);
+                final var neuerSub = sub.put(key, value, hash, shift + BITS, neu);
+                return neuerSub == sub ? this : withNode(index, neuerSub);
+            }
+            neu[0] = true;
+            return insertData(bit, key, value);
+        }
+
+        @Override
+        public Node<K, V> remove(final K key, final int hash, final int shift) {
+            final var bit = 1 << fragment(hash, shift);
+            if ((dataMap & bit) != 0) {
+                final var index = dataIndex(bit);
+                if (!Objects.equals(content[2 * index], key)) {
+                    return this;
+                }
+                final var neuerContent = new Object[content.length - 2];
+                System.arraycopy(content, 0, neuerContent, 0, 2 * index);
+                System.arraycopy(content, 2 * index + 2, neuerContent, 2 * index, content.length - 2 * index - 2);
+                return new BitmapNode<>(dataMap ^ bit, nodeMap, neuerContent);
+            }
+            if ((nodeMap & bit) != 0) {
+                final var index = nodeIndex(bit);
+                final var sub = nodeAt(index);
+                final var neuerSub = sub.remove(key, hash, shift + BITS);
+                if (neuerSub == sub) {
+                    return this;
+                }
+                if (neuerSub.dataArity() == 1 && neuerSub.nodeArity() == 0) {
+                    // Unterknoten mit nur noch einem Eintrag wird in diesen Knoten uebernommen
+                    return migrateToData(bit, index, neuerSub.keyAt(0), neuerSub.valueAt(0));
+                }
+                return withNode(index, neuerSub);
+            }
+            return this;
+        }
+
+        @Override
+        public int dataArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        public int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        public K keyAt(final int index) {
+            return (K) content[2 * index];
+        }
+
+        @Override
+        public V valueAt(final int index) {
+            return (V) content[2 * index + 1];
+        }
+
+        @Override
+        public Node<K, V> nodeAt(final int index) {
+            return (Node<K, V>) content[content.length - 1 - index];
+        }
+
+        private int dataIndex(final int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        private int nodeIndex(final int bit) {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        private Node<K, V> withNode(final int index, final Node<K, V> node) {
+            final var neuerContent = content.clone();
+            neuerContent[content.length - 1 - index] = node;
+            return new BitmapNode<>(dataMap, nodeMap, neuerContent);
+        }
+
+        private Node<K, V> insertData(final int bit, final K key, final V value) {
+            final var index = dataIndex(bit);
+            final var neuerContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, neuerContent, 0, 2 * index);
+            neuerContent[2 * index] = key;
+            neuerContent[2 * index + 1] = value;
+            System.arraycopy(content, 2 * index, neuerContent, 2 * index + 2, content.length - 2 * index);
+            return new BitmapNode<>(dataMap | bit, nodeMap, neuerContent);
+        }
+
+        private Node<K, V> migrateToNode(final int bit, final int dataIndex, final Node<K, V> node) {
+            // Schluessel-Wert-Paar entfernen und den Unterknoten an der richtigen Position im hinteren Teil einfuegen
+            final var neueNodeMap = nodeMap | bit;
+            final var nodeIndex = Integer.bitCount(neueNodeMap & (bit - 1));
+            final var neuerContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, neuerContent, 0, 2 * dataIndex);
+            final var dataEnde = 2 * dataArity();
+            System.arraycopy(content, 2 * dataIndex + 2, neuerContent, 2 * dataIndex, dataEnde - 2 * dataIndex - 2);
+            // Unterknoten: content[length - 1 - i] ist Knoten i
+            final var alteNodes = nodeArity();
+            final var neueNodes = alteNodes + 1;
+            for (int i = 0; i < neueNodes; i++) {
+                final Object eintrag;
+                if (i < nodeIndex) {
+                    eintrag = content[content.length - 1 - i];
+                } else if (i == nodeIndex) {
+                    eintrag = node;
+                } else {
+                    eintrag = content[content.length - i];
+                }
+                neuerContent[neuerContent.length - 1 - i] = eintrag;
+            }
+            return new BitmapNode<>(dataMap ^ bit, neueNodeMap, neuerContent);
+        }
+
+        private Node<K, V> migrateToData(final int bit, final int nodeIndex, final K key, final V value) {
+            final var neueDataMap = dataMap | bit;
+            final var dataIndex = Integer.bitCount(neueDataMap & (bit - 1));
+            final var neuerContent = new Object[content.length + 1];
+            final var dataEnde = 2 * dataArity();
+            System.arraycopy(content, 0, neuerContent, 0, 2 * dataIndex);
+            neuerContent[2 * dataIndex] = key;
+            neuerContent[2 * dataIndex + 1] = value;
+            System.arraycopy(content, 2 * dataIndex, neuerContent, 2 * dataIndex + 2, dataEnde - 2 * dataIndex);
+            final var alteNodes = nodeArity();
+            var ziel = neuerContent.length - 1;
+            for (int i = 0; i < alteNodes; i++) {
+                if (i != nodeIndex) {
+                    neuerContent[ziel--] = content[content.length - 1 - i];
+                }
+            }
+            return new BitmapNode<>(neueDataMap, nodeMap ^ bit, neuerContent);
+        }
+    }
+
+    // Alle Schluessel haben denselben vollstaendigen Hashwert
+    private record CollisionNode<K, V>(Object[] keys, Object[] values) implements Node<K, V> {
+        @Override
+        public V get(final K key, final int hash, final int shift) {
+            final var index = indexOf(key);
+            return index < 0 ? null : (V) values[index];
+        }
+
+        @Override
+        public Node<K, V> put(final K key, final V value, final int hash, final int shift, final boolean[] neu) {
+            final var index = indexOf(key);
+            if (index >= 0) {
+                if (values[index] == value) {
+                    return this;
+                }
+                final var neueValues = values.clone();
+                neueValues[index] = value;
+                return new CollisionNode<>(keys, neueValues);
+            }
+            neu[0] = true;
+            final var neueKeys = Arrays.copyOf(keys, keys.length + 1);
+            final var neueValues = Arrays.copyOf(values, values.length + 1);
+            neueKeys[keys.length] = key;
+            neueValues[values.length] = value;
+            return new CollisionNode<>(neueKeys, neueValues);
+        }
+
+        @Override
+        public Node<K, V> remove(final K key, final int hash, final int shift) {
+            final var index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            final var neueKeys = new Object[keys.length - 1];
+            final var neueValues = new Object[values.length - 1];
+            System.arraycopy(keys, 0, neueKeys, 0, index);
+            System.arraycopy(keys, index + 1, neueKeys, index, keys.length - index - 1);
+            System.arraycopy(values, 0, neueValues, 0, index);
+            System.arraycopy(values, index + 1, neueValues, index, values.length - index - 1);
+            return new CollisionNode<>(neueKeys, neueValues);
+        }
+
+        @Override
+        public int dataArity() {
+            return keys.length;
+        }
+
+        @Override
+        public int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        public K keyAt(final int index) {
+            return (K) keys[index];
+        }
+
+        @Override
+        public V valueAt(final int index) {
+            return (V) values[index];
+        }
+
+        @Override
+        public Node<K, V> nodeAt(final int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        private int indexOf(final K key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (Objects.equals(keys[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class ValueIterator<K, V> implements Iterator<V> {
+        private final Deque<Node<K, V>> nodes = new ArrayDeque<>();
+
+        private Node<K, V> aktuell;
+
+        private int position;
+
+        ValueIterator(final Node<K, V> root) {
+            aktuell = root;
+            pushNodes(root);
+            weiter();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return aktuell != null;
+        }
+
+        @Override
+        public V next() {
+            if (aktuell == null) {
+                throw new NoSuchElementException();
+            }
+            final var value = aktuell.valueAt(position++);
+            weiter();
+            return value;
+        }
+
+        private void weiter() {
+            while (aktuell != null && position >= aktuell.dataArity()) {
+                aktuell = nodes.pollFirst();
+                position = 0;
+                if (aktuell != null) {
+                    pushNodes(aktuell);
+                }
+            }
+        }
+
+        private void pushNodes(final Node<K, V> node) {
+            for (int i = node.nodeArity() - 1; i >= 0; i--) {
+                nodes.addFirst(node.nodeAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Sekundärindexe im Heap: {@link EmailIndex}, {@link NameTrie}, {@link TrigramIndex} und die IDs in einer sortierten
+ * Menge, die wie {@link UUID#compareTo(UUID)} sortiert ist.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class HeapFilialeIndex implements FilialeIndex {
+    private final EmailIndex emailIndex;
+
+    private final NameTrie namenIndex;
+
+    private final TrigramIndex trigramIndex;
+
+    // sortierte IDs fuer Keyset Pagination, unabhaengig von der Reihenfolge im Speicher
+    private final NavigableSet<UUID> ids = new ConcurrentSkipListSet<>();
+
+    HeapFilialeIndex(final Collection<Filiale> filialen, final TrigramIndex trigramIndex) {
+        emailIndex = new EmailIndex(filialen);
+        namenIndex = new NameTrie(filialen);
+        this.trigramIndex = trigramIndex;
+        filialen.forEach(filiale -> ids.add(filiale.getId()));
+    }
+
+    @Override
+    public Optional<UUID> getByEmail(final String email) {
+        return emailIndex.get(email);
+    }
+
+    @Override
+    public boolean reserveEmail(final String email, final UUID id) {
+        return emailIndex.reserve(email, id);
+    }
+
+    @Override
+    public void releaseEmail(final String email, final UUID id) {
+        emailIndex.release(email, id);
+    }
+
+    @Override
+    public void add(final Filiale filiale) {
+        ids.add(filiale.getId());
+        namenIndex.add(filiale.getName());
+        trigramIndex.add(filiale.getId(), filiale.getName());
+    }
+
+    @Override
+    public void rename(final UUID id, final String alt, final String neu) {
+        namenIndex.remove(alt);
+        namenIndex.add(neu);
+        trigramIndex.remove(id, alt);
+        trigramIndex.add(id, neu);
+    }
+
+    @Override
+    public void remove(final Filiale filiale) {
+        ids.remove(filiale.getId());
+        namenIndex.remove(filiale.getName());
+        trigramIndex.remove(filiale.getId(), filiale.getName());
+    }
+
+    @Override
+    public List<String> complete(final String prefix, final int limit) {
+        return namenIndex.complete(prefix, limit);
+    }
+
+    @Override
+    public Optional<Set<UUID>> candidates(final String teilstring) {
+        return trigramIndex.candidates(teilstring);
+    }
+
+    @Override
+    public OptionalInt estimate(final String teilstring) {
+        return trigramIndex.estimate(teilstring);
+    }
+
+    @Override
+    public Comparator<UUID> reihenfolge() {
+        return Comparator.naturalOrder();
+    }
+
+    @Override
+    public Stream<Filiale> stream(final FilialeStore.View view, final UUID after) {
+        return (after == null ? ids : ids.tailSet(after, false)).stream()
+            .map(view::get)
+            .filter(Objects::nonNull);
+    }
+}
@@ -0,0 +1,868 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Umsatz;
+import com.acme.filiale.entity.Waehrungen;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Repository für Filialen in einer relationalen DB, z.B. PostgreSQL, das mit dem Spring-Profile `jdbc` aktiviert
+ * wird. Die Tabelle wird mit `db/schema-postgresql.sql` angelegt und beim ersten Start mit einem Batch gefüllt.
+ *
+ * <p>Die Suchkriterien werden als Bedingungen mit den Indexen der DB ausgewertet. Bei einer Suche werden die Zeilen
+ * seitenweise nach der ID sortiert gelesen (Keyset Pagination), damit keine Abfrage mehr als
+ * `app.repository.jdbc.page-size` Zeilen liefert. Es gibt nur wenige verschiedene SQL-Anweisungen, damit der
+ * JDBC-Treiber die Prepared Statements wiederverwenden kann.</p>
+ *
+ * <p>Mit `app.repository.jdbc.bloom-filter-capacity` werden die IDs und die normalisierten Emailadressen zusätzlich
+ * in je einem {@link CountingBloomFilter} verwaltet. Eine Suche nach einer nicht vorhandenen ID oder Emailadresse
+ * wird dann meistens ohne DB-Zugriff beantwortet. Beim Schreiben wird ein Schlüssel vor der Änderung in der DB
+ * hinzugefügt und erst danach entfernt, damit der Filter nie ein falsch negatives Ergebnis liefert. Da die Filter
+ * nur die Änderungen der eigenen Instanz kennen, sind sie nur zulässig, wenn keine andere Instanz in dieselbe Tabelle
+ * schreibt, und deshalb standardmäßig deaktiviert.</p>
+ *
+ * <p>Die globale Version für den ETag einer Suche steht in der einzigen Zeile der Tabelle `filiale_version` und wird
+ * in derselben Transaktion wie jedes INSERT, UPDATE und DELETE erhöht. Sie enthält deshalb auch die Änderungen
+ * anderer Instanzen, die in dieselbe Tabelle schreiben. Parallele Änderungen warten dabei bis zum Commit auf die
+ * Sperre dieser Zeile, die deshalb immer als letzte gesperrt wird.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Repository
+@Profile(JdbcFilialenRepository.JDBC)
+@Slf4j
+@SuppressWarnings({"PublicConstructor", "ClassFanOutComplexity"})
+public final class JdbcFilialenRepository implements FilialenRepository {
+    /**
+     * Konstante für das Spring-Profile "jdbc".
+     */
+    public static final String JDBC = "jdbc";
+
+    private static final String SPALTEN =
+        "id, name, email, homepage, umsatz_betrag, umsatz_waehrung, plz, ort, version";
+
+    private static final String SELECT = "SELECT " + SPALTEN + " FROM filiale";
+
+    private static final String SELECT_BY_ID = SELECT + " WHERE id = ?";
+
+    private static final String SELECT_BY_ID_FOR_UPDATE = SELECT_BY_ID + " FOR UPDATE";
+
+    private static final String SELECT_BY_EMAIL = SELECT + " WHERE email_normalisiert = ?";
+
+    private static final String EXISTS_EMAIL = "SELECT COUNT(*) FROM filiale WHERE email_normalisiert = ?";
+
+    private static final String EXISTS_ID = "SELECT COUNT(*) FROM filiale WHERE id = ?";
+
+    private static final String SELECT_NAMEN = "SELECT name FROM filiale WHERE name LIKE ? ESCAPE '\\' " +
+        "GROUP BY name ORDER BY COUNT(*) DESC, name LIMIT ?";
+
+    private static final String INSERT = "INSERT INTO filiale (id, name, email, email_normalisiert, homepage, " +
+        "umsatz_betrag, umsatz_waehrung, plz, ort, version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // die Version einer Zeile steigt auch dann, wenn eine andere Instanz mit einer nachgehenden Uhr aktualisiert
+    private static final String UPDATE = "UPDATE filiale SET name = ?, email = ?, email_normalisiert = ?, " +
+        "homepage = ?, umsatz_betrag = ?, umsatz_waehrung = ?, plz = ?, ort = ?, version = GREATEST(version + 1, ?) " +
+        "WHERE id = ?";
+
+    private static final String DELETE = "DELETE FROM filiale WHERE id = ?";
+
+    private static final String COUNT = "SELECT COUNT(*) FROM filiale";
+
+    private static final String SELECT_VERSION = "SELECT version FROM filiale_version";
+
+    // die globale Version steigt auch dann, wenn eine andere Instanz mit einer nachgehenden Uhr geaendert hat
+    private static final String UPDATE_VERSION = "UPDATE filiale_version SET version = GREATEST(version + 1, ?)";
+
+    private static final String UPDATE_OHNE_VERSION = "UPDATE filiale SET version = ? WHERE version = 0";
+
+    private static final String SELECT_EMAIL_FOR_UPDATE =
+        "SELECT email_normalisiert FROM filiale WHERE id = ? FOR UPDATE";
+
+    private static final String SELECT_SCHLUESSEL = "SELECT id, email_normalisiert FROM filiale ORDER BY id LIMIT ?";
+
+    private static final String SELECT_SCHLUESSEL_WEITER =
+        "SELECT id, email_normalisiert FROM filiale WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    // compute() ohne Vergleich der Version
+    private static final long BELIEBIGE_VERSION = -1;
+
+    // Ergebnis der Transaktion, falls die Zeile eine andere Version hat
+    private static final Aenderung VERSION_FALSCH = new Aenderung(null, null);
+
+    // Bits fuer die Suchkriterien in der Reihenfolge der Bedingungen in der WHERE-Klausel
+    private static final int NAME = 1;
+    private static final int EMAIL = 1 << 1;
+    private static final int PLZ = 1 << 2;
+    private static final int WEITERE_SEITE = 1 << 3;
+
+    // alle Varianten der Suche einmalig erzeugen, damit der SQL-String als Schluessel im Statement-Cache gleich bleibt
+    private static final String[] SUCHE = new String[WEITERE_SEITE << 1];
+
+    static {
+        for (int maske = 0; maske < SUCHE.length; maske++) {
+            final var bedingungen = new ArrayList<String>(4);
+            if ((maske & NAME) != 0) {
+                bedingungen.add("name LIKE ? ESCAPE '\\'");
+            }
+            if ((maske & EMAIL) != 0) {
+                bedingungen.add("email_normalisiert = ?");
+            }
+            if ((maske & PLZ) != 0) {
+                bedingungen.add("plz LIKE ? ESCAPE '\\'");
+            }
+            if ((maske & WEITERE_SEITE) != 0) {
+                bedingungen.add("id > ?");
+            }
+            SUCHE[maske] = SELECT + (bedingungen.isEmpty() ? "" : " WHERE " + String.join(" AND ", bedingungen)) +
+                " ORDER BY id LIMIT ?";
+        }
+    }
+
+    private static final RowMapper<Filiale> ROW_MAPPER = (rs, rowNum) -> filiale(rs);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final RepositoryProps.Jdbc config;
+
+    private final MeterRegistry registry;
+
+    private final Supplier<UUID> idGenerator;
+
+    private final ConcurrentMap<String, Timer> timer = new ConcurrentHashMap<>();
+
+    private final CountingBloomFilter ids;
+
+    private final CountingBloomFilter emails;
+
+    private final VersionClock versionen;
+
+    /**
+     * Konstruktor mit der von Spring Boot konfigurierten DB-Verbindung. Die Metriken werden in der globalen Registry
+     * von Micrometer registriert.
+     *
+     * @param jdbcTemplate Das Template für den Zugriff auf die DB
+     * @param props Die Konfiguration für das Repository
+     */
+    @Autowired
+    public JdbcFilialenRepository(final JdbcTemplate jdbcTemplate, final RepositoryProps props) {
+        this(jdbcTemplate, props.jdbc(), props.idGenerator(), Metrics.globalRegistry);
+    }
+
+    JdbcFilialenRepository(
+        final JdbcTemplate jdbcTemplate,
+        final RepositoryProps.Jdbc config,
+        final RepositoryProps.IdGenerator idGenerator,
+        final MeterRegistry registry
+    ) {
+        log.info("JdbcFilialenRepository: {}, idGenerator={}", config, idGenerator);
+        this.jdbcTemplate = jdbcTemplate;
+        this.config = config;
+        this.idGenerator = idGenerator.generator();
+        this.registry = registry;
+        final var dataSource = jdbcTemplate.getDataSource();
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        // Spring Boot Actuator registriert die Metriken des Connection-Pools bereits fuer die eigene DataSource
+        if (dataSource instanceof HikariDataSource hikari &&
+            hikari.getMetricsTrackerFactory() == null && hikari.getMetricRegistry() == null) {
+            hikari.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+        }
+
+        if (config.bloomFilterCapacity() > 0) {
+            ids = new CountingBloomFilter(config.bloomFilterCapacity(), "id", registry);
+            emails = new CountingBloomFilter(config.bloomFilterCapacity(), "email", registry);
+        } else {
+            ids = null;
+            emails = null;
+        }
+
+        versionen = new VersionClock(jdbcTemplate.queryForObject(SELECT_VERSION, Long.class));
+        final var anzahl = jdbcTemplate.queryForObject(COUNT, Long.class);
+        if (anzahl != null && anzahl == 0) {
+            // die initialen Filialen erhalten den Zeitpunkt des Ladens als Version fuer Last-Modified
+            final var filialen = DB.getFilialen();
+            filialen.forEach(filiale -> filiale.setVersion(versionen.next(0)));
+            insertAll(filialen);
+        } else {
+            versionenNachtragen();
+            if (ids != null) {
+                bloomFilterLaden();
+            }
+        }
+    }
+
+    /**
+     * Zeilen mit der Version 0, z.B. aus Tabellen, die vor der Spalte `version` angelegt wurden, erhalten den
+     * Zeitpunkt des Starts als Version, damit `Last-Modified` nicht auf 1970 steht.
+     */
+    private void versionenNachtragen() {
+        final var version = versionen.next(0);
+        final var anzahl = transactionTemplate.execute(status -> {
+            final var zeilen = jdbcTemplate.update(UPDATE_OHNE_VERSION, version);
+            if (zeilen > 0) {
+                versionErhoehen(version);
+            }
+            return zeilen;
+        });
+        log.debug("versionenNachtragen: #zeilen={}, version={}", anzahl, version);
+    }
+
+    @Override
+    public Optional<Filiale> findById(final UUID id) {
+        log.debug("findById: id={}", id);
+        if (id == null) {
+            return Optional.empty();
+        }
+        if (ids != null && !ids.mightContain(CountingBloomFilter.hash(id))) {
+            log.debug("findById: id={} laut Bloom-Filter nicht vorhanden", id);
+            return Optional.empty();
+        }
+        final var result = messen("findById", () -> jdbcTemplate.query(SELECT_BY_ID, ROW_MAPPER, id))
+            .stream()
+            .findFirst();
+        log.debug("findById: {}", result);
+        return result;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> find(final Map<String, String> suchkriterien) {
+        log.debug("find: suchkriterien={}", suchkriterien);
+        if (suchkriterien.isEmpty()) {
+            return findAll();
+        }
+
+        final var werte = new String[3];
+        final var maske = maske(suchkriterien, werte);
+        if (maske == 0) {
+            // nur unbekannte Suchkriterien
+            return List.of();
+        }
+
+        final var filialen = suche(maske, werte);
+        log.debug("find: filialen={}", filialen);
+        return filialen;
+    }
+
+    @Override
+    public @NonNull Page find(final Map<String, String> suchkriterien, final UUID after, final int limit) {
+        log.debug("find: suchkriterien={}, after={}, limit={}", suchkriterien, after, limit);
+        final var werte = new String[3];
+        final var maske = maske(suchkriterien, werte);
+        if (maske == 0 && !suchkriterien.isEmpty()) {
+            // nur unbekannte Suchkriterien
+            return Page.EMPTY;
+        }
+
+        // eine Zeile mehr als das Limit, um festzustellen, ob es eine weitere Seite gibt
+        final var sql = SUCHE[after == null ? maske : maske | WEITERE_SEITE];
+        final var parameter = parameter(werte, after, limit + 1);
+        final var treffer = messen("find", () -> jdbcTemplate.query(sql, ROW_MAPPER, parameter));
+        final var page = Page.of(treffer, limit);
+        log.debug("find: #filialen={}, next={}", page.filialen().size(), page.next());
+        return page;
+    }
+
+    @Override
+    public @NonNull Stream<Filiale> stream(final Map<String, String> suchkriterien) {
+        log.debug("stream: suchkriterien={}", suchkriterien);
+        // Keyset Pagination ohne offenen Cursor in der DB, d.h. die Verbindung wird nur pro Seite belegt
+        return Page.stream(after -> find(suchkriterien, after, config.pageSize()));
+    }
+
+    @Override
+    public @NonNull QueryPlan explain(final Map<String, String> suchkriterien) {
+        log.debug("explain: suchkriterien={}", suchkriterien);
+        var maske = 0;
+        final var ignoriert = new ArrayList<String>();
+        for (final var key : suchkriterien.keySet()) {
+            switch (key) {
+                case QueryPlanner.NAME -> maske |= NAME;
+                case QueryPlanner.EMAIL -> maske |= EMAIL;
+                case QueryPlanner.PLZ -> maske |= PLZ;
+                default -> ignoriert.add(key);
+            }
+        }
+        final String zugriff;
+        if ((maske & EMAIL) != 0) {
+            zugriff = "Unique Index fuer email_normalisiert";
+        } else if ((maske & (NAME | PLZ)) != 0) {
+            zugriff = "Index der DB fuer LIKE";
+        } else {
+            zugriff = "Primary Key fuer id";
+        }
+        // die Schaetzungen ermittelt erst der Optimizer der DB, z.B. mit EXPLAIN
+        final var plan = new QueryPlan(zugriff, List.of(SUCHE[maske], SUCHE[maske | WEITERE_SEITE]), 0, 0, ignoriert);
+        log.debug("explain: {}", plan);
+        return plan;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> findAll() {
+        return suche(0, new String[3]);
+    }
+
+    @Override
+    public Optional<Filiale> findByEmail(final String email) {
+        log.debug("findByEmail: {}", email);
+        if (email == null) {
+            return Optional.empty();
+        }
+        final var normalisiert = EmailIndex.normalize(email);
+        if (emails != null && !emails.mightContain(CountingBloomFilter.hash(normalisiert))) {
+            log.debug("findByEmail: email={} laut Bloom-Filter nicht vorhanden", email);
+            return Optional.empty();
+        }
+        final var result = messen(
+            "findByEmail",
+            () -> jdbcTemplate.query(SELECT_BY_EMAIL, ROW_MAPPER, normalisiert)
+        ).stream().findFirst();
+        log.debug("findByEmail: {}", result);
+        return result;
+    }
+
+    @Override
+    public boolean isEmailExisting(final String email) {
+        log.debug("isEmailExisting: email={}", email);
+        if (email == null) {
+            return false;
+        }
+        final var normalisiert = EmailIndex.normalize(email);
+        if (emails != null && !emails.mightContain(CountingBloomFilter.hash(normalisiert))) {
+            log.debug("isEmailExisting: existing=false laut Bloom-Filter");
+            return false;
+        }
+        final var anzahl = messen(
+            "isEmailExisting",
+            () -> jdbcTemplate.queryForObject(EXISTS_EMAIL, Long.class, normalisiert)
+        );
+        final var existing = anzahl != null && anzahl > 0;
+        log.debug("isEmailExisting: existing={}", existing);
+        return existing;
+    }
+
+    @Override
+    public @NonNull Collection<Filiale> findByName(final CharSequence name) {
+        log.debug("findByName: name={}", name);
+        final var werte = new String[3];
+        werte[0] = '%' + escape(name.toString()) + '%';
+        final var filialen = suche(NAME, werte);
+        log.debug("findByNamen: filialen={}", filialen);
+        return filialen;
+    }
+
+    @Override
+    public @NonNull List<String> findNamenByPrefix(final @NonNull String prefix, final int limit) {
+        log.debug("findNamenByPrefix: prefix={}, limit={}", prefix, limit);
+        if (limit <= 0) {
+            return List.of();
+        }
+        final var namen = messen(
+            "findNamenByPrefix",
+            () -> jdbcTemplate.queryForList(SELECT_NAMEN, String.class, escape(prefix) + '%', limit)
+        );
+        log.debug("findNamenByPrefix: namen={}", namen);
+        return namen;
+    }
+
+    @Override
+    public Optional<Filiale> create(final @NonNull Filiale filiale) {
+        log.debug("create: {}", filiale);
+        final var filialeDb = SnapshotStore.kopie(filiale);
+        filialeDb.setId(idGenerator.get());
+        filialeDb.setVersion(versionen.next(0));
+        bloomFilterAdd(filialeDb);
+        try {
+            // die Eindeutigkeit der Emailadresse prueft die DB mit dem Unique Index
+            messen("create", () -> transactionTemplate.execute(status -> {
+                jdbcTemplate.update(INSERT, ps -> setInsert(ps, filialeDb));
+                versionErhoehen(filialeDb.getVersion());
+                return null;
+            }));
+        } catch (final RuntimeException ex) {
+            bloomFilterRemove(filialeDb.getId(), EmailIndex.normalize(filialeDb.getEmail()));
+            if (!(ex instanceof DataIntegrityViolationException integrityEx) || !isDuplikat(integrityEx)) {
+                throw ex;
+            }
+            log.debug("create: email={} existiert bereits", filiale.getEmail());
+            return Optional.empty();
+        }
+        log.debug("create: {}", filialeDb);
+        return Optional.of(filialeDb);
+    }
+
+    @Override
+    public boolean update(final @NonNull Filiale filiale) {
+        log.debug("update: {}", filiale);
+        final var filialeDb = SnapshotStore.kopie(filiale);
+        filialeDb.setVersion(versionen.next(filiale.getVersion()));
+        if (emails == null) {
+            try {
+                final var anzahl = messen("update", () -> transactionTemplate.execute(status -> {
+                    final var zeilen = jdbcTemplate.update(UPDATE, ps -> setUpdate(ps, filialeDb));
+                    if (zeilen > 0) {
+                        versionErhoehen(filialeDb.getVersion());
+                    }
+                    return zeilen;
+                }));
+                log.trace("update: anzahl={}", anzahl);
+                if (anzahl == 0) {
+                    log.debug("update: id={} nicht vorhanden", filiale.getId());
+                    return false;
+                }
+            } catch (final DataIntegrityViolationException ex) {
+                if (!isDuplikat(ex)) {
+                    throw ex;
+                }
+                log.debug("update: email={} existiert bereits", filiale.getEmail());
+                return false;
+            }
+            log.debug("update: {}", filialeDb);
+            return true;
+        }
+
+        // die neue Emailadresse vor dem UPDATE hinzufuegen und danach die bisherige bzw. bei einem Fehler die neue
+        // wieder entfernen: bei unveraenderter Emailadresse bleibt der Zaehler damit gleich
+        final var emailNeu = EmailIndex.normalize(filiale.getEmail());
+        emails.add(CountingBloomFilter.hash(emailNeu));
+        String emailAlt = null;
+        try {
+            emailAlt = messen("update", () -> transactionTemplate.execute(status -> {
+                final var alt = jdbcTemplate.queryForList(SELECT_EMAIL_FOR_UPDATE, String.class, filiale.getId());
+                if (alt.isEmpty()) {
+                    // zwischenzeitlich geloescht
+                    return null;
+                }
+                jdbcTemplate.update(UPDATE, ps -> setUpdate(ps, filialeDb));
+                versionErhoehen(filialeDb.getVersion());
+                return alt.get(0);
+            }));
+        } catch (final DataIntegrityViolationException ex) {
+            if (!isDuplikat(ex)) {
+                throw ex;
+            }
+            log.debug("update: email={} existiert bereits", filiale.getEmail());
+            return false;
+        } finally {
+            emails.remove(CountingBloomFilter.hash(emailAlt == null ? emailNeu : emailAlt));
+        }
+        if (emailAlt == null) {
+            log.debug("update: id={} nicht vorhanden", filiale.getId());
+            return false;
+        }
+        log.debug("update: {}", filialeDb);
+        return true;
+    }
+
+    @Override
+    public void deleteById(final UUID id) {
+        log.debug("deleteById: id={}", id);
+        if (ids == null) {
+            final var anzahl = messen("deleteById", () -> transactionTemplate.execute(status -> {
+                final var zeilen = jdbcTemplate.update(DELETE, id);
+                if (zeilen > 0) {
+                    versionErhoehen(versionen.next(0));
+                }
+                return zeilen;
+            }));
+            log.debug("deleteById: anzahl={}", anzahl);
+            return;
+        }
+
+        // die Emailadresse wird fuer den Bloom-Filter benoetigt und darf sich bis zum DELETE nicht aendern
+        final var email = messen("deleteById", () -> transactionTemplate.execute(status -> {
+            final var alt = jdbcTemplate.queryForList(SELECT_EMAIL_FOR_UPDATE, String.class, id);
+            if (alt.isEmpty()) {
+                return null;
+            }
+            jdbcTemplate.update(DELETE, id);
+            versionErhoehen(versionen.next(0));
+            return alt.get(0);
+        }));
+        if (email != null) {
+            bloomFilterRemove(id, email);
+        }
+        log.debug("deleteById: email={}", email);
+    }
+
+    @Override
+    public @NonNull WriteResult compute(final UUID id, final @NonNull UnaryOperator<Filiale> aenderung) {
+        log.debug("compute: id={}", id);
+        if (id == null) {
+            // eine neue ID ist noch niemandem bekannt: ein INSERT genuegt
+            final var neu = aenderung.apply(null);
+            return neu == null
+                ? WriteResult.NOT_FOUND
+                : create(neu).map(WriteResult::ok).orElse(WriteResult.EMAIL_EXISTS);
+        }
+        return ausfuehren(id, BELIEBIGE_VERSION, aenderung);
+    }
+
+    @Override
+    public @NonNull WriteResult compute(
+        final @NonNull UUID id,
+        final long version,
+        final @NonNull UnaryOperator<Filiale> aenderung
+    ) {
+        log.debug("compute: id={}, version={}", id, version);
+        return ausfuehren(id, version, aenderung);
+    }
+
+    private WriteResult ausfuehren(final UUID id, final long version, final UnaryOperator<Filiale> aenderung) {
+        // die Zeile wird bis zum Ende der Transaktion gesperrt; die neuen Schluessel kommen vor dem Schreiben in die
+        // Bloom-Filter und werden bei einem Fehler wieder entfernt
+        final var hinzugefuegt = new ArrayList<Filiale>(1);
+        final var eingefuegt = new AtomicBoolean();
+        final Aenderung ergebnis;
+        try {
+            ergebnis = messen("compute", () -> transactionTemplate.execute(status -> {
+                final var alt = jdbcTemplate.query(SELECT_BY_ID_FOR_UPDATE, ROW_MAPPER, id).stream()
+                    .findFirst()
+                    .orElse(null);
+                if (version != BELIEBIGE_VERSION && alt != null && alt.getVersion() != version) {
+                    return VERSION_FALSCH;
+                }
+                final var neu = aenderung.apply(alt);
+                if (neu == null) {
+                    if (alt != null) {
+                        jdbcTemplate.update(DELETE, id);
+                        versionErhoehen(versionen.next(alt.getVersion()));
+                    }
+                    return new Aenderung(alt, null);
+                }
+                final var filialeDb = SnapshotStore.kopie(neu);
+                filialeDb.setId(id);
+                filialeDb.setVersion(versionen.next(alt == null ? 0 : alt.getVersion()));
+                bloomFilterAdd(filialeDb);
+                hinzugefuegt.add(filialeDb);
+                if (alt == null) {
+                    eingefuegt.set(true);
+                    jdbcTemplate.update(INSERT, ps -> setInsert(ps, filialeDb));
+                } else {
+                    jdbcTemplate.update(UPDATE, ps -> setUpdate(ps, filialeDb));
+                }
+                versionErhoehen(filialeDb.getVersion());
+                return new Aenderung(alt, filialeDb);
+            }));
+        } catch (final RuntimeException ex) {
+            hinzugefuegt.forEach(filiale -> bloomFilterRemove(id, EmailIndex.normalize(filiale.getEmail())));
+            if (!(ex instanceof DataIntegrityViolationException integrityEx) || !isDuplikat(integrityEx)) {
+                throw ex;
+            }
+            // SELECT FOR UPDATE sperrt keine Zeile, die es noch nicht gibt: hat ein paralleles compute() dieselbe
+            // neue ID zuerst eingefuegt, wird die Aenderung mit der jetzt vorhandenen Zeile wiederholt. Nur ohne
+            // Zeile zur ID verletzt das INSERT den Unique Index der Emailadresse.
+            if (eingefuegt.get() && isIdVorhanden(id)) {
+                log.debug("compute: id={} parallel eingefuegt, neuer Versuch", id);
+                return ausfuehren(id, version, aenderung);
+            }
+            log.debug("compute: email existiert bereits");
+            return WriteResult.EMAIL_EXISTS;
+        }
+        if (ergebnis == VERSION_FALSCH) {
+            log.debug("compute: version={} veraltet", version);
+            return WriteResult.VERSION_MISMATCH;
+        }
+
+        final var alt = ergebnis.alt();
+        if (alt != null) {
+            bloomFilterRemove(id, EmailIndex.normalize(alt.getEmail()));
+        }
+        final WriteResult result;
+        if (ergebnis.neu() == null) {
+            result = alt == null ? WriteResult.NOT_FOUND : WriteResult.ok(null);
+        } else {
+            result = WriteResult.ok(ergebnis.neu());
+        }
+        log.debug("compute: {}", result);
+        return result;
+    }
+
+    /**
+     * Die globale Version aus der Tabelle `filiale_version`, d.h. einschließlich der Änderungen anderer Instanzen.
+     *
+     * @return Die globale Version
+     */
+    @Override
+    public long version() {
+        final var version = messen("version", () -> jdbcTemplate.queryForObject(SELECT_VERSION, Long.class));
+        return version == null ? 0 : version;
+    }
+
+    // in der Transaktion der Aenderung als letzte Anweisung, damit die Zeile nur kurz gesperrt ist
+    private void versionErhoehen(final long version) {
+        jdbcTemplate.update(UPDATE_VERSION, version);
+    }
+
+    /**
+     * Filialen in einer Transaktion mit Batches zu jeweils `app.repository.jdbc.batch-size` Zeilen einfügen. Die IDs
+     * und die Versionen der Filialen werden übernommen, z.B. für die initialen Filialen.
+     *
+     * @param filialen Die neuen Filialen mit ID
+     */
+    void insertAll(final Collection<Filiale> filialen) {
+        log.debug("insertAll: #filialen={}", filialen.size());
+        filialen.forEach(this::bloomFilterAdd);
+        try {
+            messen("insertAll", () -> transactionTemplate.execute(status -> {
+                jdbcTemplate.batchUpdate(INSERT, filialen, config.batchSize(), JdbcFilialenRepository::setInsert);
+                versionErhoehen(versionen.next(0));
+                return null;
+            }));
+        } catch (final RuntimeException ex) {
+            filialen.forEach(filiale -> bloomFilterRemove(filiale.getId(), EmailIndex.normalize(filiale.getEmail())));
+            throw ex;
+        }
+    }
+
+    /**
+     * Vorhandene Filialen in einer Transaktion mit Batches zu jeweils `app.repository.jdbc.batch-size` Zeilen
+     * aktualisieren. Jede Filiale erhält dabei eine neue Version.
+     *
+     * @param filialen Die geänderten Filialen
+     */
+    void updateAll(final Collection<Filiale> filialen) {
+        log.debug("updateAll: #filialen={}", filialen.size());
+        final var filialenDb = filialen.stream()
+            .map(filiale -> {
+                final var filialeDb = SnapshotStore.kopie(filiale);
+                filialeDb.setVersion(versionen.next(filiale.getVersion()));
+                return filialeDb;
+            })
+            .toList();
+        // die bisherigen Emailadressen bleiben im Bloom-Filter und fuehren nur zu falsch positiven Ergebnissen
+        if (emails != null) {
+            filialen.forEach(filiale -> emails.add(CountingBloomFilter.hash(EmailIndex.normalize(filiale.getEmail()))));
+        }
+        messen("updateAll", () -> transactionTemplate.execute(status -> {
+            jdbcTemplate.batchUpdate(UPDATE, filialenDb, config.batchSize(), JdbcFilialenRepository::setUpdate);
+            versionErhoehen(versionen.next(0));
+            return null;
+        }));
+    }
+
+    // die Bits der Suchkriterien ermitteln und die Werte in der Reihenfolge der Bedingungen eintragen
+    private static int maske(final Map<String, String> suchkriterien, final String[] werte) {
+        var maske = 0;
+        for (final var entry : suchkriterien.entrySet()) {
+            switch (entry.getKey()) {
+                case QueryPlanner.NAME -> {
+                    maske |= NAME;
+                    werte[0] = '%' + escape(entry.getValue()) + '%';
+                }
+                case QueryPlanner.EMAIL -> {
+                    maske |= EMAIL;
+                    werte[1] = EmailIndex.normalize(entry.getValue());
+                }
+                case QueryPlanner.PLZ -> {
+                    maske |= PLZ;
+                    werte[2] = escape(entry.getValue()) + '%';
+                }
+                default -> log.debug("maske: ungueltiges Suchkriterium={}", entry.getKey());
+            }
+        }
+        return maske;
+    }
+
+    // Keyset Pagination: jede weitere Seite beginnt nach der letzten ID der vorherigen Seite
+    private List<Filiale> suche(final int maske, final String[] werte) {
+        final var pageSize = config.pageSize();
+        final var result = new ArrayList<Filiale>();
+        UUID letzteId = null;
+        while (true) {
+            final var parameter = parameter(werte, letzteId, pageSize);
+            final var sql = SUCHE[letzteId == null ? maske : maske | WEITERE_SEITE];
+            final var seite = messen("find", () -> jdbcTemplate.query(sql, ROW_MAPPER, parameter));
+            result.addAll(seite);
+            if (seite.size() < pageSize) {
+                return result;
+            }
+            letzteId = seite.get(seite.size() - 1).getId();
+        }
+    }
+
+    // die Parameter in der Reihenfolge der Bedingungen einer Variante von SUCHE
+    private static Object[] parameter(final String[] werte, final UUID after, final int limit) {
+        final var parameter = new ArrayList<Object>(werte.length + 2);
+        for (final var wert : werte) {
+            if (wert != null) {
+                parameter.add(wert);
+            }
+        }
+        if (after != null) {
+            parameter.add(after);
+        }
+        parameter.add(limit);
+        return parameter.toArray();
+    }
+
+    // die Schluessel vorhandener Zeilen nach einem Neustart seitenweise einlesen
+    private void bloomFilterLaden() {
+        final var pageSize = config.pageSize();
+        UUID letzteId = null;
+        while (true) {
+            final var seite = letzteId == null
+                ? jdbcTemplate.queryForList(SELECT_SCHLUESSEL, pageSize)
+                : jdbcTemplate.queryForList(SELECT_SCHLUESSEL_WEITER, letzteId, pageSize);
+            for (final var zeile : seite) {
+                letzteId = (UUID) zeile.get("id");
+                ids.add(CountingBloomFilter.hash(letzteId));
+                emails.add(CountingBloomFilter.hash((String) zeile.get("email_normalisiert")));
+            }
+            if (seite.size() < pageSize) {
+                log.debug("bloomFilterLaden: fpp id={}, fpp email={}", ids.fpp(), emails.fpp());
+                return;
+            }
+        }
+    }
+
+    private void bloomFilterAdd(final Filiale filiale) {
+        if (ids != null) {
+            ids.add(CountingBloomFilter.hash(filiale.getId()));
+            emails.add(CountingBloomFilter.hash(EmailIndex.normalize(filiale.getEmail())));
+        }
+    }
+
+    private void bloomFilterRemove(final UUID id, final String emailNormalisiert) {
+        if (ids != null) {
+            ids.remove(CountingBloomFilter.hash(id));
+            emails.remove(CountingBloomFilter.hash(emailNormalisiert));
+        }
+    }
+
+    private <T> T messen(final String abfrage, final Supplier<T> aktion) {
+        return timer.computeIfAbsent(abfrage, key -> Timer.builder("filiale.repository.jdbc.query")
+            .description("Dauer der SQL-Anweisungen")
+            .tag("query", key)
+            .publishPercentileHistogram()
+            .register(registry)
+        ).record(aktion);
+    }
+
+    private boolean isIdVorhanden(final UUID id) {
+        final var anzahl = messen("compute", () -> jdbcTemplate.queryForObject(EXISTS_ID, Long.class, id));
+        return anzahl != null && anzahl > 0;
+    }
+
+    // SQLState 23505 fuer unique_violation, den z.B. PostgreSQL und H2 verwenden
+    private static boolean isDuplikat(final DataIntegrityViolationException ex) {
+        return ex instanceof DuplicateKeyException ||
+            ex.getMostSpecificCause() instanceof SQLException sqlEx && UNIQUE_VIOLATION.equals(sqlEx.getSQLState());
+    }
+
+    // Sonderzeichen von LIKE maskieren, damit sie wie beim Suchen mit contains() als normale Zeichen gelten
+    private static String escape(final String wert) {
+        return wert.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static void setInsert(final PreparedStatement ps, final Filiale filiale) throws SQLException {
+        ps.setObject(1, filiale.getId());
+        setSpalten(ps, 2, filiale);
+    }
+
+    private static void setUpdate(final PreparedStatement ps, final Filiale filiale) throws SQLException {
+        final var index = setSpalten(ps, 1, filiale);
+        ps.setObject(index, filiale.getId());
+    }
+
+    // liefert den Index fuer den naechsten Parameter
+    private static int setSpalten(final PreparedStatement ps, final int start, final Filiale filiale)
+        throws SQLException {
+        final var umsatz = filiale.getUmsatz();
+        final var adresse = filiale.getAdresse();
+        var i = start;
+        ps.setString(i++, filiale.getName());
+        ps.setString(i++, filiale.getEmail());
+        ps.setString(i++, EmailIndex.normalize(filiale.getEmail()));
+        ps.setString(i++, filiale.getHomepage() == null ? null : filiale.getHomepage().toString());
+        ps.setBigDecimal(i++, umsatz == null ? null : umsatz.getBetrag());
+        final var waehrung = umsatz == null ? null : umsatz.getWaehrung();
+        ps.setString(i++, waehrung == null ? null : waehrung.getCurrencyCode());
+        ps.setString(i++, adresse == null ? null : adresse.getPlz());
+        ps.setString(i++, adresse == null ? null : adresse.getOrt());
+        ps.setLong(i++, filiale.getVersion());
+        return i;
+    }
+
+    private static Filiale filiale(final ResultSet rs) throws SQLException {
+        final var betrag = rs.getBigDecimal("umsatz_betrag");
+        final var waehrung = rs.getString("umsatz_waehrung");
+        final var plz = rs.getString("plz");
+        final var ort = rs.getString("ort");
+        return Filiale.builder()
+            .id(rs.getObject("id", UUID.class))
+            .version(rs.getLong("version"))
+            .name(rs.getString("name"))
+            .email(rs.getString("email"))
+            .homepage(url(rs.getString("homepage")))
+            .umsatz(betrag == null && waehrung == null ? null : Umsatz.builder()
+                // H2 speichert NUMERIC ohne Nullen am Ende und liefert z.B. 1E+1 statt 10
+                .betrag(betrag == null || betrag.scale() >= 0 ? betrag : betrag.setScale(0))
+                .waehrung(waehrung == null ? null : Waehrungen.of(waehrung))
+                .build())
+            .adresse(plz == null && ort == null ? null : Adresse.builder().plz(plz).ort(ort).build())
+            .build();
+    }
+
+    @SneakyThrows(MalformedURLException.class)
+    private static URL url(final String url) {
+        return url == null ? null : new URL(url);
+    }
+
+    private record Aenderung(Filiale alt, Filiale neu) {
+    }
+}
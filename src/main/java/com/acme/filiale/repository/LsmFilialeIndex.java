@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Sekundärindexe für den {@link LsmStore}, die wie die Filialen in {@link LsmTree} liegen: die IDs und Namen aus den
+ * Bäumen des Speichers sowie eigene Bäume mit der normalisierten Emailadresse und mit dem Trigramm und der ID als
+ * Schlüssel. Im Heap liegt zusätzlich nur die Länge der Posting-Liste pro Trigramm für die Schätzung der Kandidaten,
+ * die durch die Anzahl der verschiedenen Trigramme und nicht durch die Anzahl der Filialen begrenzt ist.
+ *
+ * <p>Die Autovervollständigung durchläuft alle Namen mit dem Präfix im Baum des Speichers, d.h. der Aufwand wächst
+ * mit der Anzahl der Filialen zum Präfix und nicht nur mit dem Limit wie beim {@link NameTrie}.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class LsmFilialeIndex implements FilialeIndex {
+    private static final byte[] LEER = new byte[0];
+
+    private static final int POSTING_BYTES = 3 * Long.BYTES;
+
+    private final LsmStore store;
+
+    private final LsmTree emails;
+
+    private final LsmTree trigramme;
+
+    private final ConcurrentMap<Long, Integer> anzahlen = new ConcurrentHashMap<>();
+
+    private final AtomicLong anzahlPostings = new AtomicLong();
+
+    // Pruefen und Eintragen einer Emailadresse als Einheit
+    private final ReentrantLock emailSperre = new ReentrantLock();
+
+    private final DistributionSummary kandidaten;
+
+    /**
+     * Die Indexe zu den Filialen im Speicher seitenweise aufbauen.
+     *
+     * @param store Der Speicher mit den Filialen
+     * @param config Die Konfiguration für die Bäume
+     * @param registry Die Registry für die Metriken
+     */
+    LsmFilialeIndex(final LsmStore store, final RepositoryProps.Lsm config, final MeterRegistry registry) {
+        this.store = store;
+        emails = new LsmTree("emails", config, registry);
+        trigramme = new LsmTree("trigramme", config, registry);
+        store.stream().forEach(filiale -> {
+            reserveEmail(filiale.getEmail(), filiale.getId());
+            add(filiale);
+        });
+
+        Gauge.builder("filiale.repository.trigram.size", anzahlen, ConcurrentMap::size)
+            .description("Anzahl der Trigramme im Index fuer die Namen")
+            .register(registry);
+        Gauge.builder("filiale.repository.trigram.postings", anzahlPostings, AtomicLong::get)
+            .description("Anzahl der Eintraege in allen Posting-Listen")
+            .register(registry);
+        kandidaten = DistributionSummary.builder("filiale.repository.trigram.candidates")
+            .description("Anzahl der Kandidaten nach dem Schnitt der Posting-Listen")
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    @Override
+    public Optional<UUID> getByEmail(final String email) {
+        if (email == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(emails.get(emailSchluessel(email))).map(LsmFilialeIndex::id);
+    }
+
+    @Override
+    public boolean reserveEmail(final String email, final UUID id) {
+        if (email == null) {
+            return true;
+        }
+        final var schluessel = emailSchluessel(email);
+        emailSperre.lock();
+        try {
+            final var vorhanden = emails.get(schluessel);
+            if (vorhanden == null) {
+                emails.put(schluessel, LsmStore.schluessel(id));
+                return true;
+            }
+            return Objects.equals(id(vorhanden), id);
+        } finally {
+            emailSperre.unlock();
+        }
+    }
+
+    @Override
+    public void releaseEmail(final String email, final UUID id) {
+        if (email == null) {
+            return;
+        }
+        final var schluessel = emailSchluessel(email);
+        emailSperre.lock();
+        try {
+            final var vorhanden = emails.get(schluessel);
+            if (vorhanden != null && Objects.equals(id(vorhanden), id)) {
+                emails.delete(schluessel);
+            }
+        } finally {
+            emailSperre.unlock();
+        }
+    }
+
+    // die ID und der Name stehen bereits in den Baeumen des Speichers
+    @Override
+    public void add(final Filiale filiale) {
+        addTrigramme(filiale.getId(), filiale.getName());
+    }
+
+    @Override
+    public void rename(final UUID id, final String alt, final String neu) {
+        removeTrigramme(id, alt);
+        addTrigramme(id, neu);
+    }
+
+    @Override
+    public void remove(final Filiale filiale) {
+        removeTrigramme(filiale.getId(), filiale.getName());
+    }
+
+    @Override
+    public List<String> complete(final String prefix, final int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        // die haeufigsten Namen in einem Min-Heap, bei gleicher Anzahl alphabetisch wie in der DB
+        final var haeufigste = new PriorityQueue<Name>(
+            Comparator.comparingInt(Name::anzahl).thenComparing(Name::name, Comparator.reverseOrder())
+        );
+        store.namen(prefix, (name, anzahl) -> {
+            haeufigste.add(new Name(name, anzahl));
+            if (haeufigste.size() > limit) {
+                haeufigste.poll();
+            }
+        });
+        final var result = new ArrayList<String>(haeufigste.size());
+        while (!haeufigste.isEmpty()) {
+            result.add(haeufigste.poll().name());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public Optional<Set<UUID>> candidates(final String teilstring) {
+        final var gesucht = TrigramIndex.trigramme(teilstring);
+        if (gesucht.isEmpty()) {
+            return Optional.empty();
+        }
+
+        // die kuerzeste Posting-Liste lesen und die Kandidaten in den weiteren Listen nachschlagen
+        final var sortiert = gesucht.stream()
+            .sorted(Comparator.comparingInt(this::anzahl))
+            .toList();
+        final var erstes = sortiert.get(0);
+        final var result = new HashSet<UUID>();
+        trigramme.scan(trigrammSchluessel(erstes), trigrammSchluessel(erstes + 1), (schluessel, wert) -> {
+            result.add(FilialeCodec.readId(ByteBuffer.wrap(schluessel, Long.BYTES, schluessel.length - Long.BYTES)));
+            return true;
+        });
+        for (int i = 1; i < sortiert.size() && !result.isEmpty(); i++) {
+            final long trigramm = sortiert.get(i);
+            result.removeIf(id -> trigramme.get(posting(trigramm, id)) == null);
+        }
+        kandidaten.record(result.size());
+        return Optional.of(result);
+    }
+
+    @Override
+    public OptionalInt estimate(final String teilstring) {
+        return TrigramIndex.trigramme(teilstring).stream()
+            .mapToInt(this::anzahl)
+            .min();
+    }
+
+    @Override
+    public Comparator<UUID> reihenfolge() {
+        return LsmStore.REIHENFOLGE;
+    }
+
+    @Override
+    public Stream<Filiale> stream(final FilialeStore.View view, final UUID after) {
+        return store.stream(after);
+    }
+
+    /**
+     * Die Threads der beiden Bäume beenden und die SSTables löschen.
+     */
+    @Override
+    public void close() {
+        emails.close();
+        trigramme.close();
+    }
+
+    // die Filiale ist neu bzw. hat einen neuen Namen, d.h. alle Eintraege sind neu
+    private void addTrigramme(final UUID id, final String name) {
+        TrigramIndex.trigramme(name).forEach(trigramm -> {
+            trigramme.put(posting(trigramm, id), LEER);
+            anzahlen.merge(trigramm, 1, Integer::sum);
+            anzahlPostings.incrementAndGet();
+        });
+    }
+
+    private void removeTrigramme(final UUID id, final String name) {
+        TrigramIndex.trigramme(name).forEach(trigramm -> {
+            trigramme.delete(posting(trigramm, id));
+            anzahlen.computeIfPresent(trigramm, (key, anzahl) -> anzahl == 1 ? null : anzahl - 1);
+            anzahlPostings.decrementAndGet();
+        });
+    }
+
+    private int anzahl(final long trigramm) {
+        return anzahlen.getOrDefault(trigramm, 0);
+    }
+
+    private static byte[] emailSchluessel(final String email) {
+        return EmailIndex.normalize(email).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // die Trigramme sind kleiner als 2^48, d.h. vorzeichenlos und mit Vorzeichen gleich sortiert
+    private static byte[] trigrammSchluessel(final long trigramm) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(trigramm).array();
+    }
+
+    private static byte[] posting(final long trigramm, final UUID id) {
+        return ByteBuffer.allocate(POSTING_BYTES)
+            .putLong(trigramm)
+            .putLong(id.getMostSignificantBits())
+            .putLong(id.getLeastSignificantBits())
+            .array();
+    }
+
+    private static UUID id(final byte[] bytes) {
+        return FilialeCodec.readId(ByteBuffer.wrap(bytes));
+    }
+
+    private record Name(String name, int anzahl) {
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Speicher für die Filialen in zwei {@link LsmTree}: die Filialen im {@link FilialeCodec} mit der ID als Schlüssel und
+ * ein Sekundärindex mit dem Namen und der ID als Schlüssel. Im Heap liegen nur die Memtables sowie die Block-Indexe
+ * und Bloom-Filter der SSTables, so dass der Katalog größer als der Heap sein kann. Die Keyset Pagination und die
+ * Autovervollständigung lesen deshalb direkt aus den Bäumen, siehe {@link LsmFilialeIndex}, und alle Filialen werden
+ * nur seitenweise mit {@link #stream(UUID)} durchlaufen.
+ *
+ * <p>Die IDs sind vorzeichenlos nach den 16 Bytes sortiert, die Namen nach den Bytes in UTF-8, d.h. nach den Unicode
+ * Code Points. Die Sicht zum Lesen ist kein Schnappschuss.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class LsmStore implements FilialeStore, FilialeStore.View {
+    /**
+     * Die Reihenfolge der IDs in den Bäumen, d.h. vorzeichenlos als 128 Bit.
+     */
+    static final Comparator<UUID> REIHENFOLGE = Comparator
+        .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+        .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    private static final int ID_BYTES = 2 * Long.BYTES;
+
+    private static final byte[] LEER = new byte[0];
+
+    private static final int BYTES_PRO_FILIALE = 128;
+
+    // Anzahl der Filialen, die beim Durchlaufen aller Filialen gemeinsam gelesen werden
+    private static final int SEITE = 512;
+
+    private final LsmTree zeilen;
+
+    private final LsmTree namen;
+
+    // Aenderungen an beiden Baeumen als Einheit
+    private final ReentrantLock sperre = new ReentrantLock();
+
+    private final AtomicInteger anzahl = new AtomicInteger();
+
+    LsmStore(final RepositoryProps.Lsm config, final MeterRegistry registry) {
+        zeilen = new LsmTree("filialen", config, registry);
+        namen = new LsmTree("namen", config, registry);
+    }
+
+    LsmStore(final Collection<Filiale> filialen, final RepositoryProps.Lsm config, final MeterRegistry registry) {
+        this(config, registry);
+        filialen.forEach(this::put);
+    }
+
+    @Override
+    public View view() {
+        return this;
+    }
+
+    @Override
+    public Filiale get(final UUID id) {
+        final var bytes = zeilen.get(schluessel(id));
+        return bytes == null ? null : decode(bytes);
+    }
+
+    @Override
+    public int size() {
+        return anzahl.get();
+    }
+
+    @Override
+    public List<Filiale> filter(final Predicate<? super Filiale> praedikat) {
+        final var result = new ArrayList<Filiale>();
+        zeilen.scan(null, null, (schluessel, wert) -> {
+            final var filiale = decode(wert);
+            if (praedikat.test(filiale)) {
+                result.add(filiale);
+            }
+            return true;
+        });
+        return result;
+    }
+
+    @Override
+    public void put(final Filiale filiale) {
+        sperre.lock();
+        try {
+            final var alt = get(filiale.getId());
+            schreiben(filiale, alt);
+            if (alt == null) {
+                anzahl.incrementAndGet();
+            }
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    @Override
+    public Filiale replace(final Filiale filiale) {
+        sperre.lock();
+        try {
+            final var alt = get(filiale.getId());
+            if (alt != null) {
+                schreiben(filiale, alt);
+            }
+            return alt;
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    @Override
+    public Filiale remove(final UUID id) {
+        sperre.lock();
+        try {
+            final var alt = get(id);
+            if (alt != null) {
+                zeilen.delete(schluessel(id));
+                if (alt.getName() != null) {
+                    namen.delete(namensschluessel(alt.getName(), id));
+                }
+                anzahl.decrementAndGet();
+            }
+            return alt;
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    /**
+     * Die Filialen in einem Bereich der IDs aufsteigend ermitteln. Die IDs werden dabei vorzeichenlos als 128 Bit
+     * verglichen und nicht wie bei {@link UUID#compareTo(UUID)}.
+     *
+     * @param von Die kleinste ID einschließlich oder null
+     * @param bis Die größte ID ausschließlich oder null
+     * @param limit Maximale Anzahl der Filialen
+     * @return Die gefundenen Filialen
+     */
+    List<Filiale> scanById(final UUID von, final UUID bis, final int limit) {
+        final var result = new ArrayList<Filiale>();
+        zeilen.scan(
+            von == null ? null : schluessel(von),
+            bis == null ? null : schluessel(bis),
+            (schluessel, wert) -> {
+                result.add(decode(wert));
+                return result.size() < limit;
+            }
+        );
+        return result;
+    }
+
+    /**
+     * Die Filialen in einem Bereich der Namen aufsteigend nach dem Namen und bei gleichen Namen nach der ID ermitteln.
+     *
+     * @param von Der kleinste Name einschließlich oder null
+     * @param bis Der größte Name ausschließlich oder null, z.B. "B" für alle Namen, die mit "A" beginnen
+     * @param limit Maximale Anzahl der Filialen
+     * @return Die gefundenen Filialen
+     */
+    List<Filiale> scanByName(final String von, final String bis, final int limit) {
+        final var ids = new ArrayList<UUID>();
+        namen.scan(
+            von == null ? null : von.getBytes(StandardCharsets.UTF_8),
+            bis == null ? null : bis.getBytes(StandardCharsets.UTF_8),
+            (schluessel, wert) -> {
+                ids.add(FilialeCodec.readId(ByteBuffer.wrap(schluessel, schluessel.length - ID_BYTES, ID_BYTES)));
+                return ids.size() < limit;
+            }
+        );
+        // zwischenzeitlich geloeschte Filialen ignorieren
+        return ids.stream().map(this::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Die Filialen nach einem Cursor aufsteigend nach der ID als lazy Stream. Gelesen wird seitenweise mit
+     * {@link #scanById(UUID, UUID, int)}, so dass immer nur eine Seite im Heap ist und zwischen den Seiten
+     * geschrieben werden kann.
+     *
+     * @param after Die ID der letzten bereits gelieferten Filiale oder null
+     * @return Die Filialen als Stream
+     */
+    Stream<Filiale> stream(final UUID after) {
+        return Page.stream(cursor -> seite(cursor == null ? after : cursor));
+    }
+
+    @Override
+    public Stream<Filiale> stream() {
+        return stream(null);
+    }
+
+    /**
+     * Die verschiedenen Namen mit einem Präfix aufsteigend durchlaufen, jeweils mit der Anzahl der Filialen.
+     *
+     * @param prefix Der Präfix
+     * @param besucher Erhält jeden Namen mit der Anzahl der Filialen
+     */
+    void namen(final String prefix, final ObjIntConsumer<String> besucher) {
+        final var von = prefix.getBytes(StandardCharsets.UTF_8);
+        // der kleinste Schluessel nach allen Namen mit dem Praefix, denn UTF-8 enthaelt kein Byte 0xFF
+        final var bis = von.length == 0 ? null : von.clone();
+        if (bis != null) {
+            bis[bis.length - 1]++;
+        }
+        final var zaehler = new Namenszaehler(besucher);
+        namen.scan(von, bis, zaehler);
+        zaehler.melden();
+    }
+
+    /**
+     * Die Threads der beiden Bäume beenden und die SSTables löschen.
+     */
+    @Override
+    public void close() {
+        zeilen.close();
+        namen.close();
+    }
+
+    private void schreiben(final Filiale filiale, final Filiale alt) {
+        final var id = filiale.getId();
+        zeilen.put(schluessel(id), encode(filiale));
+        final var nameAlt = alt == null ? null : alt.getName();
+        if (Objects.equals(nameAlt, filiale.getName())) {
+            return;
+        }
+        if (nameAlt != null) {
+            namen.delete(namensschluessel(nameAlt, id));
+        }
+        if (filiale.getName() != null) {
+            namen.put(namensschluessel(filiale.getName(), id), LEER);
+        }
+    }
+
+    // eine Filiale mehr als die Seite, damit Page.of() den Cursor fuer die naechste Seite setzt
+    private Page seite(final UUID after) {
+        final var filialen = scanById(after, null, SEITE + 2);
+        // der Cursor selbst gehoert noch zur vorherigen Seite
+        final var von = after != null && !filialen.isEmpty() && filialen.get(0).getId().equals(after) ? 1 : 0;
+        return Page.of(filialen.subList(von, Math.min(filialen.size(), von + SEITE + 1)), SEITE);
+    }
+
+    /**
+     * Der Schlüssel zu einer ID, d.h. die 16 Bytes in Big Endian.
+     *
+     * @param id Die ID
+     * @return Der Schlüssel
+     */
+    static byte[] schluessel(final UUID id) {
+        return ByteBuffer.allocate(ID_BYTES)
+            .putLong(id.getMostSignificantBits())
+            .putLong(id.getLeastSignificantBits())
+            .array();
+    }
+
+    // Name, ein Null-Byte als Trenner und die ID, damit gleiche Namen verschiedener Filialen eindeutig sind
+    private static byte[] namensschluessel(final String name, final UUID id) {
+        final var bytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(bytes.length + 1 + ID_BYTES)
+            .put(bytes)
+            .put((byte) 0)
+            .putLong(id.getMostSignificantBits())
+            .putLong(id.getLeastSignificantBits())
+            .array();
+    }
+
+    private static byte[] encode(final Filiale filiale) {
+        final var bytes = new ByteArrayOutputStream(BYTES_PRO_FILIALE);
+        try {
+            FilialeCodec.write(new DataOutputStream(bytes), filiale);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Filiale decode(final byte[] bytes) {
+        try {
+            return FilialeCodec.read(ByteBuffer.wrap(bytes));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // gleiche Namen folgen im Baum direkt aufeinander, weil die ID erst nach dem Namen kommt
+    private static final class Namenszaehler implements BiPredicate<byte[], byte[]> {
+        private final ObjIntConsumer<String> besucher;
+
+        private byte[] name;
+
+        private int anzahl;
+
+        Namenszaehler(final ObjIntConsumer<String> besucher) {
+            this.besucher = besucher;
+        }
+
+        @Override
+        public boolean test(final byte[] schluessel, final byte[] wert) {
+            final var laenge = schluessel.length - 1 - ID_BYTES;
+            if (name != null && Arrays.equals(name, 0, name.length, schluessel, 0, laenge)) {
+                anzahl++;
+                return true;
+            }
+            melden();
+            name = Arrays.copyOf(schluessel, laenge);
+            anzahl = 1;
+            return true;
+        }
+
+        void melden() {
+            if (name != null) {
+                besucher.accept(new String(name, StandardCharsets.UTF_8), anzahl);
+            }
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Log-Structured Merge Tree mit Byte-Arrays als Schlüssel und Werte, die vorzeichenlos lexikographisch sortiert sind.
+ * Geschrieben wird in eine Memtable im Heap. Ist sie voll, wird sie unveränderlich und von einem eigenen Thread als
+ * {@link SsTable} auf die Platte geschrieben, währenddessen nimmt eine neue Memtable die Änderungen auf. Derselbe
+ * Thread fasst alle SSTables zu einer einzigen zusammen (Compaction), sobald es {@code compactionThreshold} gibt.
+ * Gelöschte Schlüssel werden bis dahin als Tombstone gespeichert.
+ *
+ * <p>Gelesen wird von der neuesten zur ältesten Quelle: Memtable, unveränderliche Memtable und SSTables. Damit ist
+ * der belegte Heap durch die Größe der Memtables sowie die Block-Indexe und Bloom-Filter der SSTables begrenzt.</p>
+ *
+ * <p>Die Dateien dienen nur als Auslagerungsspeicher und werden beim Erzeugen und beim Schließen gelöscht.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Slf4j
+final class LsmTree implements AutoCloseable {
+    /**
+     * Wert für einen gelöschten Schlüssel, der nur über die Identität erkannt wird.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    // geschaetzter Speicher fuer einen Knoten der Skip-Liste und die Header der Arrays
+    private static final int OVERHEAD_PRO_EINTRAG = 64;
+
+    private static final String ENDUNG = ".sst";
+
+    private final String name;
+
+    private final Path verzeichnis;
+
+    private final long memtableLimit;
+
+    private final int compactionThreshold;
+
+    private final AtomicInteger naechsteNummer = new AtomicInteger();
+
+    // Schreiben in die Memtable und Wechsel des Stands
+    private final ReentrantLock schreibSperre = new ReentrantLock();
+
+    private final Condition geleert = schreibSperre.newCondition();
+
+    // Lesen aus den SSTables vs. Loeschen der SSTables nach einer Compaction
+    private final ReadWriteLock dateiSperre = new ReentrantReadWriteLock();
+
+    private final ExecutorService hintergrund;
+
+    private final Counter bloomTreffer;
+
+    private final Timer flushDauer;
+
+    private final Timer compactionDauer;
+
+    private volatile Stand stand = new Stand(neueMemtable(), null, List.of());
+
+    private volatile long memtableBytes;
+
+    private volatile IOException fehler;
+
+    LsmTree(final String name, final RepositoryProps.Lsm config, final MeterRegistry registry) {
+        this.name = name;
+        verzeichnis = Path.of(config.path()).toAbsolutePath();
+        memtableLimit = config.memtableSize().toBytes();
+        compactionThreshold = config.compactionThreshold();
+        try {
+            Files.createDirectories(verzeichnis);
+            // verwaiste Dateien, z.B. nach einem Absturz
+            try (var dateien = Files.newDirectoryStream(verzeichnis, name + "-*" + ENDUNG)) {
+                for (final var datei : dateien) {
+                    Files.delete(datei);
+                }
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Das Verzeichnis " + verzeichnis + " kann nicht verwendet werden", ex);
+        }
+
+        hintergrund = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, "filiale-lsm-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("filiale.repository.lsm.memtable", this, tree -> tree.memtableBytes)
+            .description("Geschaetzte Groesse der aktuellen Memtable")
+            .baseUnit("bytes")
+            .tag("tree", name)
+            .register(registry);
+        Gauge.builder("filiale.repository.lsm.sstables", this, tree -> tree.stand.tables().size())
+            .description("Anzahl der SSTables")
+            .tag("tree", name)
+            .register(registry);
+        Gauge.builder("filiale.repository.lsm.disk", this, LsmTree::diskBytes)
+            .description("Groesse der SSTables")
+            .baseUnit("bytes")
+            .tag("tree", name)
+            .register(registry);
+        bloomTreffer = Counter.builder("filiale.repository.lsm.bloom.skipped")
+            .description("Zugriffe auf SSTables, die durch den Bloom-Filter vermieden wurden")
+            .tag("tree", name)
+            .register(registry);
+        flushDauer = Timer.builder("filiale.repository.lsm.flush")
+            .description("Dauer zum Schreiben einer Memtable als SSTable")
+            .tag("tree", name)
+            .register(registry);
+        compactionDauer = Timer.builder("filiale.repository.lsm.compaction")
+            .description("Dauer zum Zusammenfassen der SSTables")
+            .tag("tree", name)
+            .register(registry);
+    }
+
+    /**
+     * Cursor über Einträge, die aufsteigend nach den Schlüsseln sortiert sind.
+     */
+    interface Cursor {
+        /**
+         * Zum nächsten Eintrag gehen.
+         *
+         * @return false, falls es keinen weiteren Eintrag gibt
+         */
+        boolean next();
+
+        /**
+         * Der Schlüssel des aktuellen Eintrags.
+         *
+         * @return Der Schlüssel
+         */
+        byte[] key();
+
+        /**
+         * Der Wert des aktuellen Eintrags.
+         *
+         * @return Der Wert oder {@link #TOMBSTONE}
+         */
+        byte[] value();
+    }
+
+    /**
+     * Den Wert zu einem Schlüssel ermitteln.
+     *
+     * @param schluessel Der Schlüssel
+     * @return Der Wert oder null
+     */
+    byte[] get(final byte[] schluessel) {
+        dateiSperre.readLock().lock();
+        try {
+            final var aktuell = stand;
+            var wert = aktuell.memtable().get(schluessel);
+            if (wert == null && aktuell.immutable() != null) {
+                wert = aktuell.immutable().get(schluessel);
+            }
+            if (wert == null) {
+                for (final var table : aktuell.tables()) {
+                    if (!table.mightContain(schluessel)) {
+                        bloomTreffer.increment();
+                        continue;
+                    }
+                    wert = table.get(schluessel);
+                    if (wert != null) {
+                        break;
+                    }
+                }
+            }
+            return wert == TOMBSTONE ? null : wert;
+        } finally {
+            dateiSperre.readLock().unlock();
+        }
+    }
+
+    /**
+     * Einen Wert zu einem Schlüssel speichern.
+     *
+     * @param schluessel Der Schlüssel
+     * @param wert Der Wert
+     */
+    void put(final byte[] schluessel, final byte[] wert) {
+        schreiben(schluessel, wert);
+    }
+
+    /**
+     * Einen Schlüssel löschen.
+     *
+     * @param schluessel Der Schlüssel
+     */
+    void delete(final byte[] schluessel) {
+        schreiben(schluessel, TOMBSTONE);
+    }
+
+    /**
+     * Die Einträge in einem Bereich der Schlüssel aufsteigend durchlaufen.
+     *
+     * @param von Der kleinste Schlüssel einschließlich oder null
+     * @param bis Der größte Schlüssel ausschließlich oder null
+     * @param besucher Wird für jeden Eintrag aufgerufen und liefert false, um den Durchlauf abzubrechen
+     */
+    void scan(final byte[] von, final byte[] bis, final BiPredicate<byte[], byte[]> besucher) {
+        dateiSperre.readLock().lock();
+        try {
+            final var aktuell = stand;
+            final var cursors = new ArrayList<Cursor>(aktuell.tables().size() + 2);
+            cursors.add(cursor(aktuell.memtable(), von));
+            if (aktuell.immutable() != null) {
+                cursors.add(cursor(aktuell.immutable(), von));
+            }
+            aktuell.tables().forEach(table -> cursors.add(table.cursor(von)));
+            final var merge = new MergeCursor(cursors);
+            while (merge.next()) {
+                if (bis != null && Arrays.compareUnsigned(merge.key(), bis) >= 0) {
+                    break;
+                }
+                if (merge.value() != TOMBSTONE && !besucher.test(merge.key(), merge.value())) {
+                    break;
+                }
+            }
+        } finally {
+            dateiSperre.readLock().unlock();
+        }
+    }
+
+    /**
+     * Den Thread für Flush und Compaction beenden und die SSTables löschen.
+     */
+    @Override
+    public void close() {
+        hintergrund.shutdown();
+        try {
+            if (!hintergrund.awaitTermination(1, MINUTES)) {
+                log.warn("close: Flush bzw. Compaction fuer {} nicht beendet", name);
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        dateiSperre.writeLock().lock();
+        try {
+            stand.tables().forEach(SsTable::delete);
+            stand = new Stand(neueMemtable(), null, List.of());
+        } finally {
+            dateiSperre.writeLock().unlock();
+        }
+    }
+
+    private void schreiben(final byte[] schluessel, final byte[] wert) {
+        schreibSperre.lock();
+        try {
+            pruefeFehler();
+            stand.memtable().put(schluessel, wert);
+            memtableBytes += schluessel.length + wert.length + OVERHEAD_PRO_EINTRAG;
+            if (memtableBytes < memtableLimit) {
+                return;
+            }
+            // Backpressure: hoechstens eine unveraenderliche Memtable wartet auf den Flush
+            while (stand.immutable() != null) {
+                pruefeFehler();
+                geleert.awaitUninterruptibly();
+            }
+            final var aktuell = stand;
+            stand = new Stand(neueMemtable(), aktuell.memtable(), aktuell.tables());
+            memtableBytes = 0;
+            hintergrund.execute(this::flush);
+        } finally {
+            schreibSperre.unlock();
+        }
+    }
+
+    private void pruefeFehler() {
+        final var ex = fehler;
+        if (ex != null) {
+            throw new UncheckedIOException("Fehler beim Schreiben einer SSTable in " + verzeichnis, ex);
+        }
+    }
+
+    private void flush() {
+        final var immutable = stand.immutable();
+        try {
+            final var start = System.nanoTime();
+            final var table = SsTable.write(neuerPfad(), cursor(immutable, null), immutable.size(), false);
+            flushDauer.record(System.nanoTime() - start, NANOSECONDS);
+            schreibSperre.lock();
+            try {
+                final var aktuell = stand;
+                final var tables = new ArrayList<SsTable>(aktuell.tables().size() + 1);
+                if (table != null) {
+                    tables.add(table);
+                }
+                tables.addAll(aktuell.tables());
+                stand = new Stand(aktuell.memtable(), null, List.copyOf(tables));
+                geleert.signalAll();
+            } finally {
+                schreibSperre.unlock();
+            }
+            if (stand.tables().size() >= compactionThreshold) {
+                compaction();
+            }
+        } catch (final IOException | UncheckedIOException ex) {
+            log.error("flush: {}", name, ex);
+            fehler = ex instanceof UncheckedIOException unchecked ? unchecked.getCause() : (IOException) ex;
+            schreibSperre.lock();
+            try {
+                geleert.signalAll();
+            } finally {
+                schreibSperre.unlock();
+            }
+        }
+    }
+
+    // alle SSTables zu einer zusammenfassen: Flush und Compaction laufen im selben Thread, d.h. die Liste der
+    // SSTables aendert sich waehrenddessen nicht
+    private void compaction() throws IOException {
+        final var start = System.nanoTime();
+        final var alt = stand.tables();
+        final var cursors = alt.stream().map(table -> table.cursor(null)).toList();
+        final var anzahl = alt.stream().mapToLong(SsTable::anzahl).sum();
+        // es gibt keine aeltere SSTable, deshalb muessen die Tombstones nicht mehr geschrieben werden
+        final var neu = SsTable.write(neuerPfad(), new MergeCursor(cursors), anzahl, true);
+        schreibSperre.lock();
+        try {
+            final var aktuell = stand;
+            stand = new Stand(aktuell.memtable(), aktuell.immutable(), neu == null ? List.of() : List.of(neu));
+        } finally {
+            schreibSperre.unlock();
+        }
+        dateiSperre.writeLock().lock();
+        try {
+            alt.forEach(SsTable::delete);
+        } finally {
+            dateiSperre.writeLock().unlock();
+        }
+        compactionDauer.record(System.nanoTime() - start, NANOSECONDS);
+        log.debug("compaction: {} mit {} SSTables und {} Eintraegen", name, alt.size(), anzahl);
+    }
+
+    private Path neuerPfad() {
+        return verzeichnis.resolve(String.format("%s-%06d%s", name, naechsteNummer.incrementAndGet(), ENDUNG));
+    }
+
+    private long diskBytes() {
+        return stand.tables().stream().mapToLong(SsTable::bytes).sum();
+    }
+
+    private static ConcurrentSkipListMap<byte[], byte[]> neueMemtable() {
+        return new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+    }
+
+    private static Cursor cursor(final ConcurrentSkipListMap<byte[], byte[]> memtable, final byte[] von) {
+        final Iterator<Map.Entry<byte[], byte[]>> iterator = von == null
+            ? memtable.entrySet().iterator()
+            : memtable.tailMap(von).entrySet().iterator();
+        return new Cursor() {
+            private Map.Entry<byte[], byte[]> eintrag;
+
+            @Override
+            public boolean next() {
+                eintrag = iterator.hasNext() ? iterator.next() : null;
+                return eintrag != null;
+            }
+
+            @Override
+            public byte[] key() {
+                return eintrag.getKey();
+            }
+
+            @Override
+            public byte[] value() {
+                return eintrag.getValue();
+            }
+        };
+    }
+
+    /**
+     * Stand des Baums, der bei jedem Wechsel einer Memtable oder der SSTables ersetzt wird.
+     *
+     * @param memtable Die aktuelle Memtable
+     * @param immutable Die unveränderliche Memtable, die gerade geschrieben wird, oder null
+     * @param tables Die SSTables von der neuesten zur ältesten
+     */
+    private record Stand(
+        ConcurrentSkipListMap<byte[], byte[]> memtable,
+        ConcurrentSkipListMap<byte[], byte[]> immutable,
+        List<SsTable> tables
+    ) {
+    }
+
+    // k-Wege-Merge: bei gleichen Schluesseln gewinnt die neueste Quelle, d.h. die mit dem kleinsten Index
+    private static final class MergeCursor implements Cursor {
+        private final PriorityQueue<Quelle> queue;
+
+        private byte[] schluessel;
+
+        private byte[] wert;
+
+        MergeCursor(final List<Cursor> cursors) {
+            queue = new PriorityQueue<>(Math.max(1, cursors.size()), Comparator
+                .comparing((Quelle quelle) -> quelle.cursor().key(), Arrays::compareUnsigned)
+                .thenComparingInt(Quelle::prioritaet));
+            for (int i = 0; i < cursors.size(); i++) {
+                final var cursor = cursors.get(i);
+                if (cursor.next()) {
+                    queue.add(new Quelle(cursor, i));
+                }
+            }
+        }
+
+        @Override
+        public boolean next() {
+            final var erste = queue.poll();
+            if (erste == null) {
+                return false;
+            }
+            schluessel = erste.cursor().key();
+            wert = erste.cursor().value();
+            weiter(erste);
+            // aeltere Eintraege mit demselben Schluessel sind ueberholt
+            while (!queue.isEmpty() && Arrays.compareUnsigned(queue.peek().cursor().key(), schluessel) == 0) {
+                weiter(queue.poll());
+            }
+            return true;
+        }
+
+        @Override
+        public byte[] key() {
+            return schluessel;
+        }
+
+        @Override
+        public byte[] value() {
+            return wert;
+        }
+
+        private void weiter(final Quelle quelle) {
+            if (quelle.cursor().next()) {
+                queue.add(quelle);
+            }
+        }
+
+        private record Quelle(Cursor cursor, int prioritaet) {
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Präfixbaum (Trie) über die Namen der Filialen für die Autovervollständigung. Zu jedem Namen wird die Anzahl der
+ * Filialen mit diesem Namen gespeichert und jeder Knoten kennt die größte Anzahl in seinem Teilbaum. Dadurch werden
+ * die k häufigsten Vervollständigungen zu einem Präfix ermittelt, ohne alle Namen zu durchlaufen.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class NameTrie {
+    private final Node root = new Node();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    NameTrie(final Collection<Filiale> filialen) {
+        filialen.forEach(filiale -> add(filiale.getName()));
+    }
+
+    /**
+     * Einen Namen einer (neuen) Filiale hinzufügen.
+     *
+     * @param name Der Name
+     */
+    void add(final String name) {
+        if (name == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            final var pfad = pfad(name, true);
+            final var blatt = pfad.get(pfad.size() - 1);
+            blatt.name = name;
+            blatt.anzahl++;
+            aktualisiereMax(pfad);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Einen Namen einer geänderten oder gelöschten Filiale entfernen.
+     *
+     * @param name Der Name
+     */
+    void remove(final String name) {
+        if (name == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            final var pfad = pfad(name, false);
+            if (pfad.size() != name.length() + 1) {
+                return;
+            }
+            final var blatt = pfad.get(pfad.size() - 1);
+            if (blatt.anzahl == 0) {
+                return;
+            }
+            blatt.anzahl--;
+            // Knoten ohne Namen im Teilbaum entfernen
+            for (int i = pfad.size() - 1; i > 0; i--) {
+                final var node = pfad.get(i);
+                if (node.anzahl > 0 || !node.children.isEmpty()) {
+                    break;
+                }
+                pfad.get(i - 1).children.remove(name.charAt(i - 1));
+            }
+            aktualisiereMax(pfad);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Die häufigsten Namen zu einem Präfix ermitteln, absteigend sortiert nach der Anzahl der Filialen.
+     *
+     * @param prefix Der Präfix
+     * @param limit Maximale Anzahl der Namen
+     * @return Die gefundenen Namen oder eine leere Liste
+     */
+    List<String> complete(final String prefix, final int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            final var pfad = pfad(prefix, false);
+            if (pfad.size() != prefix.length() + 1) {
+                return List.of();
+            }
+            return topK(pfad.get(pfad.size() - 1), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Best-First-Suche: ein Knoten steht mit dem Maximum seines Teilbaums in der Queue, ein Name mit seiner Anzahl.
+    // Dadurch werden die Namen in absteigender Reihenfolge der Anzahl aus der Queue entnommen.
+    private static List<String> topK(final Node start, final int limit) {
+        final var queue = new PriorityQueue<Eintrag>(
+            Comparator.comparingInt(Eintrag::prioritaet).reversed().thenComparingLong(Eintrag::reihenfolge)
+        );
+        long reihenfolge = 0;
+        queue.add(new Eintrag(start, null, start.max, reihenfolge++));
+        final var namen = new ArrayList<String>(limit);
+        while (!queue.isEmpty() && namen.size() < limit) {
+            final var eintrag = queue.poll();
+            if (eintrag.name() != null) {
+                namen.add(eintrag.name());
+                continue;
+            }
+            final var node = eintrag.node();
+            if (node.anzahl > 0) {
+                queue.add(new Eintrag(null, node.name, node.anzahl, reihenfolge++));
+            }
+            for (final var child : node.children.values()) {
+                queue.add(new Eintrag(child, null, child.max, reihenfolge++));
+            }
+        }
+        return namen;
+    }
+
+    private List<Node> pfad(final String name, final boolean anlegen) {
+        final var pfad = new ArrayList<Node>(name.length() + 1);
+        var node = root;
+        pfad.add(node);
+        for (int i = 0; i < name.length(); i++) {
+            final var zeichen = name.charAt(i);
+            var child = node.children.get(zeichen);
+            if (child == null) {
+                if (!anlegen) {
+                    return pfad;
+                }
+                child = new Node();
+                node.children.put(zeichen, child);
+            }
+            node = child;
+            pfad.add(node);
+        }
+        return pfad;
+    }
+
+    private static void aktualisiereMax(final List<Node> pfad) {
+        for (int i = pfad.size() - 1; i >= 0; i--) {
+            final var node = pfad.get(i);
+            var max = node.anzahl;
+            for (final var child : node.children.values()) {
+                max = Math.max(max, child.max);
+            }
+            node.max = max;
+        }
+    }
+
+    private static final class Node {
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+
+        private String name;
+
+        private int anzahl;
+
+        private int max;
+    }
+
+    private record Eintrag(Node node, String name, int prioritaet, long reihenfolge) {
+    }
+}
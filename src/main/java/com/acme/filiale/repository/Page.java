@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Eine Seite mit Filialen bei einer Suche mit Keyset Pagination: Die Filialen sind aufsteigend nach der ID sortiert
+ * und die nächste Seite beginnt nach der ID der letzten Filiale.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param filialen Die Filialen der Seite
+ * @param next Die ID der letzten Filiale als Cursor für die nächste Seite oder null, falls es keine weiteren
+ *      Filialen gibt
+ */
+public record Page(List<Filiale> filialen, UUID next) {
+    /**
+     * Leere Seite ohne weitere Seiten.
+     */
+    public static final Page EMPTY = new Page(List.of(), null);
+
+    /**
+     * Eine Seite aus den Treffern einer Abfrage mit `limit + 1` Zeilen bilden: Gibt es mehr Treffer als das Limit,
+     * folgt mindestens eine weitere Seite.
+     *
+     * @param treffer Die Treffer sortiert nach der ID, höchstens `limit + 1`
+     * @param limit Die maximale Anzahl an Filialen pro Seite
+     * @return Die Seite
+     */
+    static Page of(final List<Filiale> treffer, final int limit) {
+        if (treffer.size() <= limit) {
+            return new Page(treffer, null);
+        }
+        final var filialen = treffer.subList(0, limit);
+        return new Page(filialen, filialen.get(limit - 1).getId());
+    }
+
+    /**
+     * Die Filialen aller Seiten als lazy Stream: Die nächste Seite wird erst gelesen, wenn die Filialen der
+     * vorherigen Seite konsumiert sind, d.h. es ist immer nur eine Seite im Speicher.
+     *
+     * @param seite Die Funktion, die zum Cursor die nächste Seite liest bzw. zu null die erste Seite
+     * @return Die Filialen aller Seiten
+     */
+    static Stream<Filiale> stream(final Function<UUID, Page> seite) {
+        final UnaryOperator<Page> naechste = page -> page.next() == null ? null : seite.apply(page.next());
+        return Stream.iterate(seite.apply(null), Objects::nonNull, naechste)
+            .flatMap(page -> page.filialen().stream());
+    }
+}
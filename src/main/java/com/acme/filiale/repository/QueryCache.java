@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Begrenzter Cache für die Ergebnisse wiederholter Suchen nach Suchkriterien und für die Autovervollständigung der
+ * Namen. Leere Ergebnisse werden ebenfalls gespeichert, weil erfolglose Suchen genauso häufig wiederholt werden.
+ *
+ * <p>Die Verdrängung folgt W-TinyLFU: Neue Ergebnisse kommen in ein kleines LRU-Window. Wird daraus ein Ergebnis
+ * verdrängt, darf es das älteste Ergebnis im Hauptbereich nur ersetzen, falls es laut einem Count-Min Sketch häufiger
+ * angefragt wurde. Einmalige Suchen verdrängen dadurch keine häufig wiederholten Suchen.</p>
+ *
+ * <p>Zu jedem Ergebnis gehört das Prädikat der Suche. Eine Änderung entfernt nur die Ergebnisse, deren Prädikat die
+ * bisherige oder die neue Filiale erfüllt. Die Invalidierung erfolgt im kritischen Abschnitt des Repository vor dem
+ * Schreiben und nochmals danach, siehe {@link #invalidation()}. Dazwischen werden keine neuen Ergebnisse gespeichert,
+ * so dass nach dem Lesen der globalen Version nie ein älteres Ergebnis aus dem Cache geliefert wird.</p>
+ *
+ * <p>Es werden nur die Änderungen der eigenen Instanz erkannt. Mit dem Profile `jdbc` ist der Cache deshalb
+ * standardmäßig deaktiviert, weil andere Instanzen in dieselbe Tabelle schreiben können.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Component
+@Slf4j
+@SuppressWarnings({"PublicConstructor", "ClassDataAbstractionCoupling"})
+public final class QueryCache {
+    // Anteil des LRU-Window am Cache wie bei W-TinyLFU
+    private static final int WINDOW_PROZENT = 1;
+
+    private static final String NAMEN_PREFIX = "prefix";
+
+    private final int windowGroesse;
+
+    private final int hauptGroesse;
+
+    private final Lock sperre = new ReentrantLock();
+
+    // beide in access-order, d.h. das erste Element ist das am laengsten nicht verwendete
+    private final LinkedHashMap<Schluessel, Eintrag> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<Schluessel, Eintrag> haupt = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch haeufigkeiten;
+
+    // wird bei jeder Invalidierung erhoeht, damit ein waehrenddessen gelesenes Ergebnis nicht gespeichert wird
+    private long generation;
+
+    // Anzahl der Aenderungen zwischen der Invalidierung vor und nach dem Schreiben
+    private int schreibend;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    private final Counter invalidations;
+
+    /**
+     * Konstruktor mit der Konfiguration `app.repository.cache.*` und der globalen Registry für die Metriken.
+     *
+     * @param props Die Konfiguration für das Repository
+     */
+    public QueryCache(final RepositoryProps props) {
+        this(props.cache().maximumSize(), Metrics.globalRegistry);
+    }
+
+    QueryCache(final int maximaleGroesse, final MeterRegistry registry) {
+        windowGroesse = maximaleGroesse == 0 ? 0 : Math.max(1, maximaleGroesse * WINDOW_PROZENT / 100);
+        hauptGroesse = maximaleGroesse - windowGroesse;
+        haeufigkeiten = new FrequencySketch(maximaleGroesse);
+
+        hits = Counter.builder("filiale.repository.cache.gets")
+            .tag("result", "hit")
+            .description("Anzahl der Suchen, deren Ergebnis im Cache war")
+            .register(registry);
+        misses = Counter.builder("filiale.repository.cache.gets")
+            .tag("result", "miss")
+            .description("Anzahl der Suchen, deren Ergebnis nicht im Cache war")
+            .register(registry);
+        evictions = Counter.builder("filiale.repository.cache.evictions")
+            .description("Anzahl der Ergebnisse, die wegen der maximalen Groesse nicht mehr im Cache sind")
+            .register(registry);
+        invalidations = Counter.builder("filiale.repository.cache.invalidations")
+            .description("Anzahl der Ergebnisse, die wegen einer Aenderung aus dem Cache entfernt wurden")
+            .register(registry);
+        Gauge.builder("filiale.repository.cache.size", this, QueryCache::size)
+            .description("Anzahl der Suchergebnisse im Cache")
+            .register(registry);
+    }
+
+    /**
+     * Eine Seite zu Suchkriterien aus dem Cache lesen oder suchen und speichern.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @param after Die ID der letzten Filiale der vorherigen Seite oder null
+     * @param limit Die maximale Anzahl an Filialen der Seite
+     * @param suche Die Suche im Repository, falls die Seite nicht im Cache ist
+     * @return Die Seite, deren Filialen nicht verändert werden dürfen
+     */
+    public Page page(
+        final Map<String, String> suchkriterien,
+        final UUID after,
+        final int limit,
+        final Supplier<Page> suche
+    ) {
+        final var schluessel = new Schluessel(Art.PAGE, normalisieren(suchkriterien), after, limit);
+        return get(schluessel, () -> praedikat(suchkriterien), suche);
+    }
+
+    /**
+     * Die Namen zu einem Präfix aus dem Cache lesen oder suchen und speichern.
+     *
+     * @param prefix Das Präfix der Namen
+     * @param limit Die maximale Anzahl der Namen
+     * @param suche Die Suche im Repository, falls die Namen nicht im Cache sind
+     * @return Die Namen
+     */
+    public List<String> namen(final String prefix, final int limit, final Supplier<List<String>> suche) {
+        final var schluessel = new Schluessel(Art.NAMEN, Map.of(NAMEN_PREFIX, prefix), null, limit);
+        return get(
+            schluessel,
+            () -> filiale -> filiale.getName() != null && filiale.getName().startsWith(prefix),
+            suche
+        );
+    }
+
+    /**
+     * Eine Invalidierung für eine Änderung im Repository erstellen. Die Funktion für `compute()` wird mit
+     * {@link Invalidation#wrap(UnaryOperator)} umhüllt, damit die betroffenen Ergebnisse im kritischen Abschnitt vor
+     * dem Schreiben entfernt werden. `close()` entfernt sie nach dem Schreiben nochmals und erlaubt wieder das
+     * Speichern neuer Ergebnisse.
+     *
+     * @return Die Invalidierung für genau eine Änderung
+     */
+    public Invalidation invalidation() {
+        return new Invalidation();
+    }
+
+    /**
+     * Die Anzahl der Suchergebnisse im Cache.
+     *
+     * @return Die Anzahl
+     */
+    int size() {
+        sperre.lock();
+        try {
+            return window.size() + haupt.size();
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(
+        final Schluessel schluessel,
+        final Supplier<Predicate<Filiale>> praedikat,
+        final Supplier<T> suche
+    ) {
+        if (windowGroesse == 0) {
+            return suche.get();
+        }
+
+        final long generationVorher;
+        sperre.lock();
+        try {
+            haeufigkeiten.increment(schluessel.hashCode());
+            var eintrag = window.get(schluessel);
+            if (eintrag == null) {
+                eintrag = haupt.get(schluessel);
+            }
+            if (eintrag != null) {
+                hits.increment();
+                return (T) eintrag.wert();
+            }
+            generationVorher = generation;
+        } finally {
+            sperre.unlock();
+        }
+
+        misses.increment();
+        final var wert = suche.get();
+        final var eintrag = new Eintrag(wert, praedikat.get());
+        sperre.lock();
+        try {
+            if (generation == generationVorher && schreibend == 0 && !haupt.containsKey(schluessel)) {
+                einfuegen(schluessel, eintrag);
+            }
+        } finally {
+            sperre.unlock();
+        }
+        return wert;
+    }
+
+    // neue Ergebnisse kommen ins Window; ein daraus verdraengtes Ergebnis ist Kandidat fuer den Hauptbereich
+    private void einfuegen(final Schluessel schluessel, final Eintrag eintrag) {
+        window.put(schluessel, eintrag);
+        if (window.size() <= windowGroesse) {
+            return;
+        }
+
+        final var iterator = window.entrySet().iterator();
+        final var kandidat = iterator.next();
+        iterator.remove();
+        if (haupt.size() < hauptGroesse) {
+            haupt.put(kandidat.getKey(), kandidat.getValue());
+            return;
+        }
+
+        evictions.increment();
+        if (hauptGroesse == 0) {
+            return;
+        }
+        final var opfer = haupt.keySet().iterator().next();
+        if (haeufigkeiten.frequency(kandidat.getKey().hashCode()) > haeufigkeiten.frequency(opfer.hashCode())) {
+            haupt.remove(opfer);
+            haupt.put(kandidat.getKey(), kandidat.getValue());
+        }
+    }
+
+    private void entfernen(final Filiale alt, final Filiale neu) {
+        final var vorher = window.size() + haupt.size();
+        final Predicate<Eintrag> betroffen = eintrag ->
+            alt != null && eintrag.praedikat().test(alt) || neu != null && eintrag.praedikat().test(neu);
+        window.values().removeIf(betroffen);
+        haupt.values().removeIf(betroffen);
+        generation++;
+        invalidations.increment(vorher - window.size() - haupt.size());
+    }
+
+    // E-Mail-Adressen werden wie bei der Suche ohne Gross- und Kleinschreibung verglichen
+    private static Map<String, String> normalisieren(final Map<String, String> suchkriterien) {
+        if (!suchkriterien.containsKey(QueryPlanner.EMAIL)) {
+            return Map.copyOf(suchkriterien);
+        }
+        final var normalisiert = new HashMap<>(suchkriterien);
+        normalisiert.computeIfPresent(QueryPlanner.EMAIL, (key, email) -> EmailIndex.normalize(email));
+        return Map.copyOf(normalisiert);
+    }
+
+    // unbekannte Suchkriterien werden ignoriert; ohne bekannte Suchkriterien betrifft jede Aenderung das Ergebnis
+    private static Predicate<Filiale> praedikat(final Map<String, String> suchkriterien) {
+        Predicate<Filiale> result = filiale -> true;
+        for (final var entry : suchkriterien.entrySet()) {
+            final var praedikat = QueryPlanner.praedikat(entry.getKey(), entry.getValue());
+            if (praedikat != null) {
+                result = result.and(praedikat);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalidierung der Suchergebnisse für genau eine Änderung, siehe {@link #invalidation()}.
+     */
+    public final class Invalidation implements AutoCloseable {
+        private final List<Filiale> betroffen = new ArrayList<>(2);
+
+        private boolean begonnen;
+
+        private Invalidation() {
+        }
+
+        /**
+         * Die Funktion für `compute()` umhüllen, so dass vor dem Schreiben die Ergebnisse zur bisherigen und zur
+         * neuen Filiale entfernt werden.
+         *
+         * @param aenderung Die Funktion für `compute()`
+         * @return Die umhüllte Funktion
+         */
+        public UnaryOperator<Filiale> wrap(final UnaryOperator<Filiale> aenderung) {
+            if (windowGroesse == 0) {
+                return aenderung;
+            }
+            return alt -> {
+                // die Funktion kann die Kopie der bisherigen Filiale veraendern
+                final var bisher = alt == null ? null : SnapshotStore.kopie(alt);
+                final var neu = aenderung.apply(alt);
+                begin(bisher, neu);
+                return neu;
+            };
+        }
+
+        private void begin(final Filiale alt, final Filiale neu) {
+            sperre.lock();
+            try {
+                if (!begonnen) {
+                    begonnen = true;
+                    schreibend++;
+                }
+                betroffen.add(alt);
+                betroffen.add(neu == null ? null : SnapshotStore.kopie(neu));
+                entfernen(alt, neu);
+            } finally {
+                sperre.unlock();
+            }
+        }
+
+        /**
+         * Nach dem Schreiben die Ergebnisse nochmals entfernen und das Speichern neuer Ergebnisse wieder erlauben.
+         */
+        @Override
+        public void close() {
+            sperre.lock();
+            try {
+                if (!begonnen) {
+                    return;
+                }
+                for (int i = 0; i < betroffen.size(); i += 2) {
+                    entfernen(betroffen.get(i), betroffen.get(i + 1));
+                }
+                begonnen = false;
+                schreibend--;
+            } finally {
+                sperre.unlock();
+            }
+        }
+    }
+
+    /**
+     * Count-Min Sketch mit 4 Zeilen für die geschätzte Häufigkeit der Anfragen. Die Zähler sind wie bei TinyLFU auf
+     * 15 begrenzt und werden nach einer festen Anzahl von Anfragen halbiert, damit frühere Anfragen an Gewicht
+     * verlieren.
+     */
+    private static final class FrequencySketch {
+        private static final int ZEILEN = 4;
+
+        private static final int MAX_ZAEHLER = 15;
+
+        // Zaehler pro Zeile und Ergebnis im Cache, damit Kollisionen einmalige Suchen nicht haeufig erscheinen lassen
+        private static final int BREITE_FAKTOR = 4;
+
+        private static final int MIN_BREITE = 64;
+
+        private static final int STICHPROBE_FAKTOR = 10;
+
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+        private final byte[][] zaehler;
+
+        private final int shift;
+
+        private final int stichprobe;
+
+        private int anzahl;
+
+        FrequencySketch(final int maximaleGroesse) {
+            final var breite = Integer.highestOneBit(Math.max(MIN_BREITE, maximaleGroesse * BREITE_FAKTOR - 1) << 1);
+            zaehler = new byte[ZEILEN][breite];
+            shift = Integer.SIZE - Integer.numberOfTrailingZeros(breite);
+            stichprobe = STICHPROBE_FAKTOR * breite;
+        }
+
+        void increment(final int hash) {
+            for (int zeile = 0; zeile < ZEILEN; zeile++) {
+                final var index = index(hash, zeile);
+                if (zaehler[zeile][index] < MAX_ZAEHLER) {
+                    zaehler[zeile][index]++;
+                }
+            }
+            if (++anzahl >= stichprobe) {
+                halbieren();
+            }
+        }
+
+        int frequency(final int hash) {
+            var result = MAX_ZAEHLER;
+            for (int zeile = 0; zeile < ZEILEN; zeile++) {
+                result = Math.min(result, zaehler[zeile][index(hash, zeile)]);
+            }
+            return result;
+        }
+
+        private int index(final int hash, final int zeile) {
+            return (hash ^ hash >>> 16) * SEEDS[zeile] >>> shift;
+        }
+
+        private void halbieren() {
+            for (final var zeile : zaehler) {
+                for (int i = 0; i < zeile.length; i++) {
+                    zeile[i] >>= 1;
+                }
+            }
+            anzahl /= 2;
+        }
+    }
+
+    private enum Art {
+        PAGE,
+        NAMEN
+    }
+
+    private record Schluessel(Art art, Map<String, String> kriterien, UUID after, int limit) {
+    }
+
+    private record Eintrag(Object wert, Predicate<Filiale> praedikat) {
+    }
+}
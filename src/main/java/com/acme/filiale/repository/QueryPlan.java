@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.List;
+
+/**
+ * Ausführungsplan für eine Suche mit Suchkriterien, z.B. für die Ausgabe mit `?explain`.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param zugriff Der gewählte Zugriffspfad, z.B. der Index für die Emailadresse oder ein Full Scan
+ * @param schritte Die einzelnen Schritte in der Reihenfolge der Ausführung
+ * @param geschaetzteKandidaten Geschätzte Anzahl der Filialen, die mit den Filtern geprüft werden
+ * @param geschaetzteKosten Geschätzte Kosten als Anzahl der gelesenen Index-Einträge und ausgewerteten Prädikate
+ * @param ignoriert Unbekannte Suchkriterien, die nicht berücksichtigt werden
+ */
+public record QueryPlan(
+    String zugriff,
+    List<String> schritte,
+    long geschaetzteKandidaten,
+    long geschaetzteKosten,
+    List<String> ignoriert
+) {
+}
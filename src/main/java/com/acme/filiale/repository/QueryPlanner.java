@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kostenbasierte Auswertung von Suchkriterien: alle Suchkriterien werden zu Prädikaten, die gemeinsam erfüllt sein
+ * müssen. Der selektivste Index bestimmt die Kandidaten, weitere Indexe werden nur geschnitten, wenn das billiger
+ * ist als die Prüfung der Kandidaten mit den Prädikaten. Ohne passenden Index werden alle Filialen durchlaufen.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Slf4j
+final class QueryPlanner {
+    /**
+     * Suchkriterium für einen Teilstring im Namen.
+     */
+    static final String NAME = "name";
+
+    /**
+     * Suchkriterium für die Emailadresse.
+     */
+    static final String EMAIL = "email";
+
+    /**
+     * Suchkriterium für den Anfang der Postleitzahl.
+     */
+    static final String PLZ = "plz";
+
+    private static final String FULL_SCAN = "Full Scan";
+
+    private final FilialeStore filialen;
+
+    private final FilialeIndex index;
+
+    QueryPlanner(final FilialeStore filialen, final FilialeIndex index) {
+        this.filialen = filialen;
+        this.index = index;
+    }
+
+    /**
+     * Den Ausführungsplan zu Suchkriterien ermitteln, ohne die Suche auszuführen.
+     *
+     * @param suchkriterien Die Suchkriterien
+     * @return Der Ausführungsplan
+     */
+    QueryPlan explain(final Map<String, String> suchkriterien) {
+        return plan(suchkriterien, filialen.view()).beschreibung();
+    }
+
+    /**
+     * Die Filialen zu Suchkriterien gemäß dem günstigsten Ausführungsplan suchen. Die Indexe liefern nur Hinweise auf
+     * Kandidaten, die Prädikate werden immer mit den Filialen aus derselben Sicht des Speichers geprüft.
+     *
+     * @param suchkriterien Die Suchkriterien
+     * @return Die gefundenen Filialen oder eine leere Collection
+     */
+    Collection<Filiale> execute(final Map<String, String> suchkriterien) {
+        final var view = filialen.view();
+        final var plan = plan(suchkriterien, view);
+        log.debug("execute: {}", plan.beschreibung());
+        if (plan.praedikate().isEmpty()) {
+            // nur unbekannte Suchkriterien
+            return List.of();
+        }
+
+        final var filter = plan.praedikate().stream().reduce(filiale -> true, Predicate::and);
+        if (plan.zugriffe().isEmpty()) {
+            return view.filter(filter);
+        }
+
+        return kandidaten(plan.zugriffe()).stream()
+            .map(view::get)
+            .filter(Objects::nonNull)
+            .filter(filter)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Eine Seite der Filialen zu Suchkriterien aufsteigend nach der ID suchen, siehe
+     * {@link FilialeIndex#reihenfolge()}. Ohne passenden Index werden die IDs ab dem Cursor in sortierter Reihenfolge
+     * durchlaufen, bis die Seite voll ist. Mit Index werden nur die Kandidaten nach dem Cursor sortiert und geprüft.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @param after Die ID der letzten Filiale der vorherigen Seite oder null
+     * @param limit Die maximale Anzahl an Filialen der Seite
+     * @return Die Seite mit den gespeicherten Filialen
+     */
+    Page page(final Map<String, String> suchkriterien, final UUID after, final int limit) {
+        // eine Filiale mehr als das Limit, um festzustellen, ob es eine weitere Seite gibt
+        return Page.of(treffer(suchkriterien, after).limit(limit + 1L).toList(), limit);
+    }
+
+    /**
+     * Die Filialen zu Suchkriterien aufsteigend nach der ID als lazy Stream suchen. Die Filialen werden erst beim
+     * Konsumieren des Streams gelesen und geprüft, d.h. ohne passenden Index wird der Speicher belegt, den eine
+     * einzelne Filiale benötigt.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @return Die gespeicherten Filialen als Stream
+     */
+    Stream<Filiale> stream(final Map<String, String> suchkriterien) {
+        return treffer(suchkriterien, null);
+    }
+
+    private Stream<Filiale> treffer(final Map<String, String> suchkriterien, final UUID after) {
+        final var view = filialen.view();
+        final var plan = plan(suchkriterien, view);
+        log.debug("treffer: {}", plan.beschreibung());
+        if (!suchkriterien.isEmpty() && plan.praedikate().isEmpty()) {
+            // nur unbekannte Suchkriterien
+            return Stream.empty();
+        }
+
+        final var filter = plan.praedikate().stream().reduce(filiale -> true, Predicate::and);
+        final Stream<Filiale> kandidaten;
+        if (plan.zugriffe().isEmpty()) {
+            kandidaten = index.stream(view, after);
+        } else {
+            final var reihenfolge = index.reihenfolge();
+            kandidaten = kandidaten(plan.zugriffe()).stream()
+                .filter(id -> after == null || reihenfolge.compare(id, after) > 0)
+                .sorted(reihenfolge)
+                .map(view::get)
+                .filter(Objects::nonNull);
+        }
+        return kandidaten.filter(filter);
+    }
+
+    /**
+     * Das Prädikat zu einem Suchkriterium, das auch die Suche in der DB beschreibt.
+     *
+     * @param kriterium Der Name des Suchkriteriums
+     * @param wert Der Wert des Suchkriteriums
+     * @return Das Prädikat oder null bei einem unbekannten Suchkriterium
+     */
+    static Predicate<Filiale> praedikat(final String kriterium, final String wert) {
+        return switch (kriterium) {
+            case NAME -> filiale -> filiale.getName() != null && filiale.getName().contains(wert);
+            case EMAIL -> {
+                final var normalisiert = EmailIndex.normalize(wert);
+                yield filiale ->
+                    filiale.getEmail() != null && EmailIndex.normalize(filiale.getEmail()).equals(normalisiert);
+            }
+            case PLZ -> filiale -> filiale.getAdresse() != null && filiale.getAdresse().getPlz() != null &&
+                filiale.getAdresse().getPlz().startsWith(wert);
+            default -> null;
+        };
+    }
+
+    // die Kandidaten aus dem selektivsten Index mit den weiteren gewaehlten Indexen schneiden
+    private static Set<UUID> kandidaten(final List<Indexzugriff> zugriffe) {
+        Set<UUID> result = null;
+        for (final var zugriff : zugriffe) {
+            final var treffer = zugriff.ids().get();
+            if (result == null) {
+                result = new HashSet<>(treffer);
+            } else {
+                result.retainAll(treffer);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("CyclomaticComplexity")
+    private Plan plan(final Map<String, String> suchkriterien, final FilialeStore.View view) {
+        final var praedikate = new ArrayList<Predicate<Filiale>>(suchkriterien.size());
+        final var filter = new ArrayList<String>(suchkriterien.size());
+        final var indexzugriffe = new ArrayList<Indexzugriff>(suchkriterien.size());
+        final var ignoriert = new ArrayList<String>();
+
+        for (final var entry : suchkriterien.entrySet()) {
+            final var wert = entry.getValue();
+            switch (entry.getKey()) {
+                case NAME -> {
+                    praedikate.add(praedikat(NAME, wert));
+                    filter.add("name enthaelt '" + wert + '\'');
+                    index.estimate(wert).ifPresent(schaetzung -> indexzugriffe.add(new Indexzugriff(
+                        "Trigramm-Index fuer name='" + wert + '\'',
+                        schaetzung,
+                        () -> index.candidates(wert).orElseGet(Set::of)
+                    )));
+                }
+                case EMAIL -> {
+                    praedikate.add(praedikat(EMAIL, wert));
+                    filter.add("email = '" + wert + '\'');
+                    final var id = index.getByEmail(wert);
+                    indexzugriffe.add(new Indexzugriff(
+                        "Email-Index fuer email='" + wert + '\'',
+                        id.isPresent() ? 1 : 0,
+                        () -> id.map(Set::of).orElseGet(Set::of)
+                    ));
+                }
+                case PLZ -> {
+                    praedikate.add(praedikat(PLZ, wert));
+                    filter.add("plz beginnt mit '" + wert + '\'');
+                }
+                default -> {
+                    log.debug("plan: ungueltiges Suchkriterium={}", entry.getKey());
+                    ignoriert.add(entry.getKey());
+                }
+            }
+        }
+
+        // Kostenmodell: ein gelesener Index-Eintrag bzw. ein ausgewertetes Praedikat kostet jeweils 1
+        indexzugriffe.sort(Comparator.comparingLong(Indexzugriff::schaetzung));
+        final long anzahl = view.size();
+        final var anzahlPraedikate = praedikate.size();
+        final var gewaehlt = new ArrayList<Indexzugriff>(indexzugriffe.size());
+        final var schritte = new ArrayList<String>(indexzugriffe.size() + 1);
+        var kandidaten = anzahl;
+        var kosten = 0L;
+        for (final var zugriff : indexzugriffe) {
+            final var schaetzung = zugriff.schaetzung();
+            if (gewaehlt.isEmpty()) {
+                if (schaetzung >= anzahl) {
+                    break;
+                }
+                schritte.add(zugriff.beschreibung() + ": ~" + schaetzung + " Kandidaten");
+                kosten += schaetzung;
+            } else {
+                // Schneiden nur, wenn es billiger ist als die Kandidaten mit den Praedikaten zu pruefen
+                if (schaetzung + kandidaten >= kandidaten * anzahlPraedikate) {
+                    continue;
+                }
+                schritte.add("Schnitt mit " + zugriff.beschreibung() + ": ~" + schaetzung + " Eintraege");
+                kosten += schaetzung + kandidaten;
+            }
+            gewaehlt.add(zugriff);
+            kandidaten = Math.min(kandidaten, schaetzung);
+        }
+
+        final String zugriff;
+        if (gewaehlt.isEmpty()) {
+            zugriff = FULL_SCAN;
+            schritte.add(FULL_SCAN + " ueber " + anzahl + " Filialen");
+            kosten += anzahl;
+        } else {
+            zugriff = gewaehlt.get(0).beschreibung();
+        }
+        if (anzahlPraedikate > 0) {
+            schritte.add("Filter " + String.join(" und ", filter));
+            kosten += kandidaten * anzahlPraedikate;
+        }
+
+        final var beschreibung = new QueryPlan(zugriff, schritte, kandidaten, kosten, ignoriert);
+        return new Plan(gewaehlt, praedikate, beschreibung);
+    }
+
+    private record Indexzugriff(String beschreibung, long schaetzung, Supplier<Set<UUID>> ids) {
+    }
+
+    private record Plan(List<Indexzugriff> zugriffe, List<Predicate<Filiale>> praedikate, QueryPlan beschreibung) {
+    }
+}
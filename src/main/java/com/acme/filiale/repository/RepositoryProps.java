@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Konfiguration für das Repository mit den Properties `app.repository.*` aus `application.yml`.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param storage Der Speicher für die Filialen
+ * @param shards Anzahl der Shards bei `storage: sharded`. Bei 0 wird die Anzahl der verfügbaren CPUs verwendet, die
+ *      innerhalb eines Containers bzw. Pods durch das CPU-Limit festgelegt ist.
+ * @param parallelThreshold Anzahl der Filialen, ab der ein Full Scan bei `storage: sharded` parallel über die Shards
+ *      läuft
+ * @param idGenerator Der Generator für die IDs neuer Filialen
+ * @param wal Konfiguration für das Write-Ahead-Log mit `app.repository.wal.*`
+ * @param snapshotFile Konfiguration für den binären Snapshot mit `app.repository.snapshot-file.*`
+ * @param lsm Konfiguration für `storage: lsm` mit `app.repository.lsm.*`
+ * @param jdbc Konfiguration für das Spring-Profile `jdbc` mit `app.repository.jdbc.*`
+ * @param cache Konfiguration für den Cache der Suchergebnisse mit `app.repository.cache.*`
+ */
+@ConfigurationProperties(prefix = "app.repository")
+public record RepositoryProps(
+    @DefaultValue("snapshot") Storage storage,
+    @DefaultValue("0") int shards,
+    @DefaultValue("10000") int parallelThreshold,
+    @DefaultValue("uuidv7") IdGenerator idGenerator,
+    @DefaultValue Wal wal,
+    @DefaultValue SnapshotFile snapshotFile,
+    @DefaultValue Lsm lsm,
+    @DefaultValue Jdbc jdbc,
+    @DefaultValue Cache cache
+) {
+    /**
+     * Konfiguration mit den Defaultwerten.
+     */
+    public static final RepositoryProps DEFAULT = new RepositoryProps(
+        Storage.SNAPSHOT,
+        0,
+        10_000,
+        IdGenerator.UUIDV7,
+        Wal.DISABLED,
+        SnapshotFile.DISABLED,
+        Lsm.DEFAULT,
+        Jdbc.DEFAULT,
+        Cache.DEFAULT
+    );
+
+    /**
+     * Konstruktor mit Validierung und dem Defaultwert für die Anzahl der Shards.
+     *
+     * @param storage Der Speicher für die Filialen
+     * @param shards Anzahl der Shards oder 0
+     * @param parallelThreshold Anzahl der Filialen für einen parallelen Full Scan
+     * @param idGenerator Der Generator für die IDs
+     * @param wal Konfiguration für das Write-Ahead-Log
+     * @param snapshotFile Konfiguration für den binären Snapshot
+     * @param lsm Konfiguration für den LSM-Speicher
+     * @param jdbc Konfiguration für den Zugriff auf eine relationale DB
+     * @param cache Konfiguration für den Cache der Suchergebnisse
+     */
+    public RepositoryProps {
+        if (shards < 0) {
+            throw new IllegalArgumentException("app.repository.shards darf nicht negativ sein: " + shards);
+        }
+        if (shards == 0) {
+            shards = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Konfiguration für den dauerhaften Modus: jede Änderung wird vor dem Speichern in einer Datei protokolliert und
+     * beim Start wieder eingespielt.
+     *
+     * @param enabled true, falls die Änderungen protokolliert werden
+     * @param path Pfad der Protokolldatei, die z.B. in einem Persistent Volume liegen muss
+     * @param maxDelay Maximale Wartezeit, um weitere Änderungen mit demselben `fsync` zu schreiben (Group Commit)
+     */
+    public record Wal(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("filiale.wal") String path,
+        @DefaultValue("2ms") Duration maxDelay
+    ) {
+        /**
+         * Ohne Write-Ahead-Log, d.h. die Änderungen gehen beim Neustart verloren.
+         */
+        public static final Wal DISABLED = new Wal(false, "filiale.wal", Duration.ofMillis(2));
+
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param enabled true, falls die Änderungen protokolliert werden
+         * @param path Pfad der Protokolldatei
+         * @param maxDelay Maximale Wartezeit für einen Group Commit
+         */
+        public Wal {
+            if (maxDelay.isNegative()) {
+                throw new IllegalArgumentException("app.repository.wal.max-delay darf nicht negativ sein: " + maxDelay);
+            }
+        }
+    }
+
+    /**
+     * Konfiguration für einen binären Snapshot aller Filialen, der beim Start anstelle der initialen Filialen geladen
+     * wird. Ist auch das Write-Ahead-Log aktiviert, werden dessen Änderungen danach eingespielt.
+     *
+     * @param enabled true, falls der Snapshot geladen und geschrieben wird
+     * @param path Pfad der Datei, die z.B. in einem Persistent Volume liegen muss
+     * @param interval Intervall für das periodische Schreiben; bei 0 nur beim Herunterfahren
+     */
+    public record SnapshotFile(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("filiale.snapshot") String path,
+        @DefaultValue("5m") Duration interval
+    ) {
+        /**
+         * Ohne binären Snapshot, d.h. beim Start werden die initialen Filialen verwendet.
+         */
+        public static final SnapshotFile DISABLED = new SnapshotFile(false, "filiale.snapshot", Duration.ofMinutes(5));
+
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param enabled true, falls der Snapshot geladen und geschrieben wird
+         * @param path Pfad der Datei
+         * @param interval Intervall für das periodische Schreiben
+         */
+        public SnapshotFile {
+            if (interval.isNegative()) {
+                throw new IllegalArgumentException(
+                    "app.repository.snapshot-file.interval darf nicht negativ sein: " + interval
+                );
+            }
+        }
+    }
+
+    /**
+     * Konfiguration für den Speicher mit einem Log-Structured Merge Tree.
+     *
+     * @param path Verzeichnis für die SSTables, deren Dateien beim Start gelöscht werden
+     * @param memtableSize Größe einer Memtable im Heap, ab der sie als SSTable geschrieben wird
+     * @param compactionThreshold Anzahl der SSTables, ab der sie zu einer einzigen zusammengefasst werden
+     */
+    public record Lsm(
+        @DefaultValue("lsm") String path,
+        @DefaultValue("4MB") DataSize memtableSize,
+        @DefaultValue("4") int compactionThreshold
+    ) {
+        /**
+         * Konfiguration mit den Defaultwerten.
+         */
+        public static final Lsm DEFAULT = new Lsm("lsm", DataSize.ofMegabytes(4), 4);
+
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param path Verzeichnis für die SSTables
+         * @param memtableSize Größe einer Memtable
+         * @param compactionThreshold Anzahl der SSTables für eine Compaction
+         */
+        public Lsm {
+            if (memtableSize.toBytes() <= 0) {
+                throw new IllegalArgumentException(
+                    "app.repository.lsm.memtable-size muss positiv sein: " + memtableSize
+                );
+            }
+            if (compactionThreshold < 2) {
+                throw new IllegalArgumentException(
+                    "app.repository.lsm.compaction-threshold muss mindestens 2 sein: " + compactionThreshold
+                );
+            }
+        }
+    }
+
+    /**
+     * Konfiguration für den Zugriff auf eine relationale DB mit dem Spring-Profile `jdbc`.
+     *
+     * @param batchSize Anzahl der Zeilen, die mit einem Batch geschrieben werden
+     * @param pageSize Anzahl der Zeilen, die bei einer Suche mit einer Abfrage gelesen werden (Keyset Pagination)
+     * @param bloomFilterCapacity Geplante Anzahl der Filialen für die Counting Bloom-Filter, mit denen nicht
+     *      vorhandene IDs und Emailadressen ohne DB-Zugriff erkannt werden. Die Bloom-Filter enthalten nur die
+     *      Änderungen der eigenen Instanz und sind deshalb nur zulässig, wenn keine andere Instanz in dieselbe
+     *      Tabelle schreibt. Defaultwert ist 0, d.h. keine Bloom-Filter.
+     */
+    public record Jdbc(
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("1000") int pageSize,
+        @DefaultValue("0") int bloomFilterCapacity
+    ) {
+        /**
+         * Konfiguration mit den Defaultwerten.
+         */
+        public static final Jdbc DEFAULT = new Jdbc(500, 1000, 0);
+
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param batchSize Anzahl der Zeilen für einen Batch
+         * @param pageSize Anzahl der Zeilen für eine Abfrage
+         * @param bloomFilterCapacity Geplante Anzahl der Filialen für die Bloom-Filter oder 0
+         */
+        public Jdbc {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("app.repository.jdbc.batch-size muss positiv sein: " + batchSize);
+            }
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("app.repository.jdbc.page-size muss positiv sein: " + pageSize);
+            }
+            if (bloomFilterCapacity < 0) {
+                throw new IllegalArgumentException(
+                    "app.repository.jdbc.bloom-filter-capacity darf nicht negativ sein: " + bloomFilterCapacity
+                );
+            }
+        }
+    }
+
+    /**
+     * Konfiguration für den Cache der Suchergebnisse, siehe {@link QueryCache}.
+     *
+     * @param maximumSize Maximale Anzahl der Suchergebnisse im Cache. Bei 0 gibt es keinen Cache, was notwendig ist,
+     *      falls mehrere Instanzen in dieselbe Tabelle schreiben. Mit dem Profile `jdbc` ist 0 der Defaultwert, siehe
+     *      `application-jdbc.yml`.
+     */
+    public record Cache(@DefaultValue("10000") int maximumSize) {
+        /**
+         * Konfiguration mit den Defaultwerten.
+         */
+        public static final Cache DEFAULT = new Cache(10_000);
+
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param maximumSize Maximale Anzahl der Suchergebnisse oder 0
+         */
+        public Cache {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException(
+                    "app.repository.cache.maximum-size darf nicht negativ sein: " + maximumSize
+                );
+            }
+        }
+    }
+
+    /**
+     * Generator für die IDs neuer Filialen.
+     */
+    public enum IdGenerator {
+        /**
+         * Zufällige UUIDs der Version 4 mit {@link UUID#randomUUID()}.
+         */
+        RANDOM,
+
+        /**
+         * Zeitlich geordnete UUIDs der Version 7, siehe {@link UuidV7Generator}. Neue Filialen werden damit in
+         * sortierten Indexen, in den SSTables und bei Keyset Pagination am Ende eingefügt.
+         */
+        UUIDV7;
+
+        /**
+         * Einen neuen Generator erzeugen.
+         *
+         * @return Der Generator
+         */
+        Supplier<UUID> generator() {
+            return this == UUIDV7 ? new UuidV7Generator() : UUID::randomUUID;
+        }
+    }
+
+    /**
+     * Speicher für die Filialen.
+     */
+    public enum Storage {
+        /**
+         * Unveränderliche, versionierte Schnappschüsse: Lesen ohne Sperren mit einem konsistenten Stand.
+         */
+        SNAPSHOT,
+
+        /**
+         * Nach der ID partitionierte Shards mit jeweils einer eigenen Sperre.
+         */
+        SHARDED,
+
+        /**
+         * Spaltenorientierte Segmente und Sekundärindexe außerhalb des Heap.
+         */
+        COLUMNAR,
+
+        /**
+         * Log-Structured Merge Tree mit SSTables auf der Platte für Kataloge, die größer als der Heap sind.
+         */
+        LSM
+    }
+}
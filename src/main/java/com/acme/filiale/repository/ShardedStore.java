@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Speicher für die Filialen, die anhand des Hashwerts der ID auf mehrere Shards verteilt sind. Jeder Shard hat eine
+ * eigene Lese-Schreib-Sperre, so dass sich Zugriffe auf verschiedene Shards nicht gegenseitig blockieren. Ein Full
+ * Scan läuft ab einer konfigurierbaren Anzahl an Filialen mit Fork/Join parallel über die Shards.
+ *
+ * <p>Innerhalb eines Shards liegen die Filialen in einem Array, und der Index für die IDs ist eine {@link UuidIntMap}
+ * auf die Positionen im Array, d.h. ohne Entry-Objekte und ohne Boxing.</p>
+ *
+ * <p>Anders als bei {@link SnapshotStore} ist die Sicht zum Lesen kein Schnappschuss: jeder Zugriff sieht den
+ * aktuellen Stand des jeweiligen Shards.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class ShardedStore implements FilialeStore, FilialeStore.View {
+    private final Shard[] shards;
+
+    private final int parallelThreshold;
+
+    ShardedStore(
+        final Collection<Filiale> filialen,
+        final int anzahlShards,
+        final int parallelThreshold,
+        final MeterRegistry registry
+    ) {
+        shards = new Shard[anzahlShards];
+        for (int i = 0; i < anzahlShards; i++) {
+            shards[i] = new Shard(i, registry);
+        }
+        this.parallelThreshold = parallelThreshold;
+        filialen.forEach(this::put);
+    }
+
+    @Override
+    public View view() {
+        return this;
+    }
+
+    @Override
+    public Filiale get(final UUID id) {
+        return shard(id).get(id);
+    }
+
+    @Override
+    public int size() {
+        var size = 0;
+        for (final var shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public List<Filiale> filter(final Predicate<? super Filiale> praedikat) {
+        if (size() < parallelThreshold) {
+            final var result = new ArrayList<Filiale>();
+            for (final var shard : shards) {
+                result.addAll(shard.filter(praedikat));
+            }
+            return result;
+        }
+        return ForkJoinPool.commonPool().invoke(new ScanTask(0, shards.length, praedikat));
+    }
+
+    @Override
+    public void put(final Filiale filiale) {
+        final var gespeichert = SnapshotStore.kopie(filiale);
+        shard(gespeichert.getId()).put(gespeichert, true);
+    }
+
+    @Override
+    public Filiale replace(final Filiale filiale) {
+        final var gespeichert = SnapshotStore.kopie(filiale);
+        return shard(gespeichert.getId()).put(gespeichert, false);
+    }
+
+    @Override
+    public Filiale remove(final UUID id) {
+        return shard(id).remove(id);
+    }
+
+    private Shard shard(final UUID id) {
+        // Bits des Hashwerts mischen, damit auch aufeinanderfolgende IDs gleichmaessig verteilt werden
+        final var h = id.hashCode() * 0x9E3779B9;
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    // Teilt den Bereich der Shards rekursiv, bis jeder Task genau einen Shard durchsucht
+    private final class ScanTask extends RecursiveTask<List<Filiale>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int von;
+
+        private final int bis;
+
+        private final transient Predicate<? super Filiale> praedikat;
+
+        ScanTask(final int von, final int bis, final Predicate<? super Filiale> praedikat) {
+            this.von = von;
+            this.bis = bis;
+            this.praedikat = praedikat;
+        }
+
+        @Override
+        protected List<Filiale> compute() {
+            if (bis - von == 1) {
+                return shards[von].filter(praedikat);
+            }
+            final var mitte = (von + bis) >>> 1;
+            final var links = new ScanTask(von, mitte, praedikat);
+            links.fork();
+            final var rechts = new ScanTask(mitte, bis, praedikat).compute();
+            final var result = new ArrayList<>(links.join());
+            result.addAll(rechts);
+            return result;
+        }
+    }
+
+    private static final class Shard {
+        private static final int INITIAL_ZEILEN = 64;
+
+        private final UuidIntMap ids = new UuidIntMap(INITIAL_ZEILEN);
+
+        private Filiale[] zeilen = new Filiale[INITIAL_ZEILEN];
+
+        private int naechsteZeile;
+
+        // Stack mit den Positionen geloeschter Filialen, die wiederverwendet werden
+        private int[] freieZeilen = new int[INITIAL_ZEILEN];
+
+        private int anzahlFrei;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final Counter contention;
+
+        private final Timer wartezeit;
+
+        Shard(final int nr, final MeterRegistry registry) {
+            final var tag = String.valueOf(nr);
+            contention = Counter.builder("filiale.repository.shard.contention")
+                .description("Anzahl der Zugriffe, die auf die Sperre des Shards warten mussten")
+                .tag("shard", tag)
+                .register(registry);
+            wartezeit = Timer.builder("filiale.repository.shard.wait")
+                .description("Wartezeit auf die Sperre des Shards")
+                .tag("shard", tag)
+                .register(registry);
+            Gauge.builder("filiale.repository.shard.size", this, Shard::size)
+                .description("Anzahl der Filialen im Shard")
+                .tag("shard", tag)
+                .register(registry);
+        }
+
+        Filiale get(final UUID id) {
+            return mitSperre(lock.readLock(), () -> {
+                final var zeile = ids.get(id);
+                return zeile == UuidIntMap.MISSING ? null : zeilen[zeile];
+            });
+        }
+
+        int size() {
+            return mitSperre(lock.readLock(), ids::size);
+        }
+
+        List<Filiale> filter(final Predicate<? super Filiale> praedikat) {
+            return mitSperre(lock.readLock(), () -> {
+                final var result = new ArrayList<Filiale>();
+                for (int i = 0; i < naechsteZeile; i++) {
+                    final var filiale = zeilen[i];
+                    if (filiale != null && praedikat.test(filiale)) {
+                        result.add(filiale);
+                    }
+                }
+                return result;
+            });
+        }
+
+        // liefert die bisherige Filiale; ohne "neuAnlegen" wird nur eine vorhandene Filiale ersetzt
+        Filiale put(final Filiale filiale, final boolean neuAnlegen) {
+            final var id = filiale.getId();
+            return mitSperre(lock.writeLock(), () -> {
+                final var zeile = ids.get(id);
+                if (zeile != UuidIntMap.MISSING) {
+                    final var alt = zeilen[zeile];
+                    zeilen[zeile] = filiale;
+                    return alt;
+                }
+                if (neuAnlegen) {
+                    final var neueZeile = neueZeile();
+                    zeilen[neueZeile] = filiale;
+                    ids.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), neueZeile);
+                }
+                return null;
+            });
+        }
+
+        Filiale remove(final UUID id) {
+            return mitSperre(lock.writeLock(), () -> {
+                final var zeile = ids.remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+                if (zeile == UuidIntMap.MISSING) {
+                    return null;
+                }
+                final var alt = zeilen[zeile];
+                zeilen[zeile] = null;
+                if (anzahlFrei == freieZeilen.length) {
+                    freieZeilen = Arrays.copyOf(freieZeilen, anzahlFrei * 2);
+                }
+                freieZeilen[anzahlFrei++] = zeile;
+                return alt;
+            });
+        }
+
+        private int neueZeile() {
+            if (anzahlFrei > 0) {
+                return freieZeilen[--anzahlFrei];
+            }
+            if (naechsteZeile == zeilen.length) {
+                zeilen = Arrays.copyOf(zeilen, zeilen.length * 2);
+            }
+            return naechsteZeile++;
+        }
+
+        private <T> T mitSperre(final Lock sperre, final Supplier<T> zugriff) {
+            // nur bei Contention wird die Wartezeit gemessen, damit der Normalfall ohne Zeitmessung auskommt
+            if (!sperre.tryLock()) {
+                contention.increment();
+                final var start = System.nanoTime();
+                sperre.lock();
+                wartezeit.record(System.nanoTime() - start, NANOSECONDS);
+            }
+            try {
+                return zugriff.get();
+            } finally {
+                sperre.unlock();
+            }
+        }
+    }
+}
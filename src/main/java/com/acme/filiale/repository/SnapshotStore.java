@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Waehrungen;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.StreamSupport;
+
+/**
+ * Speicher für die Filialen mit Multiversion Concurrency Control (MVCC): Der aktuelle Stand ist ein unveränderlicher,
+ * versionierter Schnappschuss. Lesende Zugriffe holen sich den Schnappschuss einmalig und arbeiten ohne Sperren auf
+ * einem konsistenten Stand. Schreibende Zugriffe erzeugen per Copy-on-Write einen neuen Schnappschuss und
+ * veröffentlichen ihn atomar per Compare-and-Set.
+ *
+ * <p>Die gespeicherten Filialen werden nie verändert. Deshalb werden beim Speichern Kopien abgelegt und die
+ * Aufrufer des Repository erhalten ebenfalls nur Kopien.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class SnapshotStore implements FilialeStore {
+    private final AtomicReference<Snapshot> current;
+
+    SnapshotStore(final Collection<Filiale> filialen, final MeterRegistry registry) {
+        var map = HamtMap.<UUID, Filiale>empty();
+        for (final var filiale : filialen) {
+            map = map.put(filiale.getId(), kopie(filiale));
+        }
+        current = new AtomicReference<>(new Snapshot(0, map));
+
+        Gauge.builder("filiale.repository.version", this, SnapshotStore::version)
+            .description("Version des aktuellen Schnappschusses der Filialen")
+            .register(registry);
+    }
+
+    /**
+     * Den aktuellen Schnappschuss als Sicht zum Lesen ermitteln.
+     *
+     * @return Der aktuelle Schnappschuss
+     */
+    @Override
+    public Snapshot view() {
+        return current.get();
+    }
+
+    @Override
+    public void put(final Filiale filiale) {
+        final var gespeichert = kopie(filiale);
+        publish(map -> map.put(gespeichert.getId(), gespeichert));
+    }
+
+    @Override
+    public Filiale replace(final Filiale filiale) {
+        final var id = filiale.getId();
+        final var gespeichert = kopie(filiale);
+        return publish(map -> map.get(id) == null ? map : map.put(id, gespeichert)).get(id);
+    }
+
+    @Override
+    public Filiale remove(final UUID id) {
+        return publish(map -> map.remove(id)).get(id);
+    }
+
+    /**
+     * Die Version des aktuellen Schnappschusses für die Metriken.
+     *
+     * @return Die Version
+     */
+    long version() {
+        return current.get().version();
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    /**
+     * Eine tiefe Kopie einer Filiale erstellen. Die unveränderlichen Attributwerte, wie z.B. die ID oder die URL,
+     * werden dabei gemeinsam genutzt und die Währung ist das Flyweight aus {@link Waehrungen}.
+     *
+     * @param filiale Die zu kopierende Filiale
+     * @return Die Kopie
+     */
+    static Filiale kopie(final Filiale filiale) {
+        final var umsatz = filiale.getUmsatz();
+        final var adresse = filiale.getAdresse();
+        return filiale.toBuilder()
+            .umsatz(umsatz == null ? null : umsatz.toBuilder().waehrung(waehrung(umsatz.getWaehrung())).build())
+            .adresse(adresse == null ? null : adresse.toBuilder().build())
+            .build();
+    }
+
+    // ueber den kompakten Code, der auch unbekannte Waehrungen ablehnt, bevor sie gespeichert werden
+    private static Currency waehrung(final Currency waehrung) {
+        return Waehrungen.of(Waehrungen.code(waehrung));
+    }
+
+    // liefert den Schnappschuss, auf den die Aenderung angewendet wurde
+    private Snapshot publish(final UnaryOperator<HamtMap<UUID, Filiale>> aenderung) {
+        while (true) {
+            final var alt = current.get();
+            final var map = aenderung.apply(alt.filialen());
+            if (map == alt.filialen() || current.compareAndSet(alt, new Snapshot(alt.version() + 1, map))) {
+                return alt;
+            }
+        }
+    }
+
+    /**
+     * Unveränderlicher Stand der Filialen zu einer Version.
+     *
+     * @param version Die Version, die bei jeder Änderung um 1 erhöht wird
+     * @param filialen Die Filialen mit der ID als Schlüssel
+     */
+    record Snapshot(long version, HamtMap<UUID, Filiale> filialen) implements View {
+        @Override
+        public Filiale get(final UUID id) {
+            return filialen.get(id);
+        }
+
+        @Override
+        public int size() {
+            return filialen.size();
+        }
+
+        @Override
+        public List<Filiale> filter(final Predicate<? super Filiale> praedikat) {
+            final var spliterator = Spliterators.spliterator(
+                filialen.iterator(),
+                filialen.size(),
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE
+            );
+            return StreamSupport.stream(spliterator, false).filter(praedikat).toList();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.acme.filiale.repository.LsmTree.TOMBSTONE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Unveränderliche, nach den Schlüsseln sortierte Datei eines {@link LsmTree} (Sorted String Table). Die Einträge
+ * liegen in Blöcken mit ca. {@link #BLOCK_GROESSE} Bytes. Der Block-Index mit dem ersten Schlüssel jedes Blocks und
+ * der {@link BloomFilter} stehen am Ende der Datei und werden beim Öffnen in den Heap geladen. Ein Zugriff liest
+ * deshalb höchstens einen Block.
+ *
+ * <p>Aufbau eines Eintrags: Länge und Bytes des Schlüssels, Länge und Bytes des Werts; die Länge -1 kennzeichnet
+ * einen gelöschten Schlüssel. Am Ende der Datei stehen Offset und Länge des Index, Offset und Länge des Bloom-Filters,
+ * die Anzahl der Einträge und eine Magic Number.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class SsTable {
+    /**
+     * Mindestgröße eines Blocks in Bytes.
+     */
+    static final int BLOCK_GROESSE = 4096;
+
+    // "FILSSTB1"
+    private static final long MAGIC = 0x46494C5353544231L;
+    private static final int FOOTER = 4 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int LOESCHUNG = -1;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final byte[][] ersteSchluessel;
+
+    // Offsets der Bloecke und als letzter Wert das Ende des letzten Blocks
+    private final long[] offsets;
+
+    private final BloomFilter bloom;
+
+    private final long anzahl;
+
+    private SsTable(
+        final Path path,
+        final FileChannel channel,
+        final byte[][] ersteSchluessel,
+        final long[] offsets,
+        final BloomFilter bloom,
+        final long anzahl
+    ) {
+        this.path = path;
+        this.channel = channel;
+        this.ersteSchluessel = ersteSchluessel;
+        this.offsets = offsets;
+        this.bloom = bloom;
+        this.anzahl = anzahl;
+    }
+
+    /**
+     * Eine neue Datei mit den Einträgen eines Cursors schreiben und öffnen.
+     *
+     * @param path Der Pfad der neuen Datei
+     * @param quelle Die Einträge aufsteigend sortiert nach den Schlüsseln
+     * @param geschaetzteAnzahl Die geschätzte Anzahl der Einträge für die Größe des Bloom-Filters
+     * @param ohneLoeschungen true, falls gelöschte Schlüssel nicht geschrieben werden, weil es keine ältere Datei gibt
+     * @return Die geöffnete Datei oder null, falls es keine Einträge gibt
+     * @throws IOException Falls nicht geschrieben werden kann
+     */
+    static SsTable write(
+        final Path path,
+        final LsmTree.Cursor quelle,
+        final long geschaetzteAnzahl,
+        final boolean ohneLoeschungen
+    ) throws IOException {
+        final var bloom = new BloomFilter(geschaetzteAnzahl);
+        final var index = new ByteArrayOutputStream();
+        final var indexOut = new DataOutputStream(index);
+        final var block = new ByteArrayOutputStream(2 * BLOCK_GROESSE);
+        final var blockOut = new DataOutputStream(block);
+        var anzahl = 0L;
+        var position = 0L;
+        try (var out = Files.newOutputStream(path, CREATE_NEW, WRITE)) {
+            while (quelle.next()) {
+                final var wert = quelle.value();
+                if (ohneLoeschungen && wert == TOMBSTONE) {
+                    continue;
+                }
+                final var schluessel = quelle.key();
+                if (block.size() == 0) {
+                    indexOut.writeInt(schluessel.length);
+                    indexOut.write(schluessel);
+                    indexOut.writeLong(position);
+                }
+                blockOut.writeInt(schluessel.length);
+                blockOut.write(schluessel);
+                if (wert == TOMBSTONE) {
+                    blockOut.writeInt(LOESCHUNG);
+                } else {
+                    blockOut.writeInt(wert.length);
+                    blockOut.write(wert);
+                }
+                bloom.add(schluessel);
+                anzahl++;
+                if (block.size() >= BLOCK_GROESSE) {
+                    block.writeTo(out);
+                    position += block.size();
+                    block.reset();
+                }
+            }
+            if (anzahl > 0) {
+                block.writeTo(out);
+                position += block.size();
+
+                final var bloomBytes = new ByteArrayOutputStream();
+                bloom.write(new DataOutputStream(bloomBytes));
+                index.writeTo(out);
+                bloomBytes.writeTo(out);
+                final var footer = ByteBuffer.allocate(FOOTER)
+                    .putLong(position)
+                    .putInt(index.size())
+                    .putLong(position + index.size())
+                    .putInt(bloomBytes.size())
+                    .putLong(anzahl)
+                    .putLong(MAGIC);
+                out.write(footer.array());
+            }
+        }
+        if (anzahl == 0) {
+            Files.delete(path);
+            return null;
+        }
+        return open(path);
+    }
+
+    /**
+     * Eine geschriebene Datei öffnen und den Index sowie den Bloom-Filter laden.
+     *
+     * @param path Der Pfad der Datei
+     * @return Die geöffnete Datei
+     * @throws IOException Falls die Datei nicht gelesen werden kann oder keine SSTable ist
+     */
+    static SsTable open(final Path path) throws IOException {
+        final var channel = FileChannel.open(path, READ);
+        try {
+            final var footer = lesen(channel, channel.size() - FOOTER, FOOTER);
+            final var indexOffset = footer.getLong();
+            final var indexLaenge = footer.getInt();
+            final var bloomOffset = footer.getLong();
+            final var bloomLaenge = footer.getInt();
+            final var anzahl = footer.getLong();
+            if (footer.getLong() != MAGIC) {
+                throw new IOException("Die Datei ist keine SSTable: " + path);
+            }
+
+            final var index = lesen(channel, indexOffset, indexLaenge);
+            final var schluessel = new ArrayList<byte[]>();
+            final var offsets = new ArrayList<Long>();
+            while (index.hasRemaining()) {
+                schluessel.add(leseBytes(index, index.getInt()));
+                offsets.add(index.getLong());
+            }
+            offsets.add(indexOffset);
+            final var bloom = BloomFilter.read(lesen(channel, bloomOffset, bloomLaenge));
+            return new SsTable(
+                path,
+                channel,
+                schluessel.toArray(byte[][]::new),
+                offsets.stream().mapToLong(Long::longValue).toArray(),
+                bloom,
+                anzahl
+            );
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Prüfen, ob ein Schlüssel enthalten sein kann, ohne die Datei zu lesen.
+     *
+     * @param schluessel Der Schlüssel
+     * @return false, falls der Schlüssel sicher nicht enthalten ist
+     */
+    boolean mightContain(final byte[] schluessel) {
+        return bloom.mightContain(schluessel);
+    }
+
+    /**
+     * Den Wert zu einem Schlüssel lesen.
+     *
+     * @param schluessel Der Schlüssel
+     * @return Der Wert, {@link LsmTree#TOMBSTONE} für einen gelöschten Schlüssel oder null, falls der Schlüssel nicht
+     *      enthalten ist
+     * @throws UncheckedIOException Falls nicht gelesen werden kann
+     */
+    byte[] get(final byte[] schluessel) {
+        final var nr = block(schluessel);
+        if (nr < 0) {
+            return null;
+        }
+        final var in = block(nr);
+        while (in.hasRemaining()) {
+            final var vergleich = Arrays.compareUnsigned(leseBytes(in, in.getInt()), schluessel);
+            final var laenge = in.getInt();
+            if (vergleich == 0) {
+                return laenge == LOESCHUNG ? TOMBSTONE : leseBytes(in, laenge);
+            }
+            if (vergleich > 0) {
+                return null;
+            }
+            if (laenge != LOESCHUNG) {
+                in.position(in.position() + laenge);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Einen Cursor für die Einträge ab einem Schlüssel ermitteln.
+     *
+     * @param von Der kleinste Schlüssel oder null für alle Einträge
+     * @return Der Cursor
+     */
+    LsmTree.Cursor cursor(final byte[] von) {
+        return new LsmTree.Cursor() {
+            private int naechsterBlock = von == null ? 0 : Math.max(0, block(von));
+
+            private ByteBuffer in;
+
+            private byte[] schluessel;
+
+            private byte[] wert;
+
+            @Override
+            public boolean next() {
+                while (true) {
+                    if (in == null || !in.hasRemaining()) {
+                        if (naechsterBlock >= ersteSchluessel.length) {
+                            return false;
+                        }
+                        in = block(naechsterBlock++);
+                    }
+                    schluessel = leseBytes(in, in.getInt());
+                    final var laenge = in.getInt();
+                    wert = laenge == LOESCHUNG ? TOMBSTONE : leseBytes(in, laenge);
+                    if (von == null || Arrays.compareUnsigned(schluessel, von) >= 0) {
+                        return true;
+                    }
+                }
+            }
+
+            @Override
+            public byte[] key() {
+                return schluessel;
+            }
+
+            @Override
+            public byte[] value() {
+                return wert;
+            }
+        };
+    }
+
+    /**
+     * Anzahl der Einträge einschließlich der gelöschten Schlüssel.
+     *
+     * @return Die Anzahl
+     */
+    long anzahl() {
+        return anzahl;
+    }
+
+    /**
+     * Größe der Datei.
+     *
+     * @return Die Anzahl der Bytes
+     */
+    long bytes() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Die Datei schließen und löschen, z.B. nach einer Compaction.
+     */
+    void delete() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // binaere Suche nach dem letzten Block, dessen erster Schluessel nicht groesser ist; -1 falls es keinen gibt
+    private int block(final byte[] schluessel) {
+        var links = 0;
+        var rechts = ersteSchluessel.length - 1;
+        var result = -1;
+        while (links <= rechts) {
+            final var mitte = (links + rechts) >>> 1;
+            if (Arrays.compareUnsigned(ersteSchluessel[mitte], schluessel) <= 0) {
+                result = mitte;
+                links = mitte + 1;
+            } else {
+                rechts = mitte - 1;
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer block(final int nr) {
+        try {
+            return lesen(channel, offsets[nr], (int) (offsets[nr + 1] - offsets[nr]));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Block " + nr + " von " + path + " kann nicht gelesen werden", ex);
+        }
+    }
+
+    // positionsbezogenes Lesen ist bei einem FileChannel auch parallel moeglich
+    private static ByteBuffer lesen(final FileChannel channel, final long position, final int laenge)
+        throws IOException {
+        final var buffer = ByteBuffer.allocate(laenge);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unerwartetes Dateiende an Position " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static byte[] leseBytes(final ByteBuffer in, final int laenge) {
+        final var bytes = new byte[laenge];
+        in.get(bytes);
+        return bytes;
+    }
+}
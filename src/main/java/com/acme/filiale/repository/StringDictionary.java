@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Wörterbuch für die Dictionary-Kodierung von Strings außerhalb des Heap: jeder verschiedene String wird einmal als
+ * UTF-8 in einer Arena abgelegt und über einen int-Code referenziert. Auch die Hash-Tabelle für die Suche nach
+ * einem String liegt außerhalb des Heap, so dass der Heap nicht mit der Anzahl der Strings wächst.
+ *
+ * <p>Jeder Aufruf von {@code encode} zählt eine Referenz auf den String, die mit {@code release} wieder freigegeben
+ * wird. Ohne Referenzen wird der String entfernt und sein Code wiederverwendet. Sobald mindestens die Hälfte der
+ * Arena aus entfernten Strings besteht, werden die verbliebenen Strings in eine neue Arena kopiert. Die Codes bleiben
+ * dabei gültig, so dass der Speicher außerhalb des Heap mit der Anzahl der verwendeten Strings wächst und nicht mit
+ * der Anzahl der Änderungen.</p>
+ *
+ * <p>Die Klasse ist nicht threadsicher: {@code encode} und {@code release} müssen exklusiv aufgerufen werden,
+ * {@code decode} darf parallel zu anderen Aufrufen von {@code decode} erfolgen.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class StringDictionary {
+    /**
+     * Code für null.
+     */
+    static final int NULL = -1;
+
+    private static final int INITIAL_ARENA = 1 << 16;
+
+    private static final int INITIAL_CODES = 1 << 10;
+
+    private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_ARENA).order(ByteOrder.nativeOrder());
+
+    private int arenaEnde;
+
+    // Bytes der entfernten Strings in der Arena
+    private int arenaFrei;
+
+    // Offset in der Arena bzw. bei einem freien Code der naechste freie Code
+    private IntBuffer offsets = allocateInts(INITIAL_CODES);
+
+    // Anzahl der Referenzen, 0 bei einem freien Code
+    private IntBuffer referenzen = allocateInts(INITIAL_CODES);
+
+    // bisher vergebene Codes einschliesslich der freien
+    private int naechsterCode;
+
+    private int anzahl;
+
+    // Liste der freien Codes, verkettet ueber offsets
+    private int freierCode = NULL;
+
+    // offene Adressierung mit linearem Sondieren: Eintrag ist Code + 1, 0 bedeutet frei
+    private IntBuffer tabelle = allocateInts(INITIAL_CODES);
+
+    /**
+     * Den Code zu einem String ermitteln, den String bei Bedarf hinzufügen und eine Referenz darauf zählen.
+     *
+     * @param wert Der String oder null
+     * @return Der Code oder {@link #NULL}
+     */
+    int encode(final String wert) {
+        if (wert == null) {
+            return NULL;
+        }
+        final var bytes = wert.getBytes(UTF_8);
+        final var i = position(bytes);
+        final var eintrag = tabelle.get(i);
+        if (eintrag != 0) {
+            referenzen.put(eintrag - 1, referenzen.get(eintrag - 1) + 1);
+            return eintrag - 1;
+        }
+
+        final var code = neuerCode();
+        offsets.put(code, append(bytes));
+        referenzen.put(code, 1);
+        tabelle.put(i, code + 1);
+        if (anzahl * 2 > tabelle.capacity()) {
+            rehash();
+        }
+        return code;
+    }
+
+    /**
+     * Eine Referenz auf einen String freigeben, z.B. beim Ändern oder Löschen einer Filiale. Ohne weitere Referenzen
+     * wird der String entfernt.
+     *
+     * @param code Der Code aus {@link #encode(String)} oder {@link #NULL}
+     */
+    void release(final int code) {
+        if (code == NULL) {
+            return;
+        }
+        final var rest = referenzen.get(code) - 1;
+        if (rest < 0) {
+            throw new IllegalStateException("Der Code " + code + " ist nicht vergeben");
+        }
+        referenzen.put(code, rest);
+        if (rest > 0) {
+            return;
+        }
+
+        entfernen(code);
+        arenaFrei += Integer.BYTES + arena.getInt(offsets.get(code));
+        offsets.put(code, freierCode);
+        freierCode = code;
+        anzahl--;
+        if (arenaFrei > INITIAL_ARENA && arenaFrei * 2 >= arenaEnde) {
+            kompaktieren();
+        }
+    }
+
+    /**
+     * Den Code zu einem vorhandenen String ermitteln, ohne eine Referenz zu zählen.
+     *
+     * @param wert Der String oder null
+     * @return Der Code oder {@link #NULL}, falls der String nicht vorhanden ist
+     */
+    int find(final String wert) {
+        if (wert == null) {
+            return NULL;
+        }
+        return tabelle.get(position(wert.getBytes(UTF_8))) - 1;
+    }
+
+    /**
+     * Die Anzahl der Referenzen auf einen String, z.B. die Anzahl der Filialen mit einem Namen.
+     *
+     * @param code Der Code
+     * @return Die Anzahl der Referenzen
+     */
+    int count(final int code) {
+        return referenzen.get(code);
+    }
+
+    /**
+     * Einen String vorzeichenlos Byte für Byte als UTF-8 mit einem anderen String vergleichen, ohne ihn zu dekodieren.
+     *
+     * @param code Der Code des Strings
+     * @param bytes Der andere String als UTF-8
+     * @return Negativ, 0 oder positiv wie bei {@link Comparable#compareTo(Object)}
+     */
+    int compare(final int code, final byte[] bytes) {
+        final var offset = offsets.get(code);
+        final var laenge = arena.getInt(offset);
+        final var start = offset + Integer.BYTES;
+        final var n = Math.min(laenge, bytes.length);
+        for (int i = 0; i < n; i++) {
+            final var vergleich = Byte.compareUnsigned(arena.get(start + i), bytes[i]);
+            if (vergleich != 0) {
+                return vergleich;
+            }
+        }
+        return Integer.compare(laenge, bytes.length);
+    }
+
+    /**
+     * Prüfen, ob ein String mit einem Präfix beginnt, ohne ihn zu dekodieren.
+     *
+     * @param code Der Code des Strings
+     * @param prefix Der Präfix als UTF-8
+     * @return true, falls der String mit dem Präfix beginnt
+     */
+    boolean startsWith(final int code, final byte[] prefix) {
+        final var offset = offsets.get(code);
+        if (arena.getInt(offset) < prefix.length) {
+            return false;
+        }
+        final var start = offset + Integer.BYTES;
+        for (int i = 0; i < prefix.length; i++) {
+            if (arena.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Den String zu einem Code ermitteln.
+     *
+     * @param code Der Code oder {@link #NULL}
+     * @return Der String oder null
+     */
+    String decode(final int code) {
+        if (code == NULL) {
+            return null;
+        }
+        final var offset = offsets.get(code);
+        final var bytes = new byte[arena.getInt(offset)];
+        arena.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Anzahl der verschiedenen Strings mit mindestens einer Referenz.
+     *
+     * @return Anzahl der Strings
+     */
+    int size() {
+        return anzahl;
+    }
+
+    /**
+     * Belegter Speicher außerhalb des Heap.
+     *
+     * @return Anzahl Bytes
+     */
+    long bytes() {
+        return (long) arena.capacity() +
+            (long) (offsets.capacity() + referenzen.capacity() + tabelle.capacity()) * Integer.BYTES;
+    }
+
+    // Position des Strings in der Hash-Tabelle bzw. der freie Eintrag, an dem er eingefuegt wird
+    private int position(final byte[] bytes) {
+        final var maske = tabelle.capacity() - 1;
+        var i = hash(bytes) & maske;
+        while (true) {
+            final var eintrag = tabelle.get(i);
+            if (eintrag == 0 || gleich(eintrag - 1, bytes)) {
+                return i;
+            }
+            i = (i + 1) & maske;
+        }
+    }
+
+    private int neuerCode() {
+        anzahl++;
+        if (freierCode != NULL) {
+            final var code = freierCode;
+            freierCode = offsets.get(code);
+            return code;
+        }
+        if (naechsterCode == offsets.capacity()) {
+            offsets = grow(offsets);
+            referenzen = grow(referenzen);
+        }
+        return naechsterCode++;
+    }
+
+    private int append(final byte[] bytes) {
+        final var benoetigt = arenaEnde + Integer.BYTES + bytes.length;
+        if (benoetigt > arena.capacity()) {
+            final var neu = ByteBuffer.allocateDirect(Math.max(arena.capacity() * 2, benoetigt))
+                .order(ByteOrder.nativeOrder());
+            neu.put(0, arena, 0, arenaEnde);
+            arena = neu;
+        }
+        final var offset = arenaEnde;
+        arena.putInt(offset, bytes.length);
+        arena.put(offset + Integer.BYTES, bytes);
+        arenaEnde = benoetigt;
+        return offset;
+    }
+
+    // die Strings mit Referenzen in eine neue Arena kopieren, die hoechstens doppelt so gross ist wie noetig
+    private void kompaktieren() {
+        final var belegt = arenaEnde - arenaFrei;
+        final var neu = ByteBuffer.allocateDirect(Math.max(INITIAL_ARENA, belegt * 2)).order(ByteOrder.nativeOrder());
+        var ende = 0;
+        for (int code = 0; code < naechsterCode; code++) {
+            if (referenzen.get(code) > 0) {
+                final var offset = offsets.get(code);
+                final var laenge = Integer.BYTES + arena.getInt(offset);
+                neu.put(ende, arena, offset, laenge);
+                offsets.put(code, ende);
+                ende += laenge;
+            }
+        }
+        arena = neu;
+        arenaEnde = ende;
+        arenaFrei = 0;
+    }
+
+    private boolean gleich(final int code, final byte[] bytes) {
+        final var offset = offsets.get(code);
+        if (arena.getInt(offset) != bytes.length) {
+            return false;
+        }
+        final var start = offset + Integer.BYTES;
+        for (int i = 0; i < bytes.length; i++) {
+            if (arena.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Loeschen ohne Grabsteine wie im Index fuer die IDs von ColumnarStore
+    private void entfernen(final int code) {
+        final var maske = tabelle.capacity() - 1;
+        var frei = hashVonCode(code) & maske;
+        while (tabelle.get(frei) != code + 1) {
+            frei = (frei + 1) & maske;
+        }
+        var i = frei;
+        while (true) {
+            i = (i + 1) & maske;
+            final var eintrag = tabelle.get(i);
+            if (eintrag == 0) {
+                break;
+            }
+            final var heimat = hashVonCode(eintrag - 1) & maske;
+            final var verschieben = frei <= i
+                ? heimat <= frei || heimat > i
+                : heimat <= frei && heimat > i;
+            if (verschieben) {
+                tabelle.put(frei, eintrag);
+                frei = i;
+            }
+        }
+        tabelle.put(frei, 0);
+    }
+
+    private void rehash() {
+        final var neu = allocateInts(tabelle.capacity() * 2);
+        final var maske = neu.capacity() - 1;
+        for (int code = 0; code < naechsterCode; code++) {
+            if (referenzen.get(code) == 0) {
+                continue;
+            }
+            var i = hashVonCode(code) & maske;
+            while (neu.get(i) != 0) {
+                i = (i + 1) & maske;
+            }
+            neu.put(i, code + 1);
+        }
+        tabelle = neu;
+    }
+
+    // derselbe Hashwert wie hash(byte[]), aber direkt aus der Arena
+    private int hashVonCode(final int code) {
+        final var offset = offsets.get(code);
+        final var start = offset + Integer.BYTES;
+        final var ende = start + arena.getInt(offset);
+        var h = 1;
+        for (int i = start; i < ende; i++) {
+            h = 31 * h + arena.get(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(final byte[] bytes) {
+        var h = 1;
+        for (final var b : bytes) {
+            h = 31 * h + b;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static IntBuffer allocateInts(final int anzahl) {
+        return ByteBuffer.allocateDirect(anzahl * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static IntBuffer grow(final IntBuffer alt) {
+        final var neu = allocateInts(alt.capacity() * 2);
+        neu.put(0, alt, 0, alt.capacity());
+        return neu;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool für mehrfach vorkommende Strings wie die Namen und Orte der Filialen. Gleiche Strings werden durch eine
+ * gemeinsam genutzte, kanonische Instanz ersetzt, die zusätzlich eine fortlaufende Nummer als kompakten Code erhält.
+ * Dadurch belegen z.B. 1.000 Filialen in "Karlsruhe" den Ort nur einmal im Heap.
+ *
+ * <p>Der Pool wird nur größer und ist deshalb auf {@link #MAX_ANZAHL} Strings begrenzt. Danach werden neue Strings
+ * unverändert übernommen, bereits vorhandene aber weiterhin kanonisiert.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Component
+@Slf4j
+@SuppressWarnings("PublicConstructor")
+public final class StringPool {
+    /**
+     * Maximale Anzahl der Strings im Pool.
+     */
+    static final int MAX_ANZAHL = 1 << 16;
+
+    /**
+     * Code für einen String, der nicht im Pool ist.
+     */
+    static final int KEIN_CODE = -1;
+
+    // Objekt-Header mit den Feldern von String und Header des byte[], bei Compressed Oops
+    private static final int STRING_OVERHEAD = 24;
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int ALIGNMENT = 8;
+    private static final int LATIN1_MAX = 0xFF;
+
+    private final ConcurrentMap<String, Eintrag> eintraege = new ConcurrentHashMap<>();
+
+    private final AtomicInteger naechsterCode = new AtomicInteger();
+
+    private final Counter gespart;
+
+    /**
+     * Konstruktor mit der globalen Registry von Micrometer für die Metriken.
+     */
+    public StringPool() {
+        this(Metrics.globalRegistry);
+    }
+
+    StringPool(final MeterRegistry registry) {
+        gespart = Counter.builder("filiale.repository.strings.saved")
+            .description("Geschaetzte Bytes im Heap, die durch kanonische Strings eingespart wurden")
+            .baseUnit("bytes")
+            .register(registry);
+        Gauge.builder("filiale.repository.strings.size", eintraege, ConcurrentMap::size)
+            .description("Anzahl der kanonischen Strings im Pool")
+            .register(registry);
+    }
+
+    /**
+     * Die Strings einer Filiale, die typischerweise mehrfach vorkommen, durch die kanonischen Instanzen ersetzen.
+     *
+     * @param filiale Die Filiale, die dabei verändert wird
+     */
+    public void canonicalize(final Filiale filiale) {
+        filiale.setName(intern(filiale.getName()));
+        final var adresse = filiale.getAdresse();
+        if (adresse != null) {
+            adresse.setOrt(intern(adresse.getOrt()));
+        }
+    }
+
+    /**
+     * Die kanonische Instanz zu einem String ermitteln und den String ggf. in den Pool aufnehmen.
+     *
+     * @param wert Der String oder null
+     * @return Die kanonische Instanz, oder der String selbst, falls der Pool voll ist
+     */
+    String intern(final String wert) {
+        if (wert == null) {
+            return null;
+        }
+        var eintrag = eintraege.get(wert);
+        if (eintrag == null) {
+            if (eintraege.size() >= MAX_ANZAHL) {
+                log.trace("intern: Pool ist voll");
+                return wert;
+            }
+            // bei parallelen Aufrufen fuer denselben String gewinnt der erste Eintrag
+            eintrag = eintraege.computeIfAbsent(wert, key -> new Eintrag(key, naechsterCode.getAndIncrement()));
+        }
+        final var kanonisch = eintrag.wert();
+        if (kanonisch != wert) {
+            gespart.increment(groesse(wert));
+        }
+        return kanonisch;
+    }
+
+    /**
+     * Den Code zu einem String ermitteln, z.B. als kompakter Schlüssel in einem Index.
+     *
+     * @param wert Der String
+     * @return Der Code oder {@link #KEIN_CODE}, falls der String nicht im Pool ist
+     */
+    int code(final String wert) {
+        final var eintrag = wert == null ? null : eintraege.get(wert);
+        return eintrag == null ? KEIN_CODE : eintrag.code();
+    }
+
+    /**
+     * Anzahl der Strings im Pool.
+     *
+     * @return Die Anzahl
+     */
+    int size() {
+        return eintraege.size();
+    }
+
+    // Compact Strings: 1 Byte pro Zeichen, falls alle Zeichen in Latin-1 darstellbar sind, sonst 2 Bytes
+    static long groesse(final String wert) {
+        final var bytesProZeichen = wert.chars().allMatch(zeichen -> zeichen <= LATIN1_MAX) ? 1 : 2;
+        final long array = ARRAY_OVERHEAD + (long) wert.length() * bytesProZeichen;
+        return STRING_OVERHEAD + (array + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private record Eintrag(String wert, int code) {
+    }
+}
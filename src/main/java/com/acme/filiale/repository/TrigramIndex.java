@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invertierter Index über die Trigramme, d.h. Teilstrings der Länge 3, in den Namen der Filialen. Für die Suche nach
+ * einem Teilstring werden nur die Filialen betrachtet, die alle Trigramme des Suchstrings enthalten. Die eigentliche
+ * Prüfung mit `contains()` erfolgt anschließend nur noch für diese Kandidaten.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class TrigramIndex {
+    private static final int N = 3;
+
+    private static final int BITS_PRO_ZEICHEN = 16;
+
+    private final ConcurrentMap<Long, Set<UUID>> postings = new ConcurrentHashMap<>();
+
+    private final AtomicLong anzahlPostings = new AtomicLong();
+
+    private final DistributionSummary kandidaten;
+
+    TrigramIndex(final Collection<Filiale> filialen, final MeterRegistry registry) {
+        this(Map.of(), registry);
+        filialen.forEach(filiale -> add(filiale.getId(), filiale.getName()));
+    }
+
+    /**
+     * Konstruktor mit vorberechneten Posting-Listen, z.B. aus einem {@link BinarySnapshot}.
+     *
+     * @param vorberechnet Die IDs der Filialen zu den Trigrammen
+     * @param registry Die Registry für die Metriken
+     */
+    TrigramIndex(final Map<Long, UUID[]> vorberechnet, final MeterRegistry registry) {
+        vorberechnet.entrySet().parallelStream().forEach(entry -> {
+            final var ids = ConcurrentHashMap.<UUID>newKeySet(entry.getValue().length);
+            Collections.addAll(ids, entry.getValue());
+            postings.put(entry.getKey(), ids);
+            anzahlPostings.addAndGet(ids.size());
+        });
+
+        Gauge.builder("filiale.repository.trigram.size", postings, ConcurrentMap::size)
+            .description("Anzahl der Trigramme im Index fuer die Namen")
+            .register(registry);
+        Gauge.builder("filiale.repository.trigram.postings", anzahlPostings, AtomicLong::get)
+            .description("Anzahl der Eintraege in allen Posting-Listen")
+            .register(registry);
+        kandidaten = DistributionSummary.builder("filiale.repository.trigram.candidates")
+            .description("Anzahl der Kandidaten nach dem Schnitt der Posting-Listen")
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    /**
+     * Den Namen einer (neuen) Filiale indizieren.
+     *
+     * @param id ID der Filiale
+     * @param name Name der Filiale
+     */
+    void add(final UUID id, final String name) {
+        trigramme(name).forEach(trigramm -> postings.compute(trigramm, (key, ids) -> {
+            final var result = ids == null ? ConcurrentHashMap.<UUID>newKeySet() : ids;
+            if (result.add(id)) {
+                anzahlPostings.incrementAndGet();
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * Den Namen einer geänderten oder gelöschten Filiale aus dem Index entfernen.
+     *
+     * @param id ID der Filiale
+     * @param name Bisheriger Name der Filiale
+     */
+    void remove(final UUID id, final String name) {
+        trigramme(name).forEach(trigramm -> postings.computeIfPresent(trigramm, (key, ids) -> {
+            if (ids.remove(id)) {
+                anzahlPostings.decrementAndGet();
+            }
+            return ids.isEmpty() ? null : ids;
+        }));
+    }
+
+    /**
+     * Kandidaten für die Suche nach einem Teilstring im Namen ermitteln. Das Ergebnis ist eine Obermenge der Treffer.
+     *
+     * @param teilstring Der gesuchte Teilstring
+     * @return Die IDs der Kandidaten oder ein leeres Optional, falls der Teilstring kürzer als ein Trigramm ist und
+     *      deshalb alle Filialen Kandidaten sind
+     */
+    Optional<Set<UUID>> candidates(final String teilstring) {
+        if (teilstring.length() < N) {
+            return Optional.empty();
+        }
+
+        // Posting-Listen aufsteigend nach Laenge schneiden, damit die Zwischenergebnisse klein bleiben
+        final var listen = trigramme(teilstring).stream()
+            .map(trigramm -> postings.getOrDefault(trigramm, Set.of()))
+            .sorted(Comparator.comparingInt(Set::size))
+            .toList();
+        final var result = new HashSet<>(listen.get(0));
+        for (int i = 1; i < listen.size() && !result.isEmpty(); i++) {
+            result.retainAll(listen.get(i));
+        }
+        kandidaten.record(result.size());
+        return Optional.of(result);
+    }
+
+    /**
+     * Die Anzahl der Kandidaten abschätzen, ohne die Posting-Listen zu schneiden. Die Schätzung ist die Länge der
+     * kürzesten Posting-Liste und damit eine obere Schranke.
+     *
+     * @param teilstring Der gesuchte Teilstring
+     * @return Die geschätzte Anzahl oder ein leeres Optional, falls der Index nicht verwendet werden kann
+     */
+    OptionalInt estimate(final String teilstring) {
+        if (teilstring.length() < N) {
+            return OptionalInt.empty();
+        }
+        return trigramme(teilstring).stream()
+            .mapToInt(trigramm -> postings.getOrDefault(trigramm, Set.of()).size())
+            .min();
+    }
+
+    /**
+     * Die Trigramme eines Strings mit jeweils 3 Zeichen à 16 Bit in einem long.
+     *
+     * @param name Der String oder null
+     * @return Die Trigramme oder eine leere Menge
+     */
+    static Set<Long> trigramme(final String name) {
+        if (name == null || name.length() < N) {
+            return Set.of();
+        }
+        final var result = new HashSet<Long>(name.length() * 2);
+        for (int i = 0; i + N <= name.length(); i++) {
+            result.add(
+                (long) name.charAt(i) << (2 * BITS_PRO_ZEICHEN) |
+                    (long) name.charAt(i + 1) << BITS_PRO_ZEICHEN |
+                    name.charAt(i + 2)
+            );
+        }
+        return result;
+    }
+}
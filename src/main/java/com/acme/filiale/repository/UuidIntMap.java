@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Hash-Tabelle mit offener Adressierung von UUIDs auf int-Werte, z.B. auf die Zeilennummern in einem Speicher. Die
+ * UUIDs werden als Paar aus höchst- und niedrigstwertigen 64 Bit in parallelen long-Arrays abgelegt. Dadurch gibt es
+ * weder Entry-Objekte noch geboxte Schlüssel oder Werte, und eine Suche kommt ohne Allokation aus.
+ *
+ * <p>Die Klasse ist nicht threadsicher.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class UuidIntMap {
+    /**
+     * Rückgabewert, falls es keinen Eintrag gibt.
+     */
+    static final int MISSING = -1;
+
+    private static final int MIN_KAPAZITAET = 16;
+
+    private long[] msbs;
+
+    private long[] lsbs;
+
+    // MISSING kennzeichnet einen freien Platz, damit auch die UUID 0-0 als Schluessel moeglich ist
+    private int[] werte;
+
+    private int anzahl;
+
+    /**
+     * Konstruktor für eine leere Tabelle.
+     *
+     * @param erwarteteAnzahl Erwartete Anzahl an Einträgen, damit möglichst selten vergrößert werden muss
+     */
+    UuidIntMap(final int erwarteteAnzahl) {
+        allocate(kapazitaet(erwarteteAnzahl));
+    }
+
+    /**
+     * Den Wert zu einer UUID ermitteln.
+     *
+     * @param msb Die höchstwertigen 64 Bit der UUID
+     * @param lsb Die niedrigstwertigen 64 Bit der UUID
+     * @return Der Wert oder {@link #MISSING}
+     */
+    int get(final long msb, final long lsb) {
+        final var i = index(msb, lsb);
+        return i < 0 ? MISSING : werte[i];
+    }
+
+    /**
+     * Den Wert zu einer UUID ermitteln.
+     *
+     * @param id Die UUID
+     * @return Der Wert oder {@link #MISSING}
+     */
+    int get(final UUID id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Einen Eintrag hinzufügen oder ändern.
+     *
+     * @param msb Die höchstwertigen 64 Bit der UUID
+     * @param lsb Die niedrigstwertigen 64 Bit der UUID
+     * @param wert Der nicht-negative Wert
+     * @return Der bisherige Wert oder {@link #MISSING}
+     */
+    int put(final long msb, final long lsb, final int wert) {
+        if (wert < 0) {
+            throw new IllegalArgumentException("Negativer Wert: " + wert);
+        }
+        final var maske = werte.length - 1;
+        var i = hash(msb, lsb) & maske;
+        while (werte[i] != MISSING) {
+            if (msbs[i] == msb && lsbs[i] == lsb) {
+                final var alt = werte[i];
+                werte[i] = wert;
+                return alt;
+            }
+            i = (i + 1) & maske;
+        }
+        msbs[i] = msb;
+        lsbs[i] = lsb;
+        werte[i] = wert;
+        anzahl++;
+        // Fuellgrad hoechstens 2/3, damit die Sondierungsketten kurz bleiben
+        if (anzahl * 3 > werte.length * 2) {
+            rehash(werte.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Einen Eintrag entfernen.
+     *
+     * @param msb Die höchstwertigen 64 Bit der UUID
+     * @param lsb Die niedrigstwertigen 64 Bit der UUID
+     * @return Der bisherige Wert oder {@link #MISSING}
+     */
+    int remove(final long msb, final long lsb) {
+        var frei = index(msb, lsb);
+        if (frei < 0) {
+            return MISSING;
+        }
+        final var alt = werte[frei];
+        // Loeschen ohne Grabsteine: nachfolgende Eintraege zurueckschieben, falls sie sonst nicht gefunden werden
+        final var maske = werte.length - 1;
+        var i = frei;
+        while (true) {
+            i = (i + 1) & maske;
+            if (werte[i] == MISSING) {
+                break;
+            }
+            final var heimat = hash(msbs[i], lsbs[i]) & maske;
+            final var verschieben = frei <= i
+                ? heimat <= frei || heimat > i
+                : heimat <= frei && heimat > i;
+            if (verschieben) {
+                msbs[frei] = msbs[i];
+                lsbs[frei] = lsbs[i];
+                werte[frei] = werte[i];
+                frei = i;
+            }
+        }
+        werte[frei] = MISSING;
+        anzahl--;
+        return alt;
+    }
+
+    /**
+     * Anzahl der Einträge.
+     *
+     * @return Anzahl der Einträge
+     */
+    int size() {
+        return anzahl;
+    }
+
+    /**
+     * Belegter Speicher der Arrays, z.B. für Benchmarks.
+     *
+     * @return Anzahl Bytes
+     */
+    long bytes() {
+        return (long) werte.length * (Long.BYTES + Long.BYTES + Integer.BYTES);
+    }
+
+    private int index(final long msb, final long lsb) {
+        final var maske = werte.length - 1;
+        var i = hash(msb, lsb) & maske;
+        while (werte[i] != MISSING) {
+            if (msbs[i] == msb && lsbs[i] == lsb) {
+                return i;
+            }
+            i = (i + 1) & maske;
+        }
+        return MISSING;
+    }
+
+    private void rehash(final int kapazitaet) {
+        final var alteMsbs = msbs;
+        final var alteLsbs = lsbs;
+        final var alteWerte = werte;
+        allocate(kapazitaet);
+        final var maske = kapazitaet - 1;
+        for (int j = 0; j < alteWerte.length; j++) {
+            if (alteWerte[j] != MISSING) {
+                var i = hash(alteMsbs[j], alteLsbs[j]) & maske;
+                while (werte[i] != MISSING) {
+                    i = (i + 1) & maske;
+                }
+                msbs[i] = alteMsbs[j];
+                lsbs[i] = alteLsbs[j];
+                werte[i] = alteWerte[j];
+            }
+        }
+    }
+
+    private void allocate(final int kapazitaet) {
+        msbs = new long[kapazitaet];
+        lsbs = new long[kapazitaet];
+        werte = new int[kapazitaet];
+        Arrays.fill(werte, MISSING);
+    }
+
+    private static int kapazitaet(final int erwarteteAnzahl) {
+        final var minimum = Math.max(MIN_KAPAZITAET, erwarteteAnzahl / 2 * 3 + 1);
+        return Integer.highestOneBit(minimum - 1) << 1;
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        // Zufalls-UUIDs sind schon gut verteilt, zeitbasierte UUIDs unterscheiden sich aber nur in wenigen Bits
+        final var h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
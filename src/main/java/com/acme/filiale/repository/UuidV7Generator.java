@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Generator für zeitlich geordnete UUIDs der Version 7 gemäß RFC 9562: Die ersten 48 Bit sind der Zeitstempel in
+ * Millisekunden seit 1970, die folgenden 12 Bit ein Zähler für die IDs innerhalb derselben Millisekunde und die
+ * übrigen 62 Bit Zufallszahlen. Die IDs eines Generators steigen streng monoton, auch wenn die Uhr zurückgestellt wird,
+ * und zwar sowohl bei {@link UUID#compareTo(UUID)} als auch beim Vergleich der Bytes ohne Vorzeichen wie in einer DB.
+ *
+ * <p>Zeitstempel und Zähler werden ohne Sperren per Compare-and-Set fortgeschrieben. Läuft der Zähler über, wird der
+ * Zeitstempel vorzeitig um 1 ms erhöht. Die Zufallszahlen stammen aus `ThreadLocalRandom` statt aus dem gemeinsamen
+ * `SecureRandom` von {@link UUID#randomUUID()}. Die IDs sind deshalb nicht kryptographisch unvorhersagbar und
+ * verraten den Zeitpunkt des Neuanlegens.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class UuidV7Generator implements Supplier<UUID> {
+    private static final int BITS_ZAEHLER = 12;
+
+    private static final int BITS_VERSION_ZAEHLER = 16;
+
+    private static final long MASKE_ZAEHLER = (1L << BITS_ZAEHLER) - 1;
+
+    private static final long VERSION = 7L << BITS_ZAEHLER;
+
+    // Variante 10xx in den obersten Bits, danach 62 Bit Zufallszahlen
+    private static final long VARIANTE = 1L << 63;
+
+    private static final long MASKE_ZUFALL = -1L >>> 2;
+
+    // Zeitstempel in ms und Zaehler der zuletzt vergebenen ID
+    private final AtomicLong letzte = new AtomicLong();
+
+    private final LongSupplier uhr;
+
+    UuidV7Generator() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Konstruktor mit einer eigenen Uhr, z.B. für Tests.
+     *
+     * @param uhr Die Uhr mit den Millisekunden seit 1970
+     */
+    UuidV7Generator(final LongSupplier uhr) {
+        this.uhr = uhr;
+    }
+
+    /**
+     * Die nächste ID erzeugen.
+     *
+     * @return Die neue ID
+     */
+    @Override
+    public UUID get() {
+        final var jetzt = uhr.getAsLong() << BITS_ZAEHLER;
+        long alt;
+        long neu;
+        do {
+            alt = letzte.get();
+            // innerhalb derselben Millisekunde oder bei zurueckgestellter Uhr wird nur der Zaehler erhoeht
+            neu = Math.max(alt + 1, jetzt);
+        } while (!letzte.compareAndSet(alt, neu));
+
+        final var msb = (neu >>> BITS_ZAEHLER) << BITS_VERSION_ZAEHLER | VERSION | neu & MASKE_ZAEHLER;
+        final var lsb = VARIANTE | ThreadLocalRandom.current().nextLong() & MASKE_ZUFALL;
+        return new UUID(msb, lsb);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Uhr für die Versionen der Filialen und für die globale Version eines Repository. Eine neue Version ist der
+ * Zeitpunkt in Millisekunden seit 1970, mindestens aber die zuletzt vergebene Version plus 1 und die bisherige
+ * Version der Filiale plus 1. Die Versionen steigen deshalb streng monoton, auch bei mehreren Änderungen in derselben
+ * Millisekunde oder bei zurückgestellter Uhr, und dienen zugleich als Zeitpunkt der letzten Änderung.
+ *
+ * <p>Die globale Version wird erst nach dem Speichern einer Änderung mit {@link #commit(long)} fortgeschrieben. Wer
+ * zuerst die globale Version und danach die Filialen liest, erhält deshalb nie einen älteren Stand als den zu dieser
+ * Version. Beim Start ist die globale Version der aktuelle Zeitpunkt, so dass nach einem Neustart keine globale
+ * Version für einen anderen Stand wiederverwendet wird.</p>
+ *
+ * <p>Zwischen dem Speichern und {@link #commit(long)} ist eine Änderung schon sichtbar, aber die globale Version noch
+ * die bisherige. Eine Suche in diesem Zeitfenster liefert deshalb einen ETag, der älter als das Ergebnis ist, und
+ * zwei verschiedene Ergebnisse können kurzzeitig denselben ETag haben. Das ist beabsichtigt: Ein Client mit einem zu
+ * alten ETag erhält spätestens nach dem Commit wieder den Statuscode 200 mit dem aktuellen Ergebnis, und ein Status
+ * 304 im Zeitfenster entspricht einer Anfrage unmittelbar vor der Änderung. Würde die globale Version dagegen vor dem
+ * Speichern fortgeschrieben, dann könnte ein Ergebnis ohne die Änderung den neuen ETag erhalten, und der Client würde
+ * danach mit dem Statuscode 304 dauerhaft den veralteten Stand behalten.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+final class VersionClock {
+    private final LongSupplier uhr;
+
+    private final AtomicLong vergeben;
+
+    private final AtomicLong global;
+
+    /**
+     * Konstruktor mit der Systemuhr.
+     *
+     * @param mindestens Die größte Version der vorhandenen Filialen
+     */
+    VersionClock(final long mindestens) {
+        this(System::currentTimeMillis, mindestens);
+    }
+
+    /**
+     * Konstruktor mit einer eigenen Uhr, z.B. für Tests.
+     *
+     * @param uhr Die Uhr mit den Millisekunden seit 1970
+     * @param mindestens Die größte Version der vorhandenen Filialen
+     */
+    VersionClock(final LongSupplier uhr, final long mindestens) {
+        this.uhr = uhr;
+        final var start = Math.max(uhr.getAsLong(), mindestens);
+        vergeben = new AtomicLong(start);
+        global = new AtomicLong(start);
+    }
+
+    /**
+     * Eine neue Version für eine Filiale vergeben.
+     *
+     * @param bisher Die bisherige Version der Filiale oder 0 für eine neue Filiale
+     * @return Die neue Version
+     */
+    long next(final long bisher) {
+        final var jetzt = Math.max(uhr.getAsLong(), bisher + 1);
+        return vergeben.accumulateAndGet(jetzt, (alt, mindestens) -> Math.max(alt + 1, mindestens));
+    }
+
+    /**
+     * Nach dem Speichern einer Änderung die globale Version fortschreiben. Die globale Version wird dabei auf jeden
+     * Fall erhöht, auch wenn eine parallele Änderung mit einer größeren Version schon gespeichert ist.
+     *
+     * @param version Die Version der gespeicherten Änderung
+     */
+    void commit(final long version) {
+        global.accumulateAndGet(version, (alt, neu) -> Math.max(alt + 1, neu));
+    }
+
+    /**
+     * Die globale Version, d.h. die Version der zuletzt gespeicherten Änderung.
+     *
+     * @return Die globale Version
+     */
+    long current() {
+        return global.get();
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Write-Ahead-Log für die Änderungen an den Filialen. Jede Änderung wird als Datensatz mit Länge und CRC32C-Prüfsumme
+ * an die Datei angehängt und ist erst nach dem `fsync` dauerhaft gespeichert. Ein eigener Thread schreibt alle
+ * wartenden Datensätze mit einem einzigen `fsync` (Group Commit) und wartet dazu nach dem ersten Datensatz bis zu
+ * `maxDelay` auf weitere Datensätze.
+ *
+ * <p>Beim Öffnen werden die vorhandenen Datensätze eingespielt. Ein unvollständiger oder beschädigter Datensatz am
+ * Ende, z.B. nach einem Absturz während des Schreibens, wird abgeschnitten.</p>
+ *
+ * <p>Die Position eines Datensatzes zählt die Bytes aller bisherigen Datensätze seit dem Anlegen des Protokolls. Ein
+ * {@link BinarySnapshot} enthält die Position, bis zu der alle Änderungen im Snapshot enthalten sind. Nach dem
+ * Schreiben des Snapshot werden die Datensätze davor mit {@link #checkpoint(long)} entfernt, und beim Start werden
+ * nur die Datensätze ab dieser Position eingespielt. Die Datei beginnt deshalb mit einem Kopf aus Magic Number und
+ * der Position des ersten Datensatzes.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Slf4j
+final class WriteAheadLog implements AutoCloseable {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    // "FILWAL01"
+    private static final long MAGIC = 0x46494C57414C3031L;
+    // Magic Number und Position des ersten Datensatzes
+    private static final int KOPF = 2 * Long.BYTES;
+    // Laenge und Pruefsumme des Datensatzes
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int MAX_DATENSATZ = 1 << 20;
+    private static final int MAX_BATCH = 1024;
+
+    private static final Eintrag ENDE = new Eintrag(ByteBuffer.allocate(0), 0, 0, new CompletableFuture<>());
+
+    private final Path path;
+
+    private final Set<UUID> eingespielt;
+
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Eintrag> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private final Timer latenz;
+
+    private final DistributionSummary batchGroesse;
+
+    private boolean geschlossen;
+
+    private volatile IOException fehler;
+
+    // nur der Thread zum Schreiben ersetzt die Datei bei einem Checkpoint
+    private volatile FileChannel channel;
+
+    // Position des ersten Datensatzes in der Datei
+    private long basis;
+
+    // Position nach dem letzten dauerhaft geschriebenen Datensatz
+    private volatile long ende;
+
+    private WriteAheadLog(
+        final Path path,
+        final Datei datei,
+        final Set<UUID> eingespielt,
+        final Duration maxDelay,
+        final MeterRegistry registry
+    ) throws IOException {
+        this.path = path;
+        channel = datei.channel();
+        basis = datei.basis();
+        ende = basis + channel.position() - KOPF;
+        this.eingespielt = eingespielt;
+        maxDelayNanos = maxDelay.toNanos();
+
+        latenz = Timer.builder("filiale.repository.wal.commit")
+            .description("Dauer vom Anhaengen eines Datensatzes bis zum fsync")
+            .publishPercentileHistogram()
+            .register(registry);
+        batchGroesse = DistributionSummary.builder("filiale.repository.wal.batch")
+            .description("Anzahl der Datensaetze, die mit einem fsync geschrieben werden")
+            .publishPercentileHistogram()
+            .register(registry);
+        Gauge.builder("filiale.repository.wal.size", this, WriteAheadLog::groesse)
+            .description("Groesse des Write-Ahead-Log")
+            .baseUnit("bytes")
+            .register(registry);
+
+        writer = new Thread(this::schreiben, "filiale-wal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Das Write-Ahead-Log öffnen bzw. anlegen und alle protokollierten Änderungen einspielen.
+     *
+     * @param wal Die Konfiguration mit dem Pfad der Datei
+     * @param filialen Die initialen Filialen mit der ID als Schlüssel, die durch die Änderungen verändert werden
+     * @param registry Die Registry für die Metriken
+     * @return Das geöffnete Write-Ahead-Log für weitere Änderungen
+     */
+    static WriteAheadLog open(
+        final RepositoryProps.Wal wal,
+        final Map<UUID, Filiale> filialen,
+        final MeterRegistry registry
+    ) {
+        return open(wal, filialen, 0, registry);
+    }
+
+    /**
+     * Das Write-Ahead-Log öffnen bzw. anlegen und die protokollierten Änderungen ab einer Position einspielen, z.B.
+     * nach dem Laden eines {@link BinarySnapshot}.
+     *
+     * @param wal Die Konfiguration mit dem Pfad der Datei
+     * @param filialen Die initialen Filialen mit der ID als Schlüssel, die durch die Änderungen verändert werden
+     * @param ab Die Position des ersten Datensatzes, der noch nicht in den initialen Filialen enthalten ist
+     * @param registry Die Registry für die Metriken
+     * @return Das geöffnete Write-Ahead-Log für weitere Änderungen
+     * @throws UncheckedIOException Falls die Datei nicht gelesen werden kann oder die Datensätze ab der Position
+     *      nicht mehr enthält
+     */
+    static WriteAheadLog open(
+        final RepositoryProps.Wal wal,
+        final Map<UUID, Filiale> filialen,
+        final long ab,
+        final MeterRegistry registry
+    ) {
+        final var eingespielt = new HashSet<UUID>();
+        final Consumer<Filiale> put = filiale -> {
+            filialen.put(filiale.getId(), filiale);
+            eingespielt.add(filiale.getId());
+        };
+        final Consumer<UUID> delete = id -> {
+            filialen.remove(id);
+            eingespielt.add(id);
+        };
+        return open(wal, put, delete, ab, eingespielt, registry);
+    }
+
+    /**
+     * Das Write-Ahead-Log öffnen bzw. anlegen und die protokollierten Änderungen ab einer Position direkt in einen
+     * Speicher einspielen, z.B. in den {@link LsmStore}, ohne die Filialen in einer Map zu sammeln.
+     *
+     * @param wal Die Konfiguration mit dem Pfad der Datei
+     * @param put Erhält die neuen und geänderten Filialen
+     * @param delete Erhält die IDs der gelöschten Filialen
+     * @param ab Die Position des ersten Datensatzes, der noch nicht im Speicher enthalten ist
+     * @param registry Die Registry für die Metriken
+     * @return Das geöffnete Write-Ahead-Log für weitere Änderungen
+     * @throws UncheckedIOException Falls die Datei nicht gelesen werden kann oder die Datensätze ab der Position
+     *      nicht mehr enthält
+     */
+    static WriteAheadLog open(
+        final RepositoryProps.Wal wal,
+        final Consumer<Filiale> put,
+        final Consumer<UUID> delete,
+        final long ab,
+        final MeterRegistry registry
+    ) {
+        return open(wal, put, delete, ab, Set.of(), registry);
+    }
+
+    private static WriteAheadLog open(
+        final RepositoryProps.Wal wal,
+        final Consumer<Filiale> put,
+        final Consumer<UUID> delete,
+        final long ab,
+        final Set<UUID> eingespielt,
+        final MeterRegistry registry
+    ) {
+        final var path = Path.of(wal.path()).toAbsolutePath();
+        try {
+            final var parent = path.getParent();
+            if (parent != null) {
+                parent.toFile().mkdirs();
+            }
+            final var datei = datei(FileChannel.open(path, CREATE, READ, WRITE), ab);
+            final var anzahl = replay(datei, ab, put, delete);
+            log.info("open: {} Aenderungen ab Position {} aus {} eingespielt", anzahl, ab, path);
+            return new WriteAheadLog(path, datei, eingespielt, wal.maxDelay(), registry);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Das Write-Ahead-Log " + path + " kann nicht geoeffnet werden", ex);
+        }
+    }
+
+    /**
+     * Die IDs der Filialen, deren Änderungen beim Öffnen in eine Map eingespielt wurden.
+     *
+     * @return Die IDs der neuen, geänderten oder gelöschten Filialen
+     */
+    Set<UUID> eingespielt() {
+        return eingespielt;
+    }
+
+    /**
+     * Eine neue oder geänderte Filiale protokollieren. Der Aufruf kehrt erst zurück, wenn der Datensatz dauerhaft
+     * gespeichert ist.
+     *
+     * @param filiale Die Filiale mit ID
+     * @throws UncheckedIOException Falls der Datensatz nicht geschrieben werden konnte
+     */
+    void put(final Filiale filiale) {
+        append(datensatz(PUT, filiale.getId(), filiale));
+    }
+
+    /**
+     * Das Löschen einer Filiale protokollieren. Der Aufruf kehrt erst zurück, wenn der Datensatz dauerhaft
+     * gespeichert ist.
+     *
+     * @param id Die ID der gelöschten Filiale
+     * @throws UncheckedIOException Falls der Datensatz nicht geschrieben werden konnte
+     */
+    void delete(final UUID id) {
+        append(datensatz(DELETE, id, null));
+    }
+
+    /**
+     * Die Position nach dem letzten dauerhaft geschriebenen Datensatz.
+     *
+     * @return Die Position
+     */
+    long position() {
+        return ende;
+    }
+
+    /**
+     * Die Datensätze vor einer Position entfernen, nachdem ein {@link BinarySnapshot} mit allen Änderungen bis zu
+     * dieser Position geschrieben wurde. Die Datensätze ab der Position werden in eine neue Datei kopiert, die dann
+     * atomar umbenannt wird. Der Aufruf kehrt erst danach zurück.
+     *
+     * @param position Die Position aus dem Snapshot
+     * @throws UncheckedIOException Falls die Datei nicht ersetzt werden konnte
+     */
+    void checkpoint(final long position) {
+        final var eintrag = new Eintrag(null, position, System.nanoTime(), new CompletableFuture<>());
+        synchronized (queue) {
+            if (geschlossen) {
+                throw new IllegalStateException("Das Write-Ahead-Log " + path + " ist geschlossen");
+            }
+            queue.add(eintrag);
+        }
+        final var ex = eintrag.fertig().join();
+        if (ex != null) {
+            throw new UncheckedIOException("Checkpoint fuer das Write-Ahead-Log " + path + " fehlgeschlagen", ex);
+        }
+    }
+
+    /**
+     * Die noch wartenden Datensätze schreiben und die Datei schließen.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (geschlossen) {
+                return;
+            }
+            geschlossen = true;
+            queue.add(ENDE);
+        }
+        try {
+            writer.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (final IOException ex) {
+            log.warn("close: {}", path, ex);
+        }
+    }
+
+    private void append(final ByteBuffer datensatz) {
+        final var eintrag = new Eintrag(datensatz, 0, System.nanoTime(), new CompletableFuture<>());
+        synchronized (queue) {
+            if (geschlossen) {
+                throw new IllegalStateException("Das Write-Ahead-Log " + path + " ist geschlossen");
+            }
+            queue.add(eintrag);
+        }
+        final var ex = eintrag.fertig().join();
+        if (ex != null) {
+            throw new UncheckedIOException("Die Aenderung kann nicht protokolliert werden: " + path, ex);
+        }
+    }
+
+    // Schleife des Threads zum Schreiben: ein Batch beginnt mit dem ersten wartenden Datensatz und endet nach
+    // maxDelay, mit MAX_BATCH Datensaetzen oder vor einem Checkpoint
+    private void schreiben() {
+        final var batch = new ArrayList<Eintrag>(MAX_BATCH);
+        var beendet = false;
+        try {
+            while (!beendet) {
+                final var erster = queue.take();
+                if (erster == ENDE) {
+                    break;
+                }
+                Eintrag checkpoint = null;
+                if (erster.datensatz() == null) {
+                    checkpoint = erster;
+                } else {
+                    batch.add(erster);
+                }
+                final var frist = System.nanoTime() + maxDelayNanos;
+                while (checkpoint == null && batch.size() < MAX_BATCH) {
+                    final var rest = frist - System.nanoTime();
+                    final var naechster = rest > 0 ? queue.poll(rest, NANOSECONDS) : queue.poll();
+                    if (naechster == null) {
+                        break;
+                    }
+                    if (naechster == ENDE) {
+                        beendet = true;
+                        break;
+                    }
+                    if (naechster.datensatz() == null) {
+                        checkpoint = naechster;
+                    } else {
+                        batch.add(naechster);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                    batch.clear();
+                }
+                if (checkpoint != null) {
+                    checkpoint.fertig().complete(checkpointAusfuehren(checkpoint.checkpoint()));
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            final var abbruch = new IOException("Das Schreiben in das Write-Ahead-Log wurde unterbrochen");
+            batch.forEach(eintrag -> eintrag.fertig().complete(abbruch));
+        }
+    }
+
+    private void commit(final List<Eintrag> batch) {
+        var ex = fehler;
+        if (ex == null) {
+            final var puffer = batch.stream().map(Eintrag::datensatz).toArray(ByteBuffer[]::new);
+            try {
+                var offen = 0L;
+                for (final var datensatz : puffer) {
+                    offen += datensatz.remaining();
+                }
+                while (offen > 0) {
+                    offen -= channel.write(puffer);
+                }
+                channel.force(false);
+                ende = basis + channel.position() - KOPF;
+            } catch (final IOException e) {
+                // nach einem Fehler beim fsync ist der Inhalt der Datei unklar: keine weiteren Aenderungen
+                log.error("commit: {}", path, e);
+                fehler = e;
+                ex = e;
+            }
+        }
+
+        final var jetzt = System.nanoTime();
+        batchGroesse.record(batch.size());
+        for (final var eintrag : batch) {
+            latenz.record(jetzt - eintrag.start(), NANOSECONDS);
+            eintrag.fertig().complete(ex);
+        }
+    }
+
+    // im Thread zum Schreiben: liefert null oder die IOException fuer den Aufrufer
+    private IOException checkpointAusfuehren(final long position) {
+        if (fehler != null) {
+            return fehler;
+        }
+        if (position <= basis) {
+            return null;
+        }
+        if (position > ende) {
+            return new IOException("Position " + position + " nach dem Ende " + ende);
+        }
+        final var start = System.nanoTime();
+        final var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        final var von = KOPF + position - basis;
+        try (var neu = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            schreibeKopf(neu, position);
+            final var laenge = channel.position() - von;
+            var kopiert = 0L;
+            while (kopiert < laenge) {
+                kopiert += channel.transferTo(von + kopiert, laenge - kopiert, neu);
+            }
+            neu.force(true);
+        } catch (final IOException ex) {
+            // die bisherige Datei bleibt unveraendert gueltig
+            log.warn("checkpoint: {}", tmp, ex);
+            return ex;
+        }
+
+        try {
+            Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+            final var alt = channel;
+            final var neu = FileChannel.open(path, READ, WRITE);
+            neu.position(neu.size());
+            channel = neu;
+            basis = position;
+            alt.close();
+        } catch (final IOException ex) {
+            // unklar, welche Datei gilt: keine weiteren Aenderungen
+            log.error("checkpoint: {}", path, ex);
+            fehler = ex;
+            return ex;
+        }
+        log.debug(
+            "checkpoint: position={}, {} Bytes entfernt in {} ms",
+            position,
+            von - KOPF,
+            NANOSECONDS.toMillis(System.nanoTime() - start)
+        );
+        return null;
+    }
+
+    // neue Datei mit Kopf anlegen oder den Kopf einer vorhandenen Datei lesen
+    private static Datei datei(final FileChannel channel, final long ab) throws IOException {
+        if (channel.size() == 0) {
+            // neues Protokoll, z.B. nach einem Snapshot mit der Position ab
+            schreibeKopf(channel, ab);
+            channel.force(true);
+            return new Datei(channel, ab);
+        }
+        final var buffer = ByteBuffer.allocate(KOPF);
+        var gelesen = 0;
+        while (gelesen < KOPF) {
+            final var anzahl = channel.read(buffer, gelesen);
+            if (anzahl < 0) {
+                break;
+            }
+            gelesen += anzahl;
+        }
+        if (gelesen < KOPF || buffer.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Die Datei ist kein Write-Ahead-Log");
+        }
+        return new Datei(channel, buffer.getLong(Long.BYTES));
+    }
+
+    private static void schreibeKopf(final FileChannel channel, final long basis) throws IOException {
+        final var buffer = ByteBuffer.allocate(KOPF).putLong(MAGIC).putLong(basis).flip();
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static long replay(
+        final Datei datei,
+        final long ab,
+        final Consumer<Filiale> put,
+        final Consumer<UUID> delete
+    ) throws IOException {
+        if (ab < datei.basis()) {
+            throw new IOException(
+                "Die Datensaetze vor Position " + datei.basis() + " fehlen, der Snapshot hat Position " + ab
+            );
+        }
+        final var channel = datei.channel();
+        final var groesse = channel.size();
+        // der Snapshot enthaelt bereits alle Aenderungen vor der Position ab
+        var position = KOPF + ab - datei.basis();
+        if (position > groesse) {
+            throw new IOException("Das Protokoll endet vor der Position " + ab + " aus dem Snapshot");
+        }
+        channel.position(position);
+        final var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        final var crc = new CRC32C();
+        var anzahl = 0L;
+        while (position + HEADER <= groesse) {
+            final var laenge = in.readInt();
+            final var pruefsumme = in.readInt();
+            if (laenge <= 0 || laenge > MAX_DATENSATZ || position + HEADER + laenge > groesse) {
+                break;
+            }
+            final var daten = new byte[laenge];
+            in.readFully(daten);
+            crc.reset();
+            crc.update(daten);
+            if ((int) crc.getValue() != pruefsumme) {
+                break;
+            }
+            einspielen(daten, put, delete);
+            position += HEADER + laenge;
+            anzahl++;
+        }
+
+        if (position < groesse) {
+            log.warn("replay: unvollstaendiger Datensatz ab Position {} wird abgeschnitten", position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        return anzahl;
+    }
+
+    private static void einspielen(
+        final byte[] daten,
+        final Consumer<Filiale> put,
+        final Consumer<UUID> delete
+    ) throws IOException {
+        final var in = ByteBuffer.wrap(daten);
+        final var operation = in.get();
+        switch (operation) {
+            case PUT -> put.accept(FilialeCodec.read(in));
+            case DELETE -> delete.accept(FilialeCodec.readId(in));
+            default -> throw new IOException("Unbekannte Operation im Write-Ahead-Log: " + operation);
+        }
+    }
+
+    // die Filiale beginnt mit ihrer ID, d.h. das Format nach der Operation ist dasselbe wie beim Loeschen
+    private static ByteBuffer datensatz(final byte operation, final UUID id, final Filiale filiale) {
+        final var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(operation);
+            if (filiale == null) {
+                FilialeCodec.writeId(out, id);
+            } else {
+                FilialeCodec.write(out, filiale);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        final var buffer = ByteBuffer.wrap(bytes.toByteArray());
+        final var laenge = buffer.capacity() - HEADER;
+        if (laenge > MAX_DATENSATZ) {
+            throw new IllegalArgumentException("Datensatz zu gross fuer das Write-Ahead-Log: " + laenge);
+        }
+        final var crc = new CRC32C();
+        crc.update(buffer.array(), HEADER, laenge);
+        buffer.putInt(0, laenge);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        return buffer;
+    }
+
+    private static double groesse(final WriteAheadLog wal) {
+        final var channel = wal.channel;
+        try {
+            return channel.isOpen() ? channel.size() : 0;
+        } catch (final IOException ex) {
+            return 0;
+        }
+    }
+
+    // ohne Datensatz ein Checkpoint bis zur Position checkpoint; fertig liefert null nach dem fsync bzw. die
+    // IOException, falls nicht geschrieben werden konnte
+    private record Eintrag(
+        ByteBuffer datensatz,
+        long checkpoint,
+        long start,
+        CompletableFuture<IOException> fertig
+    ) {
+    }
+
+    // geoeffnete Datei mit der Position des ersten Datensatzes
+    private record Datei(FileChannel channel, long basis) {
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+
+/**
+ * Ergebnis einer Änderung mit {@link FilialenRepository#compute}.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param status Der Status der Änderung
+ * @param filiale Eine Kopie der gespeicherten Filiale oder null, falls nichts gespeichert oder gelöscht wurde
+ */
+public record WriteResult(Status status, Filiale filiale) {
+    /**
+     * Ergebnis, falls es keine Filiale zur ID gibt und die Änderung auch keine neue Filiale liefert.
+     */
+    public static final WriteResult NOT_FOUND = new WriteResult(Status.NOT_FOUND, null);
+
+    /**
+     * Ergebnis, falls die Emailadresse bereits zu einer anderen Filiale gehört.
+     */
+    public static final WriteResult EMAIL_EXISTS = new WriteResult(Status.EMAIL_EXISTS, null);
+
+    /**
+     * Ergebnis, falls die Filiale nicht mehr die erwartete Version hat, d.h. inzwischen geändert wurde.
+     */
+    public static final WriteResult VERSION_MISMATCH = new WriteResult(Status.VERSION_MISMATCH, null);
+
+    /**
+     * Ergebnis für eine gespeicherte oder gelöschte Filiale.
+     *
+     * @param filiale Die gespeicherte Filiale oder null, falls sie gelöscht wurde
+     * @return Das Ergebnis mit dem Status `OK`
+     */
+    static WriteResult ok(final Filiale filiale) {
+        return new WriteResult(Status.OK, filiale);
+    }
+
+    /**
+     * Status einer Änderung.
+     */
+    public enum Status {
+        /**
+         * Die Filiale wurde neu angelegt, ersetzt oder gelöscht.
+         */
+        OK,
+
+        /**
+         * Es gibt keine Filiale zur ID.
+         */
+        NOT_FOUND,
+
+        /**
+         * Die Emailadresse gehört bereits zu einer anderen Filiale.
+         */
+        EMAIL_EXISTS,
+
+        /**
+         * Die Filiale hat nicht die erwartete Version.
+         */
+        VERSION_MISMATCH
+    }
+}
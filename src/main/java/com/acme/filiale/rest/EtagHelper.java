@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import java.util.OptionalLong;
+
+/**
+ * Hilfsklasse für ETags aus der Version einer Filiale bzw. des Repository.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@SuppressWarnings({"UtilityClassCanBeEnum", "UtilityClass"})
+final class EtagHelper {
+    private EtagHelper() {
+    }
+
+    /**
+     * Einen starken ETag aus einer Version erstellen, z.B. `"1700000000000"`.
+     *
+     * @param version Die Version
+     * @param suffix Ein Suffix, um verschiedene Repräsentationen zu unterscheiden, oder ein leerer String
+     * @return Der ETag einschließlich der Anführungszeichen
+     */
+    static String etag(final long version, final String suffix) {
+        return "\"" + version + suffix + '"';
+    }
+
+    /**
+     * Die Version aus dem Header `If-Match` ermitteln. Nur ein einzelner starker ETag ohne Suffix wird akzeptiert,
+     * weil ein schwacher ETag gemäß RFC 9110 bei `If-Match` nie übereinstimmt.
+     *
+     * @param ifMatch Der Wert des Headers
+     * @return Die Version oder ein leeres Optional, falls der Wert kein solcher ETag ist
+     */
+    static OptionalLong version(final String ifMatch) {
+        final var etag = ifMatch.strip();
+        if (etag.length() < 3 || etag.charAt(0) != '"' || etag.charAt(etag.length() - 1) != '"') {
+            return OptionalLong.empty();
+        }
+        try {
+            final var version = Long.parseLong(etag, 1, etag.length() - 1, 10);
+            return version < 0 ? OptionalLong.empty() : OptionalLong.of(version);
+        } catch (final NumberFormatException ex) {
+            return OptionalLong.empty();
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package com.acme.filiale.rest;
 
-import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.repository.QueryPlan;
 import com.acme.filiale.service.FilialeReadService;
 import com.acme.filiale.service.NotFoundException;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.Link;
-import org.springframework.hateoas.LinkRelation;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -17,13 +21,21 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
-import static com.acme.filiale.rest.UriHelper.getBaseUri;
+import static com.acme.filiale.rest.EtagHelper.etag;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 import static org.springframework.http.ResponseEntity.notFound;
 import static org.springframework.http.ResponseEntity.ok;
 
@@ -52,77 +64,286 @@ final class FilialeGetController {
     @SuppressWarnings("TrailingComment")
     static final String NAMEN_PATH = "/name";
 
+    /**
+     * Query-Parameter, um statt der gefundenen Filialen den Ausführungsplan der Suche auszugeben.
+     */
+    static final String EXPLAIN_PARAM = "explain";
+
+    /**
+     * Query-Parameter, um alle gefundenen Filialen ohne Seiten als JSON-Array zu streamen.
+     */
+    static final String STREAM_PARAM = "stream";
+
+    /**
+     * Query-Parameter für die maximale Anzahl an Filialen pro Seite.
+     */
+    static final String LIMIT_PARAM = "limit";
+
+    /**
+     * Query-Parameter für die ID der letzten Filiale der vorherigen Seite.
+     */
+    static final String AFTER_PARAM = "after";
+
+    /**
+     * Anzahl an Filialen pro Seite ohne Query-Parameter `limit`.
+     */
+    static final String LIMIT_DEFAULT = "100";
+
+    /**
+     * Maximale Anzahl an Filialen pro Seite.
+     */
+    static final int LIMIT_MAX = 1000;
+
+    /**
+     * Maximale Anzahl an Namen bei der Autovervollständigung.
+     */
+    static final int NAMEN_LIMIT_MAX = 100;
+
+    /**
+     * Suffix für den ETag bei NDJSON, damit sich der ETag von dem der Seiten mit derselben URI unterscheidet.
+     */
+    static final String NDJSON_ETAG_SUFFIX = "-ndjson";
+
     private final FilialeReadService service;
 
+    private final FilialenStreamWriter streamWriter;
+
+    private final FilialenResponseCache responseCache;
+
+    private final LinkTemplates linkTemplates;
+
     // https://docs.spring.io/spring-framework/docs/current/reference/html/web-reactive.html#webflux-ann-methods
     // https://localhost:8080/swagger-ui.html
 
     /**
      * Suche anhand der filiale-ID als Pfad-Parameter.
      *
+     * Der Response enthält die Version der Filiale als ETag und Last-Modified. Bei einem passenden Header
+     * `If-None-Match` bzw. `If-Modified-Since` wird der Statuscode 304 geliefert, ohne das Model zu erstellen.
+     * Ansonsten wird die serialisierte Filiale aus dem {@link FilialenResponseCache} direkt in den Response
+     * geschrieben.
+     *
      * @param id      ID des zu suchenden filialen
      * @param request Das Request-Objekt, um Links für HATEOAS zu erstellen.
-     * @return Ein Response mit dem Statuscode 200 und dem gefundenen filialen mit Atom-Links oder Statuscode 404.
+     * @param response Der Response, in den die serialisierte Filiale geschrieben wird.
+     * @param webRequest Der Request, um die Header für Conditional GET auszuwerten.
+     * @throws IOException Falls der Response nicht geschrieben werden kann
      */
     @GetMapping(path = "{id:" + ID_PATTERN + "}", produces = APPLICATION_JSON_VALUE)
     @Operation(summary = "Suche mit der Filialen-ID", tags = "Suchen")
-    @ApiResponse(responseCode = "200", description = "filiale gefunden")
+    @ApiResponse(
+        responseCode = "200",
+        description = "filiale gefunden",
+        content = @Content(schema = @Schema(implementation = FilialenModel.class))
+    )
+    @ApiResponse(responseCode = "304", description = "filiale unveraendert")
     @ApiResponse(responseCode = "404", description = "filiale nicht gefunden")
-    FilialenModel findById(@PathVariable final UUID id, final HttpServletRequest request) {
+    void findById(
+        @PathVariable final UUID id,
+        final HttpServletRequest request,
+        final HttpServletResponse response,
+        final WebRequest webRequest
+    ) throws IOException {
         log.debug("findById: id={}", id);
 
         // Anwendungskern
         final var filiale = service.findById(id);
         log.debug("findById: {}", filiale);
 
-        // HATEOAS
-        final var model = new FilialenModel(filiale);
-        final var baseUri = getBaseUri(request, id);
-        final var idUri = baseUri + "/" + filiale.getId();
-
-        final var selfLink = Link.of(idUri);
-        final var listLink = Link.of(baseUri, LinkRelation.of("list"));
-        final var addLink = Link.of(baseUri, LinkRelation.of("add"));
-        final var updateLink = Link.of(idUri, LinkRelation.of("update"));
-        final var removeLink = Link.of(idUri, LinkRelation.of("remove"));
-        model.add(selfLink, listLink, addLink, updateLink, removeLink);
-
-        return model;
+        // Conditional GET: null bei Statuscode 304, der Header ETag ist bereits gesetzt
+        final var version = filiale.getVersion();
+        if (webRequest.checkNotModified(etag(version, ""), version)) {
+            log.debug("findById: version={} unveraendert", version);
+            return;
+        }
+
+        // HATEOAS nur, falls die Filiale in dieser Version nicht im Cache ist
+        final var vorlage = linkTemplates.vorlage(request);
+        final var body = responseCache.get(id, version, vorlage.baseUri(), () -> {
+            final var model = new FilialenModel(filiale);
+            vorlage.addLinks(model, filiale.getId());
+            return model;
+        });
+        responseCache.write(body, request, response);
     }
 
     /**
-     * Suche mit diversen Suchkriterien als Query-Parameter.
+     * Suche mit diversen Suchkriterien als Query-Parameter und Keyset Pagination: Die Filialen werden aufsteigend nach
+     * der ID seitenweise geliefert. Gibt es weitere Filialen, enthält die Seite einen Link `next` mit der ID der
+     * letzten Filiale als Query-Parameter `after`.
      *
-     * @param suchkriterien Query-Parameter als Map.
+     * @param suchkriterien Query-Parameter als Map einschließlich `limit` und `after`.
+     * @param after Die ID der letzten Filiale der vorherigen Seite als Query-Parameter oder null.
+     * @param limit Maximale Anzahl der Filialen pro Seite als Query-Parameter, höchstens 1000.
      * @param request       Das Request-Objekt, um Links für HATEOAS zu erstellen.
-     * @return Ein Response mit dem Statuscode 200 und den gefundenen filialen als CollectionModel oder Statuscode 404.
+     * @param webRequest Der Request, um die Header für Conditional GET mit der globalen Version auszuwerten.
+     * @return Ein Response mit dem Statuscode 200 und den gefundenen filialen als CollectionModel oder Statuscode 304
+     *      bzw. 404.
      */
     @GetMapping(produces = APPLICATION_JSON_VALUE)
     @Operation(summary = "Suche mit Suchkriterien", tags = "Suchen")
     @ApiResponse(responseCode = "200", description = "CollectionModel mid den filialen")
+    @ApiResponse(responseCode = "304", description = "Keine Aenderungen seit dem ETag")
     @ApiResponse(responseCode = "404", description = "Keine filialen gefunden")
-    Collection<Filiale> find(
+    CollectionModel<FilialenModel> find(
         @RequestParam final Map<String, String> suchkriterien,
-        final HttpServletRequest request
+        @RequestParam(name = AFTER_PARAM, required = false) final UUID after,
+        @RequestParam(name = LIMIT_PARAM, defaultValue = LIMIT_DEFAULT) final int limit,
+        final HttpServletRequest request,
+        final WebRequest webRequest
     ) {
-        log.debug("find: suchkriterien={}", suchkriterien);
-        final var models = service.find(suchkriterien);
-        log.debug("find: {}", models);
-        return models;
+        final var kriterien = ohneSteuerparameter(suchkriterien);
+        final var seitengroesse = Math.max(1, Math.min(limit, LIMIT_MAX));
+        log.debug("find: suchkriterien={}, after={}, limit={}", kriterien, after, seitengroesse);
+        // die globale Version vor der Suche ermitteln, damit das Ergebnis mindestens so neu ist wie der ETag
+        final var version = service.version();
+        if (webRequest.checkNotModified(etag(version, ""), version)) {
+            log.debug("find: version={} unveraendert", version);
+            return null;
+        }
+        final var page = service.find(kriterien, after, seitengroesse);
+
+        // HATEOAS
+        final var vorlage = linkTemplates.vorlage(request);
+        final var models = page.filialen().stream()
+            .map(filiale -> {
+                final var model = new FilialenModel(filiale);
+                model.add(vorlage.self(filiale.getId()));
+                return model;
+            })
+            .toList();
+        final var result = CollectionModel.of(models);
+        if (page.next() != null) {
+            final var next = nextUri(vorlage.baseUri(), kriterien, seitengroesse, page.next());
+            result.add(Link.of(next, IanaLinkRelations.NEXT));
+        }
+        log.debug("find: #filialen={}, next={}", models.size(), page.next());
+        return result;
     }
 
     /**
-     * Abfrage, welche Name es zu einem Präfix gibt.
+     * Suche mit diversen Suchkriterien als Query-Parameter, z.B. `?plz=7&amp;stream`, wobei alle gefundenen Filialen
+     * ohne Seiten als JSON-Array gestreamt werden.
+     *
+     * @param suchkriterien Query-Parameter als Map einschließlich `stream`.
+     * @param webRequest Der Request, um die Header für Conditional GET mit der globalen Version auszuwerten.
+     * @return Ein Response mit dem Statuscode 200 und den gefundenen Filialen als JSON-Array oder Statuscode 304 bzw.
+     *      404.
+     */
+    @GetMapping(params = STREAM_PARAM, produces = APPLICATION_JSON_VALUE)
+    @Operation(summary = "Suche mit Suchkriterien als JSON-Array ohne Seiten", tags = "Suchen")
+    @ApiResponse(responseCode = "200", description = "JSON-Array mit den Filialen")
+    @ApiResponse(responseCode = "304", description = "Keine Aenderungen seit dem ETag")
+    @ApiResponse(responseCode = "404", description = "Keine Filialen gefunden")
+    ResponseEntity<StreamingResponseBody> stream(
+        @RequestParam final Map<String, String> suchkriterien,
+        final WebRequest webRequest
+    ) {
+        final var kriterien = ohneSteuerparameter(suchkriterien);
+        log.debug("stream: suchkriterien={}", kriterien);
+        final var version = service.version();
+        if (webRequest.checkNotModified(etag(version, ""), version)) {
+            return null;
+        }
+        // die Suche beginnt im Request-Thread, damit eine erfolglose Suche noch den Statuscode 404 liefert
+        final var filialen = service.stream(kriterien);
+        return ok().contentType(APPLICATION_JSON).body(streamWriter.jsonArray(filialen));
+    }
+
+    /**
+     * Suche mit diversen Suchkriterien als Query-Parameter, wobei alle gefundenen Filialen ohne Seiten als
+     * Newline Delimited JSON gestreamt werden, falls der Request den Header `Accept: application/x-ndjson` enthält.
+     *
+     * @param suchkriterien Query-Parameter als Map.
+     * @param webRequest Der Request, um die Header für Conditional GET mit der globalen Version auszuwerten.
+     * @return Ein Response mit dem Statuscode 200 und einer Filiale pro Zeile oder Statuscode 304 bzw. 404.
+     */
+    @GetMapping(produces = APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Suche mit Suchkriterien als NDJSON", tags = "Suchen")
+    @ApiResponse(responseCode = "200", description = "Eine Filiale pro Zeile")
+    @ApiResponse(responseCode = "304", description = "Keine Aenderungen seit dem ETag")
+    @ApiResponse(responseCode = "404", description = "Keine Filialen gefunden")
+    ResponseEntity<StreamingResponseBody> streamNdjson(
+        @RequestParam final Map<String, String> suchkriterien,
+        final WebRequest webRequest
+    ) {
+        final var kriterien = ohneSteuerparameter(suchkriterien);
+        log.debug("streamNdjson: suchkriterien={}", kriterien);
+        final var version = service.version();
+        if (webRequest.checkNotModified(etag(version, NDJSON_ETAG_SUFFIX), version)) {
+            return null;
+        }
+        final var filialen = service.stream(kriterien);
+        return ok().contentType(APPLICATION_NDJSON).body(streamWriter.ndjson(filialen));
+    }
+
+    /**
+     * Ausführungsplan für eine Suche mit Suchkriterien als Query-Parameter, z.B. `?name=Alpha&amp;explain`.
+     *
+     * @param suchkriterien Query-Parameter als Map einschließlich `explain`.
+     * @return Der gewählte Zugriffspfad mit den geschätzten Kosten.
+     */
+    @GetMapping(params = EXPLAIN_PARAM, produces = APPLICATION_JSON_VALUE)
+    @Operation(summary = "Ausführungsplan einer Suche mit Suchkriterien", tags = "Suchen")
+    @ApiResponse(responseCode = "200", description = "Ausführungsplan")
+    QueryPlan explain(@RequestParam final Map<String, String> suchkriterien) {
+        final var kriterien = ohneSteuerparameter(suchkriterien);
+        log.debug("explain: suchkriterien={}", kriterien);
+        final var plan = service.explain(kriterien);
+        log.debug("explain: {}", plan);
+        return plan;
+    }
+
+    /**
+     * Abfrage, welche Name es zu einem Präfix gibt, z.B. für die Autovervollständigung in einem Eingabefeld.
      *
      * @param prefix Namen-Präfix als Pfadvariable.
-     * @return Die passenden Namen oder Statuscode 404, falls es keine gibt.
+     * @param limit Maximale Anzahl der Namen als Query-Parameter, mindestens 1 und höchstens 100.
+     * @return Die passenden Namen als JSON-Array, absteigend sortiert nach der Anzahl der Filialen, oder Statuscode
+     *      404, falls es keine gibt.
      */
     @GetMapping(path = NAMEN_PATH + "/{prefix}", produces = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> findNameByPrefix(@PathVariable final String prefix) {
-        log.debug("findNameByPrefix: {}", prefix);
-        final var name = service.findNameByPrefix(prefix);
-        log.debug("findNameByPrefix: {}", name);
-        return ok(name.toString());
+    @Operation(summary = "Namen zu einem Präfix", tags = "Suchen")
+    @ApiResponse(responseCode = "200", description = "Namen gefunden")
+    @ApiResponse(responseCode = "404", description = "Keine Namen gefunden")
+    Collection<String> findNameByPrefix(
+        @PathVariable final String prefix,
+        @RequestParam(defaultValue = "10") final int limit
+    ) {
+        log.debug("findNameByPrefix: prefix={}, limit={}", prefix, limit);
+        final var namen = service.findNameByPrefix(prefix, Math.max(1, Math.min(limit, NAMEN_LIMIT_MAX)));
+        log.debug("findNameByPrefix: {}", namen);
+        return namen;
+    }
+
+    // die Suchkriterien als URI-Variable, damit auch z.B. "+" und "&" in den Werten kodiert werden
+    private static String nextUri(
+        final String baseUri,
+        final Map<String, String> kriterien,
+        final int limit,
+        final UUID after
+    ) {
+        final var next = UriComponentsBuilder.fromUriString(baseUri);
+        final var variablen = new HashMap<String, String>();
+        var nr = 0;
+        for (final var kriterium : kriterien.entrySet()) {
+            next.queryParam("{n" + nr + '}', "{w" + nr + '}');
+            variablen.put("n" + nr, kriterium.getKey());
+            variablen.put("w" + nr, kriterium.getValue());
+            nr++;
+        }
+        next.queryParam(LIMIT_PARAM, limit).queryParam(AFTER_PARAM, after);
+        return next.encode().buildAndExpand(variablen).toUriString();
+    }
+
+    // Query-Parameter, die keine Suchkriterien sind
+    private static Map<String, String> ohneSteuerparameter(final Map<String, String> queryParameter) {
+        final var kriterien = new HashMap<>(queryParameter);
+        kriterien.remove(EXPLAIN_PARAM);
+        kriterien.remove(STREAM_PARAM);
+        kriterien.remove(AFTER_PARAM);
+        kriterien.remove(LIMIT_PARAM);
+        return kriterien;
     }
 
     @ExceptionHandler(NotFoundException.class)
@@ -16,17 +16,20 @@
  */
 package com.acme.filiale.rest;
 
+import com.acme.filiale.entity.Filiale;
 import com.acme.filiale.rest.patch.InvalidPatchOperationException;
 import com.acme.filiale.service.ConstraintViolationsException;
 import com.acme.filiale.service.EmailExistsException;
 import com.acme.filiale.service.FilialeWriteService;
 import com.acme.filiale.service.NotFoundException;
+import com.acme.filiale.service.VersionOutdatedException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -35,6 +38,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -43,10 +47,14 @@ import java.net.URISyntaxException;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import static com.acme.filiale.rest.EtagHelper.etag;
 import static com.acme.filiale.rest.FilialeGetController.ID_PATTERN;
 import static com.acme.filiale.rest.UriHelper.getBaseUri;
 import static com.acme.filiale.rest.UriHelper.getRequestUri;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.PRECONDITION_FAILED;
+import static org.springframework.http.HttpStatus.PRECONDITION_REQUIRED;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
@@ -71,8 +79,13 @@ final class FilialeWriteController {
     @SuppressWarnings("TrailingComment")
     private static final String PROBLEM_PATH = "/problem/";
 
+    // If-Match fuer ein PUT ohne Vergleich der Version
+    private static final String IF_MATCH_ANY = "*";
+
     private final FilialeWriteService writeService;
 
+    private final RestProps props;
+
     /**
      * Einen neuen filiale-Datensatz anlegen.
      *
@@ -103,27 +116,51 @@ final class FilialeWriteController {
     }
 
     /**
-     * Einen vorhandenen filiale-Datensatz überschreiben.
+     * Einen vorhandenen filiale-Datensatz überschreiben. Mit dem Header `If-Match` und dem ETag aus einem
+     * vorherigen GET wird nur überschrieben, falls die Filiale zwischenzeitlich nicht geändert wurde.
      *
      * @param id         ID des zu aktualisierenden filialen.
      * @param filialeDTO Das filialenobjekt aus dem eingegangenen Request-Body.
-     * @return Response mit Statuscode 204 oder Statuscode 422, falls Constraints verletzt sind oder
+     * @param ifMatch    Der ETag mit der erwarteten Version, `*` oder null
+     * @param request    Das Request-Objekt, um ProblemDetail zu erstellen.
+     * @return Response mit Statuscode 204 und dem neuen ETag oder Statuscode 422, falls Constraints verletzt sind oder
      * der JSON-Datensatz syntaktisch nicht korrekt ist oder falls die Emailadresse bereits existiert oder
-     * Statuscode 400 falls syntaktische Fehler im Request-Body vorliegen.
+     * Statuscode 400 falls syntaktische Fehler im Request-Body vorliegen oder Statuscode 412 falls die Version
+     * veraltet ist oder Statuscode 428 falls der Header `If-Match` erforderlich ist und fehlt.
      */
     @PutMapping(path = "{id:" + ID_PATTERN + "}", consumes = APPLICATION_JSON_VALUE)
     @Operation(summary = "Eine Filiale mit neuen Werten aktualisieren", tags = "Aktualisieren")
     @ApiResponse(responseCode = "204", description = "Aktualisiert")
     @ApiResponse(responseCode = "400", description = "Syntaktische Fehler im Request-Body")
     @ApiResponse(responseCode = "404", description = "filiale nicht vorhanden")
+    @ApiResponse(responseCode = "412", description = "Version veraltet oder ungültiger Header If-Match")
     @ApiResponse(responseCode = "422", description = "Ungültige Werte oder Email vorhanden")
-    ResponseEntity<Void> update(
+    @ApiResponse(responseCode = "428", description = "Header If-Match fehlt")
+    ResponseEntity<?> update(
         @PathVariable final UUID id,
-        @RequestBody final FilialeDTO filialeDTO
+        @RequestBody final FilialeDTO filialeDTO,
+        @RequestHeader(value = IF_MATCH, required = false) final String ifMatch,
+        final HttpServletRequest request
     ) {
-        log.debug("update: id={}, {}", id, filialeDTO);
-        writeService.update(filialeDTO.toFiliale(), id);
-        return noContent().build();
+        log.debug("update: id={}, ifMatch={}, {}", id, ifMatch, filialeDTO);
+        final Filiale filiale;
+        if (ifMatch == null) {
+            if (props.ifMatchRequired()) {
+                log.debug("update: If-Match fehlt");
+                return problem(PRECONDITION_REQUIRED, "Header " + IF_MATCH + " fehlt", request);
+            }
+            filiale = writeService.update(filialeDTO.toFiliale(), id);
+        } else if (IF_MATCH_ANY.equals(ifMatch.strip())) {
+            filiale = writeService.update(filialeDTO.toFiliale(), id);
+        } else {
+            final var version = EtagHelper.version(ifMatch);
+            if (version.isEmpty()) {
+                log.debug("update: ungueltiger ETag={}", ifMatch);
+                return problem(PRECONDITION_FAILED, "Ungueltiger ETag " + ifMatch, request);
+            }
+            filiale = writeService.update(filialeDTO.toFiliale(), id, version.getAsLong());
+        }
+        return noContent().eTag(etag(filiale.getVersion(), "")).build();
     }
 
     @ExceptionHandler(ConstraintViolationsException.class)
@@ -169,6 +206,16 @@ final class FilialeWriteController {
         return ResponseEntity.of(problemDetail).build();
     }
 
+    @ExceptionHandler(VersionOutdatedException.class)
+    @SuppressWarnings("unused")
+    ResponseEntity<ProblemDetail> handleVersionOutdated(
+        final VersionOutdatedException ex,
+        final HttpServletRequest request
+    ) {
+        log.debug("handleVersionOutdated: {}", ex.getMessage());
+        return problem(PRECONDITION_FAILED, ex.getMessage(), request);
+    }
+
     @ExceptionHandler(HttpMessageNotReadableException.class)
     @SuppressWarnings("unused")
     ResponseEntity<ProblemDetail> handleMessageNotReadable(
@@ -203,4 +250,16 @@ final class FilialeWriteController {
         problemDetail.setInstance(uri);
         return ResponseEntity.of(problemDetail).build();
     }
+
+    // ProblemDetail fuer einen Fehler beim Header If-Match
+    private static ResponseEntity<ProblemDetail> problem(
+        final HttpStatus status,
+        final String detail,
+        final HttpServletRequest request
+    ) {
+        final var problemDetail = ProblemDetail.forStatusAndDetail(status, detail);
+        problemDetail.setType(URI.create(PROBLEM_PATH + ProblemType.PRECONDITION.getValue()));
+        problemDetail.setInstance(getRequestUri(request));
+        return ResponseEntity.of(problemDetail).build();
+    }
 }
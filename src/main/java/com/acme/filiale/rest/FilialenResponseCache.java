@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.service.FilialeChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.VARY;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+/**
+ * Cache mit den serialisierten Bytes der Filialen für GET mit der ID. Bei einem Treffer werden die Bytes direkt in
+ * den `OutputStream` des Response geschrieben, d.h. ohne Jackson und ohne die Komprimierung durch den
+ * Servlet-Container. Ist `server.compression` aktiviert und der Body mindestens `min-response-size` groß, wird
+ * zusätzlich eine mit gzip komprimierte Variante gespeichert und mit `Content-Encoding: gzip` geliefert.
+ *
+ * <p>Ein Eintrag gehört zur Version der Filiale und zur Basis-URI der Links. Ein Eintrag mit einer anderen Version
+ * wird deshalb nie geliefert; nach einer Änderung wird er zusätzlich durch ein {@link FilialeChangedEvent} entfernt.
+ * Die Größe des Cache ist durch die Anzahl der Bytes begrenzt und es werden die am längsten nicht gelesenen Filialen
+ * verdrängt, so dass die häufig gelesenen Filialen im Cache bleiben.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Component
+@Slf4j
+final class FilialenResponseCache {
+    // geschaetzter Speicherbedarf eines Eintrags ohne die Bytes: Eintrag in der Map, UUID, Record und Array-Header
+    private static final int OVERHEAD = 160;
+
+    private static final int PUFFER = 1024;
+
+    private static final String GZIP = "gzip";
+
+    private final long maximaleGroesse;
+
+    private final boolean komprimieren;
+
+    private final long minKomprimiert;
+
+    private final ObjectProvider<RequestMappingHandlerAdapter> adapter;
+
+    private volatile HttpMessageConverter<Object> converter;
+
+    private final Lock sperre = new ReentrantLock();
+
+    // access-order, d.h. das erste Element ist das am laengsten nicht gelesene
+    private final LinkedHashMap<UUID, Body> eintraege = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long groesse;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    FilialenResponseCache(
+        final RestProps props,
+        final ServerProperties server,
+        final ObjectProvider<RequestMappingHandlerAdapter> adapter
+    ) {
+        this(props.responseCache().maximumSize().toBytes(), server, adapter, Metrics.globalRegistry);
+    }
+
+    FilialenResponseCache(
+        final long maximaleGroesse,
+        final ServerProperties server,
+        final ObjectProvider<RequestMappingHandlerAdapter> adapter,
+        final MeterRegistry registry
+    ) {
+        this.maximaleGroesse = maximaleGroesse;
+        final var compression = server.getCompression();
+        komprimieren = compression.getEnabled() && (compression.getMimeTypes() == null ||
+            Arrays.asList(compression.getMimeTypes()).contains(APPLICATION_JSON_VALUE));
+        minKomprimiert = compression.getMinResponseSize().toBytes();
+        this.adapter = adapter;
+
+        hits = Counter.builder("filiale.rest.cache.gets")
+            .tag("result", "hit")
+            .description("Anzahl der GET mit der ID, deren Bytes im Cache waren")
+            .register(registry);
+        misses = Counter.builder("filiale.rest.cache.gets")
+            .tag("result", "miss")
+            .description("Anzahl der GET mit der ID, die serialisiert werden mussten")
+            .register(registry);
+        evictions = Counter.builder("filiale.rest.cache.evictions")
+            .description("Anzahl der Filialen, die wegen der maximalen Groesse nicht mehr im Cache sind")
+            .register(registry);
+        Gauge.builder("filiale.rest.cache.size", this, FilialenResponseCache::size)
+            .description("Geschaetzte Groesse aller Eintraege im Cache")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    /**
+     * Die serialisierte Filiale aus dem Cache lesen oder das Model serialisieren und speichern.
+     *
+     * @param id Die ID der Filiale
+     * @param version Die Version der Filiale
+     * @param baseUri Die Basis-URI für die Links im Model
+     * @param model Das Model, falls die Filiale nicht im Cache ist
+     * @return Die serialisierte Filiale
+     */
+    Body get(final UUID id, final long version, final String baseUri, final Supplier<FilialenModel> model) {
+        sperre.lock();
+        try {
+            final var body = eintraege.get(id);
+            if (body != null && body.version() == version && body.baseUri().equals(baseUri)) {
+                hits.increment();
+                return body;
+            }
+        } finally {
+            sperre.unlock();
+        }
+
+        misses.increment();
+        final var body = serialisieren(version, baseUri, model.get());
+        if (body.groesse() <= maximaleGroesse) {
+            speichern(id, body);
+        }
+        return body;
+    }
+
+    /**
+     * Die serialisierte Filiale in den Response schreiben, und zwar komprimiert, falls der Client gzip akzeptiert.
+     *
+     * @param body Die serialisierte Filiale
+     * @param request Der Request mit dem Header `Accept-Encoding`
+     * @param response Der Response
+     * @throws IOException Falls der Response nicht geschrieben werden kann
+     */
+    void write(final Body body, final HttpServletRequest request, final HttpServletResponse response)
+        throws IOException {
+        response.setContentType(APPLICATION_JSON_VALUE);
+        final byte[] bytes;
+        if (body.gzip() == null) {
+            bytes = body.json();
+        } else {
+            response.addHeader(VARY, ACCEPT_ENCODING);
+            if (akzeptiertGzip(request)) {
+                response.setHeader(CONTENT_ENCODING, GZIP);
+                bytes = body.gzip();
+            } else {
+                bytes = body.json();
+            }
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    /**
+     * Eine geänderte oder gelöschte Filiale aus dem Cache entfernen.
+     *
+     * @param event Das Event mit der ID der Filiale
+     */
+    @EventListener
+    void invalidate(final FilialeChangedEvent event) {
+        sperre.lock();
+        try {
+            final var body = eintraege.remove(event.id());
+            if (body != null) {
+                groesse -= body.groesse();
+                log.trace("invalidate: id={}", event.id());
+            }
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    /**
+     * Die geschätzte Größe aller Einträge im Cache.
+     *
+     * @return Die Größe in Bytes
+     */
+    long size() {
+        sperre.lock();
+        try {
+            return groesse;
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    private void speichern(final UUID id, final Body body) {
+        sperre.lock();
+        try {
+            final var alt = eintraege.get(id);
+            if (alt != null && alt.version() > body.version()) {
+                // ein paralleler Request hat bereits eine neuere Version gespeichert
+                return;
+            }
+            eintraege.put(id, body);
+            groesse += body.groesse() - (alt == null ? 0 : alt.groesse());
+            final var iterator = eintraege.values().iterator();
+            while (groesse > maximaleGroesse) {
+                groesse -= iterator.next().groesse();
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            sperre.unlock();
+        }
+    }
+
+    private Body serialisieren(final long version, final String baseUri, final FilialenModel model) {
+        final var out = new ByteArrayOutputStream(PUFFER);
+        try {
+            converter().write(model, APPLICATION_JSON, new HttpOutputMessage() {
+                private final HttpHeaders headers = new HttpHeaders();
+
+                @Override
+                public OutputStream getBody() {
+                    return out;
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return headers;
+                }
+            });
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final var json = out.toByteArray();
+        return new Body(version, baseUri, json, komprimieren && json.length >= minKomprimiert ? gzip(json) : null);
+    }
+
+    // derselbe Converter wie fuer einen Rueckgabewert vom Typ FilialenModel, d.h. mit den Links gemaess HAL
+    @SuppressWarnings("unchecked")
+    private HttpMessageConverter<Object> converter() {
+        var result = converter;
+        if (result == null) {
+            result = (HttpMessageConverter<Object>) adapter.getObject()
+                .getMessageConverters()
+                .stream()
+                .filter(messageConverter -> messageConverter.canWrite(FilialenModel.class, APPLICATION_JSON))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Kein HttpMessageConverter fuer FilialenModel"));
+            converter = result;
+        }
+        return result;
+    }
+
+    private static byte[] gzip(final byte[] json) {
+        final var out = new ByteArrayOutputStream(json.length / 2);
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    // z.B. "gzip, deflate, br" oder "gzip;q=0.8, identity"
+    private static boolean akzeptiertGzip(final HttpServletRequest request) {
+        for (final var header : Collections.list(request.getHeaders(ACCEPT_ENCODING))) {
+            for (final var encoding : header.split(",")) {
+                final var teile = encoding.split(";");
+                if (GZIP.equals(teile[0].strip().toLowerCase(Locale.ROOT)) && !abgelehnt(teile)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // gzip;q=0 lehnt gzip ab
+    private static boolean abgelehnt(final String[] teile) {
+        for (int i = 1; i < teile.length; i++) {
+            final var parameter = teile[i].strip();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) == 0;
+                } catch (final NumberFormatException ex) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Eine serialisierte Filiale.
+     *
+     * @param version Die Version der Filiale
+     * @param baseUri Die Basis-URI der Links
+     * @param json Die Bytes des JSON-Datensatzes
+     * @param gzip Die mit gzip komprimierten Bytes oder null
+     */
+    record Body(long version, String baseUri, byte[] json, byte[] gzip) {
+        long groesse() {
+            return OVERHEAD + 2L * baseUri.length() + json.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+}
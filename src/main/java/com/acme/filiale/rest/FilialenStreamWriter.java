@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.entity.Filiale;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Filialen aus einem lazy Stream mit einem `JsonGenerator` direkt in den Response schreiben, und zwar als JSON-Array
+ * oder als Newline Delimited JSON (NDJSON). Gepuffert werden nur die Bytes im `JsonGenerator` und im
+ * Servlet-Container, die jeweils bei vollem Puffer geschrieben werden. Der Speicherbedarf pro Request hängt deshalb
+ * nicht von der Anzahl der Filialen ab und das erste Byte wird gesendet, bevor die letzte Filiale gelesen ist.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Component
+@Slf4j
+final class FilialenStreamWriter {
+    private final JsonFactory factory;
+
+    // ohne flush() nach jeder Filiale, damit nicht jede Filiale einzeln an den Client gesendet wird
+    private final ObjectWriter writer;
+
+    FilialenStreamWriter(final ObjectMapper mapper) {
+        factory = mapper.getFactory();
+        writer = mapper.writerFor(Filiale.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Die Filialen als JSON-Array schreiben.
+     *
+     * @param filialen Die Filialen als Stream, der nach dem Schreiben geschlossen wird
+     * @return Der Body für den Response
+     */
+    StreamingResponseBody jsonArray(final Stream<Filiale> filialen) {
+        return out -> schreiben(filialen, out, true);
+    }
+
+    /**
+     * Die Filialen als NDJSON schreiben, d.h. jede Filiale als JSON-Objekt in einer eigenen Zeile.
+     *
+     * @param filialen Die Filialen als Stream, der nach dem Schreiben geschlossen wird
+     * @return Der Body für den Response
+     */
+    StreamingResponseBody ndjson(final Stream<Filiale> filialen) {
+        return out -> schreiben(filialen, out, false);
+    }
+
+    private void schreiben(final Stream<Filiale> filialen, final OutputStream out, final boolean array)
+        throws IOException {
+        try (filialen; var generator = factory.createGenerator(out)) {
+            // der Servlet-Container schliesst den OutputStream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (array) {
+                generator.writeStartArray();
+            } else {
+                // kein Leerzeichen als Trennzeichen vor dem naechsten JSON-Objekt
+                generator.setRootValueSeparator(null);
+            }
+            var anzahl = 0L;
+            final var iterator = filialen.iterator();
+            while (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+                if (!array) {
+                    generator.writeRaw('\n');
+                }
+                anzahl++;
+            }
+            if (array) {
+                generator.writeEndArray();
+            }
+            log.debug("schreiben: #filialen={}", anzahl);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.stereotype.Component;
+
+/**
+ * Vorlagen für die HATEOAS-Links einer Filiale. Die Basis-URI hängt nur vom Forwarding-Kontext ab, d.h. vom Envoy-Proxy
+ * mit `x-envoy-original-path`, von einem Ingress Controller bzw. Spring Cloud Gateway mit `x-forwarded-*` oder vom
+ * direkten Aufruf. Sie wird deshalb einmal pro Kontext ermittelt und zusammen mit den Links `list` und `add`
+ * gespeichert. Pro Request werden nur noch die URI mit der ID und die 3 Links zu dieser URI erzeugt.
+ *
+ * <p>Der zuletzt verwendete Kontext wird ohne Allokation mit den Headern des Requests verglichen. Da die Header vom
+ * Client stammen können, ist die Anzahl der gespeicherten Vorlagen begrenzt.</p>
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ */
+@Component
+@Slf4j
+final class LinkTemplates {
+    /**
+     * Relation für den Link zur Suche nach allen Filialen.
+     */
+    static final LinkRelation LIST = LinkRelation.of("list");
+
+    /**
+     * Relation für den Link zum Neuanlegen einer Filiale.
+     */
+    static final LinkRelation ADD = LinkRelation.of("add");
+
+    /**
+     * Relation für den Link zum Ändern einer Filiale.
+     */
+    static final LinkRelation UPDATE = LinkRelation.of("update");
+
+    /**
+     * Relation für den Link zum Löschen einer Filiale.
+     */
+    static final LinkRelation REMOVE = LinkRelation.of("remove");
+
+    /**
+     * Maximale Anzahl der gespeicherten Vorlagen.
+     */
+    static final int MAX_VORLAGEN = 64;
+
+    private static final String X_ENVOY_ORIGINAL_PATH = "x-envoy-original-path";
+
+    private static final String X_FORWARDED_HOST = "x-forwarded-host";
+
+    private static final String X_FORWARDED_PROTO = "x-forwarded-proto";
+
+    private static final String X_FORWARDED_PREFIX = "x-forwarded-prefix";
+
+    private static final String HOST = "Host";
+
+    private static final int HTTP_PORT = 80;
+
+    private static final int HTTPS_PORT = 443;
+
+    // ohne Port in der URI
+    private static final int KEIN_PORT = -1;
+
+    private final ConcurrentMap<Kontext, Vorlage> vorlagen = new ConcurrentHashMap<>();
+
+    private volatile Vorlage zuletzt;
+
+    /**
+     * Die Vorlage zum Forwarding-Kontext eines Requests ermitteln.
+     *
+     * @param request Servlet-Request
+     * @return Die Vorlage mit der Basis-URI ohne ID und ohne Query-Parameter
+     */
+    Vorlage vorlage(final HttpServletRequest request) {
+        final var envoyOriginalPath = request.getHeader(X_ENVOY_ORIGINAL_PATH);
+        if (envoyOriginalPath != null) {
+            // Forwarding durch Envoy-Proxy, z.B. bei Istio
+            return envoy(request, envoyOriginalPath);
+        }
+
+        final var forwardedHost = request.getHeader(X_FORWARDED_HOST);
+        if (forwardedHost != null) {
+            // Forwarding durch Ingress Controller oder Spring Cloud Gateway
+            final var forwardedPrefix = request.getHeader(X_FORWARDED_PREFIX);
+            final var prefix = forwardedPrefix == null ? "" : forwardedPrefix;
+            return vorlage(header(request, X_FORWARDED_PROTO), forwardedHost, KEIN_PORT, prefix, prefix.length());
+        }
+
+        // KEIN Forwarding von einem API-Gateway
+        final var scheme = request.getScheme();
+        final var port = request.getServerPort();
+        final var standardPort = port == HTTP_PORT && "http".equals(scheme) ||
+            port == HTTPS_PORT && "https".equals(scheme);
+        final var contextPath = request.getContextPath();
+        return vorlage(
+            scheme,
+            request.getServerName(),
+            standardPort ? KEIN_PORT : port,
+            contextPath,
+            contextPath.length()
+        );
+    }
+
+    private Vorlage envoy(final HttpServletRequest request, final String originalPath) {
+        // host: "localhost"
+        // x-forwarded-proto: "http"
+        // x-envoy-original-path: "/filialen/api/00000000-0000-0000-0000-000000000001"
+        final var host = header(request, HOST);
+        final var proto = header(request, X_FORWARDED_PROTO);
+
+        // Originalpfad ohne Query-Parameter und ohne abschliessendes "/"
+        final var indexQuestionMark = originalPath.indexOf('?');
+        var ende = indexQuestionMark == -1 ? originalPath.length() : indexQuestionMark;
+        if (ende > 0 && originalPath.charAt(ende - 1) == '/') {
+            ende--;
+        }
+
+        // den Pfad innerhalb der Anwendung, z.B. "/00000000-0000-0000-0000-000000000001", entfernen
+        final var requestUri = request.getRequestURI();
+        final var start = request.getContextPath().length();
+        var requestUriEnde = requestUri.length();
+        if (requestUriEnde > start && requestUri.charAt(requestUriEnde - 1) == '/') {
+            requestUriEnde--;
+        }
+        final var laenge = requestUriEnde - start;
+        if (laenge > 0 && laenge <= ende && originalPath.regionMatches(ende - laenge, requestUri, start, laenge)) {
+            ende -= laenge;
+        }
+        return vorlage(proto, host, KEIN_PORT, originalPath, ende);
+    }
+
+    private static String header(final HttpServletRequest request, final String name) {
+        final var wert = request.getHeader(name);
+        if (wert == null) {
+            throw new IllegalStateException("Kein \"" + name + "\" im Header");
+        }
+        return wert;
+    }
+
+    // der Pfad der Basis-URI sind die ersten Zeichen von pfad, damit der Vergleich ohne substring() auskommt
+    private Vorlage vorlage(
+        final String proto,
+        final String host,
+        final int port,
+        final String pfad,
+        final int pfadLaenge
+    ) {
+        final var letzte = zuletzt;
+        if (letzte != null && letzte.kontext.passt(proto, host, port, pfad, pfadLaenge)) {
+            return letzte;
+        }
+
+        final var kontext = new Kontext(proto, host, port, pfad.substring(0, pfadLaenge));
+        var vorlage = vorlagen.get(kontext);
+        if (vorlage == null) {
+            vorlage = new Vorlage(kontext);
+            if (vorlagen.size() < MAX_VORLAGEN) {
+                final var vorhanden = vorlagen.putIfAbsent(kontext, vorlage);
+                if (vorhanden != null) {
+                    vorlage = vorhanden;
+                }
+                log.debug("vorlage: baseUri={}", vorlage.baseUri);
+            }
+        }
+        zuletzt = vorlage;
+        return vorlage;
+    }
+
+    /**
+     * Forwarding-Kontext als Schlüssel für die Vorlagen.
+     *
+     * @param proto Das Protokoll, z.B. `https`
+     * @param host Der Rechnername
+     * @param port Der Port oder -1 ohne Port in der URI
+     * @param pfad Der Pfad der Basis-URI, z.B. das Präfix des API-Gateway
+     */
+    private record Kontext(String proto, String host, int port, String pfad) {
+        boolean passt(final String proto, final String host, final int port, final String pfad, final int laenge) {
+            return this.port == port && this.pfad.length() == laenge && this.proto.equals(proto) &&
+                this.host.equals(host) && this.pfad.regionMatches(0, pfad, 0, laenge);
+        }
+
+        String baseUri() {
+            return port == KEIN_PORT ? proto + "://" + host + pfad : proto + "://" + host + ':' + port + pfad;
+        }
+    }
+
+    /**
+     * Basis-URI und vorberechnete Links zu einem Forwarding-Kontext.
+     */
+    static final class Vorlage {
+        private final Kontext kontext;
+
+        private final String baseUri;
+
+        private final String idPrefix;
+
+        private final Link listLink;
+
+        private final Link addLink;
+
+        private Vorlage(final Kontext kontext) {
+            this.kontext = kontext;
+            baseUri = kontext.baseUri();
+            idPrefix = baseUri + '/';
+            listLink = Link.of(baseUri, LIST);
+            addLink = Link.of(baseUri, ADD);
+        }
+
+        /**
+         * Die Basis-URI ohne ID und ohne Query-Parameter.
+         *
+         * @return Die Basis-URI, die für denselben Kontext immer dasselbe Objekt ist
+         */
+        String baseUri() {
+            return baseUri;
+        }
+
+        /**
+         * Den Link `self` zu einer Filiale erstellen.
+         *
+         * @param id Die ID der Filiale
+         * @return Der Link mit der Basis-URI und der ID
+         */
+        Link self(final UUID id) {
+            return Link.of(idPrefix + id);
+        }
+
+        /**
+         * Die Links `self`, `list`, `add`, `update` und `remove` zu einer Filiale hinzufügen.
+         *
+         * @param model Das Model der Filiale
+         * @param id Die ID der Filiale
+         */
+        void addLinks(final RepresentationModel<?> model, final UUID id) {
+            final var selfLink = self(id);
+            model.add(selfLink);
+            model.add(listLink);
+            model.add(addLink);
+            model.add(selfLink.withRel(UPDATE));
+            model.add(selfLink.withRel(REMOVE));
+        }
+    }
+}
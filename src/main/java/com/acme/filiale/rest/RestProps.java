@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Konfiguration für die REST-Schnittstelle mit den Properties `app.rest.*` aus `application.yml`.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param ifMatchRequired Ob PUT den Header `If-Match` erfordert. Ohne den Header wird dann der Statuscode 428
+ *      geliefert, so dass kein Client eine zwischenzeitliche Änderung versehentlich überschreibt.
+ * @param responseCache Konfiguration für den Cache mit den serialisierten Filialen mit `app.rest.response-cache.*`
+ */
+@ConfigurationProperties(prefix = "app.rest")
+public record RestProps(
+    @DefaultValue("false") boolean ifMatchRequired,
+    @DefaultValue ResponseCache responseCache
+) {
+    /**
+     * Konfiguration für den Cache mit den serialisierten und ggf. komprimierten Filialen bei GET mit der ID.
+     *
+     * @param maximumSize Maximale Größe aller Bytes im Cache; bei 0 gibt es keinen Cache
+     */
+    public record ResponseCache(@DefaultValue("16MB") DataSize maximumSize) {
+        /**
+         * Konstruktor mit Validierung.
+         *
+         * @param maximumSize Maximale Größe aller Bytes im Cache oder 0
+         */
+        public ResponseCache {
+            if (maximumSize.isNegative()) {
+                throw new IllegalArgumentException(
+                    "app.rest.response-cache.maximum-size darf nicht negativ sein: " + maximumSize
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.service;
+
+import java.util.UUID;
+
+/**
+ * Event nach einer gespeicherten Änderung einer Filiale, z.B. um Caches der REST-Schnittstelle zu invalidieren. Das
+ * Event wird synchron veröffentlicht, d.h. vor dem Response des ändernden Requests.
+ *
+ * @author <a href="mailto:Juergen.Zimmermann@h-ka.de">Jürgen Zimmermann</a>
+ *
+ * @param id Die ID der neu angelegten, geänderten oder gelöschten Filiale
+ */
+public record FilialeChangedEvent(UUID id) {
+}
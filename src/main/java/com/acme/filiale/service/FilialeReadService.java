@@ -2,15 +2,21 @@ package com.acme.filiale.service;
 
 import com.acme.filiale.entity.Filiale;
 import com.acme.filiale.repository.FilialenRepository;
+import com.acme.filiale.repository.Page;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.QueryPlan;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * FialialeReadService liest Filialen.
@@ -21,6 +27,8 @@ import java.util.UUID;
 public final class FilialeReadService {
     private final FilialenRepository repo;
 
+    private final QueryCache cache;
+
     /**
      * Eine Filiale anhand seiner ID suchen.
      *
@@ -37,13 +45,12 @@ public final class FilialeReadService {
     }
 
     /**
-     * Filiale anhand von Suchkriterien als Collection suchen.
+     * Filiale anhand von Suchkriterien als Collection suchen. Alle Suchkriterien müssen erfüllt sein.
      *
      * @param suchkriterien Die Suchkriterien
      * @return Die gefundenen Filiale oder eine leere Liste
      * @throws NotFoundException Falls keine Filiale gefunden wurden
      */
-    @SuppressWarnings({"ReturnCount", "NestedIfDepth"})
     public Collection<Filiale> find(final Map<String, String> suchkriterien) {
         log.debug("find: suchkriterien={}", suchkriterien);
 
@@ -51,29 +58,6 @@ public final class FilialeReadService {
             return repo.findAll();
         }
 
-        if (suchkriterien.size() == 1) {
-            final var name = suchkriterien.get("name");
-            if (name != null) {
-                final var filiale = repo.findByName(name);
-                if (filiale.isEmpty()) {
-                    throw new NotFoundException(suchkriterien);
-                }
-                log.debug("find (name): {}", filiale);
-                return filiale;
-            }
-
-            final var email = suchkriterien.get("email");
-            if (email != null) {
-                final var kunde = repo.findByEmail(email);
-                if (kunde.isEmpty()) {
-                    throw new NotFoundException(suchkriterien);
-                }
-                final var filialen = List.of(kunde.get());
-                log.debug("find (email): {}", filialen);
-                return filialen;
-            }
-        }
-
         final var filialen = repo.find(suchkriterien);
         if (filialen.isEmpty()) {
             throw new NotFoundException(suchkriterien);
@@ -83,14 +67,85 @@ public final class FilialeReadService {
     }
 
     /**
-     * Abfrage, welche Namen es zu einem Präfix gibt.
+     * Eine Seite der Filialen zu Suchkriterien mit Keyset Pagination suchen, aufsteigend sortiert nach der ID. Die
+     * Seite kommt ggf. aus dem {@link QueryCache} und ihre Filialen dürfen deshalb nicht verändert werden.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @param after Die ID der letzten Filiale der vorherigen Seite oder null für die erste Seite
+     * @param limit Die maximale Anzahl an Filialen der Seite
+     * @return Die Seite mit den gefundenen Filialen und dem Cursor für die nächste Seite
+     * @throws NotFoundException Falls es zu den Suchkriterien keine Filialen gibt
+     */
+    public Page find(final Map<String, String> suchkriterien, final UUID after, final int limit) {
+        log.debug("find: suchkriterien={}, after={}, limit={}", suchkriterien, after, limit);
+        // auch eine leere Seite wird gespeichert, damit wiederholte erfolglose Suchen das Repository nicht belasten
+        final var page = cache.page(suchkriterien, after, limit, () -> repo.find(suchkriterien, after, limit));
+        if (page.filialen().isEmpty() && after == null && !suchkriterien.isEmpty()) {
+            throw new NotFoundException(suchkriterien);
+        }
+        log.debug("find: #filialen={}, next={}", page.filialen().size(), page.next());
+        return page;
+    }
+
+    /**
+     * Filialen anhand von Suchkriterien als lazy Stream suchen, z.B. um sie ohne Zwischenspeicherung in einen
+     * Response zu schreiben. Bei Suchkriterien wird nur der erste Treffer vorab gelesen, damit eine erfolglose Suche
+     * weiterhin eine NotFoundException auslöst.
+     *
+     * @param suchkriterien Die Suchkriterien oder eine leere Map für alle Filialen
+     * @return Die gefundenen Filialen als Stream, der nach dem Lesen geschlossen werden muss
+     * @throws NotFoundException Falls es zu den Suchkriterien keine Filialen gibt
+     */
+    public Stream<Filiale> stream(final Map<String, String> suchkriterien) {
+        log.debug("stream: suchkriterien={}", suchkriterien);
+        final var filialen = repo.stream(suchkriterien);
+        if (suchkriterien.isEmpty()) {
+            return filialen;
+        }
+
+        final var iterator = filialen.iterator();
+        if (!iterator.hasNext()) {
+            filialen.close();
+            throw new NotFoundException(suchkriterien);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(filialen::close);
+    }
+
+    /**
+     * Den Ausführungsplan für eine Suche mit Suchkriterien ermitteln, z.B. um langsame Suchen zu analysieren.
+     *
+     * @param suchkriterien Die Suchkriterien
+     * @return Der Ausführungsplan mit den geschätzten Kosten
+     */
+    public QueryPlan explain(final Map<String, String> suchkriterien) {
+        log.debug("explain: suchkriterien={}", suchkriterien);
+        return repo.explain(suchkriterien);
+    }
+
+    /**
+     * Die globale Version aller Filialen ermitteln, die sich bei jeder Änderung erhöht. Wird die Version vor einer
+     * Suche ermittelt, enthält das Ergebnis mindestens alle Änderungen bis zu dieser Version.
+     *
+     * @return Die globale Version
+     */
+    public long version() {
+        final var version = repo.version();
+        log.debug("version: {}", version);
+        return version;
+    }
+
+    /**
+     * Abfrage, welche Namen es zu einem Präfix gibt, absteigend sortiert nach der Anzahl der Filialen.
      *
      * @param prefix Namen-Präfix.
+     * @param limit Maximale Anzahl der Namen.
      * @return Die passenden Name.
      * @throws NotFoundException Falls kein Name gefunden wurden.
      */
-    public Collection<String> findNameByPrefix(final String prefix) {
-        final var name = repo.findNamenByPrefix(prefix);
+    public Collection<String> findNameByPrefix(final String prefix, final int limit) {
+        log.debug("findNameByPrefix: prefix={}, limit={}", prefix, limit);
+        final var name = cache.namen(prefix, limit, () -> repo.findNamenByPrefix(prefix, limit));
         if (name.isEmpty()) {
             throw new NotFoundException();
         }
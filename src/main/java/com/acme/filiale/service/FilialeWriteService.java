@@ -18,14 +18,18 @@ package com.acme.filiale.service;
 
 import com.acme.filiale.entity.Filiale;
 import com.acme.filiale.repository.FilialenRepository;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.StringPool;
+import com.acme.filiale.repository.WriteResult;
 import jakarta.validation.Valid;
 import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
-import java.util.Objects;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
 
 /**
  * Anwendungslogik für filialen auch mit Bean Validation.
@@ -39,6 +43,12 @@ import java.util.UUID;
 public final class FilialeWriteService {
     private final FilialenRepository repo;
 
+    private final StringPool stringPool;
+
+    private final QueryCache cache;
+
+    private final ApplicationEventPublisher events;
+
     private final Validator validator;
 
     /**
@@ -58,11 +68,14 @@ public final class FilialeWriteService {
             throw new ConstraintViolationsException(violations);
         }
 
-        if (repo.isEmailExisting(filiale.getEmail())) {
+        // gleiche Namen und Orte sollen im Repository gemeinsam genutzt werden
+        stringPool.canonicalize(filiale);
+        // Pruefung der Emailadresse und Neuanlegen als atomare Operation im Repository
+        final var result = compute(null, alt -> filiale);
+        if (result.status() == WriteResult.Status.EMAIL_EXISTS) {
             throw new EmailExistsException(filiale.getEmail());
         }
-
-        final var filialeDb = repo.create(filiale);
+        final var filialeDb = result.filiale();
         log.debug("create: {}", filialeDb);
         return filialeDb;
     }
@@ -72,35 +85,75 @@ public final class FilialeWriteService {
      *
      * @param filiale Das Objekt mit den neuen Daten (ohne ID)
      * @param id ID des zu aktualisierenden Filiale
+     * @return Die aktualisierte Filiale mit der neuen Version
      * @throws ConstraintViolationsException Falls mindestens ein Constraint verletzt ist.
      * @throws NotFoundException Keine Filiale zur ID vorhanden.
      * @throws EmailExistsException Es gibt bereits eine Filiale mit der Emailadresse.
      */
-    public void update(final Filiale filiale, final UUID id) {
+    public Filiale update(final Filiale filiale, final UUID id) {
         log.debug("update: {}", filiale);
         log.debug("update: id={}", id);
+        pruefen(filiale, id);
+        // Existenz, Emailadresse bei einer *ANDEREN* Filiale und Ersetzen in einem kritischen Abschnitt
+        return ergebnis(compute(id, alt -> alt == null ? null : filiale), filiale, id, 0);
+    }
+
+    /**
+     * Einen vorhandenen Filiale mit optimistischer Synchronisation aktualisieren, d.h. nur falls die Filiale noch die
+     * Version hat, die der Client z.B. per `If-Match` mitschickt.
+     *
+     * @param filiale Das Objekt mit den neuen Daten (ohne ID)
+     * @param id ID des zu aktualisierenden Filiale
+     * @param version Die erwartete Version der vorhandenen Filiale
+     * @return Die aktualisierte Filiale mit der neuen Version
+     * @throws ConstraintViolationsException Falls mindestens ein Constraint verletzt ist.
+     * @throws NotFoundException Keine Filiale zur ID vorhanden.
+     * @throws VersionOutdatedException Die Filiale wurde zwischenzeitlich geändert.
+     * @throws EmailExistsException Es gibt bereits eine Filiale mit der Emailadresse.
+     */
+    public Filiale update(final Filiale filiale, final UUID id, final long version) {
+        log.debug("update: {}", filiale);
+        log.debug("update: id={}, version={}", id, version);
+        pruefen(filiale, id);
+        // Vergleich der Version und Ersetzen in demselben kritischen Abschnitt
+        final WriteResult result;
+        try (var invalidation = cache.invalidation()) {
+            result = repo.compute(id, version, invalidation.wrap(alt -> alt == null ? null : filiale));
+        }
+        geaendert(id, result);
+        return ergebnis(result, filiale, id, version);
+    }
 
+    private void pruefen(final Filiale filiale, final UUID id) {
         final var violations = validator.validate(filiale);
         if (!violations.isEmpty()) {
             log.debug("update: violations={}", violations);
             throw new ConstraintViolationsException(violations);
         }
 
-        final var kundeDbOptional = repo.findById(id);
-        if (kundeDbOptional.isEmpty()) {
-            throw new NotFoundException(id);
-        }
+        filiale.setId(id);
+        stringPool.canonicalize(filiale);
+    }
 
-        final var email = filiale.getEmail();
-        final var kundeDb = kundeDbOptional.get();
-        // Ist die neue Email bei einer *ANDEREN* Filiale  vorhanden?
-        if (!Objects.equals(email, kundeDb.getEmail()) && repo.isEmailExisting(email)) {
-            log.debug("update: email {} existiert", email);
-            throw new EmailExistsException(email);
+    private static Filiale ergebnis(
+        final WriteResult result,
+        final Filiale filiale,
+        final UUID id,
+        final long version
+    ) {
+        switch (result.status()) {
+            case NOT_FOUND -> throw new NotFoundException(id);
+            case EMAIL_EXISTS -> {
+                log.debug("update: email {} existiert", filiale.getEmail());
+                throw new EmailExistsException(filiale.getEmail());
+            }
+            case VERSION_MISMATCH -> {
+                log.debug("update: version {} veraltet", version);
+                throw new VersionOutdatedException(version);
+            }
+            default -> log.debug("update: {}", result.filiale());
         }
-
-        filiale.setId(id);
-        repo.update(filiale);
+        return result.filiale();
     }
 
     /**
@@ -110,6 +163,27 @@ public final class FilialeWriteService {
      */
     public void deleteById(final UUID id) {
         log.debug("deleteById: id={}", id);
-        repo.deleteById(id);
+        final var result = compute(id, alt -> null);
+        log.debug("deleteById: {}", result.status());
+    }
+
+    // die betroffenen Suchergebnisse werden im kritischen Abschnitt des Repository aus dem Cache entfernt
+    private WriteResult compute(final UUID id, final UnaryOperator<Filiale> aenderung) {
+        final WriteResult result;
+        try (var invalidation = cache.invalidation()) {
+            result = repo.compute(id, invalidation.wrap(aenderung));
+        }
+        geaendert(id, result);
+        return result;
+    }
+
+    // z.B. fuer den Cache mit den serialisierten Responses der REST-Schnittstelle
+    private void geaendert(final UUID id, final WriteResult result) {
+        if (result.status() != WriteResult.Status.OK) {
+            return;
+        }
+        // beim Loeschen ist keine Filiale im Ergebnis
+        final var filiale = result.filiale();
+        events.publishEvent(new FilialeChangedEvent(filiale == null ? id : filiale.getId()));
     }
 }
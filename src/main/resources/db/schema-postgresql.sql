@@ -0,0 +1,54 @@
+-- Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with this program.  If not, see <https://www.gnu.org/licenses/>.
+
+-- Tabelle fuer das Spring-Profile "jdbc", siehe JdbcFilialenRepository
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE TABLE IF NOT EXISTS filiale (
+    id                 UUID PRIMARY KEY,
+    name               VARCHAR(255) NOT NULL,
+    email              VARCHAR(255) NOT NULL,
+    -- Emailadresse in Kleinbuchstaben: eindeutig und fuer die Suche ohne Gross-/Kleinschreibung
+    email_normalisiert VARCHAR(255) NOT NULL UNIQUE,
+    homepage           VARCHAR(2048),
+    umsatz_betrag      NUMERIC,
+    umsatz_waehrung    CHAR(3),
+    plz                VARCHAR(32),
+    ort                VARCHAR(255),
+    -- Millisekunden seit 1970 bei der letzten Aenderung, siehe VersionClock
+    version            BIGINT NOT NULL DEFAULT 0
+);
+
+-- Tabellen, die vor der Spalte version angelegt wurden
+ALTER TABLE filiale ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- Teilstring im Namen mit LIKE '%...%'
+CREATE INDEX IF NOT EXISTS filiale_name_trgm_idx ON filiale USING gin (name gin_trgm_ops);
+-- Praefix des Namens mit LIKE '...%' unabhaengig von der Collation
+CREATE INDEX IF NOT EXISTS filiale_name_idx ON filiale (name text_pattern_ops);
+-- Praefix der Postleitzahl mit LIKE '...%'
+CREATE INDEX IF NOT EXISTS filiale_plz_idx ON filiale (plz text_pattern_ops);
+
+-- globale Version fuer den ETag einer Suche in genau einer Zeile, die mit jeder Aenderung in derselben Transaktion
+-- erhoeht wird, damit auch die Aenderungen und DELETE-Anweisungen anderer Instanzen enthalten sind
+CREATE TABLE IF NOT EXISTS filiale_version (
+    id      SMALLINT PRIMARY KEY CHECK (id = 1),
+    version BIGINT NOT NULL
+);
+INSERT INTO filiale_version (id, version) SELECT 1, COALESCE(MAX(version), 0) FROM filiale ON CONFLICT DO NOTHING;
+
+-- bisher fuer MAX(version), jetzt nicht mehr benoetigt
+DROP INDEX IF EXISTS filiale_version_idx;
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("entity")
+@DisplayName("Geldbetrag als Festkommazahl testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class GeldbetragTest {
+    @ParameterizedTest(name = "[{index}] Konvertierung: betrag={0}, waehrung={1}")
+    @CsvSource({"10, EUR, 1000", "-12.34, EUR, -1234", "0.5, CHF, 50", "1234, JPY, 1234", "1.234, TND, 1234"})
+    @DisplayName("Konvertierung von und in einen Umsatz")
+    void konvertierung(final String betrag, final String waehrung, final long minorUnits) {
+        // given
+        final var umsatz = Umsatz.builder().betrag(new BigDecimal(betrag)).waehrung(Waehrungen.of(waehrung)).build();
+
+        // when
+        final var geldbetrag = Geldbetrag.of(umsatz);
+        final var umsatzNeu = geldbetrag.toUmsatz();
+
+        // then
+        assertThat(geldbetrag.minorUnits()).isEqualTo(minorUnits);
+        assertThat(umsatzNeu.getBetrag()).isEqualByComparingTo(betrag);
+        assertThat(umsatzNeu.getWaehrung()).isSameAs(umsatz.getWaehrung());
+    }
+
+    @Test
+    @DisplayName("Zu viele Nachkommastellen")
+    void zuVieleNachkommastellen() {
+        // when / then
+        assertThatThrownBy(() -> Geldbetrag.of(new BigDecimal("1.001"), Waehrungen.of("EUR")))
+            .isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    @DisplayName("Summe und Vergleich")
+    void plusUndVergleich() {
+        // given
+        final var euro = Waehrungen.of("EUR");
+        final var a = Geldbetrag.of(new BigDecimal("10.50"), euro);
+        final var b = Geldbetrag.of(new BigDecimal("0.75"), euro);
+
+        // when
+        final var summe = a.plus(b);
+
+        // then
+        assertThat(summe.betrag()).isEqualByComparingTo("11.25");
+        assertThat(a).isGreaterThan(b);
+        assertThatThrownBy(() -> a.plus(Geldbetrag.of(BigDecimal.ONE, Waehrungen.of("USD"))))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("JSON wie bei einem Umsatz")
+    void json() throws Exception {
+        // given
+        final var mapper = new ObjectMapper();
+        final var json = "{\"betrag\":12.5,\"waehrung\":\"EUR\"}";
+
+        // when
+        final var geldbetrag = mapper.readValue(json, Geldbetrag.class);
+        final var jsonNeu = mapper.writeValueAsString(geldbetrag);
+
+        // then
+        assertThat(geldbetrag.minorUnits()).isEqualTo(1250L);
+        assertThat(jsonNeu).isEqualTo("{\"betrag\":12.50,\"waehrung\":\"EUR\"}");
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Umsatz;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.io.TempDir;
+import static com.acme.filiale.repository.BinarySnapshot.ZEILEN_PRO_BLOCK;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Binaeren Snapshot testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class BinarySnapshotTest {
+    @TempDir
+    private Path verzeichnis;
+
+    private BinarySnapshot snapshot() {
+        final var config = new RepositoryProps.SnapshotFile(
+            true,
+            verzeichnis.resolve("test.snapshot").toString(),
+            Duration.ZERO
+        );
+        return new BinarySnapshot(config, new SimpleMeterRegistry());
+    }
+
+    private static Filiale filiale(final int i) {
+        final var builder = Filiale.builder()
+            .id(new UUID(i, -i))
+            .version(i)
+            .name("Filiale " + i % 100)
+            .email(i + "@test.de");
+        // Sonderfaelle: ohne Umsatz, ohne Adresse und mit null-Werten
+        if (i % 3 != 0) {
+            builder.umsatz(Umsatz.builder()
+                .betrag(new BigDecimal(i).movePointLeft(2))
+                .waehrung(Currency.getInstance(i % 2 == 0 ? "EUR" : "CHF"))
+                .build());
+        }
+        if (i % 5 != 0) {
+            builder.adresse(Adresse.builder().plz(i % 7 == 0 ? null : String.valueOf(i)).ort("Ort äöü").build());
+        }
+        return builder.build();
+    }
+
+    @Test
+    @DisplayName("Schreiben und Laden ueber mehrere Bloecke")
+    void schreibenLaden() {
+        // given
+        final var filialen = IntStream.range(0, 3 * ZEILEN_PRO_BLOCK + 17)
+            .mapToObj(BinarySnapshotTest::filiale)
+            .toList();
+        snapshot().write(filialen);
+
+        // when
+        final var inhalt = snapshot().load().orElseThrow();
+
+        // then
+        assertThat(inhalt.filialen())
+            .usingRecursiveFieldByFieldElementComparator()
+            .containsExactlyElementsOf(filialen);
+        final var erwartet = new HashMap<Long, Set<UUID>>();
+        filialen.forEach(filiale -> TrigramIndex.trigramme(filiale.getName()).forEach(trigramm ->
+            erwartet.computeIfAbsent(trigramm, key -> new HashSet<>()).add(filiale.getId())
+        ));
+        assertThat(inhalt.trigramme()).hasSameSizeAs(erwartet);
+        erwartet.forEach((trigramm, ids) ->
+            assertThat(inhalt.trigramme().get(trigramm)).containsExactlyInAnyOrderElementsOf(ids)
+        );
+    }
+
+    @Test
+    @DisplayName("Blockweise Schreiben und Laden ohne Posting-Listen")
+    void blockweise() {
+        // given
+        final var filialen = IntStream.range(0, 3 * ZEILEN_PRO_BLOCK + 17)
+            .mapToObj(BinarySnapshotTest::filiale)
+            .toList();
+        snapshot().write(new BinarySnapshot.Stand(filialen.stream(), 42, false));
+
+        // when
+        final var geladen = new ArrayList<Filiale>();
+        final var walPosition = snapshot().load(geladen::add);
+        final var inhalt = snapshot().load().orElseThrow();
+
+        // then
+        assertThat(walPosition).hasValue(42);
+        assertThat(geladen)
+            .usingRecursiveFieldByFieldElementComparator()
+            .containsExactlyElementsOf(filialen);
+        assertThat(inhalt.filialen()).hasSameSizeAs(filialen);
+        assertThat(inhalt.trigramme()).isNull();
+        assertThat(inhalt.walPosition()).isEqualTo(42);
+    }
+
+    @Test
+    @DisplayName("Ohne Datei und ohne Filialen")
+    void leer() {
+        // when
+        final var ohneDatei = snapshot().load();
+        snapshot().write(List.of());
+        final var ohneFilialen = snapshot().load();
+
+        // then
+        assertThat(ohneDatei).isEmpty();
+        assertThat(ohneFilialen).hasValueSatisfying(inhalt -> {
+            assertThat(inhalt.filialen()).isEmpty();
+            assertThat(inhalt.trigramme()).isEmpty();
+        });
+    }
+
+    @Test
+    @DisplayName("Beschaedigte Datei")
+    void beschaedigt() throws IOException {
+        // given
+        snapshot().write(IntStream.range(0, 100).mapToObj(BinarySnapshotTest::filiale).toList());
+        final var datei = verzeichnis.resolve("test.snapshot");
+        final var bytes = Files.readAllBytes(datei);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(datei, bytes);
+
+        // when/then
+        assertThatThrownBy(() -> snapshot().load()).isInstanceOf(UncheckedIOException.class);
+    }
+
+    @Test
+    @DisplayName("Schreiben beim Schliessen")
+    void close() {
+        // given
+        final var snapshot = snapshot();
+        final var checkpoint = new AtomicLong();
+        snapshot.start(
+            () -> new BinarySnapshot.Stand(IntStream.range(0, 10).mapToObj(BinarySnapshotTest::filiale).toList(), 42),
+            checkpoint::set
+        );
+
+        // when
+        snapshot.close();
+
+        // then
+        assertThat(snapshot().load()).hasValueSatisfying(inhalt -> {
+            assertThat(inhalt.filialen()).hasSize(10);
+            assertThat(inhalt.walPosition()).isEqualTo(42);
+        });
+        assertThat(checkpoint.get()).isEqualTo(42);
+    }
+}
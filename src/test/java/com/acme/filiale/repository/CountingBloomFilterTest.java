@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Counting Bloom-Filter testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class CountingBloomFilterTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Keine falsch negativen Ergebnisse nach zufaelligem Hinzufuegen und Entfernen")
+    void zufaellig() {
+        // given
+        final var filter = new CountingBloomFilter(10_000, "test", registry);
+        final var enthalten = new HashSet<UUID>();
+        final var entfernt = new ArrayList<UUID>();
+        final var random = new Random(4711);
+
+        // when
+        for (int i = 0; i < 20_000; i++) {
+            if (!enthalten.isEmpty() && random.nextInt(3) == 0) {
+                final var id = enthalten.iterator().next();
+                enthalten.remove(id);
+                entfernt.add(id);
+                filter.remove(CountingBloomFilter.hash(id));
+            } else {
+                final var id = new UUID(random.nextLong(), random.nextLong());
+                enthalten.add(id);
+                filter.add(CountingBloomFilter.hash(id));
+            }
+        }
+
+        // then
+        assertThat(enthalten).allMatch(id -> filter.mightContain(CountingBloomFilter.hash(id)));
+        final var falschPositiv = entfernt.stream().filter(id -> filter.mightContain(CountingBloomFilter.hash(id)))
+            .count();
+        assertThat((double) falschPositiv / entfernt.size()).isLessThan(0.03);
+    }
+
+    @Test
+    @DisplayName("Geschaetzte Rate der falsch positiven Ergebnisse und Speicher als Metriken")
+    void metriken() {
+        // given
+        final var filter = new CountingBloomFilter(10_000, "test", registry);
+        final var fpp = registry.get("filiale.repository.bloom.fpp").tag("filter", "test").gauge();
+
+        // when
+        final var leer = fpp.value();
+        IntStream.range(0, 10_000).forEach(i -> filter.add(CountingBloomFilter.hash("email" + i + "@test.de")));
+        final var voll = fpp.value();
+        IntStream.range(0, 10_000).forEach(i -> filter.remove(CountingBloomFilter.hash("email" + i + "@test.de")));
+
+        // then
+        assertThat(leer).isZero();
+        assertThat(voll).isBetween(0.001, 0.02);
+        assertThat(fpp.value()).isZero();
+        assertThat(filter.mightContain(CountingBloomFilter.hash("email0@test.de"))).isFalse();
+        assertThat(registry.get("filiale.repository.bloom.memory").gauge().value()).isEqualTo(50_000);
+    }
+
+    @Test
+    @DisplayName("Gesaettigte Zaehler bleiben nach dem Entfernen belegt")
+    void saettigung() {
+        // given
+        final var filter = new CountingBloomFilter(10, "test", registry);
+        final var hash = CountingBloomFilter.hash("alpha@acme.de");
+
+        // when
+        for (int i = 0; i < 20; i++) {
+            filter.add(hash);
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.remove(hash);
+        }
+
+        // then
+        assertThat(filter.mightContain(hash)).isTrue();
+    }
+}
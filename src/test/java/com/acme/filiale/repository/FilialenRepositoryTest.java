@@ -0,0 +1,1173 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Umsatz;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.unit.DataSize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Repository fuer Filialen testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class FilialenRepositoryTest {
+    private static final String EMAIL_VORHANDEN = "alpha@acme.de";
+
+    private final FilialenRepository repo = new EmbeddedFilialenRepository();
+
+    private static Filiale neueFiliale(final String email) {
+        return Filiale.builder()
+            .name("Test")
+            .email(email)
+            .adresse(Adresse.builder().plz("12345").ort("Testort").build())
+            .build();
+    }
+
+    @Nested
+    @DisplayName("Eindeutige Emailadressen")
+    class Email {
+        @ParameterizedTest(name = "[{index}] Suche mit anderer Gross-/Kleinschreibung: email={0}")
+        @ValueSource(strings = {EMAIL_VORHANDEN, "ALPHA@acme.de", "Alpha@Acme.De"})
+        @DisplayName("Suche mit anderer Gross-/Kleinschreibung")
+        void findByEmail(final String email) {
+            // when
+            final var filiale = repo.findByEmail(email);
+
+            // then
+            assertThat(filiale).isPresent();
+            assertThat(filiale.get().getEmail()).isEqualTo(EMAIL_VORHANDEN);
+        }
+
+        @Test
+        @DisplayName("Suche ohne Emailadresse")
+        void findByEmailNull() {
+            // when
+            final var filiale = repo.findByEmail(null);
+            final var existing = repo.isEmailExisting(null);
+
+            // then
+            assertThat(filiale).isEmpty();
+            assertThat(existing).isFalse();
+        }
+
+        @Test
+        @DisplayName("Neuanlegen mit vorhandener Emailadresse")
+        void createEmailVorhanden() {
+            // when
+            final var filiale = repo.create(neueFiliale("ALPHA@ACME.DE"));
+
+            // then
+            assertThat(filiale).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Paralleles Neuanlegen mit derselben Emailadresse")
+        void createParallel() {
+            // given
+            final var email = "parallel@test.de";
+
+            // when
+            final var angelegt = IntStream.range(0, 64)
+                .parallel()
+                .mapToObj(i -> repo.create(neueFiliale(email)))
+                .flatMap(Optional::stream)
+                .toList();
+
+            // then
+            assertThat(angelegt).hasSize(1);
+            repo.deleteById(angelegt.get(0).getId());
+            assertThat(repo.isEmailExisting(email)).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Autovervollstaendigung der Namen")
+    class NamenByPrefix {
+        @Test
+        @DisplayName("Namen nach Anzahl der Filialen sortiert")
+        void findNamenByPrefix() {
+            // when
+            final var namen = repo.findNamenByPrefix("A", 2);
+
+            // then
+            assertThat(namen).containsExactly("Alpha", "Admin");
+        }
+
+        @Test
+        @DisplayName("Namen nach Neuanlegen und Loeschen")
+        void findNamenByPrefixInkrementell() {
+            // given
+            final var filiale = neueFiliale("praefix@test.de");
+            filiale.setName("Zeta");
+
+            // when
+            final var id = repo.create(filiale).orElseThrow().getId();
+            final var namenNachCreate = repo.findNamenByPrefix("Z", 10);
+            repo.deleteById(id);
+            final var namenNachDelete = repo.findNamenByPrefix("Z", 10);
+
+            // then
+            assertThat(namenNachCreate).containsExactly("Zeta");
+            assertThat(namenNachDelete).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("Aenderungen als Unit of Work")
+    class UnitOfWork {
+        @Test
+        @DisplayName("Parallele Aenderungen derselben Filiale")
+        void computeParallel() {
+            // given
+            final var id = repo.create(neueFiliale("put@test.de")).orElseThrow().getId();
+
+            // when
+            IntStream.range(0, 64)
+                .parallel()
+                .forEach(i -> repo.compute(id, alt -> {
+                    alt.setEmail("put" + i + "@test.de");
+                    return alt;
+                }));
+
+            // then
+            final var email = repo.findById(id).orElseThrow().getEmail();
+            final var reserviert = IntStream.range(0, 64)
+                .filter(i -> repo.isEmailExisting("put" + i + "@test.de"))
+                .count();
+            assertThat(reserviert).isOne();
+            assertThat(repo.findByEmail(email)).isPresent();
+            assertThat(repo.isEmailExisting("put@test.de")).isFalse();
+            repo.deleteById(id);
+        }
+
+        @Test
+        @DisplayName("Aenderung mit vorhandener Emailadresse")
+        void computeEmailVorhanden() {
+            // given
+            final var id = repo.create(neueFiliale("compute@test.de")).orElseThrow().getId();
+
+            // when
+            final var result = repo.compute(id, alt -> {
+                alt.setEmail("ALPHA@ACME.DE");
+                return alt;
+            });
+
+            // then
+            assertThat(result).isEqualTo(WriteResult.EMAIL_EXISTS);
+            assertThat(repo.findById(id).orElseThrow().getEmail()).isEqualTo("compute@test.de");
+            repo.deleteById(id);
+        }
+
+        @Test
+        @DisplayName("Keine Filiale zur ID")
+        void computeNichtVorhanden() {
+            // given
+            final var id = UUID.randomUUID();
+
+            // when
+            final var result = repo.compute(id, alt -> alt == null ? null : neueFiliale("neu@test.de"));
+
+            // then
+            assertThat(result).isEqualTo(WriteResult.NOT_FOUND);
+            assertThat(repo.findById(id)).isEmpty();
+            assertThat(repo.isEmailExisting("neu@test.de")).isFalse();
+        }
+
+        @Test
+        @DisplayName("Aendern einer geloeschten Filiale")
+        void updateGeloescht() {
+            // given
+            final var filiale = repo.create(neueFiliale("geloescht@test.de")).orElseThrow();
+            repo.deleteById(filiale.getId());
+            final var version = repo.version();
+
+            // when
+            final var geaendert = repo.update(filiale);
+
+            // then
+            assertThat(geaendert).isFalse();
+            assertThat(repo.findById(filiale.getId())).isEmpty();
+            assertThat(repo.isEmailExisting("geloescht@test.de")).isFalse();
+            assertThat(repo.version()).isEqualTo(version);
+        }
+
+        @Test
+        @DisplayName("Loeschen als Unit of Work")
+        void computeLoeschen() {
+            // given
+            final var id = repo.create(neueFiliale("loeschen@test.de")).orElseThrow().getId();
+
+            // when
+            final var result = repo.compute(id, alt -> null);
+
+            // then
+            assertThat(result.status()).isEqualTo(WriteResult.Status.OK);
+            assertThat(repo.findById(id)).isEmpty();
+            assertThat(repo.isEmailExisting("loeschen@test.de")).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Versionen fuer Conditional GET")
+    class Versionen {
+        @Test
+        @DisplayName("Jede Aenderung erhoeht die Version der Filiale und die globale Version")
+        void version() {
+            // given
+            final var vorher = repo.version();
+
+            // when
+            final var angelegt = repo.create(neueFiliale("version@test.de")).orElseThrow();
+            final var nachCreate = repo.version();
+            final var geaendert = repo.compute(angelegt.getId(), alt -> {
+                alt.setName("Geaendert");
+                return alt;
+            }).filiale();
+            final var nachUpdate = repo.version();
+            repo.deleteById(angelegt.getId());
+            final var nachDelete = repo.version();
+
+            // then
+            assertThat(angelegt.getVersion()).isPositive();
+            assertThat(geaendert.getVersion()).isGreaterThan(angelegt.getVersion());
+            assertThat(nachCreate).isGreaterThan(vorher).isGreaterThanOrEqualTo(angelegt.getVersion());
+            assertThat(nachUpdate).isGreaterThan(nachCreate).isGreaterThanOrEqualTo(geaendert.getVersion());
+            assertThat(nachDelete).isGreaterThan(nachUpdate);
+        }
+
+        @Test
+        @DisplayName("Die initialen Filialen haben den Zeitpunkt des Ladens als Version")
+        void initialeVersion() {
+            // given
+            final var vorLaden = System.currentTimeMillis();
+
+            // when
+            final var neu = new EmbeddedFilialenRepository();
+            final var filialen = neu.findAll();
+
+            // then
+            assertThat(filialen)
+                .isNotEmpty()
+                .allSatisfy(filiale -> assertThat(filiale.getVersion())
+                    .isGreaterThanOrEqualTo(vorLaden)
+                    .isLessThanOrEqualTo(neu.version()));
+        }
+
+        @Test
+        @DisplayName("Erfolglose Aenderungen erhoehen die globale Version nicht")
+        void ohneAenderung() {
+            // given
+            final var vorher = repo.version();
+
+            // when
+            repo.create(neueFiliale(EMAIL_VORHANDEN));
+            repo.deleteById(UUID.randomUUID());
+            repo.compute(UUID.randomUUID(), alt -> alt);
+
+            // then
+            assertThat(repo.version()).isEqualTo(vorher);
+        }
+
+        @Test
+        @DisplayName("Aenderung nur mit der aktuellen Version")
+        void computeMitVersion() {
+            // given
+            final var angelegt = repo.create(neueFiliale("optimistisch@test.de")).orElseThrow();
+            final var id = angelegt.getId();
+            final var aufgerufen = new AtomicInteger();
+
+            // when
+            final var veraltet = repo.compute(id, angelegt.getVersion() - 1, alt -> {
+                aufgerufen.incrementAndGet();
+                alt.setName("Veraltet");
+                return alt;
+            });
+            final var aktuell = repo.compute(id, angelegt.getVersion(), alt -> {
+                alt.setName("Aktuell");
+                return alt;
+            });
+            final var nochmals = repo.compute(id, angelegt.getVersion(), alt -> alt);
+            final var nichtVorhanden = repo.compute(UUID.randomUUID(), 1L, alt -> alt);
+
+            // then
+            assertThat(veraltet.status()).isEqualTo(WriteResult.Status.VERSION_MISMATCH);
+            assertThat(aufgerufen).hasValue(0);
+            assertThat(aktuell.status()).isEqualTo(WriteResult.Status.OK);
+            assertThat(aktuell.filiale().getVersion()).isGreaterThan(angelegt.getVersion());
+            assertThat(nochmals.status()).isEqualTo(WriteResult.Status.VERSION_MISMATCH);
+            assertThat(nichtVorhanden.status()).isEqualTo(WriteResult.Status.NOT_FOUND);
+            assertThat(repo.findById(id).orElseThrow().getName()).isEqualTo("Aktuell");
+
+            repo.deleteById(id);
+        }
+    }
+
+    @Nested
+    @DisplayName("Suche nach Teilstrings im Namen")
+    class FindByName {
+        @ParameterizedTest(name = "[{index}] Suche mit Teilstring: name={0}")
+        @ValueSource(strings = {"lph", "Alpha", "ph", "a"})
+        @DisplayName("Suche mit Teilstring")
+        void findByName(final String name) {
+            // given
+            final var erwartet = repo.findAll()
+                .stream()
+                .filter(filiale -> filiale.getName().contains(name))
+                .toList();
+
+            // when
+            final var filialen = repo.findByName(name);
+
+            // then
+            assertThat(filialen).containsExactlyInAnyOrderElementsOf(erwartet);
+        }
+
+        @Test
+        @DisplayName("Suche mit Teilstring ohne Treffer")
+        void findByNameNichtVorhanden() {
+            // when
+            final var filialen = repo.findByName("xyz");
+
+            // then
+            assertThat(filialen).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("Suche mit mehreren Suchkriterien")
+    class Find {
+        @Test
+        @DisplayName("Suche mit Name und Email")
+        void findNameUndEmail() {
+            // given
+            final var suchkriterien = Map.of("name", "Alpha", "email", EMAIL_VORHANDEN);
+
+            // when
+            final var filialen = repo.find(suchkriterien);
+
+            // then
+            assertThat(filialen).hasSize(1);
+            assertThat(filialen.iterator().next().getEmail()).isEqualTo(EMAIL_VORHANDEN);
+        }
+
+        @Test
+        @DisplayName("Suche mit Name und nicht-passender Email")
+        void findNameUndEmailOhneTreffer() {
+            // given
+            final var suchkriterien = Map.of("name", "Delta", "email", EMAIL_VORHANDEN);
+
+            // when
+            final var filialen = repo.find(suchkriterien);
+
+            // then
+            assertThat(filialen).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Ausfuehrungsplan mit dem Email-Index")
+        void explain() {
+            // given
+            final var suchkriterien = Map.of("name", "Alpha", "email", EMAIL_VORHANDEN, "foo", "bar");
+
+            // when
+            final var plan = repo.explain(suchkriterien);
+
+            // then
+            assertThat(plan.zugriff()).startsWith("Email-Index");
+            assertThat(plan.geschaetzteKandidaten()).isEqualTo(1L);
+            assertThat(plan.ignoriert()).containsExactly("foo");
+        }
+
+        @Test
+        @DisplayName("Ausfuehrungsplan mit Full Scan")
+        void explainFullScan() {
+            // when
+            final var plan = repo.explain(Map.of("plz", "1"));
+
+            // then
+            assertThat(plan.zugriff()).isEqualTo("Full Scan");
+        }
+    }
+
+    @Nested
+    @DisplayName("Keyset Pagination")
+    class Pagination {
+        @ParameterizedTest(name = "[{index}] Alle Seiten mit limit={0}")
+        @ValueSource(ints = {1, 3, 1000})
+        @DisplayName("Alle Seiten ergeben alle Filialen sortiert nach der ID")
+        void seiten(final int limit) {
+            // when
+            final var filialen = alleSeiten(Map.of(), limit);
+
+            // then
+            assertThat(filialen).extracting(Filiale::getId)
+                .containsExactlyElementsOf(repo.findAll().stream().map(Filiale::getId).sorted().toList());
+        }
+
+        @ParameterizedTest(name = "[{index}] Seiten mit Suchkriterium {0}")
+        @ValueSource(strings = {"name=lph", "plz=1", "email=alpha@acme.de"})
+        @DisplayName("Seiten mit Index und mit Full Scan")
+        void seitenSuchkriterien(final String suchkriterium) {
+            // given
+            final var teile = suchkriterium.split("=");
+            final var suchkriterien = Map.of(teile[0], teile[1]);
+
+            // when
+            final var filialen = alleSeiten(suchkriterien, 2);
+
+            // then
+            assertThat(filialen).extracting(Filiale::getId)
+                .containsExactlyElementsOf(repo.find(suchkriterien).stream().map(Filiale::getId).sorted().toList());
+        }
+
+        @Test
+        @DisplayName("Neue Filialen verschieben die folgenden Seiten nicht")
+        void seiteNachCreate() {
+            // given
+            final var erste = repo.find(Map.of(), null, 2);
+
+            // when
+            final var id = repo.create(neueFiliale("seite@test.de")).orElseThrow().getId();
+            final var zweite = repo.find(Map.of(), erste.next(), 2);
+
+            // then
+            assertThat(zweite.filialen()).extracting(Filiale::getId)
+                .allMatch(filialeId -> filialeId.compareTo(erste.next()) > 0)
+                .doesNotContainAnyElementsOf(erste.filialen().stream().map(Filiale::getId).toList());
+            repo.deleteById(id);
+        }
+
+        @Test
+        @DisplayName("Unbekanntes Suchkriterium")
+        void unbekannt() {
+            // when
+            final var page = repo.find(Map.of("foo", "bar"), null, 10);
+
+            // then
+            assertThat(page).isEqualTo(Page.EMPTY);
+        }
+
+        @ParameterizedTest(name = "[{index}] Stream mit Suchkriterium {0}")
+        @ValueSource(strings = {"name=lph", "plz=1", "email=alpha@acme.de"})
+        @DisplayName("Lazy Stream liefert dieselben Filialen wie die Seiten")
+        void stream(final String suchkriterium) {
+            // given
+            final var teile = suchkriterium.split("=");
+            final var suchkriterien = Map.of(teile[0], teile[1]);
+
+            // when
+            final List<Filiale> filialen;
+            try (var stream = repo.stream(suchkriterien)) {
+                filialen = stream.toList();
+            }
+
+            // then
+            assertThat(filialen).extracting(Filiale::getId)
+                .containsExactlyElementsOf(alleSeiten(suchkriterien, 2).stream().map(Filiale::getId).toList());
+        }
+
+        @Test
+        @DisplayName("Lazy Stream ueber alle Filialen liefert Kopien")
+        void streamAlle() {
+            // when
+            final Filiale erste;
+            final long anzahl;
+            try (var stream = repo.stream(Map.of())) {
+                erste = stream.findFirst().orElseThrow();
+            }
+            try (var stream = repo.stream(Map.of())) {
+                anzahl = stream.count();
+            }
+            erste.setName("geaendert");
+
+            // then
+            assertThat(anzahl).isEqualTo(repo.findAll().size());
+            assertThat(repo.findById(erste.getId())).get().extracting(Filiale::getName).isNotEqualTo("geaendert");
+            assertThat(repo.stream(Map.of("foo", "bar"))).isEmpty();
+        }
+
+        private List<Filiale> alleSeiten(final Map<String, String> suchkriterien, final int limit) {
+            final var result = new ArrayList<Filiale>();
+            UUID after = null;
+            do {
+                final var page = repo.find(suchkriterien, after, limit);
+                assertThat(page.filialen()).hasSizeLessThanOrEqualTo(limit);
+                result.addAll(page.filialen());
+                after = page.next();
+            } while (after != null);
+            return result;
+        }
+    }
+
+    @Nested
+    @DisplayName("Konsistente Schnappschuesse")
+    class Snapshot {
+        @Test
+        @DisplayName("Gelesene Filialen sind Kopien")
+        void findByIdKopie() {
+            // given
+            final var filiale = repo.findByEmail(EMAIL_VORHANDEN).orElseThrow();
+
+            // when
+            filiale.setName("Geaendert");
+            filiale.getAdresse().setOrt("Geaendert");
+
+            // then
+            final var filialeDb = repo.findById(filiale.getId()).orElseThrow();
+            assertThat(filialeDb.getName()).isEqualTo("Alpha");
+            assertThat(filialeDb.getAdresse().getOrt()).isNotEqualTo("Geaendert");
+        }
+
+        @Test
+        @DisplayName("Alle Filialen lesen waehrend paralleler Aenderungen")
+        void findAllParallel() {
+            // given
+            final var anzahl = repo.findAll().size();
+
+            // when
+            final var ergebnisse = IntStream.range(0, 256)
+                .parallel()
+                .mapToObj(i -> {
+                    if (i % 2 == 0) {
+                        final var id = repo.create(neueFiliale("snapshot" + i + "@test.de")).orElseThrow().getId();
+                        repo.deleteById(id);
+                        return anzahl;
+                    }
+                    return repo.findAll().size();
+                })
+                .toList();
+
+            // then
+            assertThat(ergebnisse).allMatch(groesse -> groesse >= anzahl);
+            assertThat(repo.findAll()).hasSize(anzahl);
+        }
+    }
+
+    @Nested
+    @DisplayName("Speicher mit Shards")
+    class Sharded {
+        // Schwellwert 0, damit jeder Full Scan mit Fork/Join ueber die Shards laeuft
+        private final FilialenRepository repoSharded = new EmbeddedFilialenRepository(
+            new RepositoryProps(
+                RepositoryProps.Storage.SHARDED,
+                4,
+                0,
+                RepositoryProps.IdGenerator.RANDOM,
+                RepositoryProps.Wal.DISABLED,
+                RepositoryProps.SnapshotFile.DISABLED,
+                RepositoryProps.Lsm.DEFAULT,
+                RepositoryProps.Jdbc.DEFAULT,
+                RepositoryProps.Cache.DEFAULT
+            ),
+            new StringPool()
+        );
+
+        @Test
+        @DisplayName("Alle Filialen ueber alle Shards")
+        void findAll() {
+            // when
+            final var filialen = repoSharded.findAll();
+
+            // then
+            assertThat(filialen).containsExactlyInAnyOrderElementsOf(repo.findAll());
+        }
+
+        @Test
+        @DisplayName("Paralleles Neuanlegen, Suchen und Loeschen")
+        void createFindDeleteParallel() {
+            // given
+            final var anzahl = repoSharded.findAll().size();
+
+            // when
+            final var ids = IntStream.range(0, 64)
+                .parallel()
+                .mapToObj(i -> repoSharded.create(neueFiliale("shard" + i + "@test.de")).orElseThrow().getId())
+                .toList();
+            final var gefunden = repoSharded.findByName("Test");
+            ids.parallelStream().forEach(repoSharded::deleteById);
+
+            // then
+            assertThat(gefunden).hasSize(64);
+            assertThat(repoSharded.findAll()).hasSize(anzahl);
+            assertThat(repoSharded.find(Map.of("plz", "1234"))).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("Spaltenorientierter Speicher ausserhalb des Heap")
+    @TestInstance(PER_METHOD)
+    class Columnar {
+        private final FilialenRepository repoColumnar = new EmbeddedFilialenRepository(
+            new RepositoryProps(
+                RepositoryProps.Storage.COLUMNAR,
+                0,
+                0,
+                RepositoryProps.IdGenerator.UUIDV7,
+                RepositoryProps.Wal.DISABLED,
+                RepositoryProps.SnapshotFile.DISABLED,
+                RepositoryProps.Lsm.DEFAULT,
+                RepositoryProps.Jdbc.DEFAULT,
+                RepositoryProps.Cache.DEFAULT
+            ),
+            new StringPool()
+        );
+
+        @Test
+        @DisplayName("Alle Filialen mit allen Attributen")
+        void findAll() {
+            // when
+            final var filialen = repoColumnar.findAll();
+
+            // then
+            assertThat(filialen)
+                .usingRecursiveFieldByFieldElementComparatorIgnoringFields("version")
+                .containsExactlyInAnyOrderElementsOf(repo.findAll());
+        }
+
+        @Test
+        @DisplayName("Neuanlegen, Aendern und Loeschen mit Sonderfaellen")
+        void createUpdateDelete() {
+            // given
+            final var filiale = neueFiliale("spalten@test.de");
+            filiale.setUmsatz(Umsatz.builder()
+                .betrag(new BigDecimal("1e30"))
+                .waehrung(Currency.getInstance("CHF"))
+                .build());
+            filiale.getAdresse().setPlz("CH-80001");
+
+            // when
+            final var id = repoColumnar.create(filiale).orElseThrow().getId();
+            final var angelegt = repoColumnar.findById(id).orElseThrow();
+            angelegt.setName("Geaendert");
+            angelegt.getUmsatz().setBetrag(new BigDecimal("-12.34"));
+            angelegt.getAdresse().setPlz("01234");
+            repoColumnar.update(angelegt);
+            final var geaendert = repoColumnar.findById(id).orElseThrow();
+            repoColumnar.deleteById(id);
+
+            // then
+            assertThat(angelegt.getUmsatz().getWaehrung().getCurrencyCode()).isEqualTo("CHF");
+            assertThat(geaendert.getName()).isEqualTo("Geaendert");
+            assertThat(geaendert.getUmsatz().getBetrag()).isEqualTo(new BigDecimal("-12.34"));
+            assertThat(geaendert.getAdresse().getPlz()).isEqualTo("01234");
+            assertThat(geaendert.getHomepage()).isNull();
+            assertThat(geaendert.getVersion()).isGreaterThan(angelegt.getVersion()).isPositive();
+            assertThat(repoColumnar.findById(id)).isEmpty();
+            assertThat(repoColumnar.findByName("Geaendert")).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Viele Filialen ueber mehrere Segmente")
+        void vieleFilialen() {
+            // given
+            final var anzahl = repoColumnar.findAll().size();
+
+            // when
+            final var ids = IntStream.range(0, 10_000)
+                .mapToObj(i -> repoColumnar.create(neueFiliale("segment" + i + "@test.de")).orElseThrow().getId())
+                .toList();
+            ids.subList(0, 5_000).forEach(repoColumnar::deleteById);
+
+            // then
+            assertThat(repoColumnar.findAll()).hasSize(anzahl + 5_000);
+            assertThat(ids.subList(5_000, 10_000)).allMatch(id -> repoColumnar.findById(id).isPresent());
+            assertThat(ids.subList(0, 5_000)).allMatch(id -> repoColumnar.findById(id).isEmpty());
+        }
+
+        @Test
+        @DisplayName("Autovervollstaendigung und Emailadressen aus den Indexen ausserhalb des Heap")
+        void namenEmail() {
+            // given
+            final var filiale = neueFiliale("Spalten@Test.de");
+            filiale.setName("Zeta");
+            final var id = repoColumnar.create(filiale).orElseThrow().getId();
+
+            // when
+            final var namen = repoColumnar.findNamenByPrefix("A", 2);
+            final var alle = repoColumnar.findNamenByPrefix("", 10);
+            final var zeta = repoColumnar.findNamenByPrefix("Z", 10);
+            final var gefunden = repoColumnar.findByEmail("SPALTEN@test.de");
+            final var doppelt = repoColumnar.compute(null, alt -> neueFiliale("spalten@test.de"));
+            repoColumnar.deleteById(id);
+
+            // then
+            assertThat(namen).containsExactly("Alpha", "Admin");
+            // bei gleicher Anzahl alphabetisch
+            assertThat(alle).containsExactly("Alpha", "Admin", "Delta", "Epsilon", "Phi", "Zeta");
+            assertThat(zeta).containsExactly("Zeta");
+            assertThat(gefunden).map(Filiale::getId).contains(id);
+            assertThat(doppelt).isEqualTo(WriteResult.EMAIL_EXISTS);
+            assertThat(repoColumnar.findNamenByPrefix("Z", 10)).isEmpty();
+            assertThat(repoColumnar.isEmailExisting("spalten@test.de")).isFalse();
+            assertThat(repoColumnar.findByEmail(EMAIL_VORHANDEN)).isPresent();
+        }
+
+        @Test
+        @DisplayName("Trigramme mit Zeilen nach Umbenennen, Loeschen und wiederverwendeter Zeile")
+        void trigramme() {
+            // given
+            final var filiale = neueFiliale("omega@test.de");
+            filiale.setName("Omega");
+            final var omega = repoColumnar.create(filiale).orElseThrow();
+
+            // when
+            final var vorher = repoColumnar.findByName("meg");
+            omega.setName("Sigma");
+            repoColumnar.update(omega);
+            final var umbenannt = repoColumnar.findByName("igm");
+            final var alterName = repoColumnar.findByName("meg");
+            repoColumnar.deleteById(omega.getId());
+            final var kappa = neueFiliale("kappa@test.de");
+            kappa.setName("Kappa");
+            // die freie Zeile der geloeschten Filiale wird wiederverwendet
+            final var kappaId = repoColumnar.create(kappa).orElseThrow().getId();
+
+            // then
+            assertThat(vorher).extracting(Filiale::getId).containsExactly(omega.getId());
+            assertThat(umbenannt).extracting(Filiale::getId).containsExactly(omega.getId());
+            assertThat(alterName).isEmpty();
+            assertThat(repoColumnar.findByName("igm")).isEmpty();
+            assertThat(repoColumnar.findByName("app")).extracting(Filiale::getId).containsExactly(kappaId);
+            assertThat(repoColumnar.findByName("lph"))
+                .extracting(Filiale::getId)
+                .containsExactlyInAnyOrderElementsOf(repo.findByName("lph").stream().map(Filiale::getId).toList());
+        }
+
+        @ParameterizedTest(name = "[{index}] Seiten mit Suchkriterium \"{0}\"")
+        @ValueSource(strings = {"", "name=lph", "plz=1"})
+        @DisplayName("Keyset Pagination aus den sortierten Bloecken der IDs")
+        void seiten(final String suchkriterium) {
+            // given
+            final var ids = IntStream.range(0, 5_000)
+                .mapToObj(i -> repoColumnar.create(neueFiliale("seite" + i + "@test.de")).orElseThrow().getId())
+                .toList();
+            // geleerte Bloecke werden entfernt
+            ids.subList(0, 2_500).forEach(repoColumnar::deleteById);
+            final var teile = suchkriterium.split("=");
+            final Map<String, String> suchkriterien = suchkriterium.isEmpty() ? Map.of() : Map.of(teile[0], teile[1]);
+            final var erwartet = (suchkriterien.isEmpty() ? repoColumnar.findAll() : repoColumnar.find(suchkriterien))
+                .stream()
+                .map(Filiale::getId)
+                .sorted()
+                .toList();
+
+            // when
+            final var seiten = new ArrayList<UUID>();
+            UUID after = null;
+            do {
+                final var page = repoColumnar.find(suchkriterien, after, 100);
+                page.filialen().forEach(filiale -> seiten.add(filiale.getId()));
+                after = page.next();
+            } while (after != null);
+            final List<UUID> gestreamt;
+            try (var stream = repoColumnar.stream(suchkriterien)) {
+                gestreamt = stream.map(Filiale::getId).toList();
+            }
+
+            // then
+            assertThat(seiten).containsExactlyElementsOf(erwartet);
+            assertThat(gestreamt).containsExactlyElementsOf(erwartet);
+        }
+    }
+
+    @Nested
+    @DisplayName("Dauerhafter Modus mit Write-Ahead-Log")
+    @TestInstance(PER_METHOD)
+    class Durable {
+        @TempDir
+        private Path verzeichnis;
+
+        private FilialenRepository repoDurable() {
+            return repoDurable(false);
+        }
+
+        private FilialenRepository repoDurable(final boolean mitSnapshot) {
+            final var wal = new RepositoryProps.Wal(true, verzeichnis.resolve("filiale.wal").toString(), Duration.ZERO);
+            final var snapshotFile = new RepositoryProps.SnapshotFile(
+                mitSnapshot,
+                verzeichnis.resolve("filiale.snapshot").toString(),
+                Duration.ZERO
+            );
+            return new EmbeddedFilialenRepository(
+                new RepositoryProps(
+                    RepositoryProps.Storage.SNAPSHOT,
+                    0,
+                    10_000,
+                    RepositoryProps.IdGenerator.UUIDV7,
+                    wal,
+                    snapshotFile,
+                    RepositoryProps.Lsm.DEFAULT,
+                    RepositoryProps.Jdbc.DEFAULT,
+                    RepositoryProps.Cache.DEFAULT
+                ),
+                new StringPool()
+            );
+        }
+
+        @Test
+        @DisplayName("Aenderungen nach dem Neustart einspielen")
+        void neustart() {
+            // given
+            final var repo1 = repoDurable();
+            final var id = repo1.create(neueFiliale("wal@test.de")).orElseThrow().getId();
+            final var geaendert = repo1.findById(id).orElseThrow();
+            geaendert.setName("Geaendert");
+            geaendert.setUmsatz(Umsatz.builder().betrag(new BigDecimal("12.30")).waehrung(Currency.getInstance("CHF"))
+                .build());
+            repo1.update(geaendert);
+            final var geloeschteId = repo1.findByEmail(EMAIL_VORHANDEN).orElseThrow().getId();
+            repo1.deleteById(geloeschteId);
+            final var erwartet = repo1.findAll();
+            repo1.close();
+
+            // when
+            final var repo2 = repoDurable();
+
+            // then
+            assertThat(repo2.findAll())
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(erwartet);
+            assertThat(repo2.findById(geloeschteId)).isEmpty();
+            assertThat(repo2.findByEmail("wal@test.de")).isPresent();
+            assertThat(repo2.findByName("Geaendert")).hasSize(1);
+            repo2.close();
+        }
+
+        @Test
+        @DisplayName("Parallele Aenderungen mit Group Commit")
+        void parallel() {
+            // given
+            final var repo1 = repoDurable();
+
+            // when
+            IntStream.range(0, 200)
+                .parallel()
+                .forEach(i -> repo1.create(neueFiliale("parallel" + i + "@test.de")));
+            final var anzahl = repo1.findAll().size();
+            repo1.close();
+
+            // then
+            final var repo2 = repoDurable();
+            assertThat(repo2.findAll()).hasSize(anzahl);
+            repo2.close();
+        }
+
+        @Test
+        @DisplayName("Snapshot beim Herunterfahren und spaetere Aenderungen aus dem Write-Ahead-Log")
+        void snapshotUndWal() {
+            // given
+            final var repo1 = repoDurable(true);
+            final var id = repo1.create(neueFiliale("snapshot@test.de")).orElseThrow().getId();
+            repo1.close();
+            final var repo2 = repoDurable(true);
+            final var filiale = repo2.findById(id).orElseThrow();
+            filiale.setName("Umbenannt");
+            repo2.update(filiale);
+            final var erwartet = repo2.findAll();
+            // Absturz: repo2 wird nicht geschlossen, der Snapshot enthaelt noch den alten Namen
+
+            // when
+            final var repo3 = repoDurable(true);
+
+            // then
+            assertThat(repo3.findAll())
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(erwartet);
+            assertThat(repo3.findByName("Umbenannt")).hasSize(1);
+            assertThat(repo3.findByName("Test")).isEmpty();
+            assertThat(repo3.findByName("Alpha")).hasSize(3);
+            repo3.close();
+        }
+
+        @Test
+        @DisplayName("Nach dem Snapshot nur die spaeteren Aenderungen im Write-Ahead-Log")
+        void checkpoint() throws IOException {
+            // given
+            final var datei = verzeichnis.resolve("filiale.wal");
+            final var repo1 = repoDurable(true);
+            IntStream.range(0, 20).forEach(i -> repo1.create(neueFiliale("checkpoint" + i + "@test.de")));
+            final var vorSnapshot = Files.size(datei);
+            repo1.close();
+            final var nachSnapshot = Files.size(datei);
+            final var repo2 = repoDurable(true);
+            repo2.create(neueFiliale("danach@test.de"));
+            final var erwartet = repo2.findAll();
+            // Absturz: repo2 wird nicht geschlossen, die neue Filiale ist nur im Write-Ahead-Log
+
+            // when
+            final var repo3 = repoDurable(true);
+
+            // then
+            assertThat(nachSnapshot).isLessThan(vorSnapshot);
+            assertThat(Files.size(datei)).isLessThan(vorSnapshot);
+            assertThat(repo3.findAll())
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(erwartet);
+            assertThat(repo3.findByEmail("danach@test.de")).isPresent();
+            repo3.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("LSM-Speicher mit SSTables")
+    @TestInstance(PER_METHOD)
+    class Lsm {
+        @TempDir
+        private Path verzeichnis;
+
+        private FilialenRepository repoLsm() {
+            return repoLsm(RepositoryProps.Storage.LSM, false, false);
+        }
+
+        private FilialenRepository repoLsm(
+            final RepositoryProps.Storage storage,
+            final boolean mitWal,
+            final boolean mitSnapshot
+        ) {
+            final var wal = mitWal
+                ? new RepositoryProps.Wal(true, verzeichnis.resolve("filiale.wal").toString(), Duration.ZERO)
+                : RepositoryProps.Wal.DISABLED;
+            final var snapshotFile = new RepositoryProps.SnapshotFile(
+                mitSnapshot,
+                verzeichnis.resolve("filiale.snapshot").toString(),
+                Duration.ZERO
+            );
+            return new EmbeddedFilialenRepository(
+                new RepositoryProps(
+                    storage,
+                    0,
+                    0,
+                    RepositoryProps.IdGenerator.UUIDV7,
+                    wal,
+                    snapshotFile,
+                    new RepositoryProps.Lsm(verzeichnis.toString(), DataSize.ofKilobytes(4), 2),
+                    RepositoryProps.Jdbc.DEFAULT,
+                    RepositoryProps.Cache.DEFAULT
+                ),
+                new StringPool()
+            );
+        }
+
+        @Test
+        @DisplayName("Alle Filialen mit allen Attributen")
+        void findAll() {
+            // given
+            final var repoLsm = repoLsm();
+
+            // when
+            final var filialen = repoLsm.findAll();
+
+            // then
+            assertThat(filialen)
+                .usingRecursiveFieldByFieldElementComparatorIgnoringFields("version")
+                .containsExactlyInAnyOrderElementsOf(repo.findAll());
+            repoLsm.close();
+        }
+
+        @Test
+        @DisplayName("Neuanlegen, Aendern und Loeschen ueber mehrere SSTables")
+        void createUpdateDelete() {
+            // given
+            final var repoLsm = repoLsm();
+            final var anzahl = repoLsm.findAll().size();
+
+            // when
+            final var ids = IntStream.range(0, 2_000)
+                .mapToObj(i -> repoLsm.create(neueFiliale("lsm" + i + "@test.de")).orElseThrow().getId())
+                .toList();
+            final var geaendert = repoLsm.findById(ids.get(0)).orElseThrow();
+            geaendert.setName("Geaendert");
+            repoLsm.update(geaendert);
+            ids.subList(1_000, 2_000).forEach(repoLsm::deleteById);
+
+            // then
+            assertThat(repoLsm.findAll()).hasSize(anzahl + 1_000);
+            assertThat(repoLsm.findByName("Geaendert")).hasSize(1);
+            assertThat(repoLsm.findByName("Test")).hasSize(999);
+            assertThat(ids.subList(1_000, 2_000)).allMatch(id -> repoLsm.findById(id).isEmpty());
+            repoLsm.close();
+        }
+
+        @Test
+        @DisplayName("Bereichsabfragen nach ID und Name")
+        void scan() {
+            // given
+            final var config = new RepositoryProps.Lsm(verzeichnis.toString(), DataSize.ofKilobytes(4), 2);
+            final var store = new LsmStore(repo.findAll(), config, new SimpleMeterRegistry());
+            // Schluessel werden vorzeichenlos verglichen
+            final var ids = repo.findAll().stream()
+                .map(Filiale::getId)
+                .sorted(Comparator.comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+                    .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned))
+                .toList();
+
+            // when
+            final var alle = store.scanById(null, null, Integer.MAX_VALUE);
+            final var ohneErste = store.scanById(ids.get(1), null, 2);
+            final var alpha = store.scanByName("Alpha", "Alphb", Integer.MAX_VALUE);
+
+            // then
+            assertThat(alle).extracting(Filiale::getId).containsExactlyElementsOf(ids);
+            assertThat(ohneErste).extracting(Filiale::getId).containsExactly(ids.get(1), ids.get(2));
+            assertThat(alpha).hasSize(3).allMatch(filiale -> filiale.getName().startsWith("Alpha"));
+            store.close();
+        }
+
+        @ParameterizedTest(name = "[{index}] Seiten mit Suchkriterium \"{0}\"")
+        @ValueSource(strings = {"", "name=lph", "plz=1"})
+        @DisplayName("Keyset Pagination aus dem Baum der IDs")
+        void seiten(final String suchkriterium) {
+            // given
+            final var repoLsm = repoLsm();
+            IntStream.range(0, 1_500).forEach(i -> repoLsm.create(neueFiliale("seite" + i + "@test.de")));
+            final var teile = suchkriterium.split("=");
+            final Map<String, String> suchkriterien = suchkriterium.isEmpty() ? Map.of() : Map.of(teile[0], teile[1]);
+            final var erwartet = (suchkriterien.isEmpty() ? repoLsm.findAll() : repoLsm.find(suchkriterien)).stream()
+                .map(Filiale::getId)
+                .sorted(LsmStore.REIHENFOLGE)
+                .toList();
+
+            // when
+            final var seiten = new ArrayList<UUID>();
+            UUID after = null;
+            do {
+                final var page = repoLsm.find(suchkriterien, after, 100);
+                page.filialen().forEach(filiale -> seiten.add(filiale.getId()));
+                after = page.next();
+            } while (after != null);
+            final List<UUID> gestreamt;
+            try (var stream = repoLsm.stream(suchkriterien)) {
+                gestreamt = stream.map(Filiale::getId).toList();
+            }
+
+            // then
+            assertThat(seiten).containsExactlyElementsOf(erwartet);
+            assertThat(gestreamt).containsExactlyElementsOf(erwartet);
+            repoLsm.close();
+        }
+
+        @Test
+        @DisplayName("Autovervollstaendigung und Emailadressen aus den Baeumen")
+        void namenEmail() {
+            // given
+            final var repoLsm = repoLsm();
+            final var filiale = neueFiliale("Lsm@Test.de");
+            filiale.setName("Zeta");
+            final var id = repoLsm.create(filiale).orElseThrow().getId();
+
+            // when
+            final var namen = repoLsm.findNamenByPrefix("A", 2);
+            final var zeta = repoLsm.findNamenByPrefix("Z", 10);
+            final var gefunden = repoLsm.findByEmail("LSM@test.de");
+            final var doppelt = repoLsm.compute(null, alt -> neueFiliale("lsm@test.de"));
+            repoLsm.deleteById(id);
+
+            // then
+            assertThat(namen).containsExactly("Alpha", "Admin");
+            assertThat(zeta).containsExactly("Zeta");
+            assertThat(gefunden).map(Filiale::getId).contains(id);
+            assertThat(doppelt).isEqualTo(WriteResult.EMAIL_EXISTS);
+            assertThat(repoLsm.findNamenByPrefix("Z", 10)).isEmpty();
+            assertThat(repoLsm.isEmailExisting("lsm@test.de")).isFalse();
+            repoLsm.close();
+        }
+
+        @Test
+        @DisplayName("Neustart mit Write-Ahead-Log")
+        void neustartWal() {
+            // given
+            final var repo1 = repoLsm(RepositoryProps.Storage.LSM, true, false);
+            final var id = repo1.create(neueFiliale("neustart@test.de")).orElseThrow().getId();
+            final var geaendert = repo1.findById(id).orElseThrow();
+            geaendert.setName("Geaendert");
+            repo1.update(geaendert);
+            final var geloescht = repo1.findByEmail(EMAIL_VORHANDEN).orElseThrow().getId();
+            repo1.deleteById(geloescht);
+            final var vorher = repo1.findAll();
+            repo1.close();
+
+            // when
+            final var repo2 = repoLsm(RepositoryProps.Storage.LSM, true, false);
+            final var nachher = repo2.findAll();
+
+            // then
+            assertThat(nachher)
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(vorher);
+            assertThat(repo2.findByName("Geaendert")).extracting(Filiale::getId).containsExactly(id);
+            assertThat(repo2.isEmailExisting(EMAIL_VORHANDEN)).isFalse();
+            repo2.close();
+        }
+
+        @Test
+        @DisplayName("Snapshot ohne Posting-Listen auch mit dem Speicher im Heap laden")
+        void neustartSnapshot() {
+            // given
+            final var repo1 = repoLsm(RepositoryProps.Storage.LSM, true, true);
+            final var id = repo1.create(neueFiliale("snapshot@test.de")).orElseThrow().getId();
+            final var vorher = repo1.findAll();
+            repo1.close();
+
+            // when
+            final var repo2 = repoLsm(RepositoryProps.Storage.LSM, true, true);
+            final var nachher = repo2.findAll();
+            repo2.close();
+            final var repoHeap = repoLsm(RepositoryProps.Storage.SNAPSHOT, true, true);
+            final var heap = repoHeap.findAll();
+
+            // then
+            assertThat(nachher)
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(vorher);
+            assertThat(heap)
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(vorher);
+            assertThat(repoHeap.findByName("Test")).extracting(Filiale::getId).contains(id);
+            repoHeap.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Unveraenderliche Map fuer Schnappschuesse testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class HamtMapTest {
+    @Test
+    @DisplayName("Zufaellige Aenderungen wie bei HashMap")
+    void vergleichMitHashMap() {
+        // given
+        final var random = new Random(4711);
+        final var erwartet = new HashMap<Kollision, Integer>();
+        var map = HamtMap.<Kollision, Integer>empty();
+
+        // when
+        for (int i = 0; i < 20_000; i++) {
+            final var key = new Kollision(random.nextInt(2_000));
+            if (random.nextInt(3) == 0) {
+                erwartet.remove(key);
+                map = map.remove(key);
+            } else {
+                erwartet.put(key, i);
+                map = map.put(key, i);
+            }
+        }
+
+        // then
+        assertThat(map.size()).isEqualTo(erwartet.size());
+        for (final var entry : erwartet.entrySet()) {
+            assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        assertThat(map).containsExactlyInAnyOrderElementsOf(erwartet.values());
+    }
+
+    @Test
+    @DisplayName("Alte Versionen bleiben unveraendert")
+    void persistent() {
+        // given
+        final var alt = HamtMap.<String, String>empty().put("a", "1").put("b", "2");
+
+        // when
+        final var neu = alt.put("a", "3").remove("b");
+
+        // then
+        assertThat(alt.get("a")).isEqualTo("1");
+        assertThat(alt.get("b")).isEqualTo("2");
+        assertThat(alt.size()).isEqualTo(2);
+        assertThat(neu.get("a")).isEqualTo("3");
+        assertThat(neu.get("b")).isNull();
+        assertThat(neu.size()).isEqualTo(1);
+    }
+
+    // wenige verschiedene Hashwerte, damit auch Kollisionen und tiefe Unterknoten entstehen
+    private record Kollision(int wert) {
+        @Override
+        public int hashCode() {
+            return wert % 97 * 0x01010101;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.entity.Umsatz;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Repository fuer Filialen mit H2 im Modus fuer PostgreSQL testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class JdbcFilialenRepositoryTest {
+    private static final String EMAIL_VORHANDEN = "alpha@acme.de";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final FilialenRepository vergleich = new EmbeddedFilialenRepository();
+
+    private HikariDataSource dataSource;
+
+    private JdbcFilialenRepository repo;
+
+    @BeforeEach
+    void init() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() +
+            ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(4);
+        new ResourceDatabasePopulator(new ClassPathResource("db/schema-h2.sql")).execute(dataSource);
+        // kleine Seiten und Batches, damit die Keyset Pagination mehrere Abfragen braucht
+        repo = repo(1_000);
+    }
+
+    private JdbcFilialenRepository repo(final int bloomFilterCapacity) {
+        return new JdbcFilialenRepository(
+            new JdbcTemplate(dataSource),
+            new RepositoryProps.Jdbc(2, 2, bloomFilterCapacity),
+            RepositoryProps.IdGenerator.UUIDV7,
+            registry
+        );
+    }
+
+    @AfterEach
+    void close() {
+        repo.close();
+        dataSource.close();
+    }
+
+    private static Filiale neueFiliale(final String email) {
+        return Filiale.builder()
+            .name("Test")
+            .email(email)
+            .umsatz(Umsatz.builder().betrag(new BigDecimal("12.30")).waehrung(Currency.getInstance("CHF")).build())
+            .adresse(Adresse.builder().plz("12345").ort("Testort").build())
+            .build();
+    }
+
+    @Test
+    @DisplayName("Initiale Filialen mit allen Attributen")
+    void findAll() {
+        // when
+        final var filialen = repo.findAll();
+
+        // then
+        assertThat(filialen)
+            .usingRecursiveFieldByFieldElementComparatorIgnoringFields("version")
+            .containsExactlyInAnyOrderElementsOf(vergleich.findAll());
+    }
+
+    @Test
+    @DisplayName("Suchkriterien wie im Speicher")
+    void find() {
+        // given
+        final var suchkriterien = List.of(
+            Map.of("name", "Alpha"),
+            Map.of("name", "a", "plz", "1"),
+            Map.of("email", "ALPHA@acme.de"),
+            Map.of("plz", "7"),
+            Map.of("name", "%"),
+            Map.of("unbekannt", "x"),
+            Map.of("name", "Alpha", "unbekannt", "x")
+        );
+
+        // when / then
+        suchkriterien.forEach(kriterien -> assertThat(repo.find(kriterien))
+            .as(kriterien.toString())
+            .usingRecursiveFieldByFieldElementComparatorIgnoringFields("version")
+            .containsExactlyInAnyOrderElementsOf(vergleich.find(kriterien)));
+        assertThat(repo.findByName("lph"))
+            .usingRecursiveFieldByFieldElementComparatorIgnoringFields("version")
+            .containsExactlyInAnyOrderElementsOf(vergleich.findByName("lph"));
+        assertThat(repo.findByEmail("Alpha@Acme.De")).isPresent();
+        assertThat(repo.findByEmail(null)).isEmpty();
+        assertThat(repo.isEmailExisting(null)).isFalse();
+        assertThat(repo.isEmailExisting("ALPHA@acme.de")).isTrue();
+        assertThat(repo.findNamenByPrefix("A", 10)).isEqualTo(vergleich.findNamenByPrefix("A", 10));
+        assertThat(repo.explain(Map.of("email", "x")).zugriff()).contains("email");
+    }
+
+    @Test
+    @DisplayName("Neuanlegen, Aendern und Loeschen mit eindeutigen Emailadressen")
+    void createUpdateDelete() {
+        // given
+        final var filiale = neueFiliale("jdbc@test.de");
+
+        // when
+        final var angelegt = repo.create(filiale).orElseThrow();
+        final var doppelt = repo.create(neueFiliale("JDBC@test.de"));
+        angelegt.setName("Geaendert");
+        final var geaendert = repo.update(angelegt);
+        angelegt.setEmail("alpha@acme.de");
+        final var emailVorhanden = repo.update(angelegt);
+        final var gelesen = repo.findById(angelegt.getId()).orElseThrow();
+        repo.deleteById(angelegt.getId());
+        final var version = repo.version();
+        final var geloescht = repo.update(angelegt);
+
+        // then
+        assertThat(geloescht).isFalse();
+        assertThat(repo.version()).isEqualTo(version);
+        assertThat(doppelt).isEmpty();
+        assertThat(geaendert).isTrue();
+        assertThat(emailVorhanden).isFalse();
+        assertThat(gelesen.getName()).isEqualTo("Geaendert");
+        assertThat(gelesen.getEmail()).isEqualTo("jdbc@test.de");
+        assertThat(gelesen.getUmsatz().getBetrag()).isEqualByComparingTo("12.30");
+        assertThat(gelesen.getUmsatz().getWaehrung().getCurrencyCode()).isEqualTo("CHF");
+        assertThat(repo.findById(angelegt.getId())).isEmpty();
+        assertThat(repo.isEmailExisting("jdbc@test.de")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Paralleles Neuanlegen mit derselben neuen ID")
+    void computeNeueIdParallel() {
+        // given
+        final var ids = IntStream.range(0, 4).mapToObj(i -> UUID.randomUUID()).toList();
+
+        // when: die Pause vergroessert das Zeitfenster zwischen SELECT FOR UPDATE ohne Zeile und INSERT
+        final var ergebnisse = IntStream.range(0, ids.size() * 4)
+            .parallel()
+            .mapToObj(i -> ids.get(i % ids.size()))
+            .map(id -> repo.compute(id, alt -> {
+                if (alt != null) {
+                    return alt;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                return neueFiliale(id + "@test.de");
+            }))
+            .toList();
+
+        // then
+        assertThat(ergebnisse).allMatch(result -> result.status() == WriteResult.Status.OK);
+        assertThat(ids).allMatch(id -> repo.findById(id).isPresent());
+    }
+
+    @Test
+    @DisplayName("Parallele Aenderungen als Unit of Work mit Zeilensperre")
+    void compute() {
+        // given
+        final var id = repo.create(neueFiliale("compute@test.de")).orElseThrow().getId();
+
+        // when
+        final var ergebnisse = IntStream.range(0, 16)
+            .parallel()
+            .mapToObj(i -> repo.compute(id, alt -> {
+                alt.setName("Name" + i);
+                return alt;
+            }))
+            .toList();
+        final var emailVorhanden = repo.compute(id, alt -> {
+            alt.setEmail("alpha@acme.de");
+            return alt;
+        });
+        final var nichtVorhanden = repo.compute(UUID.randomUUID(), alt -> alt);
+        final var gelesen = repo.findById(id).orElseThrow();
+        final var geloescht = repo.compute(id, alt -> null);
+
+        // then
+        assertThat(ergebnisse).allMatch(result -> result.status() == WriteResult.Status.OK);
+        assertThat(emailVorhanden).isEqualTo(WriteResult.EMAIL_EXISTS);
+        assertThat(nichtVorhanden).isEqualTo(WriteResult.NOT_FOUND);
+        assertThat(gelesen.getName()).startsWith("Name");
+        assertThat(gelesen.getEmail()).isEqualTo("compute@test.de");
+        assertThat(geloescht.status()).isEqualTo(WriteResult.Status.OK);
+        assertThat(repo.findById(id)).isEmpty();
+        assertThat(repo.findByEmail("compute@test.de")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Keyset Pagination mit einer Abfrage pro Seite")
+    void seiten() {
+        // given
+        final var ids = new ArrayList<UUID>();
+        UUID after = null;
+
+        // when
+        do {
+            final var page = repo.find(Map.of(), after, 4);
+            assertThat(page.filialen()).hasSizeLessThanOrEqualTo(4);
+            page.filialen().forEach(filiale -> ids.add(filiale.getId()));
+            after = page.next();
+        } while (after != null);
+        final var plz = repo.find(Map.of("plz", "1"), null, 1000);
+
+        // then
+        assertThat(ids)
+            .doesNotHaveDuplicates()
+            .containsExactlyInAnyOrderElementsOf(repo.findAll().stream().map(Filiale::getId).toList());
+        assertThat(plz.next()).isNull();
+        assertThat(plz.filialen()).extracting(Filiale::getId)
+            .containsExactlyInAnyOrderElementsOf(repo.find(Map.of("plz", "1")).stream().map(Filiale::getId).toList());
+        assertThat(repo.find(Map.of("foo", "bar"), null, 10)).isEqualTo(Page.EMPTY);
+    }
+
+    @Test
+    @DisplayName("Versionen der Filialen und globale Version")
+    void version() {
+        // given
+        final var vorher = repo.version();
+
+        // when
+        final var angelegt = repo.create(neueFiliale("version@test.de")).orElseThrow();
+        final var geaendert = repo.compute(angelegt.getId(), alt -> {
+            alt.setName("Geaendert");
+            return alt;
+        }).filiale();
+        final var gelesen = repo.findById(angelegt.getId()).orElseThrow();
+        final var nachUpdate = repo.version();
+        repo.deleteById(angelegt.getId());
+
+        // then
+        assertThat(angelegt.getVersion()).isPositive();
+        assertThat(geaendert.getVersion()).isGreaterThan(angelegt.getVersion());
+        assertThat(gelesen.getVersion()).isEqualTo(geaendert.getVersion());
+        assertThat(nachUpdate).isGreaterThan(vorher).isGreaterThanOrEqualTo(geaendert.getVersion());
+        assertThat(repo.version()).isGreaterThan(nachUpdate);
+    }
+
+    @Test
+    @DisplayName("Globale Version mit den Aenderungen und DELETE-Anweisungen einer anderen Instanz")
+    void versionAndereInstanz() {
+        // given
+        final var andere = repo(0);
+        final var neu = andere.create(neueFiliale("andere@test.de")).orElseThrow();
+        final var alpha = repo.findByEmail(EMAIL_VORHANDEN).orElseThrow();
+        alpha.setName("Alpha Andere");
+        final var vorher = repo.version();
+
+        // when
+        andere.deleteById(neu.getId());
+        final var nachDelete = repo.version();
+        // die Version der geaenderten Zeile ist kleiner als die bisher groesste Version in der Tabelle
+        andere.update(alpha);
+        final var nachUpdate = repo.version();
+        andere.compute(alpha.getId(), alt -> null);
+        final var nachCompute = repo.version();
+
+        // then
+        assertThat(andere.version()).isEqualTo(nachCompute);
+        assertThat(nachDelete).isGreaterThan(vorher);
+        assertThat(nachUpdate).isGreaterThan(nachDelete);
+        assertThat(nachCompute).isGreaterThan(nachUpdate);
+        andere.close();
+    }
+
+    @Test
+    @DisplayName("Initiale Filialen und Zeilen ohne Version erhalten den Zeitpunkt des Ladens als Version")
+    void initialeVersion() {
+        // given
+        final var vorLaden = System.currentTimeMillis();
+        new JdbcTemplate(dataSource).update("UPDATE filiale SET version = 0 WHERE name = 'Alpha'");
+
+        // when
+        repo.close();
+        repo = repo(1_000);
+        final var filialen = repo.findAll();
+
+        // then
+        assertThat(filialen)
+            .isNotEmpty()
+            .allSatisfy(filiale -> assertThat(filiale.getVersion())
+                .isPositive()
+                .isLessThanOrEqualTo(repo.version()));
+        assertThat(repo.findByName("Alpha"))
+            .isNotEmpty()
+            .allSatisfy(filiale -> assertThat(filiale.getVersion()).isGreaterThanOrEqualTo(vorLaden));
+    }
+
+    @Test
+    @DisplayName("Aenderung nur mit der aktuellen Version")
+    void computeMitVersion() {
+        // given
+        final var angelegt = repo.create(neueFiliale("optimistisch@test.de")).orElseThrow();
+        final var id = angelegt.getId();
+
+        // when
+        final var veraltet = repo.compute(id, angelegt.getVersion() - 1, alt -> {
+            alt.setName("Veraltet");
+            return alt;
+        });
+        final var aktuell = repo.compute(id, angelegt.getVersion(), alt -> {
+            alt.setName("Aktuell");
+            return alt;
+        });
+        final var nochmals = repo.compute(id, angelegt.getVersion(), alt -> alt);
+        final var gelesen = repo.findById(id).orElseThrow();
+        repo.deleteById(id);
+
+        // then
+        assertThat(veraltet.status()).isEqualTo(WriteResult.Status.VERSION_MISMATCH);
+        assertThat(aktuell.status()).isEqualTo(WriteResult.Status.OK);
+        assertThat(nochmals.status()).isEqualTo(WriteResult.Status.VERSION_MISMATCH);
+        assertThat(gelesen.getName()).isEqualTo("Aktuell");
+        assertThat(gelesen.getVersion()).isEqualTo(aktuell.filiale().getVersion());
+    }
+
+    @Test
+    @DisplayName("Lazy Stream liest die Filialen seitenweise")
+    void stream() {
+        // when
+        final List<UUID> ids;
+        try (var stream = repo.stream(Map.of())) {
+            ids = stream.map(Filiale::getId).toList();
+        }
+        final List<UUID> plz;
+        try (var stream = repo.stream(Map.of("plz", "1"))) {
+            plz = stream.map(Filiale::getId).toList();
+        }
+
+        // then
+        assertThat(ids)
+            .doesNotHaveDuplicates()
+            .containsExactlyInAnyOrderElementsOf(repo.findAll().stream().map(Filiale::getId).toList());
+        assertThat(plz)
+            .containsExactlyInAnyOrderElementsOf(repo.find(Map.of("plz", "1")).stream().map(Filiale::getId).toList());
+    }
+
+    @Test
+    @DisplayName("Einfuegen und Aendern mit Batches")
+    void batch() {
+        // given
+        final var anzahl = repo.findAll().size();
+        final var filialen = IntStream.range(0, 25)
+            .mapToObj(i -> {
+                final var filiale = neueFiliale("batch" + i + "@test.de");
+                filiale.setId(UUID.randomUUID());
+                return filiale;
+            })
+            .toList();
+
+        // when
+        repo.insertAll(filialen);
+        filialen.forEach(filiale -> filiale.setName("Batch"));
+        repo.updateAll(filialen);
+
+        // then
+        assertThat(repo.findAll()).hasSize(anzahl + 25);
+        assertThat(repo.findByName("Batch")).hasSize(25);
+        assertThat(registry.get("filiale.repository.jdbc.query").tag("query", "find").timer().count()).isPositive();
+        assertThat(registry.get("hikaricp.connections").gauge().value()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Nicht vorhandene IDs und Emailadressen ohne DB-Zugriff")
+    void bloomFilter() {
+        // given
+        final var findById = registry.timer("filiale.repository.jdbc.query", "query", "findById");
+        final var isEmailExisting = registry.timer("filiale.repository.jdbc.query", "query", "isEmailExisting");
+        final var id = repo.create(neueFiliale("bloom@test.de")).orElseThrow().getId();
+
+        // when
+        final var nichtVorhanden = IntStream.range(0, 100)
+            .filter(i -> repo.findById(UUID.randomUUID()).isPresent() ||
+                repo.isEmailExisting("unbekannt" + i + "@test.de"))
+            .count();
+        final var vorhanden = repo.findById(id).isPresent() && repo.isEmailExisting("BLOOM@test.de");
+        repo.deleteById(id);
+
+        // then
+        assertThat(nichtVorhanden).isZero();
+        assertThat(vorhanden).isTrue();
+        assertThat(findById.count()).isLessThan(10);
+        assertThat(isEmailExisting.count()).isLessThan(10);
+        assertThat(repo.findById(id)).isEmpty();
+        assertThat(repo.findByEmail("bloom@test.de")).isEmpty();
+        assertThat(registry.get("filiale.repository.bloom.fpp").tag("filter", "email").gauge().value()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Bloom-Filter nach einem Neustart aus der DB laden")
+    void neustart() {
+        // given
+        final var filiale = repo.create(neueFiliale("neustart@test.de")).orElseThrow();
+        filiale.setEmail("geaendert@test.de");
+        repo.update(filiale);
+
+        // when
+        final var repoNeu = repo(1_000);
+
+        // then
+        assertThat(repoNeu.findById(filiale.getId())).isPresent();
+        assertThat(repoNeu.isEmailExisting("geaendert@test.de")).isTrue();
+        assertThat(repoNeu.isEmailExisting("neustart@test.de")).isFalse();
+        assertThat(repoNeu.findAll()).hasSameSizeAs(repo.findAll());
+    }
+
+    @Test
+    @DisplayName("Ohne Bloom-Filter")
+    void ohneBloomFilter() {
+        // given
+        final var repoOhne = repo(0);
+
+        // when
+        final var angelegt = repoOhne.create(neueFiliale("ohne@test.de")).orElseThrow();
+        angelegt.setName("Ohne");
+        final var geaendert = repoOhne.update(angelegt);
+        repoOhne.deleteById(angelegt.getId());
+        final var version = repoOhne.version();
+        final var geloescht = repoOhne.update(angelegt);
+
+        // then
+        assertThat(geaendert).isTrue();
+        assertThat(geloescht).isFalse();
+        assertThat(repoOhne.version()).isEqualTo(version);
+        assertThat(repoOhne.findById(angelegt.getId())).isEmpty();
+        assertThat(repoOhne.isEmailExisting("ohne@test.de")).isFalse();
+        assertThat(repoOhne.findByEmail(EMAIL_VORHANDEN)).isPresent();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("LSM-Baum testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class LsmTreeTest {
+    @TempDir
+    private Path verzeichnis;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private LsmTree tree() {
+        final var config = new RepositoryProps.Lsm(verzeichnis.toString(), DataSize.ofKilobytes(4), 2);
+        return new LsmTree("test", config, registry);
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(final byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Zufaellige Aenderungen wie in einer TreeMap")
+    void zufaellig() {
+        // given
+        final var tree = tree();
+        final var erwartet = new TreeMap<String, String>();
+        final var random = new Random(4711);
+
+        // when
+        for (int i = 0; i < 20_000; i++) {
+            final var schluessel = "key" + random.nextInt(2_000);
+            if (random.nextInt(4) == 0) {
+                tree.delete(bytes(schluessel));
+                erwartet.remove(schluessel);
+            } else {
+                final var wert = "wert" + i;
+                tree.put(bytes(schluessel), bytes(wert));
+                erwartet.put(schluessel, wert);
+            }
+        }
+        final var gescannt = new TreeMap<String, String>();
+        tree.scan(null, null, (schluessel, wert) -> {
+            gescannt.put(text(schluessel), text(wert));
+            return true;
+        });
+
+        // then
+        assertThat(gescannt).containsExactlyEntriesOf(erwartet);
+        for (int i = 0; i < 2_000; i++) {
+            final var wert = tree.get(bytes("key" + i));
+            assertThat(wert == null ? null : text(wert)).isEqualTo(erwartet.get("key" + i));
+        }
+        assertThat(registry.get("filiale.repository.lsm.flush").timer().count()).isPositive();
+        tree.close();
+    }
+
+    @Test
+    @DisplayName("Bereichsabfrage mit Abbruch und ohne geloeschte Eintraege")
+    void scan() {
+        // given
+        final var tree = tree();
+        for (int i = 0; i < 1_000; i++) {
+            tree.put(bytes(String.format("key%04d", i)), bytes("wert" + i));
+        }
+        tree.delete(bytes("key0101"));
+
+        // when
+        final var schluessel = new ArrayList<String>();
+        tree.scan(bytes("key0100"), bytes("key0200"), (key, wert) -> {
+            schluessel.add(text(key));
+            return schluessel.size() < 3;
+        });
+        final var anzahl = new int[1];
+        tree.scan(bytes("key0100"), bytes("key0200"), (key, wert) -> ++anzahl[0] > 0);
+
+        // then
+        assertThat(schluessel).containsExactly("key0100", "key0102", "key0103");
+        assertThat(anzahl[0]).isEqualTo(99);
+        tree.close();
+    }
+
+    @Test
+    @DisplayName("SSTables beim Schliessen loeschen")
+    void close() throws Exception {
+        // given
+        final var tree = tree();
+        final var wert = new byte[512];
+        Arrays.fill(wert, (byte) 'x');
+        for (int i = 0; i < 100; i++) {
+            tree.put(bytes("key" + i), wert);
+        }
+
+        // when
+        tree.close();
+
+        // then
+        try (var dateien = Files.list(verzeichnis)) {
+            assertThat(dateien.filter(datei -> datei.toString().endsWith(".sst"))).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Cache fuer Suchergebnisse testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class QueryCacheTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final QueryCache cache = new QueryCache(100, registry);
+
+    private final AtomicInteger suchen = new AtomicInteger();
+
+    @Test
+    @DisplayName("Wiederholte Suche aus dem Cache, auch mit leerem Ergebnis")
+    void hit() {
+        // given
+        final var alpha = filiale("Alpha", "alpha@acme.de");
+
+        // when
+        final var page1 = page(Map.of("name", "Alpha"), alpha);
+        final var page2 = page(Map.of("name", "Alpha"), alpha);
+        page(Map.of("email", "nicht@vorhanden.de"));
+        final var leer = page(Map.of("email", "NICHT@vorhanden.de"));
+
+        // then
+        assertThat(page2).isSameAs(page1);
+        assertThat(leer.filialen()).isEmpty();
+        assertThat(suchen).hasValue(2);
+        assertThat(registry.get("filiale.repository.cache.gets").tag("result", "hit").counter().count())
+            .isEqualTo(2);
+        assertThat(registry.get("filiale.repository.cache.gets").tag("result", "miss").counter().count())
+            .isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Eine Aenderung entfernt nur die Ergebnisse, deren Praedikat sie erfuellt")
+    void invalidation() {
+        // given
+        page(Map.of("name", "Alpha"));
+        page(Map.of("email", "neu@acme.de"));
+        page(Map.of("plz", "7"));
+        namen("Al");
+        final var alt = filiale("Beta", "beta@acme.de");
+
+        // when
+        try (var invalidation = cache.invalidation()) {
+            invalidation.wrap(filiale -> {
+                filiale.setName("Alphabet");
+                return filiale;
+            }).apply(alt);
+        }
+
+        // then
+        assertThat(cache.size()).isEqualTo(2);
+        page(Map.of("email", "NEU@acme.de"));
+        page(Map.of("plz", "7"));
+        assertThat(suchen).hasValue(4);
+        page(Map.of("name", "Alpha"));
+        namen("Al");
+        assertThat(suchen).hasValue(6);
+        assertThat(registry.get("filiale.repository.cache.invalidations").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Waehrend einer Aenderung werden keine Ergebnisse gespeichert")
+    void waehrendAenderung() {
+        // given
+        final var invalidation = cache.invalidation();
+        invalidation.wrap(filiale -> null).apply(filiale("Alpha", "alpha@acme.de"));
+
+        // when
+        page(Map.of("name", "Beta"));
+        page(Map.of("name", "Beta"));
+        invalidation.close();
+        page(Map.of("name", "Beta"));
+        page(Map.of("name", "Beta"));
+
+        // then
+        assertThat(suchen).hasValue(3);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Haeufige Suchen werden nicht von einmaligen Suchen verdraengt")
+    void admission() {
+        // given
+        final var haeufig = IntStream.range(0, 50).mapToObj(i -> Map.of("name", "Haeufig" + i)).toList();
+        for (int i = 0; i < 5; i++) {
+            haeufig.forEach(this::page);
+        }
+        final var vorher = suchen.get();
+
+        // when
+        IntStream.range(0, 1000).forEach(i -> page(Map.of("name", "Einmalig" + i)));
+        suchen.set(0);
+        haeufig.forEach(this::page);
+
+        // then
+        assertThat(vorher).isEqualTo(haeufig.size());
+        assertThat(suchen.get()).isLessThan(haeufig.size() / 10);
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(registry.get("filiale.repository.cache.evictions").counter().count()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Ohne Cache bei maximaler Groesse 0")
+    void ohneCache() {
+        // given
+        final var ohne = new QueryCache(0, registry);
+
+        // when
+        ohne.page(Map.of(), null, 10, () -> {
+            suchen.incrementAndGet();
+            return Page.EMPTY;
+        });
+        ohne.page(Map.of(), null, 10, () -> {
+            suchen.incrementAndGet();
+            return Page.EMPTY;
+        });
+
+        // then
+        assertThat(suchen).hasValue(2);
+        assertThat(ohne.size()).isZero();
+    }
+
+    private Page page(final Map<String, String> suchkriterien, final Filiale... treffer) {
+        return cache.page(suchkriterien, null, 10, () -> {
+            suchen.incrementAndGet();
+            return new Page(List.of(treffer), null);
+        });
+    }
+
+    private List<String> namen(final String prefix) {
+        return cache.namen(prefix, 10, () -> {
+            suchen.incrementAndGet();
+            return List.of();
+        });
+    }
+
+    private static Filiale filiale(final String name, final String email) {
+        return Filiale.builder()
+            .id(UUID.randomUUID())
+            .name(name)
+            .email(email)
+            .adresse(Adresse.builder().plz("12345").ort("Testort").build())
+            .build();
+    }
+}
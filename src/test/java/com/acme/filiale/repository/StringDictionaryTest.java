@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static com.acme.filiale.repository.StringDictionary.NULL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Dictionary fuer Strings ausserhalb des Heap testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class StringDictionaryTest {
+    @Test
+    @DisplayName("Ein String wird erst ohne Referenzen entfernt und sein Code wiederverwendet")
+    void referenzen() {
+        // given
+        final var dictionary = new StringDictionary();
+        final var code = dictionary.encode("Alpha");
+        final var beta = dictionary.encode("Beta");
+
+        // when
+        final var nochmals = dictionary.encode("Alpha");
+        dictionary.release(code);
+        final var nachErstemRelease = dictionary.decode(code);
+        dictionary.release(code);
+        final var gamma = dictionary.encode("Gamma");
+
+        // then
+        assertThat(nochmals).isEqualTo(code);
+        assertThat(nachErstemRelease).isEqualTo("Alpha");
+        assertThat(gamma).isEqualTo(code);
+        assertThat(dictionary.decode(gamma)).isEqualTo("Gamma");
+        assertThat(dictionary.decode(beta)).isEqualTo("Beta");
+        assertThat(dictionary.encode("Beta")).isEqualTo(beta);
+        assertThat(dictionary.size()).isEqualTo(2);
+        assertThat(dictionary.encode(null)).isEqualTo(NULL);
+    }
+
+    @Test
+    @DisplayName("Der Speicher waechst nicht mit der Anzahl der Aenderungen")
+    void aenderungen() {
+        // given
+        final var dictionary = new StringDictionary();
+        final var codes = IntStream.range(0, 1_000).map(i -> dictionary.encode("Wert " + i)).toArray();
+        final var bytes = dictionary.bytes();
+
+        // when
+        for (int runde = 1; runde <= 200; runde++) {
+            for (int i = 0; i < codes.length; i++) {
+                final var alt = codes[i];
+                codes[i] = dictionary.encode("Wert " + i + " in Runde " + runde);
+                dictionary.release(alt);
+            }
+        }
+
+        // then
+        assertThat(dictionary.size()).isEqualTo(codes.length);
+        assertThat(dictionary.bytes()).isLessThanOrEqualTo(bytes * 4);
+        for (int i = 0; i < codes.length; i++) {
+            assertThat(dictionary.decode(codes[i])).isEqualTo("Wert " + i + " in Runde 200");
+            assertThat(dictionary.encode("Wert " + i + " in Runde 200")).isEqualTo(codes[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("Suchen, Zaehlen und Vergleichen ohne Dekodieren")
+    void vergleichen() {
+        // given
+        final var dictionary = new StringDictionary();
+        final var alpha = dictionary.encode("Alpha");
+        dictionary.encode("Alpha");
+        final var umlaut = dictionary.encode("\u00c4rger");
+
+        // when
+        final var gefunden = dictionary.find("Alpha");
+        final var nichtGefunden = dictionary.find("Beta");
+
+        // then
+        assertThat(gefunden).isEqualTo(alpha);
+        assertThat(nichtGefunden).isEqualTo(NULL);
+        assertThat(dictionary.find(null)).isEqualTo(NULL);
+        assertThat(dictionary.count(alpha)).isEqualTo(2);
+        assertThat(dictionary.count(umlaut)).isEqualTo(1);
+        assertThat(dictionary.compare(alpha, "Alpha".getBytes(UTF_8))).isZero();
+        assertThat(dictionary.compare(alpha, "Alp".getBytes(UTF_8))).isPositive();
+        assertThat(dictionary.compare(alpha, "Beta".getBytes(UTF_8))).isNegative();
+        // vorzeichenlos: die Bytes eines Umlauts in UTF-8 sind groesser als ASCII
+        assertThat(dictionary.compare(umlaut, "Zeta".getBytes(UTF_8))).isPositive();
+        assertThat(dictionary.startsWith(alpha, "Al".getBytes(UTF_8))).isTrue();
+        assertThat(dictionary.startsWith(alpha, "".getBytes(UTF_8))).isTrue();
+        assertThat(dictionary.startsWith(alpha, "Alphabet".getBytes(UTF_8))).isFalse();
+        assertThat(dictionary.startsWith(umlaut, "\u00c4".getBytes(UTF_8))).isTrue();
+    }
+
+    @Test
+    @DisplayName("ColumnarStore gibt die Strings geaenderter und geloeschter Filialen frei")
+    void columnarStore() {
+        // given
+        final var registry = new SimpleMeterRegistry();
+        final var id = UUID.randomUUID();
+        final var store = new ColumnarStore(List.of(filiale(id, 0)), registry);
+        final var anzahl = registry.get("filiale.repository.columnar.dictionary.size").gauge();
+        final var vorher = anzahl.value();
+
+        // when
+        IntStream.rangeClosed(1, 100).forEach(i -> store.replace(filiale(id, i)));
+        final var nachAenderungen = anzahl.value();
+        store.remove(id);
+
+        // then
+        assertThat(nachAenderungen).isEqualTo(vorher);
+        assertThat(store.get(id)).isNull();
+        assertThat(anzahl.value()).isZero();
+    }
+
+    private static Filiale filiale(final UUID id, final int i) {
+        return Filiale.builder()
+            .id(id)
+            .name("Filiale " + i)
+            .email(i + "@test.de")
+            .adresse(Adresse.builder().plz("PLZ-" + i + "-lang").ort("Ort " + i).build())
+            .build();
+    }
+}
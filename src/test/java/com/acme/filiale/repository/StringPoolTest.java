@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static com.acme.filiale.repository.StringPool.KEIN_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Pool fuer kanonische Strings testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class StringPoolTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final StringPool pool = new StringPool(registry);
+
+    @Test
+    @DisplayName("Gleiche Namen und Orte werden gemeinsam genutzt")
+    void canonicalize() {
+        // given
+        final var filiale1 = filiale(new String("Alpha"), new String("Karlsruhe"));
+        final var filiale2 = filiale(new String("Alpha"), new String("Karlsruhe"));
+
+        // when
+        pool.canonicalize(filiale1);
+        pool.canonicalize(filiale2);
+
+        // then
+        assertThat(filiale2.getName()).isSameAs(filiale1.getName());
+        assertThat(filiale2.getAdresse().getOrt()).isSameAs(filiale1.getAdresse().getOrt());
+        assertThat(pool.size()).isEqualTo(2);
+        assertThat(registry.get("filiale.repository.strings.saved").counter().count())
+            .isEqualTo(StringPool.groesse("Alpha") + StringPool.groesse("Karlsruhe"));
+    }
+
+    @Test
+    @DisplayName("Fortlaufende Codes fuer die Strings im Pool")
+    void code() {
+        // when
+        pool.intern("Alpha");
+        pool.intern("Delta");
+        pool.intern(new String("Alpha"));
+
+        // then
+        assertThat(pool.code("Alpha")).isZero();
+        assertThat(pool.code("Delta")).isEqualTo(1);
+        assertThat(pool.code("Epsilon")).isEqualTo(KEIN_CODE);
+    }
+
+    @Test
+    @DisplayName("Ohne Adresse und null als Wert")
+    void ohneAdresse() {
+        // given
+        final var filiale = Filiale.builder().name("Phi").build();
+
+        // when
+        pool.canonicalize(filiale);
+
+        // then
+        assertThat(filiale.getAdresse()).isNull();
+        assertThat(pool.intern(null)).isNull();
+        assertThat(pool.code(null)).isEqualTo(KEIN_CODE);
+    }
+
+    @Test
+    @DisplayName("Groesse von Strings mit Latin-1 und UTF-16")
+    void groesse() {
+        // then
+        assertThat(StringPool.groesse("")).isEqualTo(40);
+        assertThat(StringPool.groesse("Karlsruhe")).isEqualTo(56);
+        assertThat(StringPool.groesse("Δelta")).isEqualTo(56);
+    }
+
+    private static Filiale filiale(final String name, final String ort) {
+        return Filiale.builder()
+            .name(name)
+            .adresse(Adresse.builder().plz("76133").ort(ort).build())
+            .build();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static com.acme.filiale.repository.UuidIntMap.MISSING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Hash-Tabelle fuer UUIDs testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class UuidIntMapTest {
+    @Test
+    @DisplayName("Zufaellige Aenderungen wie bei HashMap")
+    void vergleichMitHashMap() {
+        // given
+        final var random = new Random(4711);
+        final var erwartet = new HashMap<UUID, Integer>();
+        final var map = new UuidIntMap(0);
+
+        // when
+        for (int i = 0; i < 50_000; i++) {
+            // wenige verschiedene IDs, damit oft geaendert und geloescht wird
+            final var id = new UUID(random.nextInt(4_000), random.nextInt(4));
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits()))
+                    .isEqualTo(erwartet.getOrDefault(id, MISSING));
+                erwartet.remove(id);
+            } else {
+                assertThat(map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), i))
+                    .isEqualTo(erwartet.getOrDefault(id, MISSING));
+                erwartet.put(id, i);
+            }
+        }
+
+        // then
+        assertThat(map.size()).isEqualTo(erwartet.size());
+        erwartet.forEach((id, wert) -> assertThat(map.get(id)).isEqualTo(wert));
+    }
+
+    @Test
+    @DisplayName("UUID mit 0 in allen Bits")
+    void nullUuid() {
+        // given
+        final var map = new UuidIntMap(4);
+        final var id = new UUID(0, 0);
+
+        // when
+        map.put(0, 0, 7);
+
+        // then
+        assertThat(map.get(id)).isEqualTo(7);
+        assertThat(map.get(new UUID(0, 1))).isEqualTo(MISSING);
+        assertThat(map.remove(0, 0)).isEqualTo(7);
+        assertThat(map.get(id)).isEqualTo(MISSING);
+    }
+}
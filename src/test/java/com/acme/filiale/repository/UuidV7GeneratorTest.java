@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Generator fuer UUIDs der Version 7 testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class UuidV7GeneratorTest {
+    private static final long ZEITSTEMPEL = 1_700_000_000_000L;
+
+    @Test
+    @DisplayName("Version, Variante und Zeitstempel")
+    void aufbau() {
+        // given
+        final var generator = new UuidV7Generator(() -> ZEITSTEMPEL);
+
+        // when
+        final var id = generator.get();
+
+        // then
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(ZEITSTEMPEL);
+    }
+
+    @Test
+    @DisplayName("Streng monoton bei gleicher und zurueckgestellter Uhr sowie Ueberlauf des Zaehlers")
+    void monoton() {
+        // given
+        final var uhr = new AtomicLong(ZEITSTEMPEL);
+        final var generator = new UuidV7Generator(uhr::get);
+
+        // when
+        final var ids = IntStream.range(0, 10_000)
+            .mapToObj(i -> {
+                if (i == 5000) {
+                    uhr.addAndGet(-1000);
+                }
+                return generator.get();
+            })
+            .toArray(UUID[]::new);
+
+        // then
+        for (int i = 1; i < ids.length; i++) {
+            assertThat(ids[i]).isGreaterThan(ids[i - 1]);
+            assertThat(Arrays.compareUnsigned(bytes(ids[i]), bytes(ids[i - 1]))).isPositive();
+        }
+        // 4096 IDs pro Millisekunde, danach wird der Zeitstempel vorzeitig erhoeht
+        assertThat(ids[ids.length - 1].getMostSignificantBits() >>> 16).isEqualTo(ZEITSTEMPEL + 2);
+    }
+
+    @Test
+    @DisplayName("Eindeutig und geordnet bei parallelem Aufruf")
+    void parallel() {
+        // given
+        final var generator = new UuidV7Generator();
+
+        // when
+        final var ids = IntStream.range(0, 100_000)
+            .parallel()
+            .mapToObj(i -> generator.get())
+            .toList();
+
+        // then
+        assertThat(ids).doesNotHaveDuplicates();
+        // Zeitstempel und Zaehler sind auch ohne die Zufallszahlen eindeutig
+        assertThat(ids.stream().map(UUID::getMostSignificantBits).distinct()).hasSameSizeAs(ids);
+    }
+
+    private static byte[] bytes(final UUID id) {
+        final var buffer = ByteBuffer.allocate(16);
+        buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        return buffer.array();
+    }
+}
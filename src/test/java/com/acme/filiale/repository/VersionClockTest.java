@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Uhr fuer die Versionen testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class VersionClockTest {
+    private static final long ZEITSTEMPEL = 1_700_000_000_000L;
+
+    @Test
+    @DisplayName("Version ist der Zeitpunkt der Aenderung")
+    void zeitpunkt() {
+        // given
+        final var uhr = new AtomicLong(ZEITSTEMPEL);
+        final var versionen = new VersionClock(uhr::get, 0);
+
+        // when
+        uhr.addAndGet(1000);
+        final var version = versionen.next(0);
+
+        // then
+        assertThat(version).isEqualTo(ZEITSTEMPEL + 1000);
+        assertThat(versionen.current()).isEqualTo(ZEITSTEMPEL);
+    }
+
+    @Test
+    @DisplayName("Streng monoton bei gleicher und zurueckgestellter Uhr")
+    void monoton() {
+        // given
+        final var uhr = new AtomicLong(ZEITSTEMPEL);
+        final var versionen = new VersionClock(uhr::get, 0);
+
+        // when
+        final var folge = IntStream.range(0, 1000)
+            .mapToLong(i -> {
+                if (i == 500) {
+                    uhr.addAndGet(-1000);
+                }
+                return versionen.next(0);
+            })
+            .toArray();
+
+        // then
+        for (int i = 1; i < folge.length; i++) {
+            assertThat(folge[i]).isGreaterThan(folge[i - 1]);
+        }
+    }
+
+    @Test
+    @DisplayName("Neue Version groesser als die bisherige Version der Filiale")
+    void bisher() {
+        // given
+        final var versionen = new VersionClock(() -> ZEITSTEMPEL, 0);
+
+        // when
+        final var version = versionen.next(ZEITSTEMPEL + 5000);
+
+        // then
+        assertThat(version).isEqualTo(ZEITSTEMPEL + 5001);
+        assertThat(versionen.next(0)).isEqualTo(ZEITSTEMPEL + 5002);
+    }
+
+    @Test
+    @DisplayName("Globale Version steigt bei jeder gespeicherten Aenderung")
+    void commit() {
+        // given
+        final var versionen = new VersionClock(() -> ZEITSTEMPEL, ZEITSTEMPEL + 10);
+        final var erste = versionen.next(0);
+        final var zweite = versionen.next(0);
+
+        // when
+        versionen.commit(zweite);
+        final var nachZweiter = versionen.current();
+        versionen.commit(erste);
+
+        // then
+        assertThat(erste).isEqualTo(ZEITSTEMPEL + 11);
+        assertThat(nachZweiter).isEqualTo(zweite);
+        assertThat(versionen.current()).isEqualTo(zweite + 1);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.repository;
+
+import com.acme.filiale.entity.Filiale;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.io.TempDir;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("repository")
+@DisplayName("Write-Ahead-Log testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class WriteAheadLogTest {
+    @TempDir
+    private Path verzeichnis;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private RepositoryProps.Wal config(final Duration maxDelay) {
+        return new RepositoryProps.Wal(true, verzeichnis.resolve("test.wal").toString(), maxDelay);
+    }
+
+    private static Filiale filiale(final int i) {
+        return Filiale.builder().id(new UUID(0, i)).version(i).name("Filiale " + i).email(i + "@test.de").build();
+    }
+
+    @Test
+    @DisplayName("Parallele Datensaetze mit einem fsync pro Batch")
+    void groupCommit() {
+        // given
+        final var wal = WriteAheadLog.open(config(Duration.ofMillis(20)), new HashMap<>(), registry);
+
+        // when
+        IntStream.range(0, 64).parallel().forEach(i -> wal.put(filiale(i)));
+        wal.delete(new UUID(0, 0));
+        wal.close();
+
+        // then
+        final var filialen = new HashMap<UUID, Filiale>();
+        WriteAheadLog.open(config(Duration.ZERO), filialen, registry).close();
+        assertThat(filialen).hasSize(63).doesNotContainKey(new UUID(0, 0));
+        assertThat(filialen.get(new UUID(0, 42)).getEmail()).isEqualTo("42@test.de");
+        assertThat(filialen.get(new UUID(0, 42)).getVersion()).isEqualTo(42);
+        final var batch = registry.get("filiale.repository.wal.batch").summary();
+        assertThat(batch.count()).isLessThan(65);
+        assertThat(batch.max()).isGreaterThan(1);
+        assertThat(registry.get("filiale.repository.wal.commit").timer().count()).isEqualTo(65);
+    }
+
+    @Test
+    @DisplayName("Unvollstaendiger Datensatz am Ende wird abgeschnitten")
+    void unvollstaendig() throws IOException {
+        // given
+        final var wal = WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry);
+        wal.put(filiale(1));
+        wal.put(filiale(2));
+        wal.close();
+        final var datei = verzeichnis.resolve("test.wal");
+        final var groesse = Files.size(datei);
+        Files.write(datei, new byte[] {0, 0, 0, 42, 1, 2, 3}, APPEND);
+
+        // when
+        final var filialen = new HashMap<UUID, Filiale>();
+        final var walNeu = WriteAheadLog.open(config(Duration.ZERO), filialen, registry);
+        walNeu.put(filiale(3));
+        walNeu.close();
+
+        // then
+        assertThat(filialen).containsOnlyKeys(new UUID(0, 1), new UUID(0, 2));
+        assertThat(Files.size(datei)).isGreaterThan(groesse);
+        final var nachNeustart = new HashMap<UUID, Filiale>();
+        WriteAheadLog.open(config(Duration.ZERO), nachNeustart, registry).close();
+        assertThat(nachNeustart).containsOnlyKeys(new UUID(0, 1), new UUID(0, 2), new UUID(0, 3));
+    }
+
+    @Test
+    @DisplayName("Datensatz mit falscher Pruefsumme wird nicht eingespielt")
+    void pruefsumme() throws IOException {
+        // given
+        final var wal = WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry);
+        wal.put(filiale(1));
+        wal.put(filiale(2));
+        wal.close();
+        final var datei = verzeichnis.resolve("test.wal");
+        final var bytes = Files.readAllBytes(datei);
+        // letztes Byte des letzten Datensatzes veraendern
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(datei, bytes);
+
+        // when
+        final var filialen = new HashMap<UUID, Filiale>();
+        WriteAheadLog.open(config(Duration.ZERO), filialen, registry).close();
+
+        // then
+        assertThat(filialen).containsOnlyKeys(new UUID(0, 1));
+    }
+
+    @Test
+    @DisplayName("Checkpoint entfernt die Datensaetze vor der Position")
+    void checkpoint() throws IOException {
+        // given
+        final var datei = verzeichnis.resolve("test.wal");
+        final var wal = WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry);
+        IntStream.range(0, 10).forEach(i -> wal.put(filiale(i)));
+        final var position = wal.position();
+        final var vorher = Files.size(datei);
+
+        // when
+        wal.checkpoint(position);
+        wal.put(filiale(10));
+        wal.delete(new UUID(0, 9));
+        wal.close();
+
+        // then
+        assertThat(Files.size(datei)).isLessThan(vorher);
+        final var filialen = new HashMap<UUID, Filiale>();
+        filialen.put(new UUID(0, 9), filiale(9));
+        WriteAheadLog.open(config(Duration.ZERO), filialen, position, registry).close();
+        assertThat(filialen).containsOnlyKeys(new UUID(0, 10));
+        assertThatThrownBy(() -> WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry))
+            .isInstanceOf(UncheckedIOException.class);
+    }
+
+    @Test
+    @DisplayName("Ohne Checkpoint nur die Datensaetze ab der Position aus dem Snapshot")
+    void ab() {
+        // given
+        final var wal = WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry);
+        wal.put(filiale(1));
+        final var position = wal.position();
+        wal.put(filiale(2));
+        wal.close();
+
+        // when
+        final var filialen = new HashMap<UUID, Filiale>();
+        final var walNeu = WriteAheadLog.open(config(Duration.ZERO), filialen, position, registry);
+        walNeu.put(filiale(3));
+        walNeu.close();
+
+        // then
+        assertThat(filialen).containsOnlyKeys(new UUID(0, 2));
+        final var alle = new HashMap<UUID, Filiale>();
+        WriteAheadLog.open(config(Duration.ZERO), alle, registry).close();
+        assertThat(alle).containsOnlyKeys(new UUID(0, 1), new UUID(0, 2), new UUID(0, 3));
+    }
+
+    @Test
+    @DisplayName("Datei ohne Kopf wird abgelehnt")
+    void ohneKopf() throws IOException {
+        // given
+        Files.write(verzeichnis.resolve("test.wal"), new byte[] {0, 0, 0, 42, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+
+        // when/then
+        assertThatThrownBy(() -> WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry))
+            .isInstanceOf(UncheckedIOException.class)
+            .hasRootCauseMessage("Die Datei ist kein Write-Ahead-Log");
+    }
+
+    @Test
+    @DisplayName("Kein Schreiben nach dem Schliessen")
+    void geschlossen() {
+        // given
+        final var wal = WriteAheadLog.open(config(Duration.ZERO), new HashMap<>(), registry);
+        wal.close();
+
+        // when/then
+        assertThatThrownBy(() -> wal.put(filiale(1))).isInstanceOf(IllegalStateException.class);
+    }
+}
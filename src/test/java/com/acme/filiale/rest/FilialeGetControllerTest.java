@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.repository.EmbeddedFilialenRepository;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.RepositoryProps;
+import com.acme.filiale.service.FilialeReadService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@Tag("unit")
+@Tag("rest")
+@Tag("rest_get")
+@DisplayName("GET-Requests im Controller ohne Server testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class FilialeGetControllerTest {
+    // ein unbekanntes Suchkriterium wird neben einem bekannten ignoriert, bleibt aber im Link next
+    private static final String KRITERIUM = "kommentar";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final FilialeReadService service =
+        new FilialeReadService(new EmbeddedFilialenRepository(), new QueryCache(RepositoryProps.DEFAULT));
+
+    private final FilialeGetController controller = new FilialeGetController(
+        service,
+        new FilialenStreamWriter(mapper),
+        new FilialenResponseCache(
+            1 << 20,
+            new ServerProperties(),
+            new StaticListableBeanFactory().getBeanProvider(RequestMappingHandlerAdapter.class),
+            new SimpleMeterRegistry()
+        ),
+        new LinkTemplates()
+    );
+
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+    @Test
+    @DisplayName("Link next mit reservierten Zeichen in einem Suchkriterium")
+    void nextKodiert() {
+        // given
+        final var wert = "a+b@x.de&c=d e%";
+        final var queryParameter = Map.of("name", "a", KRITERIUM, wert, "limit", "2");
+        final var request = request(queryParameter);
+
+        // when
+        final var seite = controller.find(
+            queryParameter,
+            null,
+            2,
+            request,
+            new ServletWebRequest(request)
+        );
+
+        // then
+        final var next = seite.getRequiredLink(IanaLinkRelations.NEXT).getHref();
+        assertThat(next).contains(KRITERIUM + "=a%2Bb%40x.de%26c%3Dd%20e%25");
+        final var query = UriComponentsBuilder.fromUriString(next).build(true).getQueryParams();
+        assertThat(query.keySet()).containsExactlyInAnyOrder("name", KRITERIUM, "limit", "after");
+        assertThat(UriUtils.decode(query.getFirst(KRITERIUM), UTF_8)).isEqualTo(wert);
+        assertThat(query.getFirst("limit")).isEqualTo("2");
+    }
+
+    @Test
+    @DisplayName("Alle gefundenen Filialen als JSON-Array mit dem ETag der globalen Version")
+    void stream() throws Exception {
+        // given
+        final var etag = "\"" + service.version() + '"';
+
+        // when
+        final var response = streamen("/?name=Alpha&stream", APPLICATION_JSON, null);
+        final var unveraendert = streamen("/?name=Alpha&stream", APPLICATION_JSON, etag);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(ETAG)).isEqualTo(etag);
+        final var filialen = (ArrayNode) mapper.readTree(response.getContentAsString());
+        assertThat(filialen).hasSize(3);
+        filialen.forEach(filiale -> assertThat(filiale.get("name").asText()).isEqualTo("Alpha"));
+        assertThat(unveraendert.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    @DisplayName("Alle gefundenen Filialen als NDJSON mit eigenem ETag")
+    void ndjson() throws Exception {
+        // given
+        final var version = service.version();
+        final var etag = "\"" + version + FilialeGetController.NDJSON_ETAG_SUFFIX + '"';
+
+        // when
+        final var response = streamen("/?name=Alpha", APPLICATION_NDJSON, null);
+        final var unveraendert = streamen("/?name=Alpha", APPLICATION_NDJSON, etag);
+        final var etagJson = streamen("/?name=Alpha", APPLICATION_NDJSON, "\"" + version + '"');
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(ETAG)).isEqualTo(etag);
+        final var zeilen = response.getContentAsString().split("\n");
+        assertThat(zeilen).hasSize(3);
+        for (final var zeile : zeilen) {
+            assertThat(mapper.readTree(zeile).get("name").asText()).isEqualTo("Alpha");
+        }
+        assertThat(unveraendert.getStatus()).isEqualTo(304);
+        assertThat(etagJson.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    @DisplayName("Statuscode 404 bei einer erfolglosen Suche ohne Seiten")
+    void streamNichtGefunden() throws Exception {
+        // when
+        final var array = streamen("/?name=Zzz&stream", APPLICATION_JSON, null);
+        final var ndjson = streamen("/?name=Zzz", APPLICATION_NDJSON, null);
+
+        // then
+        assertThat(array.getStatus()).isEqualTo(404);
+        assertThat(ndjson.getStatus()).isEqualTo(404);
+    }
+
+    // der Body wird asynchron geschrieben, aber nur bei einem gestarteten Stream
+    private MockHttpServletResponse streamen(final String uri, final MediaType accept, final String ifNoneMatch)
+        throws Exception {
+        final var request = get(uri).accept(accept);
+        if (ifNoneMatch != null) {
+            request.header(IF_NONE_MATCH, ifNoneMatch);
+        }
+        final var result = mvc.perform(request).andReturn();
+        if (!result.getRequest().isAsyncStarted()) {
+            return result.getResponse();
+        }
+        return mvc.perform(asyncDispatch(result)).andReturn().getResponse();
+    }
+
+    private static MockHttpServletRequest request(final Map<String, String> queryParameter) {
+        final var request = new MockHttpServletRequest("GET", "/");
+        request.setServerPort(8080);
+        request.setParameters(new HashMap<>(queryParameter));
+        return request;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.repository.EmbeddedFilialenRepository;
+import com.acme.filiale.repository.FilialenRepository;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.RepositoryProps;
+import com.acme.filiale.repository.StringPool;
+import com.acme.filiale.service.FilialeWriteService;
+import jakarta.validation.Validation;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@Tag("unit")
+@Tag("rest")
+@Tag("rest_write")
+@DisplayName("PUT mit If-Match im Controller ohne Server testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class FilialeWriteControllerTest {
+    private static final UUID ID_UPDATE = UUID.fromString("00000000-0000-0000-0000-000000000030");
+    private static final UUID ID_NICHT_VORHANDEN = UUID.fromString("ffffffff-ffff-ffff-ffff-ffffffffffff");
+
+    private static final String FILIALE = """
+        {"name": "Neuername", "email": "neu@acme.de"}
+        """;
+
+    private static final String PROBLEM_PRECONDITION = "/problem/precondition";
+
+    private final FilialenRepository repo = new EmbeddedFilialenRepository();
+
+    private MockMvc mvc(final boolean ifMatchRequired) {
+        @SuppressWarnings("resource")
+        final var validator = Validation.buildDefaultValidatorFactory().getValidator();
+        final var service = new FilialeWriteService(
+            repo,
+            new StringPool(),
+            new QueryCache(RepositoryProps.DEFAULT),
+            event -> { },
+            validator
+        );
+        final var props = new RestProps(ifMatchRequired, new RestProps.ResponseCache(DataSize.ofMegabytes(1)));
+        return MockMvcBuilders.standaloneSetup(new FilialeWriteController(service, props)).build();
+    }
+
+    private long version(final UUID id) {
+        return repo.findById(id).orElseThrow().getVersion();
+    }
+
+    private static MockHttpServletResponse update(final MockMvc mvc, final UUID id, final String ifMatch)
+        throws Exception {
+        final var request = put("/" + id).contentType(APPLICATION_JSON).content(FILIALE);
+        if (ifMatch != null) {
+            request.header(IF_MATCH, ifMatch);
+        }
+        return mvc.perform(request).andReturn().getResponse();
+    }
+
+    @Test
+    @DisplayName("Aktuelle Version: 204 mit dem ETag der neuen Version, danach ist sie veraltet: 412")
+    void aktuelleVersion() throws Exception {
+        // given
+        final var mvc = mvc(true);
+        final var etag = '"' + String.valueOf(version(ID_UPDATE)) + '"';
+
+        // when
+        final var response = update(mvc, ID_UPDATE, etag);
+        final var nochmals = update(mvc, ID_UPDATE, etag);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(204);
+        final var neueVersion = version(ID_UPDATE);
+        assertThat(response.getHeader(ETAG)).isEqualTo("\"" + neueVersion + '"');
+        assertThat(neueVersion).isGreaterThan(Long.parseLong(etag.substring(1, etag.length() - 1)));
+        assertThat(nochmals.getStatus()).isEqualTo(412);
+        assertThat(nochmals.getContentAsString()).contains(PROBLEM_PRECONDITION);
+        assertThat(version(ID_UPDATE)).isEqualTo(neueVersion);
+    }
+
+    @Test
+    @DisplayName("Ohne If-Match: 428, falls der Header erforderlich ist, sonst 204")
+    void ohneIfMatch() throws Exception {
+        // given
+        final var version = version(ID_UPDATE);
+
+        // when
+        final var erforderlich = update(mvc(true), ID_UPDATE, null);
+        final var versionErforderlich = version(ID_UPDATE);
+        final var optional = update(mvc(false), ID_UPDATE, null);
+
+        // then
+        assertThat(erforderlich.getStatus()).isEqualTo(428);
+        assertThat(erforderlich.getContentAsString()).contains(PROBLEM_PRECONDITION);
+        assertThat(versionErforderlich).isEqualTo(version);
+        assertThat(optional.getStatus()).isEqualTo(204);
+        assertThat(optional.getHeader(ETAG)).isEqualTo("\"" + version(ID_UPDATE) + '"');
+    }
+
+    @Test
+    @DisplayName("If-Match mit * ueberschreibt ohne Vergleich der Version")
+    void beliebigeVersion() throws Exception {
+        // when
+        final var response = update(mvc(true), ID_UPDATE, " * ");
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(204);
+        assertThat(response.getHeader(ETAG)).isEqualTo("\"" + version(ID_UPDATE) + '"');
+    }
+
+    // VERSION wird durch die aktuelle Version ersetzt, d.h. nur das Format des ETag ist ungueltig
+    @ParameterizedTest(name = "[{index}] Ungueltiger ETag: {0}")
+    @ValueSource(strings = {
+        "W/\"VERSION\"", "VERSION", "\"abc\"", "\"\"", "\"VERSION-ndjson\"", "\"-1\"", "\"VERSION\", \"VERSION\""
+    })
+    @DisplayName("Schwacher, ungueltiger oder mehrfacher ETag: 412 ohne Aenderung")
+    void ungueltigerEtag(final String ifMatch) throws Exception {
+        // given
+        final var version = version(ID_UPDATE);
+
+        // when
+        final var response = update(mvc(false), ID_UPDATE, ifMatch.replace("VERSION", String.valueOf(version)));
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(412);
+        assertThat(response.getContentAsString()).contains(PROBLEM_PRECONDITION);
+        assertThat(version(ID_UPDATE)).isEqualTo(version);
+    }
+
+    @Test
+    @DisplayName("Nicht vorhandene Filiale mit If-Match: 404")
+    void nichtVorhanden() throws Exception {
+        // when
+        final var response = update(mvc(true), ID_NICHT_VORHANDEN, "\"1\"");
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+}
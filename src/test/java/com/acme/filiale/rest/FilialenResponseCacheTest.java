@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.service.FilialeChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.VARY;
+
+@Tag("unit")
+@Tag("rest")
+@DisplayName("Cache mit den serialisierten Filialen testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class FilialenResponseCacheTest {
+    private static final String BASE_URI = "http://localhost:8080";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // Anzahl der serialisierten Models, d.h. der Cache-Misses
+    private final AtomicInteger serialisiert = new AtomicInteger();
+
+    private FilialenResponseCache cache(final long maximaleGroesse, final boolean komprimieren) {
+        final var server = new ServerProperties();
+        server.getCompression().setEnabled(komprimieren);
+        server.getCompression().setMinResponseSize(DataSize.ofBytes(0));
+        final var adapter = new RequestMappingHandlerAdapter();
+        adapter.setMessageConverters(List.of(new MappingJackson2HttpMessageConverter()));
+        final var beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("adapter", adapter);
+        return new FilialenResponseCache(
+            maximaleGroesse,
+            server,
+            beanFactory.getBeanProvider(RequestMappingHandlerAdapter.class),
+            registry
+        );
+    }
+
+    private Supplier<FilialenModel> model(final UUID id, final long version) {
+        return () -> {
+            serialisiert.incrementAndGet();
+            final var filiale = Filiale.builder()
+                .id(id)
+                .version(version)
+                .name("Filiale " + id.getLeastSignificantBits())
+                .email(id.getLeastSignificantBits() + "@acme.de")
+                .build();
+            return new FilialenModel(filiale);
+        };
+    }
+
+    private FilialenResponseCache.Body get(final FilialenResponseCache cache, final UUID id, final long version) {
+        return cache.get(id, version, BASE_URI, model(id, version));
+    }
+
+    @Test
+    @DisplayName("Verdraengung der am laengsten nicht gelesenen Filiale bei der maximalen Groesse")
+    void verdraengung() {
+        // given
+        final var groesse = get(cache(1 << 20, false), new UUID(0, 0), 1).groesse();
+        final var cache = cache(2 * groesse + groesse / 2, false);
+        final var id1 = new UUID(0, 1);
+        final var id2 = new UUID(0, 2);
+        final var id3 = new UUID(0, 3);
+        get(cache, id1, 1);
+        get(cache, id2, 1);
+        get(cache, id1, 1);
+        serialisiert.set(0);
+
+        // when
+        get(cache, id3, 1);
+
+        // then
+        assertThat(registry.get("filiale.rest.cache.evictions").counter().count()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(2 * groesse).isLessThanOrEqualTo(2 * groesse + groesse / 2);
+        get(cache, id1, 1);
+        get(cache, id3, 1);
+        assertThat(serialisiert).hasValue(1);
+        get(cache, id2, 1);
+        assertThat(serialisiert).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Eine Filiale groesser als der Cache wird nicht gespeichert")
+    void zuGross() {
+        // given
+        final var cache = cache(100, false);
+
+        // when
+        final var body = get(cache, new UUID(0, 1), 1);
+
+        // then
+        assertThat(body.groesse()).isGreaterThan(100);
+        assertThat(cache.size()).isZero();
+        assertThat(registry.get("filiale.rest.cache.evictions").counter().count()).isZero();
+    }
+
+    @Test
+    @DisplayName("Eine aeltere Version ersetzt keine neuere Version im Cache")
+    void aeltereVersion() {
+        // given
+        final var cache = cache(1 << 20, false);
+        final var id = new UUID(0, 1);
+        get(cache, id, 2);
+
+        // when
+        final var alt = get(cache, id, 1);
+        final var neu = get(cache, id, 2);
+
+        // then
+        assertThat(alt.version()).isEqualTo(1);
+        assertThat(neu.version()).isEqualTo(2);
+        assertThat(serialisiert).hasValue(2);
+        assertThat(registry.get("filiale.rest.cache.gets").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(neu.groesse());
+    }
+
+    @Test
+    @DisplayName("Eine neuere Version ersetzt den Eintrag")
+    void neuereVersion() {
+        // given
+        final var cache = cache(1 << 20, false);
+        final var id = new UUID(0, 1);
+        get(cache, id, 1);
+
+        // when
+        final var neu = get(cache, id, 2);
+        get(cache, id, 2);
+
+        // then
+        assertThat(serialisiert).hasValue(2);
+        assertThat(cache.size()).isEqualTo(neu.groesse());
+    }
+
+    @Test
+    @DisplayName("Invalidierung durch FilialeChangedEvent")
+    void invalidierung() {
+        // given
+        final var cache = cache(1 << 20, false);
+        final var id = new UUID(0, 1);
+        get(cache, id, 1);
+        get(cache, new UUID(0, 2), 1);
+        final var groesse = cache.size();
+
+        // when
+        cache.invalidate(new FilialeChangedEvent(id));
+        cache.invalidate(new FilialeChangedEvent(new UUID(0, 3)));
+
+        // then
+        assertThat(cache.size()).isEqualTo(groesse / 2);
+        get(cache, id, 1);
+        assertThat(serialisiert).hasValue(3);
+    }
+
+    @ParameterizedTest(name = "[{index}] Accept-Encoding: {0} und {1} -> gzip={2}")
+    @CsvSource(delimiter = '|', nullValues = "null", value = {
+        "gzip | null | true",
+        "gzip, deflate, br | null | true",
+        "GZIP ; q=0.5 | null | true",
+        "br | gzip | true",
+        "identity | null | false",
+        "gzip;q=0 | null | false",
+        "gzip;q=0.0, identity | null | false",
+        "gzip;q=abc | null | false",
+        "x-gzip | null | false",
+        "null | null | false"
+    })
+    @DisplayName("Komprimierte Variante gemaess Accept-Encoding mit Vary")
+    void acceptEncoding(final String header, final String weitererHeader, final boolean gzip) throws IOException {
+        // given
+        final var cache = cache(1 << 20, true);
+        final var body = get(cache, new UUID(0, 1), 1);
+        final var request = new MockHttpServletRequest("GET", "/");
+        if (header != null) {
+            request.addHeader(ACCEPT_ENCODING, header);
+        }
+        if (weitererHeader != null) {
+            request.addHeader(ACCEPT_ENCODING, weitererHeader);
+        }
+        final var response = new MockHttpServletResponse();
+
+        // when
+        cache.write(body, request, response);
+
+        // then
+        assertThat(response.getHeaders(VARY)).containsExactly(ACCEPT_ENCODING);
+        final var bytes = response.getContentAsByteArray();
+        assertThat(response.getContentLength()).isEqualTo(bytes.length);
+        if (gzip) {
+            assertThat(response.getHeader(CONTENT_ENCODING)).isEqualTo("gzip");
+            try (var in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                assertThat(in.readAllBytes()).isEqualTo(body.json());
+            }
+        } else {
+            assertThat(response.getHeader(CONTENT_ENCODING)).isNull();
+            assertThat(bytes).isEqualTo(body.json());
+        }
+    }
+
+    @Test
+    @DisplayName("Ohne Komprimierung weder Vary noch Content-Encoding")
+    void ohneKomprimierung() throws IOException {
+        // given
+        final var cache = cache(1 << 20, false);
+        final var body = get(cache, new UUID(0, 1), 1);
+        final var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(ACCEPT_ENCODING, "gzip");
+        final var response = new MockHttpServletResponse();
+
+        // when
+        cache.write(body, request, response);
+
+        // then
+        assertThat(body.gzip()).isNull();
+        assertThat(response.getHeader(VARY)).isNull();
+        assertThat(response.getHeader(CONTENT_ENCODING)).isNull();
+        assertThat(response.getContentType()).isEqualTo("application/json");
+        assertThat(response.getContentAsByteArray()).isEqualTo(body.json());
+    }
+}
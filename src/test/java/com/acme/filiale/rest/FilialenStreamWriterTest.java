@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import com.acme.filiale.entity.Adresse;
+import com.acme.filiale.entity.Filiale;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("rest")
+@DisplayName("Filialen als JSON-Array und NDJSON streamen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class FilialenStreamWriterTest {
+    private final FilialenStreamWriter writer = new FilialenStreamWriter(new ObjectMapper());
+
+    private final AtomicBoolean geschlossen = new AtomicBoolean();
+
+    private static Filiale filiale(final int i) {
+        return Filiale.builder()
+            .id(new UUID(0, i))
+            .version(i)
+            .name("Filiale " + i)
+            .email(i + "@acme.de")
+            .adresse(Adresse.builder().plz("1234" + i % 10).ort("Ort \"" + i + '"').build())
+            .build();
+    }
+
+    // die Filialen werden erst beim Schreiben erzeugt
+    private Stream<Filiale> filialen(final int anzahl) {
+        return IntStream.range(0, anzahl).mapToObj(FilialenStreamWriterTest::filiale)
+            .onClose(() -> geschlossen.set(true));
+    }
+
+    @Test
+    @DisplayName("JSON-Array mit den Filialen in der Reihenfolge des Streams")
+    void jsonArray() throws IOException {
+        // given
+        final var out = new ByteArrayOutputStream();
+
+        // when
+        writer.jsonArray(filialen(3)).writeTo(out);
+
+        // then
+        final var mapper = new ObjectMapper();
+        final var erwartet = "[" + mapper.writeValueAsString(filiale(0)) + ',' + mapper.writeValueAsString(filiale(1)) +
+            ',' + mapper.writeValueAsString(filiale(2)) + ']';
+        assertThat(out.toString(UTF_8)).isEqualTo(erwartet);
+        assertThat(geschlossen).isTrue();
+    }
+
+    @Test
+    @DisplayName("NDJSON mit einer Filiale pro Zeile")
+    void ndjson() throws IOException {
+        // given
+        final var out = new ByteArrayOutputStream();
+
+        // when
+        writer.ndjson(filialen(3)).writeTo(out);
+
+        // then
+        final var mapper = new ObjectMapper();
+        final var erwartet = mapper.writeValueAsString(filiale(0)) + '\n' + mapper.writeValueAsString(filiale(1)) +
+            '\n' + mapper.writeValueAsString(filiale(2)) + '\n';
+        assertThat(out.toString(UTF_8)).isEqualTo(erwartet);
+        assertThat(geschlossen).isTrue();
+    }
+
+    @Test
+    @DisplayName("Ohne Filialen ein leeres JSON-Array bzw. kein Byte bei NDJSON")
+    void leer() throws IOException {
+        // given
+        final var array = new ByteArrayOutputStream();
+        final var ndjson = new ByteArrayOutputStream();
+
+        // when
+        writer.jsonArray(Stream.empty()).writeTo(array);
+        writer.ndjson(filialen(0)).writeTo(ndjson);
+
+        // then
+        assertThat(array.toString(UTF_8)).isEqualTo("[]");
+        assertThat(ndjson.size()).isZero();
+        assertThat(geschlossen).isTrue();
+    }
+
+    @Test
+    @DisplayName("Die ersten Bytes werden geschrieben, bevor die letzte Filiale gelesen ist")
+    void lazy() throws IOException {
+        // given
+        final var anzahl = 10_000;
+        final var out = new ByteArrayOutputStream();
+        final var geschriebenVorLetzter = new AtomicInteger(-1);
+        final var filialen = IntStream.range(0, anzahl).mapToObj(i -> {
+            if (i == anzahl - 1) {
+                geschriebenVorLetzter.set(out.size());
+            }
+            return filiale(i);
+        });
+
+        // when
+        writer.ndjson(filialen).writeTo(out);
+
+        // then
+        assertThat(geschriebenVorLetzter.get()).isPositive().isLessThan(out.size());
+        assertThat(out.toString(UTF_8).lines()).hasSize(anzahl);
+    }
+}
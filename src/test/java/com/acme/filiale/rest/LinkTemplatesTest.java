@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.acme.filiale.rest;
+
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.mock.web.MockHttpServletRequest;
+import static com.acme.filiale.rest.LinkTemplates.ADD;
+import static com.acme.filiale.rest.LinkTemplates.LIST;
+import static com.acme.filiale.rest.LinkTemplates.REMOVE;
+import static com.acme.filiale.rest.LinkTemplates.UPDATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_METHOD;
+import static org.junit.jupiter.api.condition.JRE.JAVA_18;
+import static org.junit.jupiter.api.condition.JRE.JAVA_19;
+
+@Tag("unit")
+@Tag("rest")
+@DisplayName("Vorlagen fuer die HATEOAS-Links testen")
+@EnabledForJreRange(min = JAVA_18, max = JAVA_19)
+@TestInstance(PER_METHOD)
+@SuppressWarnings({"WriteTag", "MagicNumber"})
+class LinkTemplatesTest {
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private final LinkTemplates linkTemplates = new LinkTemplates();
+
+    @Test
+    @DisplayName("Direkter Aufruf ohne Standard-Port und mit Context-Path")
+    void direkt() {
+        // given
+        final var request = request("http", 8080, "/" + ID);
+        final var https = request("https", 443, "/filialen/" + ID);
+        https.setContextPath("/filialen");
+
+        // when
+        final var baseUri = linkTemplates.vorlage(request).baseUri();
+        final var httpsBaseUri = linkTemplates.vorlage(https).baseUri();
+
+        // then
+        assertThat(baseUri).isEqualTo("http://localhost:8080");
+        assertThat(httpsBaseUri).isEqualTo("https://localhost/filialen");
+    }
+
+    @Test
+    @DisplayName("Forwarding durch Ingress Controller bzw. Spring Cloud Gateway")
+    void forwarded() {
+        // given
+        final var request = request("http", 8080, "/" + ID);
+        request.addHeader("x-forwarded-proto", "https");
+        request.addHeader("x-forwarded-host", "kubernetes.docker.internal");
+        request.addHeader("x-forwarded-prefix", "/filialen");
+        final var ohneProto = request("http", 8080, "/");
+        ohneProto.addHeader("x-forwarded-host", "kubernetes.docker.internal");
+
+        // when
+        final var baseUri = linkTemplates.vorlage(request).baseUri();
+
+        // then
+        assertThat(baseUri).isEqualTo("https://kubernetes.docker.internal/filialen");
+        assertThatIllegalStateException().isThrownBy(() -> linkTemplates.vorlage(ohneProto));
+    }
+
+    @Test
+    @DisplayName("Forwarding durch Envoy: Originalpfad ohne ID, Query-Parameter und abschliessendes /")
+    void envoy() {
+        // given
+        final var mitId = envoy("/filialen/api/" + ID, "/" + ID);
+        final var suche = envoy("/filialen/api/?name=Alpha", "/");
+
+        // when
+        final var vorlageMitId = linkTemplates.vorlage(mitId);
+        final var vorlageSuche = linkTemplates.vorlage(suche);
+
+        // then
+        assertThat(vorlageMitId.baseUri()).isEqualTo("http://localhost/filialen/api");
+        assertThat(vorlageSuche).isSameAs(vorlageMitId);
+    }
+
+    @Test
+    @DisplayName("Dieselbe Vorlage pro Kontext und die Links zu einer Filiale")
+    void links() {
+        // given
+        final var request = request("http", 8080, "/" + ID);
+        final var forwarded = request("http", 8080, "/" + ID);
+        forwarded.addHeader("x-forwarded-proto", "https");
+        forwarded.addHeader("x-forwarded-host", "acme.com");
+        final var model = new RepresentationModel<>();
+
+        // when
+        final var vorlage = linkTemplates.vorlage(request);
+        final var andere = linkTemplates.vorlage(forwarded);
+        final var nochmal = linkTemplates.vorlage(request("http", 8080, "/"));
+        vorlage.addLinks(model, ID);
+
+        // then
+        assertThat(andere).isNotSameAs(vorlage);
+        assertThat(nochmal).isSameAs(vorlage);
+        final var idUri = "http://localhost:8080/" + ID;
+        assertThat(model.getLinks()).containsExactly(
+            Link.of(idUri, IanaLinkRelations.SELF),
+            Link.of("http://localhost:8080", LIST),
+            Link.of("http://localhost:8080", ADD),
+            Link.of(idUri, UPDATE),
+            Link.of(idUri, REMOVE)
+        );
+    }
+
+    private static MockHttpServletRequest request(final String scheme, final int port, final String requestUri) {
+        final var request = new MockHttpServletRequest("GET", requestUri);
+        request.setScheme(scheme);
+        request.setServerPort(port);
+        return request;
+    }
+
+    private static MockHttpServletRequest envoy(final String originalPath, final String requestUri) {
+        final var request = request("http", 8080, requestUri);
+        request.addHeader("Host", "localhost");
+        request.addHeader("x-forwarded-proto", "http");
+        request.addHeader("x-envoy-original-path", originalPath);
+        return request;
+    }
+}
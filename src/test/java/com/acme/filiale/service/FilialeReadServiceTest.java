@@ -17,7 +17,10 @@
 package com.acme.filiale.service;
 
 import com.acme.filiale.entity.Filiale;
+import com.acme.filiale.repository.EmbeddedFilialenRepository;
 import com.acme.filiale.repository.FilialenRepository;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.RepositoryProps;
 import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
@@ -52,8 +55,11 @@ class FilialeReadServiceTest {
     private static final String ID_NICHT_VORHANDEN = "ffffffff-ffff-ffff-ffff-ffffffffffff";
     private static final String Name = "Alpha";
 
-    private final FilialenRepository repo = new FilialenRepository();
-    private final FilialeReadService service = new FilialeReadService(repo);
+    private final FilialenRepository repo = new EmbeddedFilialenRepository();
+    private final FilialeReadService service = new FilialeReadService(
+        repo,
+        new QueryCache(RepositoryProps.DEFAULT)
+    );
 
     @InjectSoftAssertions
     private SoftAssertions softly;
@@ -19,7 +19,11 @@ package com.acme.filiale.service;
 import com.acme.filiale.entity.Adresse;
 import com.acme.filiale.entity.Filiale;
 import com.acme.filiale.entity.Umsatz;
+import com.acme.filiale.repository.EmbeddedFilialenRepository;
 import com.acme.filiale.repository.FilialenRepository;
+import com.acme.filiale.repository.QueryCache;
+import com.acme.filiale.repository.RepositoryProps;
+import com.acme.filiale.repository.StringPool;
 import jakarta.validation.Validation;
 import jakarta.validation.Validator;
 import org.assertj.core.api.SoftAssertions;
@@ -68,13 +72,19 @@ class FilialeWriteServiceTest {
     private static final String ID_UPDATE = "00000000-0000-0000-0000-000000000030";
     private static final String ID_DELETE = "00000000-0000-0000-0000-000000000050";
 
-    private final FilialenRepository repo = new FilialenRepository();
+    private final FilialenRepository repo = new EmbeddedFilialenRepository();
 
     // https://hibernate.org/validator/documentation/getting-started
     @SuppressWarnings("resource")
     private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
 
-    private final FilialeWriteService service = new FilialeWriteService(repo, validator);
+    private final FilialeWriteService service = new FilialeWriteService(
+        repo,
+        new StringPool(),
+        new QueryCache(RepositoryProps.DEFAULT),
+        event -> { },
+        validator
+    );
 
     @InjectSoftAssertions
     private SoftAssertions softly;
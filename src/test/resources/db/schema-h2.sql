@@ -0,0 +1,38 @@
+-- Copyright (C) 2022 - present Juergen Zimmermann, Hochschule Karlsruhe
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with this program.  If not, see <https://www.gnu.org/licenses/>.
+
+-- wie db/schema-postgresql.sql, aber ohne die Indexe von PostgreSQL fuer LIKE
+
+CREATE TABLE IF NOT EXISTS filiale (
+    id                 UUID PRIMARY KEY,
+    name               VARCHAR(255) NOT NULL,
+    email              VARCHAR(255) NOT NULL,
+    email_normalisiert VARCHAR(255) NOT NULL UNIQUE,
+    homepage           VARCHAR(2048),
+    umsatz_betrag      NUMERIC,
+    umsatz_waehrung    CHAR(3),
+    plz                VARCHAR(32),
+    ort                VARCHAR(255),
+    version            BIGINT NOT NULL DEFAULT 0
+);
+
+CREATE INDEX IF NOT EXISTS filiale_name_idx ON filiale (name);
+CREATE INDEX IF NOT EXISTS filiale_plz_idx ON filiale (plz);
+
+CREATE TABLE IF NOT EXISTS filiale_version (
+    id      SMALLINT PRIMARY KEY CHECK (id = 1),
+    version BIGINT NOT NULL
+);
+INSERT INTO filiale_version (id, version) SELECT 1, COALESCE(MAX(version), 0) FROM filiale ON CONFLICT DO NOTHING;